@@ -0,0 +1,59 @@
+#!/usr/bin/env bash
+# 실행 중인 서버의 방송을 끊지 않고 새 서버로 바꾼다. 두 서버 모두 internal.rtmp.handover.enabled=true 여야 한다.
+# 새 서버가 RTMP, HTTP 포트를 SO_REUSEPORT 로 함께 열면 이전 서버에 SIGTERM 을 보내고, 방송을 넘기고 끝날 때까지 기다린다.
+# 컨테이너로 띄울 때는 두 서버가 같은 포트를 열 수 있도록 --network host 로 띄우고, 포트 포워딩(-p)은 쓰지 않는다.
+# usage: PORTS="1935 8080" handover-restart.sh <old-pid> <command...>
+set -u
+
+OLD_PID=$1
+shift
+PORTS=${PORTS:-1935 8080}
+TIMEOUT_SECONDS=${TIMEOUT_SECONDS:-120}
+
+# SO_REUSEPORT 로 연 listen 소켓은 프로세스마다 따로 보인다
+listeners() {
+  ss -ltnH "sport = :$1" 2>/dev/null | wc -l
+}
+
+declare -A before
+for port in $PORTS; do
+  before[$port]=$(listeners "$port")
+done
+
+all_listening() {
+  for port in $PORTS; do
+    [ "$(listeners "$port")" -gt "${before[$port]}" ] || return 1
+  done
+}
+
+# docker run -d 처럼 바로 끝나는 명령도 쓸 수 있도록 실패로 끝났을 때만 멈춘다
+"$@" > handover.log 2>&1 &
+new_pid=$!
+
+launched=
+deadline=$(( $(date +%s) + TIMEOUT_SECONDS ))
+until all_listening; do
+  if [ -z "$launched" ] && ! kill -0 $new_pid 2>/dev/null; then
+    if ! wait $new_pid; then
+      echo "new server exited before listening on ports $PORTS" >&2
+      cat handover.log >&2
+      exit 1
+    fi
+    launched=1
+  fi
+  if [ "$(date +%s)" -gt "$deadline" ]; then
+    echo "new server is not listening on ports $PORTS within ${TIMEOUT_SECONDS}s" >&2
+    kill $new_pid 2>/dev/null
+    cat handover.log >&2
+    exit 1
+  fi
+  sleep 0.1
+done
+echo "new server is listening on ports $PORTS"
+
+start=$(date +%s%N)
+kill -TERM "$OLD_PID"
+while kill -0 "$OLD_PID" 2>/dev/null; do
+  sleep 0.1
+done
+echo "old server $OLD_PID drained in $(( ($(date +%s%N) - start) / 1000000 )) ms"
@@ -0,0 +1,30 @@
+#!/usr/bin/env bash
+# 서버를 띄우고 RTMP 포트가 처음 연결을 받을 때까지 걸린 시간(ms)을 출력한다.
+# usage: time-to-first-accept.sh <port> <command...>
+set -u
+
+PORT=$1
+shift
+TIMEOUT_SECONDS=${TIMEOUT_SECONDS:-60}
+
+start=$(date +%s%N)
+"$@" > startup.log 2>&1 &
+pid=$!
+trap 'kill $pid 2>/dev/null; wait $pid 2>/dev/null' EXIT
+
+deadline=$((start + TIMEOUT_SECONDS * 1000000000))
+until (exec 3<>"/dev/tcp/127.0.0.1/$PORT") 2>/dev/null; do
+  if ! kill -0 $pid 2>/dev/null; then
+    echo "server exited before accepting on port $PORT" >&2
+    cat startup.log >&2
+    exit 1
+  fi
+  if [ "$(date +%s%N)" -gt "$deadline" ]; then
+    echo "no accept on port $PORT within ${TIMEOUT_SECONDS}s" >&2
+    cat startup.log >&2
+    exit 1
+  fi
+  sleep 0.01
+done
+
+echo $(( ($(date +%s%N) - start) / 1000000 ))
@@ -4,13 +4,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.hanghae.lemonairstreaming.rmtp.model.egress.DeliveryTracker;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
 import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ReplayingDecoder;
 import lombok.extern.slf4j.Slf4j;
@@ -44,22 +44,25 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 			case PROCESS_HEADER -> {
 				int messageLength = currentHeader.getMessageLength();
 
-				if (currentHeader.getFmt() != RtmpConstants.RTMP_CHUNK_TYPE_3) {
-					ByteBuf buf = Unpooled.buffer(messageLength, messageLength);
-					payloadParts.put(currentHeader.getCid(), buf);
+				// type 3 청크는 이전 메시지가 끝난 경우에만 새 메시지를 시작한다
+				if (currentHeader.getFmt() != RtmpConstants.RTMP_CHUNK_TYPE_3
+					|| !payloadParts.containsKey(currentHeader.getCid())) {
+					ByteBuf buf = channelHandlerContext.alloc().buffer(messageLength, messageLength);
+					// 끝나지 않은 메시지 위에 새 메시지가 시작되면 이전 조각은 버린다
+					ByteBuf replaced = payloadParts.put(currentHeader.getCid(), buf);
+					if (replaced != null) {
+						replaced.release();
+					}
 					completeHeaders.put(currentHeader.getCid(), currentHeader);
 				}
 
-				payloadParts.putIfAbsent(currentHeader.getCid(), Unpooled.buffer(messageLength, messageLength));
-
 				currentPayload = payloadParts.get(currentHeader.getCid());
 
 				checkpoint(DecodeState.PROCESS_PAYLOAD);
 			}
 			case PROCESS_PAYLOAD -> {
-				byte[] bytes = new byte[Math.min(clientChunkSize, currentPayload.writableBytes())];
-				byteBuf.readBytes(bytes);
-				currentPayload.writeBytes(bytes);
+				// ReplayingDecoder 는 readBytes(ByteBuf) 를 지원하지 않으므로 slice 로 중간 배열 없이 옮긴다
+				currentPayload.writeBytes(byteBuf.readSlice(Math.min(clientChunkSize, currentPayload.writableBytes())));
 				checkpoint(DecodeState.READ_HEADER);
 
 				if (currentPayload.isWritable()) {
@@ -77,7 +80,8 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 					case RtmpConstants.RTMP_MSG_CONTROL_TYPE_SET_CHUNK_SIZE -> handleChunkSize(currentPayload);
 					case RtmpConstants.RTMP_MSG_CONTROL_TYPE_WINDOW_ACKNOWLEDGEMENT_SIZE ->
 						handleWindowAckSize(currentPayload);
-					case RtmpConstants.RTMP_MSG_CONTROL_TYPE_ACKNOWLEDGEMENT -> handleAck(currentPayload);
+					case RtmpConstants.RTMP_MSG_CONTROL_TYPE_ACKNOWLEDGEMENT ->
+						handleAck(channelHandlerContext, currentPayload);
 					case RtmpConstants.RTMP_MSG_CONTROL_TYPE_ABORT -> handleAbort(currentPayload);
 					default -> out.add(message);
 				}
@@ -96,7 +100,7 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 		int cid = firstByte & 0x3f;
 
 		if (cid == 0) {
-			cid = buf.readByte() & 0xff + 64;
+			cid = (buf.readByte() & 0xff) + 64;
 			headerLength++;
 		} else if (cid == 1) {
 			byte secondByte = buf.readByte();
@@ -110,31 +114,31 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 
 		switch (fmt) {
 			case RtmpConstants.RTMP_CHUNK_TYPE_0 -> {
-				int timestamp = buf.readMedium();
-				int messageLength = buf.readMedium();
+				int timestamp = buf.readUnsignedMedium();
+				int messageLength = buf.readUnsignedMedium();
 				short type = (short)(buf.readByte() & 0xff);
 				int messageStreamId = buf.readIntLE();
 				headerLength += 11;
 				if (timestamp == RtmpConstants.RTMP_MAX_TIMESTAMP) {
-					long extendedTimestamp = buf.readInt();
-					header.setExtendedTimestamp(extendedTimestamp);
+					timestamp = readExtendedTimestamp(buf, header);
 					headerLength += 4;
 				}
 
 				header.setTimestamp(timestamp);
+				// type 0 뒤의 type 3 청크는 type 0 의 timestamp 를 delta 로 쓴다
+				header.setTimestampDelta(timestamp);
 				header.setMessageLength(messageLength);
 				header.setType(type);
 				header.setStreamId(messageStreamId);
 			}
 			case RtmpConstants.RTMP_CHUNK_TYPE_1 -> {
-				int timestampDelta = buf.readMedium();
-				int messageLength = buf.readMedium();
+				int timestampDelta = buf.readUnsignedMedium();
+				int messageLength = buf.readUnsignedMedium();
 				short type = (short)(buf.readByte() & 0xff);
 
 				headerLength += 7;
 				if (timestampDelta == RtmpConstants.RTMP_MAX_TIMESTAMP) {
-					long extendedTimestamp = buf.readInt();
-					header.setExtendedTimestamp(extendedTimestamp);
+					timestampDelta = readExtendedTimestamp(buf, header);
 					headerLength += 4;
 				}
 
@@ -143,17 +147,24 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 				header.setType(type);
 			}
 			case RtmpConstants.RTMP_CHUNK_TYPE_2 -> {
-				int timestampDelta = buf.readMedium();
+				int timestampDelta = buf.readUnsignedMedium();
 				headerLength += 3;
 				if (timestampDelta == RtmpConstants.RTMP_MAX_TIMESTAMP) {
-					long extendedTimestamp = buf.readInt();
-					header.setExtendedTimestamp(extendedTimestamp);
+					timestampDelta = readExtendedTimestamp(buf, header);
 					headerLength += 4;
 				}
 				header.setTimestampDelta(timestampDelta);
 
 			}
 			case RtmpConstants.RTMP_CHUNK_TYPE_3 -> {
+				// 이전 헤더가 extended timestamp 를 썼다면 type 3 청크에도 같은 4 바이트가 붙는다.
+				// 붙이지 않는 인코더도 있어서 값이 같을 때만 소비한다.
+				RtmpHeader previous = completeHeaders.get(cid);
+				if (previous != null && previous.getExtendedTimestamp() != 0
+					&& buf.getInt(buf.readerIndex()) == (int)previous.getExtendedTimestamp()) {
+					buf.skipBytes(4);
+					headerLength += 4;
+				}
 			}
 			default -> {
 				log.error("not caught in format type switch :" + fmt);
@@ -165,6 +176,13 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 		return header;
 	}
 
+	private int readExtendedTimestamp(ByteBuf buf, RtmpHeader header) {
+		int extendedTimestamp = buf.readInt();
+		header.setExtendedTimestamp(extendedTimestamp & 0xffffffffL);
+		return extendedTimestamp;
+	}
+
+	// 생략된 헤더 필드를 같은 chunk stream 의 이전 헤더로 채우고 timestamp 를 절대값으로 누적한다
 	private void restoreHeader(RtmpHeader header) {
 		int cid = header.getCid();
 		RtmpHeader completeHeader = completeHeaders.get(cid);
@@ -174,20 +192,25 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 		switch (header.getFmt()) {
 			case RtmpConstants.RTMP_CHUNK_TYPE_3 -> {
 				header.setStreamId(completeHeader.getStreamId());
-				header.setTimestamp(completeHeader.getTimestamp());
+				header.setExtendedTimestamp(completeHeader.getExtendedTimestamp());
 				header.setTimestampDelta(completeHeader.getTimestampDelta());
 				header.setMessageLength(completeHeader.getMessageLength());
 				header.setType(completeHeader.getType());
+				if (payloadParts.containsKey(cid)) {
+					header.setTimestamp(completeHeader.getTimestamp());
+				} else {
+					header.setTimestamp(completeHeader.getTimestamp() + completeHeader.getTimestampDelta());
+				}
 			}
 			case RtmpConstants.RTMP_CHUNK_TYPE_2 -> {
 				header.setStreamId(completeHeader.getStreamId());
-				header.setTimestamp(completeHeader.getTimestamp());
+				header.setTimestamp(completeHeader.getTimestamp() + header.getTimestampDelta());
 				header.setMessageLength(completeHeader.getMessageLength());
 				header.setType(completeHeader.getType());
 			}
 			case RtmpConstants.RTMP_CHUNK_TYPE_1 -> {
 				header.setStreamId(completeHeader.getStreamId());
-				header.setTimestamp(completeHeader.getTimestamp());
+				header.setTimestamp(completeHeader.getTimestamp() + header.getTimestampDelta());
 			}
 		}
 	}
@@ -217,14 +240,32 @@ public class ChunkDecoder extends ReplayingDecoder<ChunkDecoder.DecodeState> {
 		payload.release();
 	}
 
-	private void handleAck(ByteBuf payload) {
+	// 상대가 지금까지 받은 바이트 수. 시청자가 실제로 얼마나 빨리 받아 가는지 추정하는 데 쓴다.
+	private void handleAck(ChannelHandlerContext ctx, ByteBuf payload) {
+		DeliveryTracker tracker = DeliveryTracker.of(ctx.channel());
+		if (tracker != null && payload.readableBytes() >= 4) {
+			tracker.onAcknowledgement(payload.readInt());
+		}
 		payload.release();
 	}
 
 	private void handleAbort(ByteBuf payload) {
+		ByteBuf aborted = payloadParts.remove(payload.readInt());
+		if (aborted != null) {
+			aborted.release();
+		}
 		payload.release();
 	}
 
+	// 연결이 끊기면 아직 조립 중인 메시지 버퍼를 돌려준다
+	@Override
+	protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+		payloadParts.values().forEach(ByteBuf::release);
+		payloadParts.clear();
+		currentPayload = null;
+		super.handlerRemoved0(ctx);
+	}
+
 	public enum DecodeState {
 		READ_HEADER, PROCESS_HEADER, PROCESS_PAYLOAD
 	}
@@ -1,126 +1,126 @@
 package com.hanghae.lemonairstreaming.Handler;
 
+import java.util.Arrays;
+
+import com.hanghae.lemonairstreaming.rmtp.model.egress.DeliveryTracker;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpJoinBundle;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.ChunkWriter;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
 import io.netty.handler.codec.MessageToByteEncoder;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class ChunkEncoder extends MessageToByteEncoder<RtmpMessage> {
 
-	private final long start = System.currentTimeMillis();
 	private int chunkSize = RtmpConstants.RTMP_DEFAULT_CHUNK_SIZE;
 
-	private boolean videoFirstMessage = true;
-	private boolean audioFirstMessage = true;
+	// chunk stream id 별로 마지막으로 보낸 메시지. type 1 헤더의 timestamp delta 계산에 쓴다.
+	private ChunkStreamState[] chunkStreams = new ChunkStreamState[8];
+	// 쓴 바이트를 세어 상대의 acknowledgement 와 맞춰 본다. ChunkDecoder 가 채널 attribute 로 찾는다.
+	private final DeliveryTracker deliveryTracker = new DeliveryTracker();
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		ctx.channel().attr(DeliveryTracker.KEY).set(deliveryTracker);
+		super.handlerAdded(ctx);
+	}
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+		if (msg instanceof RtmpJoinBundle bundle) {
+			writeJoinBundle(ctx, bundle, promise);
+			return;
+		}
+		super.write(ctx, msg, promise);
+	}
+
+	@Override
+	protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, RtmpMessage msg, boolean preferDirect) {
+		int size = ChunkWriter.encodedSize(msg.payload().readableBytes(), chunkSize);
+		return preferDirect ? ctx.alloc().ioBuffer(size) : ctx.alloc().heapBuffer(size);
+	}
 
 	@Override
 	protected void encode(ChannelHandlerContext channelHandlerContext, RtmpMessage message, ByteBuf byteBuf) {
 		switch (message.header().getType()) {
 			case RtmpConstants.RTMP_MSG_CONTROL_TYPE_SET_CHUNK_SIZE -> handleSetChunkSize(message, byteBuf);
-			case RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO -> handleAudioMessage(message, byteBuf);
-			case RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO -> handleVideoMessage(message, byteBuf);
+			case RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO, RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO,
+				RtmpConstants.RTMP_MSG_AGGREGATE -> handleMediaMessage(message, byteBuf);
+			case RtmpConstants.RTMP_MSG_CONTROL_TYPE_WINDOW_ACKNOWLEDGEMENT_SIZE ->
+				handleWindowAckSize(message, byteBuf);
 			default -> handleDefault(message, byteBuf);
 		}
+		deliveryTracker.onWrite(byteBuf.readableBytes());
 	}
 
-	private void handleDefault(RtmpMessage message, ByteBuf buf) {
-		encodeFmt0(message, buf);
-		encodeFmt3(message, buf);
+	private void writeJoinBundle(ChannelHandlerContext ctx, RtmpJoinBundle bundle, ChannelPromise promise) {
+		if (bundle.chunkSize() != chunkSize) {
+			bundle.content().release();
+			promise.setFailure(new IllegalStateException(
+				"Join bundle chunk size " + bundle.chunkSize() + " does not match " + chunkSize));
+			return;
+		}
+		// bundle 안의 메시지는 모두 type 0 헤더이므로 이후 메시지도 type 0 부터 다시 시작한다
+		Arrays.fill(chunkStreams, null);
+		deliveryTracker.onWrite(bundle.content().readableBytes());
+		ctx.write(bundle.content(), promise);
 	}
 
-	private void handleAudioMessage(RtmpMessage message, ByteBuf buf) {
-		if (audioFirstMessage) {
-			log.info("Audio config is sent");
-			handleDefault(message, buf);
-			audioFirstMessage = false;
-		} else {
-			encodeFmt1(message, buf);
-			encodeFmt3(message, buf);
-		}
+	private void handleDefault(RtmpMessage message, ByteBuf buf) {
+		RtmpHeader header = message.header();
+		ChunkWriter.writeFmt0(buf, header, header.getTimestamp(), message.payload(), chunkSize);
+		chunkStream(header.getCid()).update(header);
 	}
 
-	private void handleVideoMessage(RtmpMessage message, ByteBuf buf) {
-		if (videoFirstMessage) {
-			log.info("Video config is sent");
-			handleDefault(message, buf);
-			videoFirstMessage = false;
+	private void handleMediaMessage(RtmpMessage message, ByteBuf buf) {
+		RtmpHeader header = message.header();
+		ChunkStreamState state = chunkStream(header.getCid());
+		int delta = header.getTimestamp() - state.timestamp;
+		if (state.started && state.streamId == header.getStreamId() && delta >= 0) {
+			ChunkWriter.writeFmt1(buf, header, delta, message.payload(), chunkSize);
 		} else {
-			encodeFmt1(message, buf);
-			encodeFmt3(message, buf);
+			ChunkWriter.writeFmt0(buf, header, header.getTimestamp(), message.payload(), chunkSize);
 		}
+		state.update(header);
 	}
 
 	private void handleSetChunkSize(RtmpMessage message, ByteBuf buf) {
-		chunkSize = message.payload().copy().readInt();
 		handleDefault(message, buf);
+		chunkSize = message.payload().getInt(message.payload().readerIndex());
 	}
 
-	private void encodeFmt0(RtmpMessage message, ByteBuf buf) {
-
-		boolean extendedTimestamp = false;
-
-		int cid = message.header().getCid();
-		byte[] basicHeader = encodeFmtAndChunkId(RtmpConstants.RTMP_CHUNK_TYPE_0, cid);
-		buf.writeBytes(basicHeader);
-
-		long timestamp = System.currentTimeMillis() - start;
+	private void handleWindowAckSize(RtmpMessage message, ByteBuf buf) {
+		handleDefault(message, buf);
+		deliveryTracker.setAckWindow(message.payload().getInt(message.payload().readerIndex()));
+	}
 
-		if (timestamp >= RtmpConstants.RTMP_MAX_TIMESTAMP) {
-			extendedTimestamp = true;
-			buf.writeMedium(RtmpConstants.RTMP_MAX_TIMESTAMP);
-		} else {
-			buf.writeMedium((int)timestamp);
+	private ChunkStreamState chunkStream(int cid) {
+		if (cid >= chunkStreams.length) {
+			chunkStreams = Arrays.copyOf(chunkStreams, Math.max(cid + 1, chunkStreams.length * 2));
 		}
-
-		buf.writeMedium(message.header().getMessageLength());
-		buf.writeByte(message.header().getType());
-		buf.writeIntLE(message.header().getStreamId());
-
-		if (extendedTimestamp) {
-			buf.writeInt((int)timestamp);
+		ChunkStreamState state = chunkStreams[cid];
+		if (state == null) {
+			state = new ChunkStreamState();
+			chunkStreams[cid] = state;
 		}
-
-		int min = Math.min(chunkSize, message.payload().readableBytes());
-		buf.writeBytes(message.payload(), min);
+		return state;
 	}
 
-	private void encodeFmt1(RtmpMessage message, ByteBuf buf) {
-
-		int cid = message.header().getCid();
-		byte[] basicHeader = encodeFmtAndChunkId(RtmpConstants.RTMP_CHUNK_TYPE_1, cid);
-		buf.writeBytes(basicHeader);
-
-		buf.writeMedium(message.header().getTimestampDelta());
-		buf.writeMedium(message.header().getMessageLength());
-		buf.writeByte(message.header().getType());
+	private static class ChunkStreamState {
+		boolean started;
+		int timestamp;
+		int streamId;
 
-		int min = Math.min(chunkSize, message.payload().readableBytes());
-		buf.writeBytes(message.payload(), min);
-	}
-
-	private void encodeFmt3(RtmpMessage message, ByteBuf buf) {
-
-		int cid = message.header().getCid();
-		byte[] basicHeader = encodeFmtAndChunkId(RtmpConstants.RTMP_CHUNK_TYPE_3, cid);
-		while (message.payload().isReadable()) {
-			buf.writeBytes(basicHeader);
-
-			int min = Math.min(chunkSize, message.payload().readableBytes());
-			buf.writeBytes(message.payload(), min);
-		}
-	}
-
-	private byte[] encodeFmtAndChunkId(int fmt, int cid) {
-		if (cid >= 64 + 255) {
-			return new byte[] {(byte)((fmt << 6) | 1), (byte)((cid - 64) & 0xff), (byte)(((cid - 64) >> 8) & 0xff)};
-		} else if (cid >= 64) {
-			return new byte[] {(byte)((fmt << 6)), (byte)((cid - 64) & 0xff)};
-		} else {
-			return new byte[] {(byte)((fmt << 6) | cid)};
+		void update(RtmpHeader header) {
+			started = true;
+			timestamp = header.getTimestamp();
+			streamId = header.getStreamId();
 		}
 	}
-}
\ No newline at end of file
+}
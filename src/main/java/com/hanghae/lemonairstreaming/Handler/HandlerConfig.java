@@ -1,13 +1,31 @@
 package com.hanghae.lemonairstreaming.Handler;
 
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Scope;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.hanghae.lemonairstreaming.rmtp.RtmpServer;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StaticStreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.handover.RtmpHandover;
+import com.hanghae.lemonairstreaming.rmtp.loop.EventLoopIsolation;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
 import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
-
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.feed.FlvFeedServer;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
+import com.hanghae.lemonairstreaming.rmtp.model.journal.StreamJournalDrainer;
+import com.hanghae.lemonairstreaming.rmtp.model.source.FlvFileSourceManager;
+import com.hanghae.lemonairstreaming.rmtp.tls.RtmpsContext;
+import com.hanghae.lemonairstreaming.rmtp.warmup.PipelineWarmUp;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import lombok.NoArgsConstructor;
 
 @Configuration
@@ -24,6 +42,75 @@ public class HandlerConfig {
 		return new StreamContext();
 	}
 
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public StreamJournalDrainer streamJournalDrainer() {
+		return new StreamJournalDrainer(streamContext());
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public FlvFileSourceManager flvFileSourceManager() {
+		return new FlvFileSourceManager(streamContext(), playerWaitingRoom());
+	}
+
+	@Bean
+	public EgressSchedulers egressSchedulers() {
+		return new EgressSchedulers();
+	}
+
+	@Bean(initMethod = "start")
+	public StaticStreamDirectory streamDirectory() {
+		return new StaticStreamDirectory();
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public EventLoopIsolation eventLoopIsolation() {
+		return new EventLoopIsolation();
+	}
+
+	@Bean(initMethod = "start")
+	public IngestPolicy ingestPolicy() {
+		return new IngestPolicy();
+	}
+
+	@Bean
+	public PlayerWaitingRoom playerWaitingRoom() {
+		return new PlayerWaitingRoom(rtmpTimer());
+	}
+
+	// 먼저 만들어진 bean 보다 먼저 멈추도록 방송을 넘기는 동안 쓰는 bean 에 의존한다
+	@Bean(destroyMethod = "stop")
+	@DependsOn({"eventLoopIsolation", "rtmpTimer", "flvFeedServer", "rtmpsContext", "streamJournalDrainer"})
+	public RtmpHandover rtmpHandover() {
+		return new RtmpHandover(streamContext(), playerWaitingRoom());
+	}
+
+	// 새 프로세스가 이전 프로세스와 함께 HTTP 포트를 열 수 있어야 RTMP 포트를 넘길 수 있다
+	@Bean
+	@ConditionalOnProperty(name = "internal.rtmp.handover.enabled", havingValue = "true")
+	public NettyServerCustomizer handoverServerCustomizer() {
+		return rtmpHandover()::configure;
+	}
+
+	@Bean
+	public PipelineWarmUp pipelineWarmUp() {
+		return new PipelineWarmUp(rtmpTimer());
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public FlvFeedServer flvFeedServer() {
+		return new FlvFeedServer(streamContext(), egressSchedulers());
+	}
+
+	@Bean(initMethod = "start", destroyMethod = "stop")
+	public RtmpsContext rtmpsContext() {
+		return new RtmpsContext();
+	}
+
+	@Bean(destroyMethod = "stop")
+	public HashedWheelTimer rtmpTimer() {
+		return new HashedWheelTimer(new DefaultThreadFactory("rtmp-timer", true), 100, TimeUnit.MILLISECONDS, 512);
+	}
+
 	@Bean
 	@Scope(value = "prototype")
 	public ChunkDecoder chunkDecoder() {
@@ -39,7 +126,7 @@ public class HandlerConfig {
 	@Bean
 	@Scope(value = "prototype")
 	public HandshakeHandler handshakeHandler() {
-		return new HandshakeHandler();
+		return new HandshakeHandler(rtmpTimer());
 	}
 
 	@Bean
@@ -51,7 +138,8 @@ public class HandlerConfig {
 	@Bean
 	@Scope(value = "prototype")
 	public RtmpMessageHandler rtmpMessageHandler() {
-		return new RtmpMessageHandler(streamContext());
+		return new RtmpMessageHandler(streamContext(), rtmpTimer(), egressSchedulers(), streamDirectory(),
+			ingestPolicy(), playerWaitingRoom());
 	}
 
 	@Bean
@@ -1,73 +1,79 @@
 package com.hanghae.lemonairstreaming.Handler;
 
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
 
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HandshakeProvider;
 
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Slf4j
 public class HandshakeHandler extends ByteToMessageDecoder {
 
+	private static final int C0C1_LENGTH = RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH + RtmpConstants.RTMP_HANDSHAKE_SIZE;
+
+	private final Timer timer;
+
+	@Value("${internal.rtmp.handshake.complex-enabled:true}")
+	private boolean complexHandshakeEnabled = true;
+
+	@Value("${internal.rtmp.timeout.handshake-ms:10000}")
+	private long handshakeTimeoutMillis = 10_000;
+
 	private boolean C0C1;
-	private boolean completed;
-	private int timestamp;
+	private Timeout handshakeTimeout;
+
+	public HandshakeHandler(Timer timer) {
+		this.timer = timer;
+	}
 
-	private byte[] clientBytes = new byte[RtmpConstants.RTMP_HANDSHAKE_SIZE - 8];
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) {
+		if (handshakeTimeoutMillis > 0) {
+			handshakeTimeout = timer.newTimeout(timeout -> {
+				log.info("Handshake timed out. Address: {}", ctx.channel().remoteAddress());
+				ctx.channel().close();
+			}, handshakeTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
 
 	@Override
-	protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
-		if (completed) {
-			channelHandlerContext.fireChannelRead(byteBuf);
-			return;
+	protected void handlerRemoved0(ChannelHandlerContext ctx) {
+		if (handshakeTimeout != null) {
+			handshakeTimeout.cancel();
+			handshakeTimeout = null;
 		}
+	}
 
+	@Override
+	protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
 		if (!C0C1) {
+			if (byteBuf.readableBytes() < C0C1_LENGTH) {
+				return;
+			}
 			byte version = byteBuf.readByte();
 			if (!(version == RtmpConstants.RTMP_VERSION)) {
 				log.info("Client requests unsupported version: " + version);
 			}
-			timestamp = byteBuf.readInt();
-			byteBuf.readInt();
-			byteBuf.readBytes(clientBytes);
 
-			generateS0S1S2(channelHandlerContext);
+			channelHandlerContext.writeAndFlush(
+				HandshakeProvider.s0s1s2(channelHandlerContext.alloc(), byteBuf, complexHandshakeEnabled));
+			byteBuf.skipBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE);
 			C0C1 = true;
-		} else {
-			byteBuf.readInt();
-			byteBuf.readInt();
-			byteBuf.readBytes(clientBytes);
-
-			clientBytes = null;
-			completed = true;
-			channelHandlerContext.channel().pipeline().remove(this);
 		}
-	}
-
-	private void generateS0S1S2(ChannelHandlerContext channelHandlerContext) {
-		ByteBuf resp = Unpooled.buffer(RtmpConstants.RTMP_HANDSHAKE_VERSION_LENGTH + RtmpConstants.RTMP_HANDSHAKE_SIZE
-			+ RtmpConstants.RTMP_HANDSHAKE_SIZE);
-		resp.writeByte(RtmpConstants.RTMP_VERSION);
 
-		resp.writeInt(0);
-		resp.writeInt(0);
-		resp.writeBytes(randomBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE - 8));
-
-		resp.writeInt(timestamp);
-		resp.writeInt(0);
-		resp.writeBytes(randomBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE - 8));
-
-		channelHandlerContext.writeAndFlush(resp);
-	}
-
-	private byte[] randomBytes(int length) {
-		byte[] bytes = new byte[length];
-		new Random().nextBytes(bytes);
-		return bytes;
+		if (byteBuf.readableBytes() < RtmpConstants.RTMP_HANDSHAKE_SIZE) {
+			return;
+		}
+		byteBuf.skipBytes(RtmpConstants.RTMP_HANDSHAKE_SIZE);
+		channelHandlerContext.pipeline().remove(this);
 	}
-}
\ No newline at end of file
+}
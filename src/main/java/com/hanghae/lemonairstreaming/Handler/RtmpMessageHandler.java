@@ -4,22 +4,39 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.reactive.function.client.WebClient;
 
 import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.model.MediaJitterBuffer;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayOptions;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
 import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamCommand;
 import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicer;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
 import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
 import lombok.extern.slf4j.Slf4j;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
@@ -28,10 +45,29 @@ import reactor.util.retry.Retry;
 @Slf4j
 public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 
+	private static final int AGGREGATE_TAG_HEADER_SIZE = 11;
+	private static final int AGGREGATE_BACK_POINTER_SIZE = 4;
+	private static final Counter REATTACHES = Counter.builder("rtmp.publisher.reattaches")
+		.description("Publishers that reconnected within the grace period and resumed their stream")
+		.register(Metrics.globalRegistry);
+	private static final Counter REDIRECTS = Counter.builder("rtmp.cluster.redirects")
+		.description("Connections redirected to the node that owns the stream")
+		.register(Metrics.globalRegistry);
+
 	private final StreamContext context;
+	private final Timer timer;
+	private final EgressSchedulers egressSchedulers;
+	private final StreamDirectory streamDirectory;
+	private final IngestPolicy ingestPolicy;
+	private final PlayerWaitingRoom waitingRoom;
 	@Autowired
 	WebClient webClient;
 	private String currentSessionStream;
+	private Timeout sessionTimeout;
+	private long unwritableSince;
+	private MediaJitterBuffer jitterBuffer;
+	// null 이 아니면 다른 event loop 에 있는 Stream 에 publisher 를 다시 붙이는 중이고, 그동안 들어온 메시지를 쌓아 둔다
+	private List<RtmpMessage> deferred;
 
 	@Value("${external.service.server.host}")
 	private String serviceServerHost;
@@ -42,24 +78,129 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 	@Value("${external.transcoding.server.port}")
 	private int transcodingServerPort;
 
-	public RtmpMessageHandler(StreamContext context) {
+	@Value("${internal.rtmp.join.low-latency:false}")
+	private boolean lowLatencyJoinByDefault;
+
+	@Value("${internal.rtmp.join.pacing-multiplier:0}")
+	private double joinPacingMultiplier;
+
+	// 나눠 보내는 GOP 와 라이브 프레임이 시청자 한 명에게 이만큼 쌓이면 가장 최근 키프레임 앞을 버린다
+	@Value("${internal.rtmp.join.max-backlog-bytes:8388608}")
+	private long maxJoinBacklogBytes = 8 * 1024 * 1024;
+
+	// 0 이면 jitter buffer 없이 받은 순서대로 Stream 에 넘긴다
+	@Value("${internal.rtmp.ingest.jitter-window-ms:0}")
+	private long jitterWindowMillis;
+
+	// 0 보다 크면 audio only 시청자에게 이 구간만큼 오디오를 모아 aggregate message 로 보낸다
+	@Value("${internal.rtmp.egress.audio-aggregate-window-ms:0}")
+	private long audioAggregateWindowMillis;
+
+	@Value("${internal.rtmp.timeout.command-ms:15000}")
+	private long commandTimeoutMillis = 15_000;
+
+	@Value("${internal.rtmp.timeout.publisher-idle-ms:30000}")
+	private long publisherIdleTimeoutMillis = 30_000;
+
+	@Value("${internal.rtmp.timeout.player-idle-ms:60000}")
+	private long playerIdleTimeoutMillis = 60_000;
+
+	// 시청자가 이만큼 받을 때마다 acknowledgement 를 보낸다. 작을수록 RTT 와 goodput 추정이 자주 갱신된다.
+	@Value("${internal.rtmp.egress.ack-window-bytes:5000000}")
+	private int ackWindowBytes = RtmpConstants.RTMP_DEFAULT_OUTPUT_ACK_SIZE;
+
+	// publisher 연결이 끊겨도 이 시간 동안은 시청자를 붙잡아 두고 같은 키로 다시 송출하기를 기다린다. 0 이면 바로 끝낸다.
+	@Value("${internal.rtmp.publisher.reconnect-grace-ms:0}")
+	private long reconnectGraceMillis;
+
+	public RtmpMessageHandler(StreamContext context, Timer timer, EgressSchedulers egressSchedulers) {
+		this(context, timer, egressSchedulers, StreamDirectory.LOCAL);
+	}
+
+	public RtmpMessageHandler(StreamContext context, Timer timer, EgressSchedulers egressSchedulers,
+		StreamDirectory streamDirectory) {
+		this(context, timer, egressSchedulers, streamDirectory, new IngestPolicy(), new PlayerWaitingRoom(timer));
+	}
+
+	public RtmpMessageHandler(StreamContext context, Timer timer, EgressSchedulers egressSchedulers,
+		StreamDirectory streamDirectory, IngestPolicy ingestPolicy, PlayerWaitingRoom waitingRoom) {
 		this.context = context;
+		this.timer = timer;
+		this.egressSchedulers = egressSchedulers;
+		this.streamDirectory = streamDirectory;
+		this.ingestPolicy = ingestPolicy;
+		this.waitingRoom = waitingRoom;
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+		super.handlerAdded(ctx);
+		if (commandTimeoutMillis > 0) {
+			sessionTimeout = timer.newTimeout(timeout -> ctx.executor().execute(() -> onCommandTimeout(ctx)),
+				commandTimeoutMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@Override
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		unwritableSince = ctx.channel().isWritable() ? 0 : System.currentTimeMillis();
+		super.channelWritabilityChanged(ctx);
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+		if (evt == StreamCommand.UNPUBLISH) {
+			Stream stream = context.getStream(currentSessionStream);
+			if (stream != null && stream.isPublishedBy(ctx.channel())) {
+				log.info("스트리머: {} 방송을 외부 요청으로 종료합니다.", stream.getStreamerId());
+				unpublish(ctx, stream);
+			}
+			return;
+		}
+		super.userEventTriggered(ctx, evt);
 	}
 
 	@Override
 	public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+		cancelSessionTimeout();
+		closeJitterBuffer();
+		releaseDeferred();
+		waitingRoom.leave(currentSessionStream, ctx.channel());
 		Stream stream = context.getStream(currentSessionStream);
 		if (stream != null) {
-			if (ctx.channel().id().equals(stream.getPublisher().id())) {
-				stream.closeStream();
-				context.deleteStream(currentSessionStream);
-			}
+			// 다시 붙은 publisher 는 Stream 과 다른 loop 에 있으므로 publisher 확인도 Stream 의 loop 에서 한다
+			Channel channel = ctx.channel();
+			stream.execute(() -> {
+				if (!stream.isPublishedBy(channel)) {
+					return;
+				}
+				// 새 프로세스로 넘기는 중이면 publisher 는 그쪽에 다시 붙으므로 기다리지 않고 시청자도 보낸다
+				if (reconnectGraceMillis > 0 && !context.isHandingOver()) {
+					startReconnectGrace(stream);
+				} else {
+					stream.closeStream();
+					context.context.remove(stream.getStreamerId(), stream);
+				}
+			});
 		}
 		super.handlerRemoved(ctx);
 	}
 
 	@Override
 	protected void decode(ChannelHandlerContext channelHandlerContext, RtmpMessage in, List<Object> out) {
+		if (deferred != null) {
+			deferred.add(in.retain());
+			return;
+		}
+		if (in.header().getType() == RtmpConstants.RTMP_MSG_AGGREGATE) {
+			handleAggregate(channelHandlerContext, in, out);
+		} else {
+			dispatch(channelHandlerContext, in, out);
+		}
+		// in 은 MessageToMessageDecoder 가 release 한다
+	}
+
+	private void dispatch(ChannelHandlerContext channelHandlerContext, RtmpMessage in, List<Object> out) {
 		short type = in.header().getType();
 		ByteBuf payload = in.payload();
 		switch (type) {
@@ -70,13 +211,48 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 			case RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_EVENT -> handleEvent(in);
 			default -> log.info("Unsupported message/ Type id: {}", type);
 		}
-		payload.release();
+	}
+
+	// aggregate message 는 FLV 태그(헤더 11 바이트 + 데이터 + back pointer 4 바이트)를 이어 붙인 것이다.
+	// 하위 메시지는 aggregate payload 의 slice 이므로 복사가 없고, 붙잡아야 하는 쪽에서 retain 한다.
+	// 첫 하위 메시지의 timestamp 가 aggregate 헤더의 timestamp 에 맞춰지도록 나머지도 같은 만큼 옮긴다.
+	private void handleAggregate(ChannelHandlerContext ctx, RtmpMessage in, List<Object> out) {
+		ByteBuf payload = in.payload();
+		long firstTimestamp = -1;
+		while (payload.readableBytes() >= AGGREGATE_TAG_HEADER_SIZE) {
+			short type = payload.readUnsignedByte();
+			int size = payload.readUnsignedMedium();
+			long timestamp = payload.readUnsignedMedium() | (long)payload.readUnsignedByte() << 24;
+			payload.skipBytes(3);
+			if (payload.readableBytes() < size) {
+				log.warn("Truncated aggregate message: sub-message of {} bytes, {} left", size,
+					payload.readableBytes());
+				return;
+			}
+			ByteBuf data = payload.readSlice(size);
+			payload.skipBytes(Math.min(AGGREGATE_BACK_POINTER_SIZE, payload.readableBytes()));
+			if (type == RtmpConstants.RTMP_MSG_AGGREGATE) {
+				log.info("Nested aggregate message ignored");
+				continue;
+			}
+			if (firstTimestamp < 0) {
+				firstTimestamp = timestamp;
+			}
+
+			RtmpHeader header = new RtmpHeader();
+			header.setCid(in.header().getCid());
+			header.setStreamId(in.header().getStreamId());
+			header.setType(type);
+			header.setTimestamp((int)(in.header().getTimestamp() + timestamp - firstTimestamp));
+			header.setMessageLength(size);
+			dispatch(ctx, new RtmpMessage(header, data), out);
+		}
 	}
 
 	private void handleCommand(ChannelHandlerContext ctx, ByteBuf payload, List<Object> out) {
 		List<Object> decoded = Amf0Rules.decodeAll(payload);
 		String command = (String)decoded.get(0);
-		log.info("handleCommand method :" + command + ">>>" + decoded);
+		log.debug("handleCommand method : {} >>> {}", command, decoded);
 		switch (command) {
 			case "connect" -> onConnect(ctx, decoded);
 			case "createStream" -> onCreate(ctx, decoded);
@@ -88,11 +264,41 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 		}
 	}
 
+	// 미뤄 둔 명령과 그동안 쌓인 메시지를 채널의 loop 에서 순서대로 처리한다
+	private void resumeDeferred(ChannelHandlerContext ctx, Consumer<List<Object>> command,
+		List<RtmpMessage> pending) {
+		if (deferred != pending) {
+			return;
+		}
+		deferred = null;
+		List<Object> out = new ArrayList<>();
+		command.accept(out);
+		for (RtmpMessage message : pending) {
+			if (deferred != null) {
+				deferred.add(message);
+				continue;
+			}
+			try {
+				decode(ctx, message, out);
+			} finally {
+				message.release();
+			}
+		}
+		out.forEach(ctx::fireChannelRead);
+		ctx.fireChannelReadComplete();
+	}
+
+	private void releaseDeferred() {
+		if (deferred != null) {
+			deferred.forEach(RtmpMessage::release);
+			deferred = null;
+		}
+	}
+
 	private void onConnect(ChannelHandlerContext ctx, List<Object> message) {
-		log.info("Client connection from {}, channel id is {}", ctx.channel().remoteAddress(), ctx.channel().id());
+		log.debug("Client connection from {}, channel id is {}", ctx.channel().remoteAddress(), ctx.channel().id());
 
 		String app = (String)((Map<String, Object>)message.get(2)).get("app");
-		log.info(message.toString());
 
 		Integer clientEncodingFormat = (Integer)((Map<String, Object>)message.get(2)).get("objectEncoding");
 
@@ -102,9 +308,20 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 			return;
 		}
 
+		// 송출자와 시청자 모두 스트림을 맡은 노드로 보내 데이터가 있는 곳에서 만나게 한다
+		StreamDirectory.Node owner = streamDirectory.ownerOf(app);
+		if (owner != null) {
+			String redirect = owner.url() + "/" + app;
+			log.info("스트리머: {} 는 {} 노드가 맡으므로 {} 로 redirect 합니다", app, owner.id(), redirect);
+			REDIRECTS.increment();
+			ctx.writeAndFlush(MessageProvider.connectRedirect(message.get(1), redirect))
+				.addListener(ChannelFutureListener.CLOSE);
+			return;
+		}
+
 		this.currentSessionStream = app;
 
-		ctx.writeAndFlush(MessageProvider.setWindowAcknowledgement(RtmpConstants.RTMP_DEFAULT_OUTPUT_ACK_SIZE));
+		ctx.writeAndFlush(MessageProvider.setWindowAcknowledgement(ackWindowBytes));
 
 		ctx.writeAndFlush(MessageProvider.setPeerBandwidth(RtmpConstants.RTMP_DEFAULT_OUTPUT_ACK_SIZE, 2));
 
@@ -131,7 +348,7 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 	}
 
 	private void onCreate(ChannelHandlerContext ctx, List<Object> message) {
-		log.info("Create stream");
+		log.debug("Create stream");
 
 		List<Object> result = new ArrayList<>();
 		result.add("_result");
@@ -143,77 +360,253 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 	}
 
 	private void onPublish(ChannelHandlerContext ctx, List<Object> message, List<Object> output) {
-		log.info("Stream publishing");
+		log.debug("Stream publishing");
 		String streamType = (String)message.get(4);
 		if (!"live".equals(streamType)) {
 			log.error("Stream type {} is not supported", streamType);
 			ctx.channel().disconnect();
 		}
 
+		String secret = (String)message.get(3);
+		Stream previous = context.getStream(currentSessionStream);
+		if (previous != null && previous.isAwaitingPublisher()) {
+			// 확인된 키로 다시 송출하면 기존 Stream 에 이어 붙인다
+			if (previous.isKeyVerified() && secret != null && secret.equals(previous.getStreamKey())) {
+				reattach(ctx, previous, message, output);
+				return;
+			}
+			// 다른 키로 송출하면 기다리던 방송은 바로 끝낸다
+			previous.execute(() -> expireReconnectGrace(previous));
+		}
+		startPublish(ctx, message, output);
+	}
+
+	private void startPublish(ChannelHandlerContext ctx, List<Object> message, List<Object> output) {
 		Stream stream = new Stream(currentSessionStream);
 		String secret = (String)message.get(3);
 		stream.setStreamKey(secret);
 		stream.setPublisher(ctx.channel());
+		stream.setJoinPacingMultiplier(joinPacingMultiplier);
+		stream.setMaxJoinBacklogBytes(maxJoinBacklogBytes);
+		stream.setAudioAggregateWindowMillis(audioAggregateWindowMillis);
 		context.addStream(stream);
+		startIngest(ctx, stream);
+		waitingRoom.release(stream);
 
 		output.add(stream);
 	}
 
-	private void onPlay(ChannelHandlerContext ctx, List<Object> message) {
+	// grace 안에 다시 송출한 publisher 를 기존 Stream 에 붙인다. 채널은 자기 loop 에 그대로 두고
+	// Stream 의 loop 에서 붙인 뒤 돌아와 ingest 를 시작한다. 그동안 들어온 메시지는 쌓아 두었다가 이어서 처리한다.
+	private void reattach(ChannelHandlerContext ctx, Stream stream, List<Object> message, List<Object> output) {
+		if (stream.getEventLoop().inEventLoop()) {
+			resumePublish(ctx, stream, stream.reattachPublisher(ctx.channel()), message, output);
+			return;
+		}
+		List<RtmpMessage> pending = new ArrayList<>();
+		deferred = pending;
+		stream.execute(() -> {
+			boolean reattached = stream.reattachPublisher(ctx.channel());
+			ctx.executor().execute(() -> resumeDeferred(ctx,
+				resumed -> resumePublish(ctx, stream, reattached, message, resumed), pending));
+		});
+	}
 
-		Stream stream = context.getStream(currentSessionStream);
-		if (stream != null) {
-			ctx.writeAndFlush(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_BEGIN));
-			ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Play.Start", "Strat live"));
+	// 키는 이미 확인됐고 트랜스코더도 그대로 붙어 있으므로 Stream 을 RtmpServer 로 다시 넘기지 않는다
+	private void resumePublish(ChannelHandlerContext ctx, Stream stream, boolean reattached, List<Object> message,
+		List<Object> output) {
+		if (!reattached) {
+			// 붙이기 전에 grace 가 끝났으면 새 방송으로 시작한다
+			startPublish(ctx, message, output);
+			return;
+		}
+		log.info("스트리머: {} publisher 가 다시 연결되어 방송을 이어갑니다.", stream.getStreamerId());
+		REATTACHES.increment();
+		startIngest(ctx, stream);
+		ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Publish.Start", "Start publishing"));
+	}
 
-			List<Object> args = new ArrayList<>();
-			args.add("|RtmpSampleAccess");
-			args.add(true);
-			args.add(true);
-			ctx.writeAndFlush(MessageProvider.commandMessage(args));
+	private void startIngest(ChannelHandlerContext ctx, Stream stream) {
+		if (jitterWindowMillis > 0) {
+			jitterBuffer = new MediaJitterBuffer(jitterWindowMillis, ctx.executor(), media -> deliver(stream, media));
+		}
+		// TLS 보다 앞에 두어 실제로 받은 바이트를 센다
+		IngestPolicer policer = ingestPolicy.newPolicer(currentSessionStream);
+		if (policer != null && ctx.pipeline().get(IngestPolicer.class) == null) {
+			ctx.pipeline().addFirst("ingestPolicer", policer);
+		}
 
-			List<Object> metadata = new ArrayList<>();
-			metadata.add("onMetaData");
-			metadata.add(stream.getMetadata());
-			ctx.writeAndFlush(MessageProvider.dataMessage(metadata));
+		cancelSessionTimeout();
+		schedulePublisherIdleCheck(ctx, publisherIdleTimeoutMillis);
+	}
+
+	// publisher 가 갑자기 끊기면 시청자에게 EOF 를 보내지 않고 grace 동안 다시 송출하기를 기다린다
+	private void startReconnectGrace(Stream stream) {
+		log.info("스트리머: {} publisher 연결이 끊겼습니다. {} ms 동안 다시 송출을 기다립니다.", stream.getStreamerId(),
+			reconnectGraceMillis);
+		Runnable expiry = () -> expireReconnectGrace(stream);
+		Timeout timeout = timer.newTimeout(t -> stream.execute(expiry), reconnectGraceMillis, TimeUnit.MILLISECONDS);
+		stream.detachPublisher(timeout, expiry);
+	}
+
+	// Stream 의 event loop 에서 실행된다
+	private void expireReconnectGrace(Stream stream) {
+		if (!stream.isAwaitingPublisher()) {
+			return;
+		}
+		log.info("스트리머: {} publisher 가 다시 연결되지 않아 방송을 종료합니다.", stream.getStreamerId());
+		stream.closeStream();
+		context.context.remove(stream.getStreamerId(), stream);
+		notifyOffAir(stream);
+	}
 
-			stream.addSubscriber(ctx.channel());
+	private void onPlay(ChannelHandlerContext ctx, List<Object> message) {
 
+		Stream stream = context.getStream(currentSessionStream);
+		String playName = message.size() > 3 ? (String)message.get(3) : null;
+		if (stream != null) {
+			startPlay(ctx, stream, playName);
+		} else if (waitingRoom.park(currentSessionStream, ctx.channel(), published -> {
+			if (!ctx.isRemoved()) {
+				startPlay(ctx, published, playName);
+			}
+		}, () -> rejectPlay(ctx))) {
+			// 방송이 시작될 때까지 연결만 열어 두고 기다린다. 명령 timeout 대신 대기 timeout 이 적용된다.
+			log.info("Stream doesn't exist yet. Waiting for {} to publish", currentSessionStream);
+			cancelSessionTimeout();
+			// getStream 과 park 사이에 방송이 시작됐으면 publisher 의 release 를 놓쳤으므로 직접 꺼낸다.
+			// 목록에 남은 시청자만 붙이므로 publisher 쪽 release 와 겹쳐도 한 번만 붙는다.
+			Stream published = context.getStream(currentSessionStream);
+			if (published != null) {
+				waitingRoom.release(published);
+			}
 		} else {
 			log.info("Stream doesn't exist");
-			ctx.writeAndFlush(MessageProvider.onStatus("error", "NetStream.Play.StreamNotFound", "No Such Stream"));
-			ctx.channel().close();
+			rejectPlay(ctx);
 		}
 	}
 
+	private void startPlay(ChannelHandlerContext ctx, Stream stream, String playName) {
+		stream.addSubscriber(ctx.channel(), PlayOptions.parse(playName, lowLatencyJoinByDefault),
+			egressSchedulers.of(ctx.channel().eventLoop()));
+
+		cancelSessionTimeout();
+		schedulePlayerIdleCheck(ctx, playerIdleTimeoutMillis);
+	}
+
+	private void rejectPlay(ChannelHandlerContext ctx) {
+		ctx.writeAndFlush(MessageProvider.onStatus("error", "NetStream.Play.StreamNotFound", "No Such Stream"));
+		ctx.channel().close();
+	}
+
 	private void onClose(ChannelHandlerContext ctx) {
 		Stream stream = context.getStream(currentSessionStream);
 		if (stream == null) {
 			ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"));
-		} else if (ctx.channel().id().equals(stream.getPublisher().id())) {
-			ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"));
+		} else if (stream.isPublishedBy(ctx.channel())) {
+			unpublish(ctx, stream);
+		} else {
+			log.info("Subscriber closed stream");
+		}
+	}
 
-			Mono<Boolean> offAirToServiceMono = requestOffAirToServiceServer(stream).subscribeOn(Schedulers.parallel());
-			Mono<Boolean> offAirToTranscodingMono = requestOffAirToTranscodingServer(stream).subscribeOn(
-				Schedulers.parallel());
+	private void unpublish(ChannelHandlerContext ctx, Stream stream) {
+		ctx.writeAndFlush(MessageProvider.onStatus("status", "NetStream.Unpublish.Success", "Stop publishing"));
+		// 새 프로세스로 넘기는 중이면 publisher 가 그쪽에서 계속 송출하므로 방송 종료를 알리지 않는다
+		if (!context.isHandingOver()) {
+			notifyOffAir(stream);
+		}
 
-			Mono.zip(offAirToServiceMono, offAirToTranscodingMono).subscribe(tuple -> {
-				boolean serviceSuccess = tuple.getT1();
-				boolean transcodingSuccess = tuple.getT2();
-				log.info(stream.getStreamerId() + " 의 방송 종료 감지");
-				if (!serviceSuccess) {
-					log.error("서비스 서버와 통신 에러");
-				}
-				if (!transcodingSuccess) {
-					log.error("트랜스코딩 서버와 통신 에러");
-				}
-			});
+		closeJitterBuffer();
+		stream.execute(stream::closeStream);
+		context.context.remove(stream.getStreamerId(), stream);
+		ctx.close();
+	}
 
-			stream.closeStream();
-			context.deleteStream(stream.getStreamerId());
-			ctx.close();
-		} else {
-			log.info("Subscriber closed stream");
+	private void notifyOffAir(Stream stream) {
+		Mono<Boolean> offAirToServiceMono = requestOffAirToServiceServer(stream).subscribeOn(Schedulers.parallel());
+		Mono<Boolean> offAirToTranscodingMono = requestOffAirToTranscodingServer(stream).subscribeOn(
+			Schedulers.parallel());
+
+		Mono.zip(offAirToServiceMono, offAirToTranscodingMono).subscribe(tuple -> {
+			boolean serviceSuccess = tuple.getT1();
+			boolean transcodingSuccess = tuple.getT2();
+			log.info(stream.getStreamerId() + " 의 방송 종료 감지");
+			if (!serviceSuccess) {
+				log.error("서비스 서버와 통신 에러");
+			}
+			if (!transcodingSuccess) {
+				log.error("트랜스코딩 서버와 통신 에러");
+			}
+		});
+	}
+
+	private void onCommandTimeout(ChannelHandlerContext ctx) {
+		if (ctx.isRemoved()) {
+			return;
+		}
+		log.info("No publish/play command received in {} ms. Closing connection to {}", commandTimeoutMillis,
+			ctx.channel().remoteAddress());
+		ctx.close();
+	}
+
+	private void schedulePublisherIdleCheck(ChannelHandlerContext ctx, long delayMillis) {
+		if (publisherIdleTimeoutMillis > 0) {
+			sessionTimeout = timer.newTimeout(timeout -> ctx.executor().execute(() -> checkPublisherIdle(ctx)),
+				delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void checkPublisherIdle(ChannelHandlerContext ctx) {
+		if (ctx.isRemoved()) {
+			return;
+		}
+		Stream stream = context.getStream(currentSessionStream);
+		if (stream == null || !stream.isPublishedBy(ctx.channel())) {
+			return;
+		}
+		long idle = System.currentTimeMillis() - stream.getLastMediaTime();
+		if (idle < publisherIdleTimeoutMillis) {
+			schedulePublisherIdleCheck(ctx, publisherIdleTimeoutMillis - idle);
+			return;
+		}
+		log.info("스트리머: {} 미디어 수신 없음 ({} ms). 방송을 종료합니다.", stream.getStreamerId(), idle);
+		unpublish(ctx, stream);
+	}
+
+	private void schedulePlayerIdleCheck(ChannelHandlerContext ctx, long delayMillis) {
+		if (playerIdleTimeoutMillis > 0) {
+			sessionTimeout = timer.newTimeout(timeout -> ctx.executor().execute(() -> checkPlayerIdle(ctx)),
+				delayMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void checkPlayerIdle(ChannelHandlerContext ctx) {
+		if (ctx.isRemoved()) {
+			return;
+		}
+		long stalled = unwritableSince == 0 ? 0 : System.currentTimeMillis() - unwritableSince;
+		if (stalled < playerIdleTimeoutMillis) {
+			schedulePlayerIdleCheck(ctx, playerIdleTimeoutMillis - stalled);
+			return;
+		}
+		log.info("Player {} has not consumed data for {} ms. Closing connection", ctx.channel().remoteAddress(),
+			stalled);
+		ctx.writeAndFlush(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF));
+		ctx.close();
+	}
+
+	private void closeJitterBuffer() {
+		if (jitterBuffer != null) {
+			jitterBuffer.close();
+			jitterBuffer = null;
+		}
+	}
+
+	private void cancelSessionTimeout() {
+		if (sessionTimeout != null) {
+			sessionTimeout.cancel();
+			sessionTimeout = null;
 		}
 	}
 
@@ -222,7 +615,6 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 			.uri(transcodingServerIp + ":" + transcodingServerPort + "/transcode/" + stream.getStreamerId() + "/offair")
 			.retrieve()
 			.bodyToMono(Boolean.class)
-			.log()
 			.retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
 			.doOnError(e -> log.info(e.getMessage()))
 			.onErrorReturn(Boolean.FALSE);
@@ -233,7 +625,6 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 			.uri(serviceServerHost + "/api/streams/" + stream.getStreamerId() + "/offair")
 			.retrieve()
 			.bodyToMono(Boolean.class)
-			.log()
 			.retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
 			.doOnError(e -> log.info(e.getMessage()))
 			.onErrorReturn(Boolean.FALSE);
@@ -256,8 +647,7 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 			}
 			Stream stream = context.getStream(this.currentSessionStream);
 			if (stream != null) {
-				log.info("Stream metadata set");
-				stream.setMetadata(metadata);
+				stream.execute(() -> stream.setMetadata(metadata));
 			}
 		}
 	}
@@ -265,9 +655,23 @@ public class RtmpMessageHandler extends MessageToMessageDecoder<RtmpMessage> {
 	private void handleMedia(RtmpMessage message) {
 		Stream stream = context.getStream(currentSessionStream);
 		if (stream != null) {
-			stream.addMedia(RtmpMediaMessage.fromRtmpMessage(message));
+			RtmpMediaMessage media = RtmpMediaMessage.fromRtmpMessage(message);
+			if (jitterBuffer != null) {
+				jitterBuffer.offer(media);
+			} else {
+				deliver(stream, media);
+			}
+		} else {
+			log.debug("Stream does not exist");
+		}
+	}
+
+	// 다시 붙은 publisher 는 Stream 과 다른 loop 에 있을 수 있다. 같은 loop 면 task 를 만들지 않는다.
+	private static void deliver(Stream stream, RtmpMediaMessage media) {
+		if (stream.getEventLoop().inEventLoop()) {
+			stream.addMedia(media);
 		} else {
-			log.info("Stream does not exist");
+			stream.execute(() -> stream.addMedia(media));
 		}
 	}
 
@@ -2,8 +2,12 @@ package com.hanghae.lemonairstreaming;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
+
+import com.hanghae.lemonairstreaming.config.NativeRuntimeHints;
 
 @SpringBootApplication
+@ImportRuntimeHints(NativeRuntimeHints.class)
 public class LemonairStreamingApplication {
 
 	public static void main(String[] args) {
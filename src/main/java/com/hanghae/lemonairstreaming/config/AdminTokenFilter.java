@@ -0,0 +1,49 @@
+package com.hanghae.lemonairstreaming.config;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "internal.admin.enabled", havingValue = "true")
+public class AdminTokenFilter implements WebFilter {
+
+	public static final String ADMIN_PATH = "/admin/";
+	public static final String TOKEN_HEADER = "X-Admin-Token";
+
+	private final byte[] token;
+
+	// 토큰이 비어 있으면 관리 API 를 켜도 모든 요청을 거절한다
+	public AdminTokenFilter(@Value("${internal.admin.token:}") String token) {
+		this.token = token.getBytes(StandardCharsets.UTF_8);
+		if (this.token.length == 0) {
+			log.warn("internal.admin.token 이 비어 있어 관리 API 요청을 모두 거절합니다");
+		}
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		if (!exchange.getRequest().getPath().value().startsWith(ADMIN_PATH) || authorized(exchange)) {
+			return chain.filter(exchange);
+		}
+		exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+		return exchange.getResponse().setComplete();
+	}
+
+	private boolean authorized(ServerWebExchange exchange) {
+		String presented = exchange.getRequest().getHeaders().getFirst(TOKEN_HEADER);
+		return token.length > 0 && presented != null
+			&& MessageDigest.isEqual(token, presented.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -21,6 +21,8 @@ public class CORSFilter {
 		corsConfig.setAllowedHeaders(Collections.singletonList("*"));
 
 		UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+		// 관리 API 는 허용 origin 이 없는 설정을 먼저 등록해 브라우저의 cross-origin 요청을 막는다
+		source.registerCorsConfiguration(AdminTokenFilter.ADMIN_PATH + "**", new CorsConfiguration());
 		source.registerCorsConfiguration("/**", corsConfig);
 		corsConfig.setExposedHeaders(Arrays.asList("Access_Token", "Refresh_Token"));
 
@@ -0,0 +1,42 @@
+package com.hanghae.lemonairstreaming.config;
+
+import java.util.List;
+
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.Handler.HandshakeHandler;
+import com.hanghae.lemonairstreaming.Handler.InboundConnectionLogger;
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.dto.FileSourceRequest;
+import com.hanghae.lemonairstreaming.dto.StreamEventResponse;
+import com.hanghae.lemonairstreaming.dto.StreamResponse;
+import com.hanghae.lemonairstreaming.dto.SubscriberResponse;
+import com.hanghae.lemonairstreaming.rmtp.entity.StreamKey;
+
+// native image 에서 AOT 분석으로 찾을 수 없는 reflection 사용처
+public class NativeRuntimeHints implements RuntimeHintsRegistrar {
+
+	private final BindingReflectionHintsRegistrar bindingHints = new BindingReflectionHintsRegistrar();
+
+	@Override
+	public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+		// WebClient 요청 body 와 admin API 응답은 Jackson 이 getter/생성자를 reflection 으로 찾는다
+		bindingHints.registerReflectionHints(hints.reflection(), StreamKey.class, FileSourceRequest.class,
+			StreamEventResponse.class, StreamResponse.class, SubscriberResponse.class);
+
+		// Netty 는 handler 의 public 메서드를 조회해서 건너뛸 이벤트를 정한다
+		for (Class<?> handler : List.of(InboundConnectionLogger.class, HandshakeHandler.class, ChunkDecoder.class,
+			ChunkEncoder.class, RtmpMessageHandler.class)) {
+			hints.reflection().registerType(handler, MemberCategory.INVOKE_PUBLIC_METHODS);
+		}
+
+		// metadata 로 들고 다니는 AMF0 객체는 Serializable 이다
+		hints.serialization().registerType(Amf0Rules.Amf0Object.class);
+	}
+}
@@ -0,0 +1,132 @@
+package com.hanghae.lemonairstreaming.controller;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.hanghae.lemonairstreaming.dto.FileSourceRequest;
+import com.hanghae.lemonairstreaming.dto.StreamEventResponse;
+import com.hanghae.lemonairstreaming.dto.StreamResponse;
+import com.hanghae.lemonairstreaming.dto.SubscriberResponse;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.source.FlvFileSourceManager;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@Slf4j
+@RestController
+@RequiredArgsConstructor
+// 방송 종료, 파일 송출 같은 변경 요청이 있어 설정으로 켰을 때만 등록하고 AdminTokenFilter 로 보호한다
+@ConditionalOnProperty(name = "internal.admin.enabled", havingValue = "true")
+@RequestMapping("/admin/streams")
+public class StreamAdminController {
+
+	// 응답은 각 Stream 의 event loop 에서 만든 snapshot 으로만 구성한다
+	private static final Duration SNAPSHOT_TIMEOUT = Duration.ofSeconds(2);
+
+	private final StreamContext streamContext;
+	private final FlvFileSourceManager fileSourceManager;
+
+	@GetMapping
+	public Mono<ResponseEntity<List<StreamResponse>>> getStreams() {
+		return Flux.fromIterable(streamContext.context.values())
+			.flatMap(stream -> Mono.fromFuture(stream.snapshot())
+				.timeout(SNAPSHOT_TIMEOUT)
+				.doOnError(e -> log.warn("스트리머: {} snapshot 실패 {}", stream.getStreamerId(), e.toString()))
+				.onErrorResume(e -> Mono.empty()))
+			.map(StreamResponse::from)
+			.collectList()
+			.map(ResponseEntity::ok);
+	}
+
+	@GetMapping("/{streamerId}/subscribers")
+	public Mono<ResponseEntity<List<SubscriberResponse>>> getSubscribers(@PathVariable String streamerId) {
+		Stream stream = streamContext.getStream(streamerId);
+		if (stream == null) {
+			return Mono.just(ResponseEntity.notFound().build());
+		}
+		return Mono.fromFuture(stream.subscriberSnapshots())
+			.timeout(SNAPSHOT_TIMEOUT)
+			.map(snapshots -> ResponseEntity.ok(snapshots.stream().map(SubscriberResponse::from).toList()));
+	}
+
+	@DeleteMapping("/{streamerId}/subscribers/{channelId}")
+	public Mono<ResponseEntity<Void>> kickSubscriber(@PathVariable String streamerId, @PathVariable String channelId) {
+		Stream stream = streamContext.getStream(streamerId);
+		if (stream == null) {
+			return Mono.just(ResponseEntity.notFound().build());
+		}
+		return Mono.fromFuture(stream.kickSubscriber(channelId))
+			.timeout(SNAPSHOT_TIMEOUT)
+			.map(kicked -> kicked ? ResponseEntity.noContent().<Void>build() : ResponseEntity.notFound().<Void>build());
+	}
+
+	@DeleteMapping("/{streamerId}")
+	public Mono<ResponseEntity<Void>> unpublish(@PathVariable String streamerId) {
+		Stream stream = streamContext.getStream(streamerId);
+		if (stream == null) {
+			return Mono.just(ResponseEntity.notFound().build());
+		}
+		if (fileSourceManager.unpublish(streamerId) || stream.requestUnpublish()) {
+			return Mono.just(ResponseEntity.accepted().build());
+		}
+		return Mono.just(ResponseEntity.notFound().build());
+	}
+
+	@GetMapping("/{streamerId}/events")
+	public Mono<ResponseEntity<List<StreamEventResponse>>> getEvents(@PathVariable String streamerId) {
+		Stream stream = streamContext.getStream(streamerId);
+		if (stream == null) {
+			return Mono.just(ResponseEntity.notFound().build());
+		}
+		List<StreamEventResponse> events = stream.getJournal()
+			.snapshot()
+			.stream()
+			.map(StreamEventResponse::from)
+			.toList();
+		return Mono.just(ResponseEntity.ok(events));
+	}
+
+	@PostMapping("/{streamerId}/file-source")
+	public Mono<ResponseEntity<Void>> publishFile(@PathVariable String streamerId,
+		@RequestBody FileSourceRequest request) {
+		if (!fileSourceManager.isEnabled()) {
+			return Mono.just(ResponseEntity.status(HttpStatus.FORBIDDEN).build());
+		}
+		if (request.files() == null) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		}
+		boolean loop = request.loop() == null || request.loop();
+		boolean rebaseTimestamps = request.rebaseTimestamps() == null || request.rebaseTimestamps();
+		try {
+			fileSourceManager.publish(streamerId, request.files(), loop, rebaseTimestamps);
+		} catch (IllegalArgumentException e) {
+			return Mono.just(ResponseEntity.badRequest().build());
+		} catch (IllegalStateException e) {
+			return Mono.just(ResponseEntity.status(HttpStatus.CONFLICT).build());
+		}
+		return Mono.just(ResponseEntity.status(HttpStatus.CREATED).build());
+	}
+
+	@DeleteMapping("/{streamerId}/file-source")
+	public Mono<ResponseEntity<Void>> unpublishFile(@PathVariable String streamerId) {
+		if (!fileSourceManager.unpublish(streamerId)) {
+			return Mono.just(ResponseEntity.notFound().build());
+		}
+		return Mono.just(ResponseEntity.noContent().build());
+	}
+}
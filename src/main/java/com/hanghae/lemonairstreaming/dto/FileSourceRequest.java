@@ -0,0 +1,6 @@
+package com.hanghae.lemonairstreaming.dto;
+
+import java.util.List;
+
+public record FileSourceRequest(List<String> files, Boolean loop, Boolean rebaseTimestamps) {
+}
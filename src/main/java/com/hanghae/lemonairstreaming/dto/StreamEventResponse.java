@@ -0,0 +1,11 @@
+package com.hanghae.lemonairstreaming.dto;
+
+import com.hanghae.lemonairstreaming.rmtp.model.journal.StreamEvent;
+
+public record StreamEventResponse(long sequence, String type, long timestamp, long value, String channelId) {
+
+	public static StreamEventResponse from(StreamEvent event) {
+		return new StreamEventResponse(event.sequence(), event.type().name(), event.timestamp(), event.value(),
+			event.channelId() == null ? null : event.channelId().asShortText());
+	}
+}
@@ -0,0 +1,17 @@
+package com.hanghae.lemonairstreaming.dto;
+
+import com.hanghae.lemonairstreaming.rmtp.model.StreamSnapshot;
+
+public record StreamResponse(String streamerId, String publisherAddress, String videoCodec, String audioCodec,
+							 long bitsPerSecond, long gopBytes, int gopFrames, int subscriberCount,
+							 long lastMediaTime, long lastTimestamp) {
+
+	public static StreamResponse from(StreamSnapshot snapshot) {
+		return new StreamResponse(snapshot.streamerId(),
+			snapshot.publisherAddress() == null ? null : snapshot.publisherAddress().toString(),
+			snapshot.videoCodec() == null ? null : snapshot.videoCodec().name(),
+			snapshot.audioCodec() == null ? null : snapshot.audioCodec().name(), snapshot.bitsPerSecond(),
+			snapshot.gopBytes(), snapshot.gopFrames(), snapshot.subscriberCount(), snapshot.lastMediaTime(),
+			snapshot.lastTimestamp() & 0xffffffffL);
+	}
+}
@@ -0,0 +1,17 @@
+package com.hanghae.lemonairstreaming.dto;
+
+import com.hanghae.lemonairstreaming.rmtp.model.SubscriberSnapshot;
+
+public record SubscriberResponse(String channelId, String remoteAddress, boolean audioOnly, boolean lowLatency,
+								 long joinedAt, boolean catchingUp, int backlogFrames, long lagMillis,
+								 long outboundBufferBytes, boolean writable, long unackedBytes, long goodputBytesPerSecond,
+								 long rttMillis) {
+
+	public static SubscriberResponse from(SubscriberSnapshot snapshot) {
+		return new SubscriberResponse(snapshot.channelId().asShortText(),
+			snapshot.remoteAddress() == null ? null : snapshot.remoteAddress().toString(),
+			snapshot.options().audioOnly(), snapshot.options().lowLatency(), snapshot.joinedAt(),
+			snapshot.catchingUp(), snapshot.backlogFrames(), snapshot.lagMillis(), snapshot.outboundBufferBytes(),
+			snapshot.writable(), snapshot.unackedBytes(), snapshot.goodputBytesPerSecond(), snapshot.rttMillis());
+	}
+}
@@ -16,7 +16,12 @@ import com.hanghae.lemonairstreaming.Handler.HandshakeHandler;
 import com.hanghae.lemonairstreaming.Handler.InboundConnectionLogger;
 import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
 import com.hanghae.lemonairstreaming.rmtp.entity.StreamKey;
+import com.hanghae.lemonairstreaming.rmtp.handover.RtmpHandover;
+import com.hanghae.lemonairstreaming.rmtp.loop.EventLoopIsolation;
 import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.feed.FlvFeedServer;
+import com.hanghae.lemonairstreaming.rmtp.tls.RtmpsContext;
+import com.hanghae.lemonairstreaming.rmtp.warmup.PipelineWarmUp;
 
 import io.netty.channel.ChannelOption;
 import lombok.Getter;
@@ -38,6 +43,21 @@ public abstract class RtmpServer implements CommandLineRunner {
 	@Autowired
 	private WebClient webClient;
 
+	@Autowired
+	private RtmpsContext rtmpsContext;
+
+	@Autowired
+	private FlvFeedServer flvFeedServer;
+
+	@Autowired
+	private PipelineWarmUp pipelineWarmUp;
+
+	@Autowired
+	private RtmpHandover rtmpHandover;
+
+	@Autowired
+	private EventLoopIsolation eventLoopIsolation;
+
 	@Value("${external.transcoding.server.ip}")
 	private String transcodingServerIp;
 
@@ -66,15 +86,48 @@ public abstract class RtmpServer implements CommandLineRunner {
 	}
 
 	private void runWithExtractedMethod(String... args) {
+		// 포트를 열기 전에 핫 경로를 JIT 컴파일해 두어 첫 방송들이 느린 코드를 타지 않게 한다
+		pipelineWarmUp.run();
+
+		DisposableServer server = rtmpServer(rtmpPort, false, EventLoopIsolation.Role.EGRESS).bindNow();
+		rtmpHandover.register(server);
+		// RTMPS 는 TLS 를 벗긴 뒤 같은 파이프라인을 쓰므로 송출과 시청 모두 지원한다
+		DisposableServer secureServer = rtmpsContext.isEnabled()
+			? rtmpServer(rtmpsContext.getPort(), true, EventLoopIsolation.Role.EGRESS).bindNow() : null;
+		if (secureServer != null) {
+			rtmpHandover.register(secureServer);
+		}
+		// 송출 전용 포트는 ingest loop 에서 돌아 시청자 쓰기와 loop 를 나눠 쓰지 않는다
+		int ingestPort = eventLoopIsolation.getIngestPort();
+		DisposableServer ingestServer = ingestPort > 0
+			? rtmpServer(ingestPort, false, EventLoopIsolation.Role.INGEST).bindNow() : null;
+		if (ingestServer != null) {
+			rtmpHandover.register(ingestServer);
+		}
+		// handover 중에는 listen 소켓만 닫히므로 여기서 풀려나도 이미 받은 연결은 계속 처리된다
+		server.onDispose().block();
+		if (secureServer != null) {
+			secureServer.disposeNow();
+		}
+		if (ingestServer != null) {
+			ingestServer.disposeNow();
+		}
+	}
 
-		DisposableServer server = TcpServer.create()
-			.port(rtmpPort)
-			.doOnBound(disposableServer -> log.info("tcp server created"))
-			.doOnConnection(connection -> connection.addHandlerLast(getInboundConnectionLogger())
-				.addHandlerLast(getHandshakeHandler())
-				.addHandlerLast(getChunkDecoder())
-				.addHandlerLast(getChunkEncoder())
-				.addHandlerLast(getRtmpMessageHandler()))
+	private TcpServer rtmpServer(int port, boolean secure, EventLoopIsolation.Role role) {
+		return eventLoopIsolation.configure(rtmpHandover.configure(TcpServer.create()), role)
+			.port(port)
+			.doOnBound(disposableServer -> log.info("tcp server created{} on {}", secure ? " (rtmps)" : "", port))
+			.doOnConnection(connection -> {
+				if (secure) {
+					connection.addHandlerLast(rtmpsContext.newHandler(connection.channel().alloc()));
+				}
+				connection.addHandlerLast(getInboundConnectionLogger())
+					.addHandlerLast(getHandshakeHandler())
+					.addHandlerLast(getChunkDecoder())
+					.addHandlerLast(getChunkEncoder())
+					.addHandlerLast(getRtmpMessageHandler());
+			})
 			.option(ChannelOption.SO_BACKLOG, 128)
 			.childOption(ChannelOption.SO_KEEPALIVE, true)
 			.handle((in, out) -> in.receiveObject()
@@ -88,7 +141,6 @@ public abstract class RtmpServer implements CommandLineRunner {
 						.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
 						.retrieve()
 						.bodyToMono(Boolean.class)
-						.log()
 						.retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
 						.doOnError(error -> log.info(error.getMessage()))
 						.onErrorReturn(Boolean.FALSE)
@@ -100,13 +152,13 @@ public abstract class RtmpServer implements CommandLineRunner {
 							return Mono.empty();
 						});
 				})
-				.then())
-			.bindNow();
-		server.onDispose().block();
+				.then());
 	}
 
 	private CompletableFuture<Void> requestTranscoding(Stream stream) {
-		return stream.getReadyToBroadcast().thenRun(() -> {
+		// 같은 호스트의 트랜스코더가 RTMP 대신 읽을 수 있게 요청 전에 FLV 피드 소켓을 열어 둔다.
+		// 첫 미디어를 받은 publisher 의 event loop 에서 이어지므로 bind 는 피드 서버 스레드에 맡긴다.
+		return stream.getReadyToBroadcast().thenCompose(ready -> flvFeedServer.openAsync(stream)).thenRun(() -> {
 			log.info("트랜스코딩 서버 ip, port {},{}", transcodingServerIp, transcodingServerPort);
 			webClient.get()
 				.uri(transcodingServerIp + ":" + transcodingServerPort + "/transcode/" + stream.getStreamerId())
@@ -126,7 +178,6 @@ public abstract class RtmpServer implements CommandLineRunner {
 			.uri(serviceServerHost + "/api/streams/" + stream.getStreamerId() + "/onair")
 			.retrieve()
 			.bodyToMono(Boolean.class)
-			.log()
 			.retryWhen(Retry.fixedDelay(3, Duration.ofMillis(500)))
 			.doOnError(e -> log.info(e.getMessage()))
 			.onErrorReturn(Boolean.FALSE)
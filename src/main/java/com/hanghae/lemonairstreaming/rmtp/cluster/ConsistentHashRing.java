@@ -0,0 +1,74 @@
+package com.hanghae.lemonairstreaming.rmtp.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * weight 만큼 가상 노드를 링에 올리는 consistent hashing. 노드를 더하거나 빼도 그 노드 몫의 키만 옮겨 간다.
+ * 만든 뒤에는 바뀌지 않으므로 여러 스레드에서 같이 읽어도 된다.
+ */
+public class ConsistentHashRing {
+
+	// weight 1 당 가상 노드 수. 많을수록 고르게 나뉘지만 링이 커진다.
+	static final int POINTS_PER_WEIGHT = 160;
+
+	private final long[] points;
+	private final StreamDirectory.Node[] owners;
+
+	public ConsistentHashRing(List<StreamDirectory.Node> nodes) {
+		List<Point> ring = new ArrayList<>();
+		for (StreamDirectory.Node node : nodes) {
+			if (node.weight() <= 0) {
+				continue;
+			}
+			for (int i = 0; i < node.weight() * POINTS_PER_WEIGHT; i++) {
+				ring.add(new Point(hash(node.id() + "#" + i), node));
+			}
+		}
+		ring.sort(Comparator.comparingLong(Point::hash));
+		this.points = new long[ring.size()];
+		this.owners = new StreamDirectory.Node[ring.size()];
+		for (int i = 0; i < ring.size(); i++) {
+			points[i] = ring.get(i).hash();
+			owners[i] = ring.get(i).node();
+		}
+	}
+
+	// 노드가 없으면 null
+	public StreamDirectory.Node nodeFor(String key) {
+		if (points.length == 0) {
+			return null;
+		}
+		int index = Arrays.binarySearch(points, hash(key));
+		if (index < 0) {
+			index = -index - 1;
+		}
+		return owners[index == points.length ? 0 : index];
+	}
+
+	// MD5 앞 8 바이트. 노드마다 JVM 이 달라도 같은 값을 내야 하므로 String.hashCode 는 쓰지 않는다.
+	static long hash(String key) {
+		byte[] digest = md5().digest(key.getBytes(StandardCharsets.UTF_8));
+		long hash = 0;
+		for (int i = 0; i < 8; i++) {
+			hash = hash << 8 | (digest[i] & 0xff);
+		}
+		return hash;
+	}
+
+	private static MessageDigest md5() {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private record Point(long hash, StreamDirectory.Node node) {
+	}
+}
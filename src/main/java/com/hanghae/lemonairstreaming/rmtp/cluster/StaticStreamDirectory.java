@@ -0,0 +1,90 @@
+package com.hanghae.lemonairstreaming.rmtp.cluster;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 설정에 적은 노드 목록으로 consistent hash 링을 만든다. 노드 목록이 비어 있으면 모든 스트림을 직접 받는다.
+ * 외부 저장소에서 노드 목록을 받아 오는 쪽은 setNodes 로 링을 통째로 바꾼다.
+ */
+@Slf4j
+public class StaticStreamDirectory implements StreamDirectory {
+
+	// 이 서버의 노드 id. nodes 에 같은 id 가 있어야 한다.
+	@Value("${internal.rtmp.cluster.self:}")
+	private String self = "";
+
+	// id=rtmp://host:port|weight 형식, 쉼표로 여러 노드. weight 를 빼면 1 이다.
+	@Value("${internal.rtmp.cluster.nodes:}")
+	private String[] nodes = new String[0];
+
+	private volatile ConsistentHashRing ring;
+
+	public StaticStreamDirectory() {
+	}
+
+	public StaticStreamDirectory(String self, List<Node> nodes) {
+		this.self = self;
+		setNodes(nodes);
+	}
+
+	public void start() {
+		List<Node> parsed = new ArrayList<>();
+		for (String node : nodes) {
+			Node parsedNode = parse(node.trim());
+			if (parsedNode == null) {
+				log.error("잘못된 클러스터 노드 설정: {}", node);
+				continue;
+			}
+			parsed.add(parsedNode);
+		}
+		if (parsed.isEmpty()) {
+			return;
+		}
+		if (parsed.stream().noneMatch(node -> node.id().equals(self))) {
+			log.warn("클러스터 노드 목록에 이 서버({})가 없어 모든 스트림을 다른 노드로 보냅니다", self);
+		}
+		setNodes(parsed);
+		log.info("클러스터 노드 {} 개, 이 서버는 {}", parsed.size(), self);
+	}
+
+	public void setNodes(List<Node> nodes) {
+		ring = nodes.isEmpty() ? null : new ConsistentHashRing(nodes);
+	}
+
+	@Override
+	public Node ownerOf(String streamerId) {
+		ConsistentHashRing current = ring;
+		if (current == null || streamerId == null) {
+			return null;
+		}
+		Node owner = current.nodeFor(streamerId);
+		return owner == null || owner.id().equals(self) ? null : owner;
+	}
+
+	private static Node parse(String node) {
+		int separator = node.indexOf('=');
+		if (separator <= 0) {
+			return null;
+		}
+		String url = node.substring(separator + 1);
+		int weight = 1;
+		int weightSeparator = url.lastIndexOf('|');
+		if (weightSeparator >= 0) {
+			try {
+				weight = Integer.parseInt(url.substring(weightSeparator + 1).trim());
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			url = url.substring(0, weightSeparator);
+		}
+		if (url.isBlank()) {
+			return null;
+		}
+		return new Node(node.substring(0, separator).trim(), url.trim(), weight);
+	}
+}
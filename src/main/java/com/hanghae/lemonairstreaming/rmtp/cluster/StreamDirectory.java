@@ -0,0 +1,18 @@
+package com.hanghae.lemonairstreaming.rmtp.cluster;
+
+/**
+ * streamerId 를 받을 노드를 정한다. onConnect 에서 event loop 스레드로 부르므로 구현은 막히지 않고
+ * 메모리에 있는 정보로 답해야 한다. 외부 저장소를 쓰는 구현은 별도 스레드에서 노드 목록을 갱신해 둔다.
+ */
+public interface StreamDirectory {
+
+	// 노드가 하나뿐인 서버. 모든 스트림을 직접 받는다.
+	StreamDirectory LOCAL = streamerId -> null;
+
+	// 다른 노드가 맡아야 하면 그 노드를, 이 노드가 맡으면 null 을 돌려준다
+	Node ownerOf(String streamerId);
+
+	// url 은 rtmp://host:port 형식으로 뒤에 streamerId 를 붙여 redirect 한다. weight 배만큼 스트림을 더 받는다.
+	record Node(String id, String url, int weight) {
+	}
+}
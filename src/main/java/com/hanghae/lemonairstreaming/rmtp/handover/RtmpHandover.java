@@ -0,0 +1,165 @@
+package com.hanghae.lemonairstreaming.rmtp.handover;
+
+import java.net.StandardSocketOptions;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.socket.nio.NioChannelOption;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.DisposableServer;
+import reactor.netty.transport.ServerTransport;
+
+/**
+ * 배포 중에도 방송이 끊기지 않도록 새 프로세스에 RTMP 포트를 넘긴다.
+ * 두 프로세스 모두 SO_REUSEPORT 로 같은 RTMP, HTTP 포트를 열고, 새 프로세스가 뜨면 이전 프로세스를 SIGTERM 으로 멈춘다.
+ * 이전 프로세스는 listen 소켓만 닫아 새 연결을 받지 않고, publisher 에게 다시 접속하라고 알린다.
+ * publisher 가 떠날 때까지 시청자에게 계속 보내고, 떠나면 EOF 를 보내 시청자도 새 프로세스로 다시 접속하게 한다.
+ * publisher 가 새 프로세스에서 계속 송출하므로 방송 종료는 알리지 않는다.
+ */
+@Slf4j
+public class RtmpHandover {
+
+	private static final long POLL_MILLIS = 100;
+	private static final Counter MOVED = streamCounter("moved");
+	private static final Counter CUT = streamCounter("cut");
+
+	private final StreamContext context;
+	private final PlayerWaitingRoom waitingRoom;
+	private final List<DisposableServer> servers = new CopyOnWriteArrayList<>();
+
+	@Value("${internal.rtmp.handover.enabled:false}")
+	private boolean enabled;
+
+	// publisher 가 이 시간 안에 떠나지 않으면 방송을 끊는다. 대부분의 송출 프로그램은 끊기면 스스로 다시 접속한다.
+	@Value("${internal.rtmp.handover.drain-timeout-ms:60000}")
+	private long drainTimeoutMillis = 60_000;
+
+	public RtmpHandover(StreamContext context, PlayerWaitingRoom waitingRoom) {
+		this.context = context;
+		this.waitingRoom = waitingRoom;
+	}
+
+	public RtmpHandover(StreamContext context, PlayerWaitingRoom waitingRoom, long drainTimeoutMillis) {
+		this.context = context;
+		this.waitingRoom = waitingRoom;
+		this.enabled = true;
+		this.drainTimeoutMillis = drainTimeoutMillis;
+	}
+
+	private static Counter streamCounter(String result) {
+		return Counter.builder("rtmp.handover.streams")
+			.description("Live streams handed over to the next process, or cut when the drain timed out")
+			.tag("result", result)
+			.register(Metrics.globalRegistry);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// 이전 프로세스가 아직 열고 있는 포트에 함께 bind 한다. Reactor Netty 와 같은 transport 의 옵션을 쓴다.
+	// RTMP 포트뿐 아니라 WebFlux 의 HTTP 포트도 같은 방식으로 넘긴다.
+	public <T extends ServerTransport<T, ?>> T configure(T server) {
+		if (!enabled) {
+			return server;
+		}
+		return Epoll.isAvailable() ? server.option(EpollChannelOption.SO_REUSEPORT, true)
+			: server.option(NioChannelOption.of(StandardSocketOptions.SO_REUSEPORT), true);
+	}
+
+	public void register(DisposableServer server) {
+		servers.add(server);
+	}
+
+	public void stop() {
+		if (!enabled) {
+			return;
+		}
+		List<Stream> live = beginDrain();
+		awaitDrain(live, System.currentTimeMillis() + drainTimeoutMillis);
+		cutRemaining(live);
+	}
+
+	// listen 소켓을 닫고 publisher 에게 다시 접속하라고 알린다. 이미 받은 연결은 그대로 둔다.
+	List<Stream> beginDrain() {
+		context.setHandingOver(true);
+		for (DisposableServer server : servers) {
+			server.channel().close().awaitUninterruptibly(5, TimeUnit.SECONDS);
+		}
+		// 방송 시작을 기다리던 시청자는 새 프로세스에서 기다리게 한다
+		waitingRoom.expireAll();
+		// 파일 소스 방송은 publisher 가 없으므로 넘기지 않고 FlvFileSourceManager 가 멈출 때 끝난다
+		List<Stream> live = context.context.values().stream()
+			.filter(stream -> stream.getPublisher() != null || stream.isAwaitingPublisher())
+			.toList();
+		log.info("새 프로세스로 넘기기 위해 연결을 더 받지 않습니다. 방송 {} 개를 넘깁니다.", live.size());
+		for (Stream stream : live) {
+			Channel publisher = stream.getPublisher();
+			if (publisher != null) {
+				publisher.writeAndFlush(
+					MessageProvider.reconnectRequest("Server is restarting, reconnect to continue publishing"));
+			} else {
+				// reconnect grace 중인 방송은 publisher 가 새 프로세스로 돌아오므로 시청자만 보낸다
+				stream.execute(() -> endWithoutOffAir(stream));
+			}
+		}
+		return live;
+	}
+
+	private void endWithoutOffAir(Stream stream) {
+		if (!stream.isClosed()) {
+			stream.closeStream();
+		}
+		context.context.remove(stream.getStreamerId(), stream);
+	}
+
+	// publisher 가 떠나면 RtmpMessageHandler 가 Stream 을 닫는다
+	boolean awaitDrain(List<Stream> live, long deadline) {
+		while (live.stream().anyMatch(RtmpHandover::isLive)) {
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			try {
+				Thread.sleep(POLL_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void cutRemaining(List<Stream> live) {
+		for (Stream stream : live) {
+			if (!isLive(stream)) {
+				MOVED.increment();
+				continue;
+			}
+			log.info("스트리머: {} publisher 가 {} ms 안에 떠나지 않아 연결을 끊습니다.", stream.getStreamerId(),
+				drainTimeoutMillis);
+			CUT.increment();
+			Channel publisher = stream.getPublisher();
+			if (publisher != null) {
+				publisher.close();
+			}
+		}
+		awaitDrain(live, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5));
+	}
+
+	private static boolean isLive(Stream stream) {
+		return !stream.isClosed();
+	}
+}
@@ -0,0 +1,164 @@
+package com.hanghae.lemonairstreaming.rmtp.loop;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.EventExecutor;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.tcp.TcpServer;
+
+/**
+ * RTMP listener 를 Reactor Netty 의 공용 loop(WebFlux HTTP, WebClient 와 같이 쓰는 loop) 대신 전용 loop 에서 돌린다.
+ * ingest-port 를 정하면 그 포트로 들어온 연결(송출)은 ingest loop 에서, 나머지 RTMP/RTMPS 포트의 연결은 egress loop 에서
+ * 처리해 시청자가 많은 loop 에서 쓰기가 밀려도 publisher 읽기가 늦어지지 않게 한다.
+ * 채널은 accept 한 loop 에서 끝까지 처리한다. Reactor Netty 가 채널의 loop 를 붙잡아 두므로 등록한 뒤에는 옮기지 않는다.
+ */
+@Slf4j
+public class EventLoopIsolation {
+
+	private static final Pattern CPU_LIST = Pattern.compile("\\d+(-\\d+)?(,\\d+(-\\d+)?)*");
+
+	public enum Role {
+		INGEST, EGRESS
+	}
+
+	@Value("${internal.rtmp.loops.isolation:false}")
+	private boolean enabled;
+
+	// 0 이면 송출 전용 listener 를 열지 않고 송출과 시청 모두 egress loop 에서 처리한다
+	@Value("${internal.rtmp.loops.ingest-port:0}")
+	private int ingestPort;
+
+	@Value("${internal.rtmp.loops.ingest-threads:2}")
+	private int ingestThreads = 2;
+
+	// taskset 형식의 CPU 목록(예: 0-1,4). 비어 있으면 묶지 않는다.
+	@Value("${internal.rtmp.loops.ingest-cpus:}")
+	private String ingestCpus = "";
+
+	// 0 이면 Netty 기본값(코어 수의 두 배)
+	@Value("${internal.rtmp.loops.egress-threads:0}")
+	private int egressThreads;
+
+	@Value("${internal.rtmp.loops.egress-cpus:}")
+	private String egressCpus = "";
+
+	private EventLoopGroup ingest;
+	private EventLoopGroup egress;
+
+	public EventLoopIsolation() {
+	}
+
+	public EventLoopIsolation(int ingestThreads, int egressThreads) {
+		this.enabled = true;
+		this.ingestThreads = ingestThreads;
+		this.egressThreads = egressThreads;
+	}
+
+	public void start() {
+		if (!enabled) {
+			return;
+		}
+		ingest = newGroup(ingestThreads, "rtmp-ingest", ingestCpus);
+		egress = newGroup(egressThreads, "rtmp-egress", egressCpus);
+		log.info("RTMP 를 전용 event loop 에서 처리합니다. ingest {} 개, egress {} 개, ingest 포트 {}", count(ingest),
+			count(egress), ingestPort > 0 ? ingestPort : "없음");
+	}
+
+	public void stop() throws InterruptedException {
+		if (ingest == null) {
+			return;
+		}
+		ingest.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+		egress.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+		ingest = null;
+		egress = null;
+	}
+
+	public boolean isEnabled() {
+		return ingest != null;
+	}
+
+	// 송출 전용 listener 를 열 포트. 꺼져 있거나 정하지 않았으면 0 이다.
+	public int getIngestPort() {
+		return isEnabled() ? ingestPort : 0;
+	}
+
+	// 꺼져 있으면 Reactor Netty 의 공용 loop 를 그대로 쓴다
+	public TcpServer configure(TcpServer server, Role role) {
+		EventLoopGroup group = group(role);
+		return group == null ? server : server.runOn(group);
+	}
+
+	EventLoopGroup group(Role role) {
+		return role == Role.INGEST ? ingest : egress;
+	}
+
+	private static int count(EventLoopGroup group) {
+		int count = 0;
+		for (EventExecutor ignored : group) {
+			count++;
+		}
+		return count;
+	}
+
+	// Reactor Netty 가 고르는 것과 같은 transport 의 loop 를 만든다
+	public static EventLoopGroup newGroup(int threads, String name, String cpus) {
+		ThreadFactory threadFactory = new PinnedThreadFactory(name, cpus);
+		return Epoll.isAvailable() ? new EpollEventLoopGroup(threads, threadFactory)
+			: new NioEventLoopGroup(threads, threadFactory);
+	}
+
+	private static class PinnedThreadFactory extends DefaultThreadFactory {
+
+		private final String cpus;
+
+		PinnedThreadFactory(String name, String cpus) {
+			super(name, true);
+			this.cpus = cpus == null ? "" : cpus.trim();
+			if (!this.cpus.isEmpty() && !CPU_LIST.matcher(this.cpus).matches()) {
+				throw new IllegalArgumentException("잘못된 CPU 목록: " + cpus);
+			}
+		}
+
+		@Override
+		protected Thread newThread(Runnable r, String name) {
+			if (cpus.isEmpty()) {
+				return super.newThread(r, name);
+			}
+			return super.newThread(() -> {
+				pinCurrentThread(cpus);
+				r.run();
+			}, name);
+		}
+	}
+
+	// JDK 에는 affinity API 가 없으므로 Linux 에서 taskset 으로 현재 스레드를 묶는다. 안 되면 경고만 남긴다.
+	private static void pinCurrentThread(String cpus) {
+		try {
+			String tid = Files.readSymbolicLink(Path.of("/proc/thread-self")).getFileName().toString();
+			Process process = new ProcessBuilder("taskset", "-p", "-c", cpus, tid).redirectErrorStream(true).start();
+			process.getInputStream().transferTo(OutputStream.nullOutputStream());
+			if (process.waitFor() != 0) {
+				log.warn("{} 스레드를 CPU {} 에 묶지 못했습니다 (taskset 종료 코드 {})", Thread.currentThread().getName(),
+					cpus, process.exitValue());
+			}
+		} catch (IOException | UnsupportedOperationException e) {
+			log.warn("{} 스레드를 CPU {} 에 묶지 못했습니다", Thread.currentThread().getName(), cpus, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
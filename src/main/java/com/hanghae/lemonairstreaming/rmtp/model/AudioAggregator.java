@@ -0,0 +1,146 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressQueue;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressScheduler;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * audio only 시청자에게 보낼 오디오 프레임을 짧은 구간만큼 모아 aggregate message(type 22) 하나로 보낸다.
+ * 구간이 열릴 때 라이브로 받고 있던 audio only 시청자가 수신자가 되고, 구간 중간에 들어온 시청자는
+ * 다음 구간이 열릴 때까지 프레임을 하나씩 받는다. publisher 의 event loop 에서만 접근한다.
+ */
+class AudioAggregator {
+
+	private static final int TAG_HEADER_SIZE = 11;
+	private static final int BACK_POINTER_SIZE = 4;
+	private static final int MAX_FRAMES = 32;
+	private static final DistributionSummary FRAMES_PER_MESSAGE = DistributionSummary.builder(
+			"rtmp.egress.aggregate.frames")
+		.description("Audio frames packed into one egress aggregate message")
+		.register(Metrics.globalRegistry);
+
+	private final long windowMillis;
+	private final EventLoop eventLoop;
+	private final List<RtmpMediaMessage> frames = new ArrayList<>();
+	private final List<Subscriber> recipients = new ArrayList<>();
+	private ScheduledFuture<?> scheduledFlush;
+
+	AudioAggregator(long windowMillis, EventLoop eventLoop) {
+		this.windowMillis = windowMillis;
+		this.eventLoop = eventLoop;
+	}
+
+	boolean isOpen() {
+		return !recipients.isEmpty();
+	}
+
+	// 받을 시청자가 없으면 구간을 열지 않고 프레임은 평소처럼 하나씩 나간다
+	void open(Collection<Subscriber> subscribers) {
+		for (Subscriber subscriber : subscribers) {
+			if (subscriber.getOptions().audioOnly() && !subscriber.isCatchingUp()
+				&& subscriber.getChannel().isActive()) {
+				subscriber.setAggregating(true);
+				recipients.add(subscriber);
+			}
+		}
+	}
+
+	void add(RtmpMediaMessage message) {
+		frames.add(message.retain());
+		if (frames.size() == 1) {
+			// 오디오가 끊겨도 구간 길이 이상 붙잡고 있지 않는다
+			scheduledFlush = eventLoop.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+		}
+		long span = message.header().getTimestamp() - frames.get(0).header().getTimestamp();
+		if (span >= windowMillis || frames.size() >= MAX_FRAMES) {
+			flush();
+		}
+	}
+
+	void flush() {
+		if (scheduledFlush != null) {
+			scheduledFlush.cancel(false);
+			scheduledFlush = null;
+		}
+		if (!frames.isEmpty()) {
+			RtmpMessage aggregate = build();
+			int lastTimestamp = frames.get(frames.size() - 1).header().getTimestamp();
+			// 스케줄러를 쓰는 시청자는 앞서 큐에 들어간 오디오 뒤로 보낸다
+			Map<EgressScheduler, List<EgressQueue>> fanOut = null;
+			for (Subscriber subscriber : recipients) {
+				Channel channel = subscriber.getChannel();
+				if (!channel.isActive()) {
+					continue;
+				}
+				if (subscriber.getEgressScheduler() == null) {
+					channel.writeAndFlush(new RtmpMessage(aggregate.header(), aggregate.payload().retainedDuplicate()));
+				} else {
+					if (fanOut == null) {
+						fanOut = new IdentityHashMap<>();
+					}
+					fanOut.computeIfAbsent(subscriber.getEgressScheduler(), scheduler -> new ArrayList<>())
+						.add(subscriber.getEgressQueue());
+				}
+				subscriber.setLastSentTimestamp(lastTimestamp);
+			}
+			if (fanOut != null) {
+				fanOut.forEach((scheduler, queues) -> scheduler.submitAudio(queues, aggregate));
+			}
+			aggregate.release();
+			FRAMES_PER_MESSAGE.record(frames.size());
+			frames.forEach(RtmpMediaMessage::release);
+			frames.clear();
+		}
+		recipients.forEach(subscriber -> subscriber.setAggregating(false));
+		recipients.clear();
+	}
+
+	// 각 프레임 앞에 FLV 태그 헤더, 뒤에 back pointer 를 붙인다. payload 는 복사하지 않고 참조만 잡는다.
+	// aggregate 의 timestamp 는 첫 프레임과 같으므로 하위 메시지는 원래 timestamp 를 그대로 쓴다.
+	private RtmpMessage build() {
+		ByteBuf framing = ByteBufAllocator.DEFAULT.buffer(frames.size() * (TAG_HEADER_SIZE + BACK_POINTER_SIZE));
+		ByteBuf[] parts = new ByteBuf[frames.size() * 3];
+		int length = 0;
+		for (int i = 0; i < frames.size(); i++) {
+			RtmpMediaMessage frame = frames.get(i);
+			RtmpHeader header = frame.header();
+			int size = frame.payload().readableBytes();
+			int start = framing.writerIndex();
+			framing.writeByte(header.getType())
+				.writeMedium(size)
+				.writeMedium(header.getTimestamp())
+				.writeByte(header.getTimestamp() >>> 24)
+				.writeMedium(header.getStreamId())
+				.writeInt(TAG_HEADER_SIZE + size);
+			parts[i * 3] = framing.retainedSlice(start, TAG_HEADER_SIZE);
+			parts[i * 3 + 1] = frame.payload().retainedDuplicate();
+			parts[i * 3 + 2] = framing.retainedSlice(start + TAG_HEADER_SIZE, BACK_POINTER_SIZE);
+			length += TAG_HEADER_SIZE + size + BACK_POINTER_SIZE;
+		}
+		framing.release();
+
+		RtmpHeader first = frames.get(0).header();
+		RtmpHeader header = HeaderProvider.aggregateMessageHeader(first.getTimestamp(), length);
+		header.setStreamId(first.getStreamId());
+		return new RtmpMessage(header, Unpooled.wrappedUnmodifiableBuffer(parts));
+	}
+}
@@ -0,0 +1,29 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+// 1초 단위로 수신 바이트를 모아 지수 이동 평균으로 bitrate 를 추정한다
+public class BitrateMeter {
+
+	private static final long WINDOW_MILLIS = 1000;
+
+	private long windowStart;
+	private long windowBytes;
+	private long bitsPerSecond;
+
+	public void add(int bytes, long nowMillis) {
+		if (windowStart == 0) {
+			windowStart = nowMillis;
+		}
+		long elapsed = nowMillis - windowStart;
+		if (elapsed >= WINDOW_MILLIS) {
+			long measured = windowBytes * 8 * 1000 / elapsed;
+			bitsPerSecond = bitsPerSecond == 0 ? measured : (bitsPerSecond + measured) / 2;
+			windowStart = nowMillis;
+			windowBytes = 0;
+		}
+		windowBytes += bytes;
+	}
+
+	public long bitsPerSecond() {
+		return bitsPerSecond;
+	}
+}
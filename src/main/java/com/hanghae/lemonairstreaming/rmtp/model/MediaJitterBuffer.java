@@ -0,0 +1,194 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * publisher 에서 받은 미디어를 잠시 붙잡아 timestamp 순서로 정렬하고 일정한 속도로 Stream 에 넘긴다.
+ * timestamp 는 32 비트 wraparound 와 재접속 등으로 생긴 큰 점프를 보정해 단조 증가하게 만든다.
+ * 모든 메서드는 publisher 의 event loop 에서 호출한다.
+ */
+public class MediaJitterBuffer {
+
+	// 이보다 크게 앞뒤로 뛰는 timestamp 는 끊김으로 보고 이어 붙인다
+	private static final long MAX_TIMESTAMP_JUMP_MILLIS = 5_000;
+	private static final long JUMP_FRAME_INTERVAL_MILLIS = 20;
+	private static final int MAX_BUFFERED_FRAMES = 2048;
+
+	private static final DistributionSummary JITTER = DistributionSummary.builder("rtmp.ingest.jitter")
+		.description("Inter-arrival jitter of publisher media, RFC 3550 estimate")
+		.baseUnit("milliseconds")
+		.register(Metrics.globalRegistry);
+	private static final Counter WRAP_CORRECTIONS = correctionCounter("wrap");
+	private static final Counter JUMP_CORRECTIONS = correctionCounter("jump");
+	private static final Counter MONOTONIC_CORRECTIONS = correctionCounter("non_monotonic");
+	private static final Counter REORDERED = correctionCounter("reorder");
+
+	private final long windowMillis;
+	private final EventExecutor executor;
+	private final Consumer<RtmpMediaMessage> sink;
+	private final PriorityQueue<Frame> frames = new PriorityQueue<>();
+
+	private boolean started;
+	private int lastRawTimestamp;
+	private long unwrappedTimestamp;
+	private long timestampOffset;
+	private long newestTimestamp;
+	// 출력 timestamp 는 0 아래로 내려가지 않는다
+	private long lastReleasedTimestamp;
+	private long sequence;
+
+	// 도착 시각 - timestamp 의 최솟값. 프레임은 playoutBase + timestamp + window 에 내보낸다.
+	private long playoutBase;
+	private long lastTransit;
+	private double jitter;
+	private ScheduledFuture<?> scheduled;
+	private long scheduledAt;
+
+	public MediaJitterBuffer(long windowMillis, EventExecutor executor, Consumer<RtmpMediaMessage> sink) {
+		this.windowMillis = windowMillis;
+		this.executor = executor;
+		this.sink = sink;
+	}
+
+	private static Counter correctionCounter(String type) {
+		return Counter.builder("rtmp.ingest.timestamp.corrections")
+			.description("Media timestamps corrected by the ingest jitter buffer")
+			.tag("type", type)
+			.register(Metrics.globalRegistry);
+	}
+
+	// message 의 참조를 넘겨받는다
+	public void offer(RtmpMediaMessage message) {
+		long now = System.currentTimeMillis();
+		long timestamp = normalize(message.header().getTimestamp());
+		if (timestamp < newestTimestamp) {
+			REORDERED.increment();
+		}
+		newestTimestamp = Math.max(newestTimestamp, timestamp);
+
+		long transit = now - timestamp;
+		if (sequence == 0) {
+			playoutBase = transit;
+		} else {
+			jitter += (Math.abs(transit - lastTransit) - jitter) / 16;
+			JITTER.record(jitter);
+			// window 보다 늦게 온 프레임은 기준점을 다시 잡아 이후 프레임이 다시 고르게 나가게 한다
+			if (transit > playoutBase + windowMillis) {
+				playoutBase = transit;
+			} else {
+				playoutBase = Math.min(playoutBase, transit);
+			}
+		}
+		lastTransit = transit;
+
+		frames.add(new Frame(timestamp, sequence++, message));
+		if (frames.size() > MAX_BUFFERED_FRAMES) {
+			release(frames.poll());
+		}
+		drain(now);
+	}
+
+	public void close() {
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		Frame frame;
+		while ((frame = frames.poll()) != null) {
+			frame.message.release();
+		}
+	}
+
+	private long normalize(int rawTimestamp) {
+		if (!started) {
+			started = true;
+			lastRawTimestamp = rawTimestamp;
+			unwrappedTimestamp = rawTimestamp & 0xffffffffL;
+			newestTimestamp = unwrappedTimestamp;
+			return unwrappedTimestamp;
+		}
+		// 부호 있는 32 비트 차이로 누적하면 2^32 를 넘어가는 순간도 이어진다
+		int delta = rawTimestamp - lastRawTimestamp;
+		if (delta > 0 && Integer.compareUnsigned(rawTimestamp, lastRawTimestamp) < 0) {
+			WRAP_CORRECTIONS.increment();
+		}
+		lastRawTimestamp = rawTimestamp;
+		unwrappedTimestamp += delta;
+
+		long timestamp = unwrappedTimestamp + timestampOffset;
+		if (Math.abs(timestamp - newestTimestamp) > MAX_TIMESTAMP_JUMP_MILLIS) {
+			JUMP_CORRECTIONS.increment();
+			long target = newestTimestamp + JUMP_FRAME_INTERVAL_MILLIS;
+			timestampOffset += target - timestamp;
+			timestamp = target;
+		}
+		return timestamp;
+	}
+
+	private void drain(long now) {
+		Frame head;
+		while ((head = frames.peek()) != null) {
+			long due = playoutBase + head.timestamp + windowMillis;
+			if (due > now) {
+				schedule(due, now);
+				return;
+			}
+			release(frames.poll());
+		}
+	}
+
+	private void release(Frame frame) {
+		long timestamp = frame.timestamp;
+		if (timestamp < lastReleasedTimestamp) {
+			MONOTONIC_CORRECTIONS.increment();
+			timestamp = lastReleasedTimestamp;
+		}
+		lastReleasedTimestamp = timestamp;
+		sink.accept(retimed(frame.message, (int)timestamp));
+	}
+
+	// ChunkDecoder 가 다음 청크의 delta 기준으로 헤더를 다시 쓰므로 고치지 않고 새 헤더를 만든다
+	private static RtmpMediaMessage retimed(RtmpMediaMessage message, int timestamp) {
+		RtmpHeader header = message.header();
+		if (header.getTimestamp() == timestamp) {
+			return message;
+		}
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(header.getType(), timestamp,
+			header.getMessageLength()), message.payload(), message.descriptor());
+	}
+
+	private void schedule(long due, long now) {
+		if (scheduled != null) {
+			if (scheduledAt <= due) {
+				return;
+			}
+			scheduled.cancel(false);
+		}
+		scheduledAt = due;
+		scheduled = executor.schedule(() -> {
+			scheduled = null;
+			drain(System.currentTimeMillis());
+		}, due - now, TimeUnit.MILLISECONDS);
+	}
+
+	private record Frame(long timestamp, long sequence, RtmpMediaMessage message) implements Comparable<Frame> {
+
+		@Override
+		public int compareTo(Frame other) {
+			int compare = Long.compare(timestamp, other.timestamp);
+			return compare != 0 ? compare : Long.compare(sequence, other.sequence);
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+public record PlayOptions(boolean audioOnly, boolean lowLatency) {
+
+	public static final PlayOptions DEFAULT = new PlayOptions(false, false);
+
+	// play 이름의 쿼리로 옵션을 받는다. ex) streamer?audioOnly, streamer?audioOnly=true&lowLatency
+	public static PlayOptions parse(String playName, boolean lowLatencyByDefault) {
+		boolean audioOnly = false;
+		boolean lowLatency = lowLatencyByDefault;
+
+		int queryStart = playName == null ? -1 : playName.indexOf('?');
+		if (queryStart < 0) {
+			return new PlayOptions(audioOnly, lowLatency);
+		}
+
+		for (String param : playName.substring(queryStart + 1).split("&")) {
+			int eq = param.indexOf('=');
+			String key = eq < 0 ? param : param.substring(0, eq);
+			String value = eq < 0 ? "true" : param.substring(eq + 1);
+			if ("audioOnly".equalsIgnoreCase(key)) {
+				audioOnly = isTrue(value);
+			} else if ("lowLatency".equalsIgnoreCase(key)) {
+				lowLatency = isTrue(value);
+			}
+		}
+		return new PlayOptions(audioOnly, lowLatency);
+	}
+
+	private static boolean isTrue(String value) {
+		return value.isEmpty() || "true".equalsIgnoreCase(value) || "1".equals(value);
+	}
+}
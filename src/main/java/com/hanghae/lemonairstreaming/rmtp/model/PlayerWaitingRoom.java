@@ -0,0 +1,171 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 방송 시작 전에 들어온 시청자를 스트리머별로 잠시 세워 둔다. publisher 가 Stream 을 등록하면
+ * 기다리던 시청자를 한 번에 붙이고, 시간 안에 방송이 시작되지 않으면 StreamNotFound 로 돌려보낸다.
+ * 시청자가 재시도를 반복하며 handshake 를 다시 하는 대신 연결 하나로 조용히 기다리게 한다.
+ */
+@Slf4j
+public class PlayerWaitingRoom {
+
+	private static final Counter PARKED = outcomeCounter("parked");
+	private static final Counter ATTACHED = outcomeCounter("attached");
+	private static final Counter EXPIRED = outcomeCounter("expired");
+	private static final Counter REJECTED = outcomeCounter("rejected");
+
+	private final Timer timer;
+	private final ConcurrentHashMap<String, List<Waiting>> waiting = new ConcurrentHashMap<>();
+
+	// 0 이면 기다리지 않고 바로 StreamNotFound 를 보낸다
+	@Value("${internal.rtmp.play.wait-for-publish-ms:0}")
+	private long waitMillis;
+
+	// 스트리머 하나에 기다릴 수 있는 시청자 수. 넘으면 예전처럼 바로 돌려보낸다.
+	@Value("${internal.rtmp.play.max-waiting-per-stream:1000}")
+	private int maxWaitingPerStream = 1000;
+
+	public PlayerWaitingRoom(Timer timer) {
+		this.timer = timer;
+	}
+
+	public PlayerWaitingRoom(Timer timer, long waitMillis, int maxWaitingPerStream) {
+		this.timer = timer;
+		this.waitMillis = waitMillis;
+		this.maxWaitingPerStream = maxWaitingPerStream;
+	}
+
+	private static Counter outcomeCounter(String outcome) {
+		return Counter.builder("rtmp.play.waiting")
+			.description("Players that arrived before the publisher, by what happened to them")
+			.tag("outcome", outcome)
+			.register(Metrics.globalRegistry);
+	}
+
+	/**
+	 * 방송이 시작되면 attach 를, 시간이 지나면 expire 를 시청자 채널의 event loop 에서 실행한다.
+	 * 기다리지 않기로 했으면 false 를 돌려주고 아무것도 실행하지 않는다.
+	 */
+	public boolean park(String streamerId, Channel channel, Consumer<Stream> attach, Runnable expire) {
+		if (waitMillis <= 0 || streamerId == null) {
+			return false;
+		}
+		Waiting entry = new Waiting(channel, attach, expire);
+		boolean[] admitted = new boolean[1];
+		waiting.compute(streamerId, (id, list) -> {
+			List<Waiting> players = list == null ? new ArrayList<>() : list;
+			if (players.size() < maxWaitingPerStream) {
+				players.add(entry);
+				admitted[0] = true;
+			}
+			return players.isEmpty() ? null : players;
+		});
+		if (!admitted[0]) {
+			REJECTED.increment();
+			return false;
+		}
+		PARKED.increment();
+		entry.timeout = timer.newTimeout(t -> expire(streamerId, entry), waitMillis, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	// 기다리던 시청자가 먼저 연결을 끊으면 자리를 비운다
+	public void leave(String streamerId, Channel channel) {
+		if (streamerId == null) {
+			return;
+		}
+		waiting.computeIfPresent(streamerId, (id, players) -> {
+			players.removeIf(entry -> {
+				if (entry.channel != channel) {
+					return false;
+				}
+				cancel(entry);
+				return true;
+			});
+			return players.isEmpty() ? null : players;
+		});
+	}
+
+	// Stream 이 등록된 뒤 publisher 쪽에서 호출한다
+	public void release(Stream stream) {
+		List<Waiting> players = waiting.remove(stream.getStreamerId());
+		if (players == null) {
+			return;
+		}
+		log.info("스트리머: {} 방송 시작을 기다리던 시청자 {} 명을 붙입니다.", stream.getStreamerId(), players.size());
+		for (Waiting entry : players) {
+			cancel(entry);
+			ATTACHED.increment();
+			entry.channel.eventLoop().execute(() -> entry.attach.accept(stream));
+		}
+	}
+
+	// 이 노드가 더는 방송을 받지 않으면 기다리던 시청자를 모두 돌려보내 다른 곳에 다시 접속하게 한다
+	public void expireAll() {
+		for (String streamerId : List.copyOf(waiting.keySet())) {
+			List<Waiting> players = waiting.remove(streamerId);
+			if (players == null) {
+				continue;
+			}
+			for (Waiting entry : players) {
+				cancel(entry);
+				EXPIRED.increment();
+				entry.channel.eventLoop().execute(entry.expire);
+			}
+		}
+	}
+
+	public int waitingCount(String streamerId) {
+		List<Waiting> players = waiting.get(streamerId);
+		return players == null ? 0 : players.size();
+	}
+
+	// 목록에서 직접 뺀 쪽만 expire 를 실행하므로 release 와 겹쳐도 한 번만 처리된다
+	private void expire(String streamerId, Waiting entry) {
+		boolean[] removed = new boolean[1];
+		waiting.computeIfPresent(streamerId, (id, players) -> {
+			removed[0] = players.remove(entry);
+			return players.isEmpty() ? null : players;
+		});
+		if (removed[0]) {
+			EXPIRED.increment();
+			entry.channel.eventLoop().execute(entry.expire);
+		}
+	}
+
+	private static void cancel(Waiting entry) {
+		// park 가 timeout 을 정하기 전에 release 될 수 있다. 그때는 expire 가 목록에서 못 찾아 아무 일도 하지 않는다.
+		Timeout timeout = entry.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+	}
+
+	private static final class Waiting {
+
+		private final Channel channel;
+		private final Consumer<Stream> attach;
+		private final Runnable expire;
+		private volatile Timeout timeout;
+
+		private Waiting(Channel channel, Consumer<Stream> attach, Runnable expire) {
+			this.channel = channel;
+			this.attach = attach;
+			this.expire = expire;
+		}
+	}
+}
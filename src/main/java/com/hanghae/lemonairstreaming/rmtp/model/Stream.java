@@ -1,20 +1,42 @@
 package com.hanghae.lemonairstreaming.rmtp.model;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressQueue;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressScheduler;
+import com.hanghae.lemonairstreaming.rmtp.model.journal.StreamEvent;
+import com.hanghae.lemonairstreaming.rmtp.model.journal.StreamJournal;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpJoinBundle;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
 import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.ChunkWriter;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
 import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelId;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.netty.channel.EventLoop;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.Timeout;
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -24,87 +46,566 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class Stream {
 
-	private final Set<Channel> subscribers;
+	private static final int GOP_CACHE_LIMIT = 1024;
+	private static final int JOIN_BUNDLE_CHUNK_SIZE = RtmpConstants.RTMP_DEFAULT_CHUNK_SIZE;
+	// 다시 붙은 publisher 의 첫 미디어와 끊기기 전 마지막 미디어 사이의 간격
+	private static final int REATTACH_GAP_MILLIS = 40;
+	private static final Timer CATCH_UP_TIMER = Timer.builder("rtmp.join.catchup")
+		.description("Time for a paced joining viewer to reach the live edge")
+		.register(Metrics.globalRegistry);
+
+	private final Map<ChannelId, Subscriber> subscribers;
 	private final String streamerId;
-	private final BlockingQueue<RtmpMediaMessage> rtmpGopCache;
+	private final List<RtmpMediaMessage> rtmpGopCache;
+	private final StreamJournal journal;
 	private Map<String, Object> metadata;
+	// RTMP 로 송출하면 publisher 채널이 있고, 파일 소스처럼 서버 안에서 송출하면 null 이다
 	private Channel publisher;
+	private EventLoop eventLoop;
 	private String streamKey;
 	private RtmpMediaMessage videoConfig;
 	private RtmpMediaMessage audioConfig;
 
 	private CompletableFuture<Boolean> readyToBroadcast;
+	private long lastMediaTime;
+	private int lastTimestamp;
+	private long gopBytes;
+	private boolean closed;
+	// publisher 가 끊긴 뒤 reconnect grace 동안 다시 붙기를 기다리는 중이면 true
+	private boolean awaitingPublisher;
+	// 서비스 서버가 stream key 를 확인했으면 true. 같은 키로 다시 송출할 때만 이어 붙인다.
+	private volatile boolean keyVerified;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private Timeout reconnectGrace;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private volatile Runnable graceExpiry;
+	// 다시 붙은 publisher 의 timestamp 에 더하는 값. 다시 붙은 뒤 첫 미디어에서 정한다.
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private int timestampOffset;
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private boolean rebasePending;
+	private final BitrateMeter bitrate = new BitrateMeter();
+	// 0 이면 GOP 를 한 번에 보내고, 양수면 측정 bitrate 의 배수로 나눠 보낸다
+	private double joinPacingMultiplier;
+	// 나눠 보내는 동안 시청자 한 명에게 쌓아둘 수 있는 최대 크기
+	private long maxJoinBacklogBytes = 8 * 1024 * 1024;
+	// null 이면 audio only 시청자에게도 프레임을 하나씩 보낸다
+	@Getter(AccessLevel.NONE)
+	@Setter(AccessLevel.NONE)
+	private AudioAggregator audioAggregator;
+
+	// join bundle 재료. publisher 의 event loop 에서만 접근한다
+	@Getter(AccessLevel.NONE)
+	private final List<ByteBuf> encodedGop = new ArrayList<>();
+	@Getter(AccessLevel.NONE)
+	private final ByteBuf[] joinPrefixes = new ByteBuf[2];
+	// join 변형별 bundle 과 그 안의 GOP 프레임 수. 키프레임, 시퀀스 헤더, 메타데이터가 바뀔 때만 버린다.
+	@Getter(AccessLevel.NONE)
+	private final ByteBuf[] joinBundles = new ByteBuf[2];
+	@Getter(AccessLevel.NONE)
+	private final int[] joinBundleFrames = new int[2];
+	// joinBundles 뒤에 그 뒤로 들어온 프레임을 붙인 것. 다음 프레임 전까지 들어온 시청자가 함께 쓴다.
+	@Getter(AccessLevel.NONE)
+	private final ByteBuf[] joinViews = new ByteBuf[2];
+	@Getter(AccessLevel.NONE)
+	private final int[] joinViewFrames = new int[2];
 
 	public Stream(String streamerId) {
 		this.streamerId = streamerId;
-		this.subscribers = new LinkedHashSet<>();
-		this.rtmpGopCache = new ArrayBlockingQueue<>(1024);
+		this.subscribers = new LinkedHashMap<>();
+		this.rtmpGopCache = new ArrayList<>();
+		this.journal = new StreamJournal();
 		this.readyToBroadcast = new CompletableFuture<>();
+		this.lastMediaTime = System.currentTimeMillis();
+	}
+
+	public void setPublisher(Channel publisher) {
+		this.publisher = publisher;
+		this.eventLoop = publisher.eventLoop();
+	}
+
+	// 0 이면 aggregate 를 쓰지 않는다. eventLoop 가 정해진 뒤에 호출한다.
+	public void setAudioAggregateWindowMillis(long windowMillis) {
+		audioAggregator = windowMillis > 0 ? new AudioAggregator(windowMillis, eventLoop) : null;
+	}
+
+	public boolean isPublishedBy(Channel channel) {
+		return publisher != null && publisher.id().equals(channel.id());
+	}
+
+	// 구독자 목록과 GOP 는 송출 쪽 event loop 에서만 변경한다
+	public void execute(Runnable task) {
+		if (eventLoop.inEventLoop()) {
+			task.run();
+		} else {
+			eventLoop.execute(task);
+		}
 	}
 
+	// message 의 참조 하나를 넘겨받는다. GOP 와 시퀀스 헤더 캐시는 각자 참조를 따로 잡는다.
 	public void addMedia(RtmpMediaMessage message) {
-		short type = message.header().getType();
-		if (type == (short)RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO) {
-			if (message.isAudioConfig()) {
-				log.info("Audio config is set");
-				audioConfig = message;
-			}
-		} else if (type == (short)RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
-			if (message.isVideoConfig()) {
-				log.info("Video config is set");
-				videoConfig = message;
-			}
-			if (message.isKeyframe()) {
-				log.info("Keyframe added. {} frames cleared", rtmpGopCache.size());
-				rtmpGopCache.clear();
+		if (closed) {
+			message.release();
+			return;
+		}
+		if (rebasePending || timestampOffset != 0) {
+			message = rebase(message);
+		}
+		lastMediaTime = System.currentTimeMillis();
+		lastTimestamp = message.header().getTimestamp();
+		int size = message.payload().readableBytes();
+		bitrate.add(size, lastMediaTime);
+		MediaDescriptor descriptor = message.descriptor();
+		if (descriptor.isAudioConfig()) {
+			journal.record(StreamEvent.Type.AUDIO_CONFIG, size);
+			release(audioConfig);
+			audioConfig = message.retain();
+			invalidateJoinPrefixes();
+			invalidateJoinBundles();
+		} else if (descriptor.isVideoConfig()) {
+			journal.record(StreamEvent.Type.VIDEO_CONFIG, size);
+			release(videoConfig);
+			videoConfig = message.retain();
+			invalidateJoinPrefixes();
+			invalidateJoinBundles();
+		} else if (descriptor.isKeyframe()) {
+			journal.record(StreamEvent.Type.KEYFRAME, rtmpGopCache.size());
+			clearGop();
+			invalidateJoinBundles();
+		}
+		// 시퀀스 헤더는 join 시 따로 보내므로 GOP 에 넣지 않는다
+		if (!descriptor.sequenceHeader()) {
+			if (rtmpGopCache.size() < GOP_CACHE_LIMIT) {
+				rtmpGopCache.add(message.retain());
+				gopBytes += size;
+			} else {
+				journal.record(StreamEvent.Type.DROP, rtmpGopCache.size());
 			}
 		}
-		rtmpGopCache.add(message);
 		broadcastMessage(message);
+		message.release();
+	}
+
+	// ChunkDecoder 가 헤더를 다음 청크의 기준으로 계속 쓰므로 헤더를 고치지 않고 새로 만든다
+	private RtmpMediaMessage rebase(RtmpMediaMessage message) {
+		RtmpHeader header = message.header();
+		if (rebasePending) {
+			timestampOffset = lastTimestamp + REATTACH_GAP_MILLIS - header.getTimestamp();
+			rebasePending = false;
+		}
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(header.getType(),
+			header.getTimestamp() + timestampOffset, header.getMessageLength()), message.payload(),
+			message.descriptor());
 	}
 
 	public void broadcastMessage(RtmpMediaMessage message) {
 		if (!readyToBroadcast.isDone()) {
 			readyToBroadcast.complete(Boolean.TRUE);
 		}
-		Iterator<Channel> channelIterator = subscribers.iterator();
-		while (channelIterator.hasNext()) {
-			Channel next = channelIterator.next();
-			if (next.isActive()) {
-				next.writeAndFlush(RtmpMediaMessage.toRtmpMessage(message));
-			} else {
-				log.info("Inactive channel detected");
-				channelIterator.remove();
+		boolean aggregate = audioAggregator != null
+			&& message.header().getType() == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+		if (aggregate && !audioAggregator.isOpen()) {
+			audioAggregator.open(subscribers.values());
+		}
+		// 스케줄러를 쓰는 시청자는 event loop 별로 모아서 loop 마다 한 번만 넘긴다
+		Map<EgressScheduler, List<EgressQueue>> fanOut = null;
+		Iterator<Subscriber> subscriberIterator = subscribers.values().iterator();
+		while (subscriberIterator.hasNext()) {
+			Subscriber next = subscriberIterator.next();
+			Channel channel = next.getChannel();
+			if (!channel.isActive()) {
+				subscriberIterator.remove();
+				next.release();
+				journal.record(StreamEvent.Type.SUBSCRIBER_LEAVE, subscribers.size(), channel.id());
+			} else if (next.isCatchingUp()) {
+				if (next.accepts(message)) {
+					next.enqueue(message);
+				}
+				drainBacklog(next);
+			} else if (aggregate && next.isAggregating()) {
+				// audioAggregator 가 모아서 보낸다
+			} else if (next.accepts(message)) {
+				if (next.getEgressScheduler() == null) {
+					channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(message));
+				} else {
+					if (fanOut == null) {
+						fanOut = new IdentityHashMap<>();
+					}
+					fanOut.computeIfAbsent(next.getEgressScheduler(), scheduler -> new ArrayList<>())
+						.add(next.getEgressQueue());
+				}
+				next.setLastSentTimestamp(message.header().getTimestamp());
 			}
 		}
+		if (fanOut != null) {
+			fanOut.forEach((scheduler, queues) -> scheduler.submit(queues, message));
+		}
+		if (aggregate && audioAggregator.isOpen()) {
+			audioAggregator.add(message);
+		}
 	}
 
-	public void addSubscriber(Channel channel) {
-		log.info("Subscriber {} added to stream {}", channel.remoteAddress(), streamerId);
-		subscribers.add(channel);
+	private void drainBacklog(Subscriber subscriber) {
+		long now = System.currentTimeMillis();
+		if (subscriber.drainBacklog(now)) {
+			CATCH_UP_TIMER.record(now - subscriber.getJoinedAt(), TimeUnit.MILLISECONDS);
+		}
+	}
 
-		channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(videoConfig));
-		channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(audioConfig));
+	public void addSubscriber(Channel channel, PlayOptions options, EgressScheduler egressScheduler) {
+		execute(() -> attachSubscriber(channel, options, egressScheduler));
+	}
 
-		log.info("Sending group of pictures to client");
+	private void attachSubscriber(Channel channel, PlayOptions options, EgressScheduler egressScheduler) {
+		if (closed) {
+			channel.writeAndFlush(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF))
+				.addListener(ChannelFutureListener.CLOSE);
+			return;
+		}
+		Subscriber subscriber = new Subscriber(channel, options, egressScheduler);
+		subscribers.put(channel.id(), subscriber);
+		journal.record(StreamEvent.Type.SUBSCRIBER_JOIN, subscribers.size(), channel.id());
+
+		if (options.lowLatency()) {
+			// GOP 를 보내면 비디오만 지난 키프레임부터 재생돼 라이브 시점의 오디오와 어긋난다.
+			// 상태 메시지와 시퀀스 헤더만 보내고 오디오와 비디오 모두 라이브 엣지에서, 비디오는 다음 키프레임부터 시작한다.
+			channel.writeAndFlush(
+				new RtmpJoinBundle(joinPrefix(options.audioOnly()).retainedDuplicate(), JOIN_BUNDLE_CHUNK_SIZE));
+			subscriber.setLastSentTimestamp(lastTimestamp);
+			subscriber.awaitKeyframe();
+			return;
+		}
+
+		if (joinPacingMultiplier > 0) {
+			// 상태 메시지와 시퀀스 헤더만 먼저 보내고 GOP 는 라이브 프레임과 함께 나눠 보낸다
+			channel.writeAndFlush(
+				new RtmpJoinBundle(joinPrefix(options.audioOnly()).retainedDuplicate(), JOIN_BUNDLE_CHUNK_SIZE));
+			subscriber.setLastSentTimestamp(
+				rtmpGopCache.isEmpty() ? lastTimestamp : rtmpGopCache.get(0).header().getTimestamp());
+			subscriber.startCatchUp(rtmpGopCache, (long)(bitrate.bitsPerSecond() / 8 * joinPacingMultiplier),
+				maxJoinBacklogBytes);
+			drainBacklog(subscriber);
+			return;
+		}
+
+		// 상태 메시지, 메타데이터, 시퀀스 헤더, GOP 를 한 번의 write 와 flush 로 보낸다
+		ByteBuf bundle = joinBundle(options.audioOnly());
+		channel.writeAndFlush(new RtmpJoinBundle(bundle.retainedDuplicate(), JOIN_BUNDLE_CHUNK_SIZE));
+		subscriber.setLastSentTimestamp(lastTimestamp);
+	}
+
+	// 같은 호스트의 트랜스코더가 읽는 FLV 피드. 채널 파이프라인이 RtmpMessage 를 FLV tag 로 바꾼다.
+	public void addFeed(Channel channel, EgressScheduler egressScheduler) {
+		execute(() -> attachFeed(channel, egressScheduler));
+	}
+
+	private void attachFeed(Channel channel, EgressScheduler egressScheduler) {
+		if (closed) {
+			channel.close();
+			return;
+		}
+		Subscriber subscriber = new Subscriber(channel, PlayOptions.DEFAULT, egressScheduler);
+		subscriber.setDropOnBackpressure(true);
+		subscribers.put(channel.id(), subscriber);
+		journal.record(StreamEvent.Type.SUBSCRIBER_JOIN, subscribers.size(), channel.id());
+
+		// RTMP join bundle 은 청크로 인코딩돼 있으므로 메타데이터, 시퀀스 헤더, GOP 를 메시지로 보낸다
+		if (metadata != null) {
+			List<Object> onMetaData = new ArrayList<>();
+			onMetaData.add("onMetaData");
+			onMetaData.add(metadata);
+			channel.write(MessageProvider.dataMessage(onMetaData));
+		}
+		if (videoConfig != null) {
+			channel.write(RtmpMediaMessage.toRtmpMessage(videoConfig));
+		}
+		if (audioConfig != null) {
+			channel.write(RtmpMediaMessage.toRtmpMessage(audioConfig));
+		}
 		for (RtmpMediaMessage message : rtmpGopCache) {
-			channel.writeAndFlush(RtmpMediaMessage.toRtmpMessage(message));
+			channel.write(RtmpMediaMessage.toRtmpMessage(message));
+		}
+		channel.flush();
+		subscriber.setLastSentTimestamp(lastTimestamp);
+	}
+
+	private ByteBuf joinBundle(boolean audioOnly) {
+		int key = audioOnly ? 1 : 0;
+		int frames = rtmpGopCache.size();
+		if (joinViews[key] != null && joinViewFrames[key] == frames) {
+			return joinViews[key];
+		}
+
+		encodeGop();
+		// 뒤에 붙일 프레임이 bundle 안의 프레임보다 많아지면 bundle 을 다시 만든다.
+		// GOP 하나에서 다시 만드는 횟수가 로그 수준으로 줄고, 붙이는 비용도 bundle 크기를 넘지 않는다.
+		if (joinBundles[key] == null || frames - joinBundleFrames[key] > joinBundleFrames[key]) {
+			release(joinBundles[key]);
+			List<ByteBuf> parts = new ArrayList<>(frames + 1);
+			parts.add(joinPrefix(audioOnly).retainedDuplicate());
+			addGopParts(parts, audioOnly, 0, frames);
+			joinBundles[key] = Unpooled.wrappedUnmodifiableBuffer(parts.toArray(ByteBuf[]::new));
+			joinBundleFrames[key] = frames;
+		}
+
+		List<ByteBuf> parts = new ArrayList<>(frames - joinBundleFrames[key] + 1);
+		parts.add(joinBundles[key].retainedDuplicate());
+		addGopParts(parts, audioOnly, joinBundleFrames[key], frames);
+		release(joinViews[key]);
+		joinViews[key] = parts.size() == 1 ? parts.get(0)
+			: Unpooled.wrappedUnmodifiableBuffer(parts.toArray(ByteBuf[]::new));
+		joinViewFrames[key] = frames;
+		return joinViews[key];
+	}
+
+	private void addGopParts(List<ByteBuf> parts, boolean audioOnly, int from, int to) {
+		for (int i = from; i < to; i++) {
+			RtmpMediaMessage message = rtmpGopCache.get(i);
+			boolean video = message.header().getType() == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+			if (audioOnly && video) {
+				continue;
+			}
+			parts.add(encodedGop.get(i).retainedDuplicate());
+		}
+	}
+
+	private ByteBuf joinPrefix(boolean audioOnly) {
+		int key = audioOnly ? 1 : 0;
+		ByteBuf prefix = joinPrefixes[key];
+		if (prefix != null) {
+			return prefix;
+		}
+
+		prefix = ByteBufAllocator.DEFAULT.ioBuffer();
+		writeFmt0(prefix, MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_BEGIN));
+		writeFmt0(prefix, MessageProvider.onStatus("status", "NetStream.Play.Start", "Strat live"));
+
+		List<Object> args = new ArrayList<>();
+		args.add("|RtmpSampleAccess");
+		args.add(true);
+		args.add(true);
+		writeFmt0(prefix, MessageProvider.commandMessage(args));
+
+		List<Object> onMetaData = new ArrayList<>();
+		onMetaData.add("onMetaData");
+		onMetaData.add(metadata);
+		writeFmt0(prefix, MessageProvider.dataMessage(onMetaData));
+
+		if (videoConfig != null && !audioOnly) {
+			writeFmt0(prefix, RtmpMediaMessage.toRtmpMessage(videoConfig));
+		}
+		if (audioConfig != null) {
+			writeFmt0(prefix, RtmpMediaMessage.toRtmpMessage(audioConfig));
+		}
+
+		joinPrefixes[key] = prefix;
+		return prefix;
+	}
+
+	private void encodeGop() {
+		for (int i = encodedGop.size(); i < rtmpGopCache.size(); i++) {
+			RtmpMediaMessage message = rtmpGopCache.get(i);
+			ByteBuf encoded = ByteBufAllocator.DEFAULT.ioBuffer(
+				ChunkWriter.encodedSize(message.payload().readableBytes(), JOIN_BUNDLE_CHUNK_SIZE));
+			writeFmt0(encoded, RtmpMediaMessage.toRtmpMessage(message));
+			encodedGop.add(encoded);
+		}
+	}
+
+	private void writeFmt0(ByteBuf out, RtmpMessage message) {
+		ChunkWriter.writeFmt0(out, message.header(), message.header().getTimestamp(), message.payload(),
+			JOIN_BUNDLE_CHUNK_SIZE);
+		message.release();
+	}
+
+	private void clearGop() {
+		rtmpGopCache.forEach(RtmpMediaMessage::release);
+		rtmpGopCache.clear();
+		gopBytes = 0;
+		encodedGop.forEach(ByteBuf::release);
+		encodedGop.clear();
+	}
+
+	private void invalidateJoinPrefixes() {
+		for (int i = 0; i < joinPrefixes.length; i++) {
+			if (joinPrefixes[i] != null) {
+				joinPrefixes[i].release();
+				joinPrefixes[i] = null;
+			}
+		}
+	}
+
+	private void invalidateJoinBundles() {
+		for (int i = 0; i < joinBundles.length; i++) {
+			release(joinBundles[i]);
+			joinBundles[i] = null;
+			release(joinViews[i]);
+			joinViews[i] = null;
 		}
 	}
 
 	public void closeStream() {
-		log.info("Closing stream");
-		RtmpMessage eof = MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF);
-		for (Channel channel : subscribers) {
-			channel.writeAndFlush(eof).addListener(ChannelFutureListener.CLOSE);
+		closed = true;
+		awaitingPublisher = false;
+		if (reconnectGrace != null) {
+			reconnectGrace.cancel();
+			reconnectGrace = null;
+		}
+		graceExpiry = null;
+		journal.record(StreamEvent.Type.UNPUBLISH, subscribers.size());
+		if (audioAggregator != null) {
+			audioAggregator.flush();
 		}
+		// 메시지는 write 마다 release 되므로 구독자마다 새로 만든다
+		for (Subscriber subscriber : subscribers.values()) {
+			subscriber.release();
+			subscriber.getChannel()
+				.writeAndFlush(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF))
+				.addListener(ChannelFutureListener.CLOSE);
+		}
+		subscribers.clear();
+		invalidateJoinBundles();
+		invalidateJoinPrefixes();
+		clearGop();
+		release(videoConfig);
+		release(audioConfig);
+		videoConfig = null;
+		audioConfig = null;
+	}
+
+	// publisher 연결이 끊겼지만 grace 가 끝날 때까지 구독자, 메타데이터, 시퀀스 헤더를 그대로 둔다.
+	// timeout 은 grace 가 끝나면 expiry 를 실행하는 타이머이며, 다시 붙으면 취소된다.
+	public void detachPublisher(Timeout timeout, Runnable expiry) {
+		journal.record(StreamEvent.Type.PUBLISHER_LOST, subscribers.size(), publisher.id());
+		publisher = null;
+		awaitingPublisher = true;
+		reconnectGrace = timeout;
+		graceExpiry = expiry;
+		if (audioAggregator != null) {
+			audioAggregator.flush();
+		}
+	}
+
+	// 같은 키로 다시 송출한 publisher 를 이어 붙인다. 이 Stream 의 event loop 에서 호출하며 publisher 채널은 다른 loop 에
+	// 있어도 된다. 이전 GOP 는 다른 인코더 세션의 것이므로 버리고, 시청자는 새 키프레임부터 받는다.
+	// 그 사이 grace 가 끝났으면 false 이다.
+	public boolean reattachPublisher(Channel channel) {
+		if (!awaitingPublisher) {
+			return false;
+		}
+		if (reconnectGrace != null) {
+			reconnectGrace.cancel();
+			reconnectGrace = null;
+		}
+		graceExpiry = null;
+		publisher = channel;
+		awaitingPublisher = false;
+		rebasePending = true;
+		clearGop();
+		invalidateJoinBundles();
+		subscribers.values().forEach(Subscriber::awaitKeyframe);
+		journal.record(StreamEvent.Type.PUBLISHER_RESUMED, subscribers.size(), channel.id());
+		return true;
+	}
+
+	private static void release(ReferenceCounted counted) {
+		if (counted != null) {
+			counted.release();
+		}
+	}
+
+	// RTMP publisher 는 자기 파이프라인에서 평소 종료 흐름(off-air 통보 포함)을 타게 한다.
+	// publisher 가 끊겨 grace 중이면 grace 가 끝난 것처럼 바로 종료한다.
+	public boolean requestUnpublish() {
+		Runnable expiry = graceExpiry;
+		if (publisher == null && expiry != null) {
+			execute(expiry);
+			return true;
+		}
+		if (publisher == null) {
+			return false;
+		}
+		publisher.pipeline().fireUserEventTriggered(StreamCommand.UNPUBLISH);
+		return true;
+	}
+
+	public CompletableFuture<StreamSnapshot> snapshot() {
+		return query(() -> new StreamSnapshot(streamerId, publisher == null ? null : publisher.remoteAddress(),
+			videoConfig == null ? null : videoConfig.descriptor().codec(),
+			audioConfig == null ? null : audioConfig.descriptor().codec(), bitrate.bitsPerSecond(), gopBytes,
+			rtmpGopCache.size(), subscribers.size(), lastMediaTime, lastTimestamp));
+	}
+
+	public CompletableFuture<List<SubscriberSnapshot>> subscriberSnapshots() {
+		return query(() -> {
+			List<SubscriberSnapshot> snapshots = new ArrayList<>(subscribers.size());
+			for (Subscriber subscriber : subscribers.values()) {
+				snapshots.add(subscriber.snapshot(lastTimestamp));
+			}
+			return snapshots;
+		});
+	}
+
+	// 구독자를 목록에서 빼고 EOF 를 보낸 뒤 연결을 끊는다
+	public CompletableFuture<Boolean> kickSubscriber(String channelId) {
+		return query(() -> {
+			Iterator<Subscriber> iterator = subscribers.values().iterator();
+			while (iterator.hasNext()) {
+				Subscriber subscriber = iterator.next();
+				Channel channel = subscriber.getChannel();
+				if (channel.id().asShortText().equals(channelId) || channel.id().asLongText().equals(channelId)) {
+					iterator.remove();
+					subscriber.release();
+					journal.record(StreamEvent.Type.SUBSCRIBER_LEAVE, subscribers.size(), channel.id());
+					channel.writeAndFlush(MessageProvider.userControlMessageEvent(RtmpConstants.STREAM_EOF))
+						.addListener(ChannelFutureListener.CLOSE);
+					return true;
+				}
+			}
+			return false;
+		});
+	}
+
+	// HTTP 스레드에서 라이브 구조를 직접 보지 않도록 송출 쪽 event loop 에서 값을 만들어 넘긴다
+	private <T> CompletableFuture<T> query(Supplier<T> supplier) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		try {
+			execute(() -> {
+				try {
+					future.complete(supplier.get());
+				} catch (RuntimeException e) {
+					future.completeExceptionally(e);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	public void setMetadata(Map<String, Object> metadata) {
+		journal.record(StreamEvent.Type.METADATA, metadata.size());
+		this.metadata = metadata;
+		invalidateJoinPrefixes();
+		invalidateJoinBundles();
 	}
 
 	public void sendPublishMessage() {
+		keyVerified = true;
+		Channel publisher = this.publisher;
+		// 키 확인을 기다리는 사이 publisher 가 끊겼을 수 있다
+		if (publisher == null) {
+			return;
+		}
+		journal.record(StreamEvent.Type.PUBLISH, 0, publisher.id());
 		publisher.writeAndFlush(MessageProvider.onStatus(
 			"status",
 			"NetStream.Publish.Start",
 			"Start publishing"));
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,6 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+// 외부(admin API 등)에서 publisher 채널 파이프라인으로 보내는 user event
+public enum StreamCommand {
+	UNPUBLISH
+}
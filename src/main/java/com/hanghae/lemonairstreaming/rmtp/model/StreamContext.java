@@ -5,6 +5,8 @@ import java.util.concurrent.ConcurrentHashMap;
 public class StreamContext {
 
 	public final ConcurrentHashMap<String, Stream> context;
+	// 새 프로세스로 방송을 넘기는 중이면 publisher 가 떠나도 다시 송출을 기다리거나 방송 종료를 알리지 않는다
+	private volatile boolean handingOver;
 
 	public StreamContext() {
 		this.context = new ConcurrentHashMap<>();
@@ -14,6 +16,11 @@ public class StreamContext {
 		context.put(stream.getStreamerId(), stream);
 	}
 
+	// 같은 streamerId 로 이미 방송 중이면 바꾸지 않고 false 를 돌려준다
+	public boolean addStreamIfAbsent(Stream stream) {
+		return context.putIfAbsent(stream.getStreamerId(), stream) == null;
+	}
+
 	public void deleteStream(String streamName) {
 		context.remove(streamName);
 	}
@@ -21,4 +28,12 @@ public class StreamContext {
 	public Stream getStream(String streamName) {
 		return (streamName != null) ? context.getOrDefault(streamName, null) : null;
 	}
+
+	public boolean isHandingOver() {
+		return handingOver;
+	}
+
+	public void setHandingOver(boolean handingOver) {
+		this.handingOver = handingOver;
+	}
 }
\ No newline at end of file
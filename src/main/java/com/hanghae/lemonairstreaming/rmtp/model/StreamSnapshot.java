@@ -0,0 +1,11 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.net.SocketAddress;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor;
+
+// 송출 쪽 event loop 에서 만든 Stream 상태의 복사본. 어느 스레드에서 읽어도 된다.
+public record StreamSnapshot(String streamerId, SocketAddress publisherAddress, MediaDescriptor.Codec videoCodec,
+							 MediaDescriptor.Codec audioCodec, long bitsPerSecond, long gopBytes, int gopFrames,
+							 int subscriberCount, long lastMediaTime, int lastTimestamp) {
+}
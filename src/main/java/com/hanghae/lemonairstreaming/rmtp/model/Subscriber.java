@@ -0,0 +1,205 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+import com.hanghae.lemonairstreaming.rmtp.model.egress.DeliveryTracker;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressQueue;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressScheduler;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelConfig;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+public class Subscriber {
+
+	// 측정된 bitrate 가 없을 때 쓰는 최소 전송 속도
+	private static final long MIN_PACING_BYTES_PER_SECOND = 256 * 1024;
+	private static final long PACING_BURST_BYTES = 64 * 1024;
+	private static final Counter BACKPRESSURE_DROPS = Counter.builder("rtmp.egress.backpressure.drops")
+		.description("Live media dropped for subscribers whose channel is not writable")
+		.register(Metrics.globalRegistry);
+	private static final Counter BACKLOG_TRIMS = Counter.builder("rtmp.join.backlog.trims")
+		.description("Catch-up backlogs cut back to the latest keyframe because they grew past the limit")
+		.register(Metrics.globalRegistry);
+
+	private final Channel channel;
+	private final PlayOptions options;
+	private final long joinedAt;
+	// 라이브 미디어는 채널의 event loop 스케줄러를 거쳐 나간다. 스케줄러를 끄면 둘 다 null 이다.
+	private final EgressScheduler egressScheduler;
+	private final EgressQueue egressQueue;
+	// 이어서 디코딩할 수 없는 시청자는 다음 키프레임 전까지 비디오 delta frame 을 받지 않는다
+	private boolean awaitingKeyframe;
+
+	// 라이브 엣지를 따라잡는 동안 GOP 와 라이브 프레임을 순서대로 쌓아두고 정해진 속도로 보낸다.
+	// 쌓인 메시지는 각자 payload 참조를 잡고 있으므로 보내지 못하면 release 해야 한다.
+	private ArrayDeque<RtmpMessage> backlog;
+	private long backlogBytes;
+	private long maxBacklogBytes;
+	// 지금까지 backlog 에 넣은 메시지 수와 뺀 메시지 수. 가장 최근 키프레임의 위치를 이 번호로 기억한다.
+	private long backlogAdded;
+	private long backlogRemoved;
+	private long lastKeyframeAt = -1;
+	private long pacingBytesPerSecond;
+	private long pacedBytes;
+	// 마지막으로 보낸 미디어의 timestamp. 라이브 엣지와의 차이를 lag 로 본다.
+	@Setter
+	private int lastSentTimestamp;
+	// AudioAggregator 의 수신자이면 오디오를 하나씩 보내지 않는다
+	@Setter
+	private boolean aggregating;
+	// 채널이 밀리면 쌓지 않고 버린다. 비디오는 다음 키프레임부터 다시 보낸다.
+	@Setter
+	private boolean dropOnBackpressure;
+
+	public Subscriber(Channel channel, PlayOptions options, EgressScheduler egressScheduler) {
+		this.channel = channel;
+		this.options = options;
+		this.joinedAt = System.currentTimeMillis();
+		this.egressScheduler = egressScheduler;
+		this.egressQueue = egressScheduler == null ? null : egressScheduler.newQueue(channel);
+	}
+
+	// publisher 가 바뀌어 이전 프레임에 이어 디코딩할 수 없으면 다음 키프레임부터 보낸다
+	public void awaitKeyframe() {
+		awaitingKeyframe = !options.audioOnly();
+	}
+
+	public boolean accepts(RtmpMediaMessage message) {
+		if (dropOnBackpressure && !channel.isWritable()) {
+			BACKPRESSURE_DROPS.increment();
+			awaitingKeyframe = !options.audioOnly();
+			return false;
+		}
+		if (message.header().getType() != RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO) {
+			return true;
+		}
+		if (options.audioOnly()) {
+			return false;
+		}
+		if (awaitingKeyframe) {
+			if (!message.isKeyframe()) {
+				return message.isVideoConfig();
+			}
+			awaitingKeyframe = false;
+		}
+		return true;
+	}
+
+	// maxBacklogBytes 를 넘게 쌓이면 가장 최근 키프레임 앞을 버린다
+	public void startCatchUp(List<RtmpMediaMessage> gop, long pacingBytesPerSecond, long maxBacklogBytes) {
+		this.backlog = new ArrayDeque<>(gop.size() + 16);
+		this.maxBacklogBytes = maxBacklogBytes;
+		this.pacingBytesPerSecond = Math.max(pacingBytesPerSecond, MIN_PACING_BYTES_PER_SECOND);
+		for (RtmpMediaMessage message : gop) {
+			if (accepts(message)) {
+				enqueue(message);
+			}
+		}
+	}
+
+	public boolean isCatchingUp() {
+		return backlog != null;
+	}
+
+	public void enqueue(RtmpMediaMessage message) {
+		if (message.isKeyframe()) {
+			lastKeyframeAt = backlogAdded;
+		}
+		backlog.add(RtmpMediaMessage.toRtmpMessage(message));
+		backlogAdded++;
+		backlogBytes += message.payload().readableBytes();
+		if (backlogBytes > maxBacklogBytes) {
+			trimBacklog();
+		}
+	}
+
+	// 채널이 계속 밀리면 backlog 가 끝없이 자라므로, 가장 최근 키프레임부터 다시 보낸다.
+	// 키프레임만으로도 한도를 넘거나 backlog 에 키프레임이 없으면 모두 버리고 다음 키프레임을 기다린다.
+	private void trimBacklog() {
+		BACKLOG_TRIMS.increment();
+		boolean keyframeQueued = lastKeyframeAt >= backlogRemoved;
+		while (!backlog.isEmpty() && backlogRemoved < lastKeyframeAt) {
+			pollBacklog().release();
+		}
+		if (!keyframeQueued || backlogBytes > maxBacklogBytes) {
+			while (!backlog.isEmpty()) {
+				pollBacklog().release();
+			}
+			awaitingKeyframe = !options.audioOnly();
+		}
+	}
+
+	private RtmpMessage pollBacklog() {
+		RtmpMessage message = backlog.poll();
+		backlogRemoved++;
+		backlogBytes -= message.payload().readableBytes();
+		return message;
+	}
+
+	// 전송 예산 안에서 backlog 를 보내고, 다 보냈으면 true 를 돌려준다
+	public boolean drainBacklog(long nowMillis) {
+		if (channel.isWritable()) {
+			long allowed = PACING_BURST_BYTES + pacingBytesPerSecond * (nowMillis - joinedAt) / 1000;
+			boolean written = false;
+			while (!backlog.isEmpty() && pacedBytes < allowed) {
+				RtmpMessage message = pollBacklog();
+				pacedBytes += message.payload().readableBytes();
+				lastSentTimestamp = message.header().getTimestamp();
+				channel.write(message);
+				written = true;
+			}
+			if (written) {
+				channel.flush();
+			}
+		}
+		if (backlog.isEmpty()) {
+			backlog = null;
+			return true;
+		}
+		return false;
+	}
+
+	// 송출 쪽 event loop 에서 호출하므로 시청자 채널의 outbound buffer 는 직접 보지 않는다
+	public SubscriberSnapshot snapshot(int liveTimestamp) {
+		// 시청자가 ack 를 보내기 전이거나 ChunkEncoder 가 없는 채널(FLV 피드)은 -1 로 둔다
+		DeliveryTracker delivery = DeliveryTracker.of(channel);
+		boolean acknowledged = delivery != null && delivery.isAcknowledged();
+		return new SubscriberSnapshot(channel.id(), channel.remoteAddress(), options, joinedAt, isCatchingUp(),
+			backlog == null ? 0 : backlog.size(), Math.max(0, liveTimestamp - lastSentTimestamp),
+			pendingWriteBytes(), channel.isWritable(),
+			acknowledged ? delivery.unackedBytes() : -1, acknowledged ? delivery.goodputBytesPerSecond() : -1,
+			acknowledged ? delivery.rttMillis() : -1);
+	}
+
+	// writability 값은 어느 스레드에서나 읽을 수 있다. water mark 로 대기 중인 바이트를 거꾸로 구한다.
+	// netty 는 water mark 를 넘어야 상태가 바뀌므로 두 값 모두 1 을 더해서 돌려준다.
+	private long pendingWriteBytes() {
+		ChannelConfig config = channel.config();
+		if (channel.isWritable()) {
+			return Math.max(0, config.getWriteBufferHighWaterMark() - channel.bytesBeforeUnwritable() + 1);
+		}
+		long bytesBeforeWritable = channel.bytesBeforeWritable();
+		// 닫힌 채널은 outbound buffer 가 없어 Long.MAX_VALUE 를 돌려준다
+		return bytesBeforeWritable == Long.MAX_VALUE ? 0
+			: config.getWriteBufferLowWaterMark() + bytesBeforeWritable - 1;
+	}
+
+	public void release() {
+		if (backlog != null) {
+			backlog.forEach(RtmpMessage::release);
+			backlog = null;
+		}
+		if (egressQueue != null) {
+			egressScheduler.close(egressQueue);
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import java.net.SocketAddress;
+
+import io.netty.channel.ChannelId;
+
+public record SubscriberSnapshot(ChannelId channelId, SocketAddress remoteAddress, PlayOptions options,
+								 long joinedAt, boolean catchingUp, int backlogFrames, long lagMillis,
+								 long outboundBufferBytes, boolean writable, long unackedBytes, long goodputBytesPerSecond,
+								 long rttMillis) {
+}
@@ -0,0 +1,181 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import java.util.concurrent.TimeUnit;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.channel.Channel;
+import io.netty.util.AttributeKey;
+
+/**
+ * 연결 하나가 보낸 바이트와 상대가 RTMP acknowledgement 로 받았다고 알려 온 바이트를 맞춰 본다.
+ * ack 의 sequence number 는 상대가 지금까지 받은 바이트 수이므로, 그 바이트를 언제 썼는지 찾으면
+ * 대략적인 RTT 가 되고 ack 사이에 늘어난 양은 실제로 소비한 속도(goodput)가 된다.
+ * ChunkEncoder 가 쓰고 ChunkDecoder 가 ack 를 넘기며, 둘 다 채널의 event loop 에서 호출한다.
+ * 다른 스레드에서 읽는 값은 조금 늦을 수 있다.
+ */
+public class DeliveryTracker {
+
+	public static final AttributeKey<DeliveryTracker> KEY = AttributeKey.valueOf("rtmp.deliveryTracker");
+
+	// 쓴 위치와 시각을 이만큼 기억한다. 간격이 ack window 의 1/64 이므로 두 window 정도를 덮는다.
+	private static final int SAMPLES = 128;
+	private static final int MIN_SAMPLE_STRIDE = 4096;
+	// TCP 의 SRTT 와 같은 비율로 부드럽게 만든다
+	private static final double SMOOTHING = 0.125;
+	private static final DistributionSummary RTT = DistributionSummary.builder("rtmp.egress.viewer.rtt")
+		.description("Time from writing bytes to a viewer until the viewer acknowledged them")
+		.baseUnit("milliseconds")
+		.register(Metrics.globalRegistry);
+	private static final DistributionSummary GOODPUT = DistributionSummary.builder("rtmp.egress.viewer.goodput")
+		.description("Bytes per second viewers acknowledged between two acknowledgements")
+		.baseUnit("bytes")
+		.register(Metrics.globalRegistry);
+
+	private final long[] sampleOffsets = new long[SAMPLES];
+	private final long[] sampleNanos = new long[SAMPLES];
+	private int samples;
+	private long sampleStride = stride(RtmpConstants.RTMP_DEFAULT_OUTPUT_ACK_SIZE);
+
+	private long writtenBytes;
+	private long ackedBytes;
+	private boolean acknowledged;
+	private int lastSequence;
+	private long lastAckNanos;
+	private double goodputBytesPerSecond;
+	private double rttMillis = -1;
+
+	public static DeliveryTracker of(Channel channel) {
+		return channel.attr(KEY).get();
+	}
+
+	private static long stride(int ackWindow) {
+		return Math.max(MIN_SAMPLE_STRIDE, ackWindow / 64);
+	}
+
+	// 상대에게 보낸 window acknowledgement size. 이만큼 받을 때마다 ack 가 온다.
+	public void setAckWindow(int ackWindow) {
+		sampleStride = stride(ackWindow);
+	}
+
+	public void onWrite(int bytes) {
+		writtenBytes += bytes;
+		if (sampleDue()) {
+			record(System.nanoTime());
+		}
+	}
+
+	void onWrite(int bytes, long nanos) {
+		writtenBytes += bytes;
+		if (sampleDue()) {
+			record(nanos);
+		}
+	}
+
+	// 매 write 마다 시각을 읽지 않도록 stride 만큼 쓸 때마다 한 번 기록한다
+	private boolean sampleDue() {
+		return samples == 0 || writtenBytes - sampleOffsets[(samples - 1) % SAMPLES] >= sampleStride;
+	}
+
+	private void record(long nanos) {
+		int index = samples % SAMPLES;
+		sampleOffsets[index] = writtenBytes;
+		sampleNanos[index] = nanos;
+		samples++;
+	}
+
+	public void onAcknowledgement(int sequence) {
+		onAcknowledgement(sequence, System.nanoTime());
+	}
+
+	void onAcknowledgement(int sequence, long nanos) {
+		if (!acknowledged) {
+			acknowledged = true;
+			lastSequence = sequence;
+			ackedBytes = Integer.toUnsignedLong(sequence);
+			lastAckNanos = nanos;
+			updateRtt(nanos);
+			return;
+		}
+		// 32 비트 sequence 가 한 바퀴 돌아도 차이는 맞다. 크게 뒤로 가면 상대가 수를 새로 센 것이다.
+		long delta = Integer.toUnsignedLong(sequence - lastSequence);
+		lastSequence = sequence;
+		if (delta > Integer.MAX_VALUE) {
+			lastAckNanos = nanos;
+			return;
+		}
+		ackedBytes += delta;
+		if (nanos > lastAckNanos && delta > 0) {
+			double goodput = delta * (double)TimeUnit.SECONDS.toNanos(1) / (nanos - lastAckNanos);
+			goodputBytesPerSecond = goodputBytesPerSecond == 0 ? goodput
+				: goodputBytesPerSecond + SMOOTHING * (goodput - goodputBytesPerSecond);
+			GOODPUT.record(goodput);
+		}
+		lastAckNanos = nanos;
+		updateRtt(nanos);
+	}
+
+	private void updateRtt(long nanos) {
+		long writtenAt = writtenAt(ackedBytes);
+		if (writtenAt < 0 || nanos < writtenAt) {
+			return;
+		}
+		double rtt = (nanos - writtenAt) / (double)TimeUnit.MILLISECONDS.toNanos(1);
+		rttMillis = rttMillis < 0 ? rtt : rttMillis + SMOOTHING * (rtt - rttMillis);
+		RTT.record(rtt);
+	}
+
+	// offset 번째 바이트를 쓴 시각을 앞뒤 기록 사이에서 보간한다. 너무 오래전이면 -1.
+	private long writtenAt(long offset) {
+		if (samples == 0) {
+			return -1;
+		}
+		int newest = (samples - 1) % SAMPLES;
+		if (offset >= sampleOffsets[newest]) {
+			// 마지막 기록 뒤에 쓴 바이트는 그 기록 시각으로 본다. 상대가 handshake 를 함께 세도 여기로 온다.
+			return sampleNanos[newest];
+		}
+		int count = Math.min(samples, SAMPLES);
+		int after = newest;
+		for (int i = 1; i < count; i++) {
+			int index = (samples - 1 - i) % SAMPLES;
+			if (sampleOffsets[index] <= offset) {
+				long fromOffset = sampleOffsets[index];
+				long fromNanos = sampleNanos[index];
+				return fromNanos + (long)((double)(offset - fromOffset) / (sampleOffsets[after] - fromOffset)
+					* (sampleNanos[after] - fromNanos));
+			}
+			after = index;
+		}
+		// 기억하는 첫 기록보다 앞이면 ring 이 다 찼을 때만 모르는 것이다
+		return samples <= SAMPLES ? sampleNanos[after] : -1;
+	}
+
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	public long getAckedBytes() {
+		return ackedBytes;
+	}
+
+	public boolean isAcknowledged() {
+		return acknowledged;
+	}
+
+	// 썼지만 아직 ack 가 오지 않은 바이트. 채널 outbound buffer 에 남은 것도 포함한다.
+	public long unackedBytes() {
+		return acknowledged ? Math.max(0, writtenBytes - ackedBytes) : writtenBytes;
+	}
+
+	public long goodputBytesPerSecond() {
+		return (long)goodputBytesPerSecond;
+	}
+
+	// 아직 추정하지 못했으면 -1
+	public long rttMillis() {
+		return Math.round(rttMillis);
+	}
+}
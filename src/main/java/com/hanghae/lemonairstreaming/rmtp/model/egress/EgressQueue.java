@@ -0,0 +1,54 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import java.util.ArrayDeque;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.channel.Channel;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+
+// 시청자 한 명의 보낼 차례를 기다리는 미디어. 채널의 event loop 에서만 접근한다.
+@Getter(AccessLevel.PACKAGE)
+@Setter(AccessLevel.PACKAGE)
+public class EgressQueue {
+
+	private final Channel channel;
+	// 오디오는 쌓인 비디오를 기다리지 않는다
+	private final ArrayDeque<RtmpMessage> urgent = new ArrayDeque<>();
+	private final ArrayDeque<RtmpMessage> bulk = new ArrayDeque<>();
+	private boolean ready;
+	private boolean flushPending;
+	private boolean closed;
+
+	EgressQueue(Channel channel) {
+		this.channel = channel;
+	}
+
+	// message 의 참조를 넘겨받는다
+	void offer(RtmpMessage message, boolean isUrgent) {
+		if (closed) {
+			message.release();
+			return;
+		}
+		(isUrgent ? urgent : bulk).add(message);
+	}
+
+	RtmpMessage poll() {
+		RtmpMessage message = urgent.poll();
+		return message != null ? message : bulk.poll();
+	}
+
+	boolean isEmpty() {
+		return urgent.isEmpty() && bulk.isEmpty();
+	}
+
+	void close() {
+		closed = true;
+		urgent.forEach(RtmpMessage::release);
+		urgent.clear();
+		bulk.forEach(RtmpMessage::release);
+		bulk.clear();
+	}
+}
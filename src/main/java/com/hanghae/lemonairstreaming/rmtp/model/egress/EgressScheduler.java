@@ -0,0 +1,163 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.channel.SingleThreadEventLoop;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+
+/**
+ * 한 event loop 에 붙은 시청자 채널들의 라이브 미디어 송출을 나눠서 처리한다.
+ * 키프레임 하나를 수천 명에게 한 번에 인코딩하면 같은 loop 의 publisher 읽기가 그만큼 밀리므로,
+ * loop 가 한 바퀴 돌 때마다 정해진 바이트/시간 안에서만 보내고 나머지는 I/O 를 처리한 뒤 이어서 보낸다.
+ * 시청자마다 한 번에 메시지 하나씩 돌아가며 보내고, 오디오는 쌓인 비디오보다 먼저 보낸다.
+ * 상태/제어 메시지는 이 스케줄러를 거치지 않고 채널에 바로 쓰므로 항상 미디어보다 앞선다.
+ */
+public class EgressScheduler {
+
+	private final EventLoop eventLoop;
+	private final long sliceBytes;
+	private final long sliceNanos;
+
+	// 아래 상태는 eventLoop 에서만 접근한다
+	private final ArrayDeque<EgressQueue> ready = new ArrayDeque<>();
+	private final List<EgressQueue> written = new ArrayList<>();
+	private final Runnable drainTask = this::drainSlice;
+	private final Runnable rescheduleTask = () -> {
+		drainScheduled = false;
+		scheduleDrain();
+	};
+	private boolean drainScheduled;
+
+	EgressScheduler(EventLoop eventLoop, long sliceBytes, long sliceNanos) {
+		this.eventLoop = eventLoop;
+		this.sliceBytes = sliceBytes;
+		this.sliceNanos = sliceNanos;
+	}
+
+	public EgressQueue newQueue(Channel channel) {
+		return new EgressQueue(channel);
+	}
+
+	// 같은 loop 의 시청자에게 보낼 메시지를 한 번에 넘긴다. message 의 참조는 호출한 쪽이 계속 가진다.
+	public void submit(List<EgressQueue> queues, RtmpMediaMessage message) {
+		boolean urgent = message.header().getType() != RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+		submit(queues, message.header(), message.payload(), urgent);
+	}
+
+	// 오디오 프레임을 묶은 aggregate message 도 같은 큐를 거쳐야 먼저 쌓인 오디오보다 앞서 나가지 않는다
+	public void submitAudio(List<EgressQueue> queues, RtmpMessage message) {
+		submit(queues, message.header(), message.payload(), true);
+	}
+
+	private void submit(List<EgressQueue> queues, RtmpHeader header, ByteBuf payload, boolean urgent) {
+		if (eventLoop.inEventLoop()) {
+			enqueue(queues, header, payload, urgent);
+			return;
+		}
+		payload.retain();
+		eventLoop.execute(() -> {
+			try {
+				enqueue(queues, header, payload, urgent);
+			} finally {
+				payload.release();
+			}
+		});
+	}
+
+	public void close(EgressQueue queue) {
+		if (eventLoop.inEventLoop()) {
+			queue.close();
+		} else {
+			eventLoop.execute(queue::close);
+		}
+	}
+
+	private void enqueue(List<EgressQueue> queues, RtmpHeader header, ByteBuf payload, boolean urgent) {
+		for (EgressQueue queue : queues) {
+			if (queue.isClosed()) {
+				continue;
+			}
+			queue.offer(new RtmpMessage(header, payload.retainedDuplicate()), urgent);
+			if (!queue.isReady()) {
+				queue.setReady(true);
+				ready.add(queue);
+			}
+		}
+		scheduleDrain();
+	}
+
+	// I/O loop 에서는 한 바퀴 돈 뒤(I/O 와 task 처리 후) 다음 조각을 보낸다.
+	// DefaultEventLoop 는 tail task 를 돌리지 않으므로 일반 task 로 넣고,
+	// 직접 돌려야 하는 loop(테스트의 EmbeddedEventLoop)에서는 바로 다 보낸다.
+	private void scheduleDrain() {
+		if (drainScheduled || ready.isEmpty()) {
+			return;
+		}
+		if (eventLoop instanceof SingleThreadEventLoop ioLoop && !(eventLoop instanceof DefaultEventLoop)) {
+			drainScheduled = true;
+			ioLoop.executeAfterEventLoopIteration(drainTask);
+		} else if (eventLoop instanceof SingleThreadEventExecutor) {
+			drainScheduled = true;
+			eventLoop.execute(drainTask);
+		} else {
+			drain(false);
+		}
+	}
+
+	private void drainSlice() {
+		drain(true);
+		if (ready.isEmpty()) {
+			drainScheduled = false;
+		} else {
+			// tail task 안에서 tail task 를 넣으면 같은 바퀴에 바로 이어서 실행되므로 일반 task 를 거쳐 다음 바퀴로 넘긴다
+			eventLoop.execute(rescheduleTask);
+		}
+	}
+
+	private void drain(boolean bounded) {
+		long deadline = System.nanoTime() + sliceNanos;
+		long bytes = 0;
+		EgressQueue queue;
+		while ((queue = ready.poll()) != null) {
+			Channel channel = queue.getChannel();
+			if (!channel.isActive()) {
+				queue.close();
+			}
+			RtmpMessage message = queue.poll();
+			if (message == null) {
+				queue.setReady(false);
+				continue;
+			}
+			bytes += message.payload().readableBytes();
+			channel.write(message);
+			if (!queue.isFlushPending()) {
+				queue.setFlushPending(true);
+				written.add(queue);
+			}
+			if (queue.isEmpty()) {
+				queue.setReady(false);
+			} else {
+				ready.add(queue);
+			}
+			if (bounded && (bytes >= sliceBytes || System.nanoTime() - deadline >= 0)) {
+				break;
+			}
+		}
+		for (EgressQueue flushed : written) {
+			flushed.setFlushPending(false);
+			flushed.getChannel().flush();
+		}
+		written.clear();
+	}
+}
@@ -0,0 +1,43 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import io.netty.channel.EventLoop;
+
+// event loop 마다 EgressScheduler 를 하나씩 둔다. event loop 는 서버와 수명이 같으므로 지우지 않는다.
+public class EgressSchedulers {
+
+	private final Map<EventLoop, EgressScheduler> schedulers = new ConcurrentHashMap<>();
+
+	// loop 한 바퀴에 보낼 최대 바이트. 0 이면 스케줄러 없이 시청자 채널에 바로 쓴다.
+	@Value("${internal.rtmp.egress.slice-bytes:262144}")
+	private long sliceBytes = 256 * 1024;
+
+	@Value("${internal.rtmp.egress.slice-micros:500}")
+	private long sliceMicros = 500;
+
+	public EgressSchedulers() {
+	}
+
+	public EgressSchedulers(long sliceBytes, long sliceMicros) {
+		this.sliceBytes = sliceBytes;
+		this.sliceMicros = sliceMicros;
+	}
+
+	public boolean isEnabled() {
+		return sliceBytes > 0;
+	}
+
+	// 꺼져 있으면 null
+	public EgressScheduler of(EventLoop eventLoop) {
+		if (!isEnabled()) {
+			return null;
+		}
+		return schedulers.computeIfAbsent(eventLoop,
+			loop -> new EgressScheduler(loop, sliceBytes, TimeUnit.MICROSECONDS.toNanos(sliceMicros)));
+	}
+}
@@ -0,0 +1,207 @@
+package com.hanghae.lemonairstreaming.rmtp.model.feed;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
+import io.netty.channel.unix.DomainSocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 키 확인을 마친 라이브 Stream 마다 {directory}/{streamerId}.sock Unix domain socket 을 열고, 접속한 쪽에 FLV 를 흘려보낸다.
+ * 같은 호스트의 ffmpeg 가 RTMP 로 다시 받아가지 않고 unix:{path} 로 바로 읽게 하려는 것이다.
+ * 피드 연결은 일반 시청자와 같은 공유 프레임을 쓰고, 채널이 밀리면 쌓지 않고 버린다.
+ * epoll 을 쓸 수 없는 플랫폼에서는 꺼진다.
+ */
+@Slf4j
+public class FlvFeedServer {
+
+	private static final Pattern SAFE_NAME = Pattern.compile("[A-Za-z0-9_.-]+");
+
+	private final StreamContext context;
+	private final EgressSchedulers egressSchedulers;
+	// open/sweep/stop 은 synchronized 로 감싸 접근한다
+	private final Map<String, Feed> feeds = new HashMap<>();
+	private EpollEventLoopGroup eventLoopGroup;
+	// bind 를 기다려야 하므로 피드 event loop 가 아닌 별도 스레드에서 돈다. openAsync 도 여기서 연다.
+	private volatile ScheduledExecutorService sweeper;
+
+	// 비어 있으면 피드를 열지 않는다
+	@Value("${internal.rtmp.feed.directory:}")
+	private String directory = "";
+
+	@Value("${internal.rtmp.feed.threads:1}")
+	private int threads = 1;
+
+	// Stream 이 생기고 사라지는 것을 반영하는 주기
+	@Value("${internal.rtmp.feed.sweep-interval-ms:500}")
+	private long sweepIntervalMillis = 500;
+
+	// 채널에 쌓인 바이트가 이만큼을 넘으면 writable 이 false 가 되어 프레임을 버리기 시작한다
+	@Value("${internal.rtmp.feed.write-buffer-bytes:4194304}")
+	private int writeBufferBytes = 4 * 1024 * 1024;
+
+	public FlvFeedServer(StreamContext context, EgressSchedulers egressSchedulers) {
+		this.context = context;
+		this.egressSchedulers = egressSchedulers;
+	}
+
+	public FlvFeedServer(StreamContext context, EgressSchedulers egressSchedulers, String directory,
+		int writeBufferBytes) {
+		this(context, egressSchedulers);
+		this.directory = directory;
+		this.writeBufferBytes = writeBufferBytes;
+	}
+
+	public synchronized void start() throws IOException {
+		if (directory.isBlank()) {
+			return;
+		}
+		if (!Epoll.isAvailable()) {
+			log.warn("epoll 을 쓸 수 없어 FLV 피드를 열지 않습니다", Epoll.unavailabilityCause());
+			return;
+		}
+		Files.createDirectories(Path.of(directory));
+		eventLoopGroup = new EpollEventLoopGroup(threads, new DefaultThreadFactory("flv-feed", true));
+		sweeper = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("flv-feed-sweep", true));
+		sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stop() throws InterruptedException {
+		if (eventLoopGroup == null) {
+			return;
+		}
+		sweeper.shutdownNow();
+		sweeper = null;
+		feeds.values().forEach(this::close);
+		feeds.clear();
+		eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+		eventLoopGroup = null;
+	}
+
+	public synchronized boolean isEnabled() {
+		return eventLoopGroup != null;
+	}
+
+	// 파일 삭제와 bind 를 기다리므로 event loop 에서는 이것으로 연다. 꺼져 있거나 열지 못하면 null 로 끝난다.
+	public CompletableFuture<Path> openAsync(Stream stream) {
+		ScheduledExecutorService executor = sweeper;
+		if (executor == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		try {
+			return CompletableFuture.supplyAsync(() -> open(stream), executor);
+		} catch (RejectedExecutionException e) {
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	// 이미 열려 있으면 그 경로를 돌려준다. 열지 못하면 null.
+	synchronized Path open(Stream stream) {
+		if (eventLoopGroup == null || stream.isClosed()) {
+			return null;
+		}
+		String streamerId = stream.getStreamerId();
+		Feed feed = feeds.get(streamerId);
+		if (feed != null) {
+			if (feed.stream() == stream) {
+				return feed.path();
+			}
+			// 같은 이름으로 다시 송출하면 이전 방송의 피드를 닫고 새로 연다
+			feeds.remove(streamerId);
+			close(feed);
+		}
+		if (!SAFE_NAME.matcher(streamerId).matches()) {
+			log.warn("스트리머: {} 이름을 소켓 파일명으로 쓸 수 없어 FLV 피드를 열지 않습니다", streamerId);
+			return null;
+		}
+
+		Path path = Path.of(directory, streamerId + ".sock");
+		try {
+			// 비정상 종료로 남은 소켓 파일이 있으면 bind 가 실패한다
+			Files.deleteIfExists(path);
+			Channel server = new ServerBootstrap().group(eventLoopGroup)
+				.channel(EpollServerDomainSocketChannel.class)
+				.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+					new WriteBufferWaterMark(writeBufferBytes / 2, writeBufferBytes))
+				.childHandler(new ChannelInitializer<DomainSocketChannel>() {
+					@Override
+					protected void initChannel(DomainSocketChannel channel) {
+						channel.pipeline().addLast(new FlvTagEncoder());
+						stream.addFeed(channel, egressSchedulers.of(channel.eventLoop()));
+					}
+				})
+				.bind(new DomainSocketAddress(path.toFile()))
+				.sync()
+				.channel();
+			feeds.put(streamerId, new Feed(stream, path, server));
+			log.info("스트리머: {} FLV 피드 {}", streamerId, path);
+			return path;
+		} catch (IOException | RuntimeException e) {
+			log.error("스트리머: {} FLV 피드를 열지 못했습니다: {}", streamerId, path, e);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	// 키 확인을 마친 라이브 Stream 은 피드를 열고, 끝났거나 교체된 Stream 의 피드는 닫는다
+	synchronized void sweep() {
+		try {
+			for (Stream stream : context.context.values()) {
+				if (stream.isKeyVerified()) {
+					open(stream);
+				}
+			}
+			Iterator<Feed> iterator = feeds.values().iterator();
+			while (iterator.hasNext()) {
+				Feed feed = iterator.next();
+				if (feed.stream().isClosed() || context.getStream(feed.stream().getStreamerId()) != feed.stream()) {
+					iterator.remove();
+					close(feed);
+				}
+			}
+		} catch (Exception e) {
+			log.error("FLV feed sweep failed", e);
+		}
+	}
+
+	// 접속해 있던 피드 연결은 Stream 이 끝날 때 닫힌다
+	private void close(Feed feed) {
+		feed.server().close();
+		try {
+			Files.deleteIfExists(feed.path());
+		} catch (IOException e) {
+			log.warn("FLV 피드 소켓 파일을 지우지 못했습니다: {}", feed.path(), e);
+		}
+	}
+
+	private record Feed(Stream stream, Path path, Channel server) {
+	}
+}
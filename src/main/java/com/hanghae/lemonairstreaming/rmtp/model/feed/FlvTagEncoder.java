@@ -0,0 +1,60 @@
+package com.hanghae.lemonairstreaming.rmtp.model.feed;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * 시청자에게 보내던 RtmpMessage 를 FLV 파일 형식으로 바꿔 쓴다. 첫 write 앞에 FLV 헤더를 붙이고,
+ * 오디오/비디오/메타데이터는 tag 헤더와 back pointer 사이에 payload 를 복사 없이 끼워 넣는다.
+ * 그 밖의 RTMP 제어 메시지(STREAM_EOF 등)는 버리고 promise 만 완료한다.
+ */
+public class FlvTagEncoder extends ChannelOutboundHandlerAdapter {
+
+	private static final int TAG_HEADER_SIZE = 11;
+	// "FLV", version 1, 오디오와 비디오, 헤더 길이 9, 첫 back pointer 0
+	private static final byte[] FILE_HEADER = {'F', 'L', 'V', 1, 0x05, 0, 0, 0, 9, 0, 0, 0, 0};
+
+	private boolean headerWritten;
+
+	@Override
+	public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+		if (!(msg instanceof RtmpMessage message) || !isTag(message.header().getType())) {
+			ReferenceCountUtil.release(msg);
+			promise.setSuccess();
+			return;
+		}
+		if (!headerWritten) {
+			headerWritten = true;
+			ctx.write(Unpooled.wrappedBuffer(FILE_HEADER));
+		}
+		ctx.write(encode(ctx, message), promise);
+	}
+
+	private static boolean isTag(int type) {
+		return type == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO
+			|| type == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO
+			|| type == RtmpConstants.RTMP_MSG_DATA_TYPE_AMF0;
+	}
+
+	// message 의 payload 참조를 넘겨받는다
+	private static ByteBuf encode(ChannelHandlerContext ctx, RtmpMessage message) {
+		ByteBuf payload = message.payload();
+		int size = payload.readableBytes();
+		int timestamp = message.header().getTimestamp();
+		ByteBuf header = ctx.alloc().ioBuffer(TAG_HEADER_SIZE);
+		header.writeByte(message.header().getType())
+			.writeMedium(size)
+			.writeMedium(timestamp)
+			.writeByte(timestamp >>> 24)
+			.writeMedium(0);
+		ByteBuf backPointer = ctx.alloc().ioBuffer(4).writeInt(TAG_HEADER_SIZE + size);
+		return Unpooled.wrappedUnmodifiableBuffer(header, payload, backPointer);
+	}
+}
@@ -0,0 +1,170 @@
+package com.hanghae.lemonairstreaming.rmtp.model.ingest;
+
+import java.util.concurrent.TimeUnit;
+
+import com.hanghae.lemonairstreaming.rmtp.model.StreamCommand;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.concurrent.ScheduledFuture;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * publisher 파이프라인 맨 앞에서 받은 바이트를 토큰 버킷으로 센다. 한도를 넘으면 버퍼에 쌓지 않고
+ * autoRead 를 꺼서 TCP 수신 창이 차게 두고, 빚을 갚을 시간이 지나면 다시 읽는다.
+ * 자기 한도 때문에 멈춘 상태가 이어지면 onStatus 로 경고하고, 그래도 계속되면 방송을 끊는다.
+ */
+@Slf4j
+public class IngestPolicer extends ChannelDuplexHandler {
+
+	private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final Counter PUBLISHER_PAUSES = pauseCounter("publisher");
+	private static final Counter NODE_PAUSES = pauseCounter("node");
+	private static final Counter WARNINGS = actionCounter("warn");
+	private static final Counter DISCONNECTS = actionCounter("disconnect");
+
+	private final String streamerId;
+	private final TokenBucket publisherBucket;
+	private final TokenBucket nodeBucket;
+	private final double overRatio;
+	private final int warnAfterSeconds;
+	private final int disconnectAfterSeconds;
+
+	private ChannelHandlerContext ctx;
+	private ScheduledFuture<?> resumeFuture;
+	private ScheduledFuture<?> windowFuture;
+	// 0 이 아니면 읽기를 멈춘 시각
+	private long pausedAt;
+	private boolean pausedBySelf;
+	private long windowStart;
+	private long selfPausedNanos;
+	private int overSeconds;
+
+	IngestPolicer(String streamerId, TokenBucket publisherBucket, TokenBucket nodeBucket, double overRatio,
+		int warnAfterSeconds, int disconnectAfterSeconds) {
+		this.streamerId = streamerId;
+		this.publisherBucket = publisherBucket;
+		this.nodeBucket = nodeBucket;
+		this.overRatio = overRatio;
+		this.warnAfterSeconds = warnAfterSeconds;
+		this.disconnectAfterSeconds = disconnectAfterSeconds;
+	}
+
+	private static Counter pauseCounter(String scope) {
+		return Counter.builder("rtmp.ingest.policing.pauses")
+			.description("Publisher reads paused by an ingest bitrate limit")
+			.tag("scope", scope)
+			.register(Metrics.globalRegistry);
+	}
+
+	private static Counter actionCounter(String action) {
+		return Counter.builder("rtmp.ingest.policing.actions")
+			.description("Publishers warned or disconnected for staying over their ingest bitrate limit")
+			.tag("action", action)
+			.register(Metrics.globalRegistry);
+	}
+
+	@Override
+	public void handlerAdded(ChannelHandlerContext ctx) {
+		this.ctx = ctx;
+		windowStart = System.nanoTime();
+		windowFuture = ctx.executor().scheduleAtFixedRate(this::closeWindow, WINDOW_NANOS, WINDOW_NANOS,
+			TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void handlerRemoved(ChannelHandlerContext ctx) {
+		windowFuture.cancel(false);
+		if (resumeFuture != null) {
+			resumeFuture.cancel(false);
+		}
+		if (pausedAt != 0) {
+			pausedAt = 0;
+			ctx.channel().config().setAutoRead(true);
+		}
+	}
+
+	@Override
+	public void channelRead(ChannelHandlerContext ctx, Object msg) {
+		if (msg instanceof ByteBuf buf) {
+			long now = System.nanoTime();
+			long bytes = buf.readableBytes();
+			long selfWait = publisherBucket == null ? 0 : publisherBucket.consume(bytes, now);
+			long nodeWait = nodeBucket == null ? 0 : nodeBucket.consume(bytes, now);
+			if (selfWait > 0 || nodeWait > 0) {
+				pause(selfWait, nodeWait, now);
+			}
+		}
+		ctx.fireChannelRead(msg);
+	}
+
+	// 멈춘 동안에는 다른 handler 가 autoRead 를 다시 켜더라도 읽지 않는다
+	@Override
+	public void read(ChannelHandlerContext ctx) {
+		if (pausedAt == 0) {
+			ctx.read();
+		}
+	}
+
+	private void pause(long selfWait, long nodeWait, long now) {
+		if (pausedAt != 0) {
+			return;
+		}
+		pausedAt = now;
+		pausedBySelf = selfWait > 0;
+		(pausedBySelf ? PUBLISHER_PAUSES : NODE_PAUSES).increment();
+		ctx.channel().config().setAutoRead(false);
+		resumeFuture = ctx.executor().schedule(this::resume, Math.max(selfWait, nodeWait), TimeUnit.NANOSECONDS);
+	}
+
+	private void resume() {
+		long now = System.nanoTime();
+		long selfWait = publisherBucket == null ? 0 : publisherBucket.waitNanos(now);
+		long nodeWait = nodeBucket == null ? 0 : nodeBucket.waitNanos(now);
+		if (selfWait > 0 || nodeWait > 0) {
+			resumeFuture = ctx.executor().schedule(this::resume, Math.max(selfWait, nodeWait), TimeUnit.NANOSECONDS);
+			return;
+		}
+		accountPause(now);
+		pausedAt = 0;
+		resumeFuture = null;
+		ctx.channel().config().setAutoRead(true);
+	}
+
+	private void accountPause(long now) {
+		if (pausedAt != 0 && pausedBySelf) {
+			selfPausedNanos += now - Math.max(pausedAt, windowStart);
+		}
+	}
+
+	// 1 초마다 그동안 자기 한도로 멈춘 시간을 보고 한도 초과가 이어지는지 센다
+	private void closeWindow() {
+		long now = System.nanoTime();
+		accountPause(now);
+		boolean over = selfPausedNanos >= overRatio * (now - windowStart);
+		selfPausedNanos = 0;
+		windowStart = now;
+		overSeconds = over ? overSeconds + 1 : 0;
+
+		long limitKbps = publisherBucket == null ? 0 : publisherBucket.getBytesPerSecond() * 8 / 1000;
+		if (overSeconds == warnAfterSeconds) {
+			WARNINGS.increment();
+			log.warn("스트리머: {} 수신 bitrate 가 {} kbps 한도를 {} 초째 넘고 있습니다", streamerId, limitKbps,
+				overSeconds);
+			ctx.channel().writeAndFlush(MessageProvider.onStatus("warning", "NetStream.Publish.BitrateExceeded",
+				"Ingest bitrate exceeds the limit of " + limitKbps + " kbps"));
+		} else if (overSeconds >= disconnectAfterSeconds) {
+			DISCONNECTS.increment();
+			log.warn("스트리머: {} 수신 bitrate 가 {} kbps 한도를 {} 초 동안 넘어 방송을 종료합니다", streamerId, limitKbps,
+				overSeconds);
+			windowFuture.cancel(false);
+			ctx.channel().writeAndFlush(MessageProvider.onStatus("error", "NetStream.Publish.Rejected",
+				"Ingest bitrate exceeded the limit of " + limitKbps + " kbps"));
+			ctx.pipeline().fireUserEventTriggered(StreamCommand.UNPUBLISH);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.hanghae.lemonairstreaming.rmtp.model.ingest;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * publisher 별, 노드 전체 수신 bitrate 한도. 한도는 bit/s 로 적고, 스트리머는 tier 로 묶는다.
+ * tier 설정이 없고 노드 한도도 0 이면 policing 을 하지 않는다.
+ */
+@Slf4j
+public class IngestPolicy {
+
+	static final String DEFAULT_TIER = "default";
+
+	// tier=bit/s 형식, 쉼표로 여러 tier. default tier 는 따로 지정하지 않은 스트리머에게 쓴다.
+	@Value("${internal.rtmp.ingest.limit.tiers:}")
+	private String[] tiers = new String[0];
+
+	// streamerId=tier 형식, 쉼표로 여러 스트리머
+	@Value("${internal.rtmp.ingest.limit.streamers:}")
+	private String[] streamers = new String[0];
+
+	// 모든 publisher 를 합친 한도. 0 이면 두지 않는다.
+	@Value("${internal.rtmp.ingest.limit.node-bps:0}")
+	private long nodeBitsPerSecond;
+
+	// 한도보다 잠깐 높게 보내는 것(키프레임 등)을 허용하는 양. 한도로 이만큼 보내는 시간.
+	@Value("${internal.rtmp.ingest.limit.burst-seconds:2}")
+	private double burstSeconds = 2;
+
+	// 자기 한도 때문에 읽기를 멈춘 시간이 1 초 중 이 비율을 넘으면 그 1 초는 한도 초과로 본다
+	@Value("${internal.rtmp.ingest.limit.over-ratio:0.25}")
+	private double overRatio = 0.25;
+
+	// 한도 초과가 이만큼 이어지면 onStatus 로 경고하고, disconnect 만큼 이어지면 방송을 끊는다
+	@Value("${internal.rtmp.ingest.limit.warn-after-seconds:10}")
+	private int warnAfterSeconds = 10;
+
+	@Value("${internal.rtmp.ingest.limit.disconnect-after-seconds:30}")
+	private int disconnectAfterSeconds = 30;
+
+	private final Map<String, Long> tierBitsPerSecond = new HashMap<>();
+	private final Map<String, String> streamerTiers = new HashMap<>();
+	private TokenBucket nodeBucket;
+
+	public IngestPolicy() {
+	}
+
+	public IngestPolicy(Map<String, Long> tierBitsPerSecond, Map<String, String> streamerTiers,
+		long nodeBitsPerSecond, double burstSeconds, int warnAfterSeconds, int disconnectAfterSeconds) {
+		this.tierBitsPerSecond.putAll(tierBitsPerSecond);
+		this.streamerTiers.putAll(streamerTiers);
+		this.nodeBitsPerSecond = nodeBitsPerSecond;
+		this.burstSeconds = burstSeconds;
+		this.warnAfterSeconds = warnAfterSeconds;
+		this.disconnectAfterSeconds = disconnectAfterSeconds;
+		this.nodeBucket = newBucket(nodeBitsPerSecond);
+	}
+
+	public void start() {
+		for (String tier : tiers) {
+			String[] pair = tier.split("=", 2);
+			try {
+				tierBitsPerSecond.put(pair[0].trim(), Long.parseLong(pair[1].trim()));
+			} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+				log.error("잘못된 수신 한도 tier 설정: {}", tier);
+			}
+		}
+		for (String streamer : streamers) {
+			String[] pair = streamer.split("=", 2);
+			if (pair.length != 2 || !tierBitsPerSecond.containsKey(pair[1].trim())) {
+				log.error("잘못된 스트리머 tier 설정: {}", streamer);
+				continue;
+			}
+			streamerTiers.put(pair[0].trim(), pair[1].trim());
+		}
+		nodeBucket = newBucket(nodeBitsPerSecond);
+	}
+
+	// 한도가 없으면 null
+	public IngestPolicer newPolicer(String streamerId) {
+		Long bitsPerSecond = tierBitsPerSecond.get(streamerTiers.getOrDefault(streamerId, DEFAULT_TIER));
+		TokenBucket publisherBucket = bitsPerSecond == null ? null : newBucket(bitsPerSecond);
+		if (publisherBucket == null && nodeBucket == null) {
+			return null;
+		}
+		return new IngestPolicer(streamerId, publisherBucket, nodeBucket, overRatio, warnAfterSeconds,
+			disconnectAfterSeconds);
+	}
+
+	private TokenBucket newBucket(long bitsPerSecond) {
+		if (bitsPerSecond <= 0) {
+			return null;
+		}
+		long bytesPerSecond = bitsPerSecond / 8;
+		return new TokenBucket(bytesPerSecond, (long)(bytesPerSecond * burstSeconds), System.nanoTime());
+	}
+}
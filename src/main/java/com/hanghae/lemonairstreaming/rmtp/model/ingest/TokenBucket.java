@@ -0,0 +1,64 @@
+package com.hanghae.lemonairstreaming.rmtp.model.ingest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 초당 rate 바이트씩 채워지고 burst 바이트까지 쌓이는 토큰 버킷. 이미 읽은 바이트는 되돌릴 수 없으므로
+ * 토큰이 모자라도 빼고(빚), 빚을 다 갚을 때까지 기다려야 하는 시간을 돌려준다.
+ * 노드 전체 버킷은 여러 event loop 가 같이 쓰므로 synchronized 로 감싼다.
+ */
+public class TokenBucket {
+
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final long bytesPerSecond;
+	private final long burstBytes;
+	private long tokens;
+	private long refilledAt;
+
+	public TokenBucket(long bytesPerSecond, long burstBytes, long nowNanos) {
+		this.bytesPerSecond = bytesPerSecond;
+		this.burstBytes = burstBytes;
+		this.tokens = burstBytes;
+		this.refilledAt = nowNanos;
+	}
+
+	// 다시 읽어도 되기까지 남은 시간. 0 이면 바로 읽어도 된다.
+	public synchronized long consume(long bytes, long nowNanos) {
+		refill(nowNanos);
+		tokens -= bytes;
+		return waitNanos();
+	}
+
+	public synchronized long waitNanos(long nowNanos) {
+		refill(nowNanos);
+		return waitNanos();
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	private long waitNanos() {
+		return tokens >= 0 ? 0 : -tokens * NANOS_PER_SECOND / bytesPerSecond;
+	}
+
+	private void refill(long nowNanos) {
+		long elapsed = nowNanos - refilledAt;
+		long missing = burstBytes - tokens;
+		if (elapsed <= 0 || missing <= 0) {
+			refilledAt = Math.max(refilledAt, nowNanos);
+			return;
+		}
+		// 가득 찰 만큼 지났으면 곱셈 overflow 없이 바로 채운다
+		if (elapsed >= missing * NANOS_PER_SECOND / bytesPerSecond) {
+			tokens = burstBytes;
+			refilledAt = nowNanos;
+			return;
+		}
+		long added = elapsed * bytesPerSecond / NANOS_PER_SECOND;
+		tokens += added;
+		// 채운 만큼의 시간만 옮겨 나머지가 버려지지 않게 한다
+		refilledAt += added * NANOS_PER_SECOND / bytesPerSecond;
+	}
+}
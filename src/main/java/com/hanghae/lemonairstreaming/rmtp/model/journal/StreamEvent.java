@@ -0,0 +1,11 @@
+package com.hanghae.lemonairstreaming.rmtp.model.journal;
+
+import io.netty.channel.ChannelId;
+
+public record StreamEvent(long sequence, Type type, long timestamp, long value, ChannelId channelId) {
+
+	public enum Type {
+		PUBLISH, UNPUBLISH, METADATA, VIDEO_CONFIG, AUDIO_CONFIG, KEYFRAME, SUBSCRIBER_JOIN, SUBSCRIBER_LEAVE, DROP,
+		PUBLISHER_LOST, PUBLISHER_RESUMED
+	}
+}
@@ -0,0 +1,64 @@
+package com.hanghae.lemonairstreaming.rmtp.model.journal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+import io.netty.channel.ChannelId;
+
+public class StreamJournal {
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final AtomicReferenceArray<StreamEvent> ring;
+	private final AtomicLong sequence = new AtomicLong();
+	private final int mask;
+
+	public StreamJournal() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public StreamJournal(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.ring = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	public void record(StreamEvent.Type type, long value) {
+		record(type, value, null);
+	}
+
+	public void record(StreamEvent.Type type, long value, ChannelId channelId) {
+		long seq = sequence.getAndIncrement();
+		ring.lazySet((int)(seq & mask), new StreamEvent(seq, type, System.currentTimeMillis(), value, channelId));
+	}
+
+	public long head() {
+		return sequence.get();
+	}
+
+	public List<StreamEvent> snapshot() {
+		List<StreamEvent> events = new ArrayList<>(ring.length());
+		drain(0, events::add);
+		return events;
+	}
+
+	// cursor 이후의 이벤트를 순서대로 넘기고 다음 cursor 를 돌려준다. 덮어써진 이벤트는 건너뛴다.
+	public long drain(long cursor, Consumer<StreamEvent> consumer) {
+		long head = sequence.get();
+		long from = Math.max(cursor, head - ring.length());
+		for (long seq = from; seq < head; seq++) {
+			StreamEvent event = ring.get((int)(seq & mask));
+			if (event == null || event.sequence() < seq) {
+				// 아직 기록 중인 이벤트
+				return seq;
+			}
+			if (event.sequence() == seq) {
+				consumer.accept(event);
+			}
+		}
+		return head;
+	}
+}
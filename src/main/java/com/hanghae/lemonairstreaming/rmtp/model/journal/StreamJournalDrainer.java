@@ -0,0 +1,113 @@
+package com.hanghae.lemonairstreaming.rmtp.model.journal;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+@Slf4j
+public class StreamJournalDrainer {
+
+	private final StreamContext context;
+	// drain 스레드에서만 접근한다
+	private final Map<Stream, DrainState> states = new IdentityHashMap<>();
+	private ScheduledExecutorService executor;
+
+	@Value("${internal.rtmp.journal.drain-interval-ms:1000}")
+	private long drainIntervalMillis = 1000;
+
+	@Value("${internal.rtmp.journal.max-logs-per-drain:20}")
+	private int maxLogsPerDrain = 20;
+
+	// 키프레임은 이 개수마다 하나만 기록한다. 1 이하면 모두 기록한다.
+	@Value("${internal.rtmp.journal.keyframe-sample-rate:30}")
+	private int keyframeSampleRate = 30;
+
+	public StreamJournalDrainer(StreamContext context) {
+		this.context = context;
+	}
+
+	public StreamJournalDrainer(StreamContext context, long drainIntervalMillis, int maxLogsPerDrain,
+		int keyframeSampleRate) {
+		this.context = context;
+		this.drainIntervalMillis = drainIntervalMillis;
+		this.maxLogsPerDrain = maxLogsPerDrain;
+		this.keyframeSampleRate = keyframeSampleRate;
+	}
+
+	public void start() {
+		if (keyframeSampleRate < 1) {
+			log.warn("keyframe-sample-rate {} 는 1 이상이어야 해서 모든 키프레임을 기록합니다.", keyframeSampleRate);
+			keyframeSampleRate = 1;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("stream-journal", true));
+		executor.scheduleWithFixedDelay(this::drain, drainIntervalMillis, drainIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(drainIntervalMillis, TimeUnit.MILLISECONDS);
+		drain();
+	}
+
+	private synchronized void drain() {
+		try {
+			Set<Stream> live = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (Stream stream : context.context.values()) {
+				live.add(stream);
+				states.computeIfAbsent(stream, s -> new DrainState());
+			}
+
+			Iterator<Map.Entry<Stream, DrainState>> iterator = states.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<Stream, DrainState> entry = iterator.next();
+				drain(entry.getKey(), entry.getValue());
+				// 삭제된 스트림은 마지막으로 한 번 더 비우고 잊는다
+				if (!live.contains(entry.getKey())) {
+					iterator.remove();
+				}
+			}
+		} catch (Exception e) {
+			log.error("Stream journal drain failed", e);
+		}
+	}
+
+	private void drain(Stream stream, DrainState state) {
+		state.logged = 0;
+		state.suppressed = 0;
+		state.cursor = stream.getJournal().drain(state.cursor, event -> {
+			if (event.type() == StreamEvent.Type.KEYFRAME && state.keyframes++ % keyframeSampleRate != 0) {
+				return;
+			}
+			if (state.logged >= maxLogsPerDrain) {
+				state.suppressed++;
+				return;
+			}
+			state.logged++;
+			log.info("[{}] {} value={} channel={}", stream.getStreamerId(), event.type(), event.value(),
+				event.channelId());
+		});
+		if (state.suppressed > 0) {
+			log.info("[{}] {} journal events suppressed", stream.getStreamerId(), state.suppressed);
+		}
+	}
+
+	private static class DrainState {
+		long cursor;
+		long keyframes;
+		int logged;
+		int suppressed;
+	}
+}
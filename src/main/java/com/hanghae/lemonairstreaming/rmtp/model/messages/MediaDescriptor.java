@@ -0,0 +1,78 @@
+package com.hanghae.lemonairstreaming.rmtp.model.messages;
+
+// FLV 오디오/비디오 태그 헤더를 한 번만 파싱해 둔 결과
+public record MediaDescriptor(Codec codec, int frameType, int packetType, int compositionTimeOffset,
+							  boolean sequenceHeader, boolean enhanced) {
+
+	public static final int FRAME_TYPE_KEY = 1;
+	public static final int FRAME_TYPE_COMMAND = 5;
+
+	public static final MediaDescriptor UNKNOWN = new MediaDescriptor(Codec.UNKNOWN, 0, -1, 0, false, false);
+
+	public boolean isVideo() {
+		return codec.isVideo();
+	}
+
+	public boolean isKeyframe() {
+		return codec.isVideo() && frameType == FRAME_TYPE_KEY && !sequenceHeader && isCodedFrame();
+	}
+
+	public boolean isVideoConfig() {
+		return codec.isVideo() && sequenceHeader;
+	}
+
+	public boolean isAudioConfig() {
+		return !codec.isVideo() && sequenceHeader;
+	}
+
+	private boolean isCodedFrame() {
+		if (enhanced) {
+			return packetType == 1 || packetType == 3;
+		}
+		return packetType == -1 || packetType == 1;
+	}
+
+	public enum Codec {
+		AVC(true, fourCc("avc1")),
+		HEVC(true, fourCc("hvc1")),
+		AV1(true, fourCc("av01")),
+		VP9(true, fourCc("vp09")),
+		VP8(true, fourCc("vp08")),
+		OTHER_VIDEO(true, 0),
+
+		AAC(false, fourCc("mp4a")),
+		MP3(false, fourCc(".mp3")),
+		OPUS(false, fourCc("Opus")),
+		FLAC(false, fourCc("fLaC")),
+		AC3(false, fourCc("ac-3")),
+		EAC3(false, fourCc("ec-3")),
+		OTHER_AUDIO(false, 0),
+
+		UNKNOWN(false, 0);
+
+		private final boolean video;
+		private final int fourCc;
+
+		Codec(boolean video, int fourCc) {
+			this.video = video;
+			this.fourCc = fourCc;
+		}
+
+		public static Codec fromFourCc(int fourCc, boolean video) {
+			for (Codec codec : values()) {
+				if (codec.fourCc == fourCc && codec.video == video && fourCc != 0) {
+					return codec;
+				}
+			}
+			return video ? OTHER_VIDEO : OTHER_AUDIO;
+		}
+
+		private static int fourCc(String value) {
+			return (value.charAt(0) << 24) | (value.charAt(1) << 16) | (value.charAt(2) << 8) | value.charAt(3);
+		}
+
+		public boolean isVideo() {
+			return video;
+		}
+	}
+}
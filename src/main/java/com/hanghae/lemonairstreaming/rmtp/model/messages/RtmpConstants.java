@@ -40,6 +40,8 @@ public class RtmpConstants {
 	public static final int RTMP_MSG_COMMAND_TYPE_AMF3 = 17;
 	public static final int RTMP_MSG_COMMAND_TYPE_AMF0 = 20;
 
+	public static final int RTMP_MSG_AGGREGATE = 22;
+
 	/* Stream status */
 	public static final int STREAM_BEGIN = 0x00;
 	public static final int STREAM_EOF = 0x01;
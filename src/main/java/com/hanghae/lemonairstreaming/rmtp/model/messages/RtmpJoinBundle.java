@@ -0,0 +1,47 @@
+package com.hanghae.lemonairstreaming.rmtp.model.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
+
+// 이미 청크 단위로 인코딩된 join 데이터. ChunkEncoder 는 다시 인코딩하지 않고 그대로 내보낸다.
+public record RtmpJoinBundle(ByteBuf content, int chunkSize) implements ReferenceCounted {
+
+	@Override
+	public int refCnt() {
+		return content.refCnt();
+	}
+
+	@Override
+	public RtmpJoinBundle retain() {
+		content.retain();
+		return this;
+	}
+
+	@Override
+	public RtmpJoinBundle retain(int increment) {
+		content.retain(increment);
+		return this;
+	}
+
+	@Override
+	public RtmpJoinBundle touch() {
+		content.touch();
+		return this;
+	}
+
+	@Override
+	public RtmpJoinBundle touch(Object hint) {
+		content.touch(hint);
+		return this;
+	}
+
+	@Override
+	public boolean release() {
+		return content.release();
+	}
+
+	@Override
+	public boolean release(int decrement) {
+		return content.release(decrement);
+	}
+}
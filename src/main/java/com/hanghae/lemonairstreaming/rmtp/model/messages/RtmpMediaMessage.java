@@ -1,28 +1,72 @@
 package com.hanghae.lemonairstreaming.rmtp.model.messages;
 
-import io.netty.buffer.ByteBufUtil;
-import io.netty.buffer.Unpooled;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
 
-public record RtmpMediaMessage(RtmpHeader header, byte[] payload) {
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 
+// 수신한 미디어 프레임. payload 는 모든 시청자가 공유하며, 보낼 때는 retainedDuplicate 로 감싼다.
+public record RtmpMediaMessage(RtmpHeader header, ByteBuf payload, MediaDescriptor descriptor)
+	implements ReferenceCounted {
+
+	// message 의 payload 참조는 그대로 두고 새 참조를 하나 더 만든다
 	public static RtmpMediaMessage fromRtmpMessage(RtmpMessage message) {
-		return new RtmpMediaMessage(message.header(), ByteBufUtil.getBytes(message.payload()));
+		MediaDescriptor descriptor = MediaTagParser.parse(message.header().getType(), message.payload());
+		return new RtmpMediaMessage(message.header(), message.payload().retain(), descriptor);
 	}
 
 	public static RtmpMessage toRtmpMessage(RtmpMediaMessage message) {
-		return new RtmpMessage(message.header(), Unpooled.wrappedBuffer(message.payload()));
+		return new RtmpMessage(message.header(), message.payload().retainedDuplicate());
 	}
 
 	public boolean isAudioConfig() {
-		return this.payload.length > 1 && this.payload[1] == 0x00;
+		return descriptor.isAudioConfig();
 	}
 
 	public boolean isKeyframe() {
-		return this.payload.length > 1 && this.payload[0] == 0x17;
+		return descriptor.isKeyframe();
 	}
 
 	public boolean isVideoConfig() {
-		return this.payload.length > 1 && this.payload[1] == 0x00;
+		return descriptor.isVideoConfig();
+	}
+
+	@Override
+	public int refCnt() {
+		return payload.refCnt();
+	}
+
+	@Override
+	public RtmpMediaMessage retain() {
+		payload.retain();
+		return this;
+	}
+
+	@Override
+	public RtmpMediaMessage retain(int increment) {
+		payload.retain(increment);
+		return this;
 	}
 
-}
\ No newline at end of file
+	@Override
+	public RtmpMediaMessage touch() {
+		payload.touch();
+		return this;
+	}
+
+	@Override
+	public RtmpMediaMessage touch(Object hint) {
+		payload.touch(hint);
+		return this;
+	}
+
+	@Override
+	public boolean release() {
+		return payload.release();
+	}
+
+	@Override
+	public boolean release(int decrement) {
+		return payload.release(decrement);
+	}
+}
@@ -1,6 +1,48 @@
 package com.hanghae.lemonairstreaming.rmtp.model.messages;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCounted;
 
-public record RtmpMessage(RtmpHeader header, ByteBuf payload) {
-}
\ No newline at end of file
+// RtmpMessage 는 payload 의 참조 하나를 소유한다. 메시지를 받은 쪽이 release 하며,
+// netty codec 을 통과하는 경우에는 codec 이 대신 release 한다.
+public record RtmpMessage(RtmpHeader header, ByteBuf payload) implements ReferenceCounted {
+
+	@Override
+	public int refCnt() {
+		return payload.refCnt();
+	}
+
+	@Override
+	public RtmpMessage retain() {
+		payload.retain();
+		return this;
+	}
+
+	@Override
+	public RtmpMessage retain(int increment) {
+		payload.retain(increment);
+		return this;
+	}
+
+	@Override
+	public RtmpMessage touch() {
+		payload.touch();
+		return this;
+	}
+
+	@Override
+	public RtmpMessage touch(Object hint) {
+		payload.touch(hint);
+		return this;
+	}
+
+	@Override
+	public boolean release() {
+		return payload.release();
+	}
+
+	@Override
+	public boolean release(int decrement) {
+		return payload.release(decrement);
+	}
+}
@@ -0,0 +1,294 @@
+package com.hanghae.lemonairstreaming.rmtp.model.source;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.journal.StreamEvent;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoop;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.netty.util.internal.PlatformDependent;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+// FLV 파일(또는 재생 목록)을 mmap 해서 실시간 속도로 Stream 에 넣는다. 시청자에게는 RTMP 송출과 똑같이 보인다.
+@Slf4j
+public class FlvFileSource {
+
+	private static final int FLV_SIGNATURE = 0x464c56;
+	private static final int FLV_HEADER_MIN_SIZE = 9;
+	private static final int TAG_HEADER_SIZE = 11;
+	private static final int PREVIOUS_TAG_SIZE = 4;
+	private static final int TAG_TYPE_SCRIPT = 18;
+	private static final int TAG_TYPE_MASK = 0x1f;
+	private static final int TAG_FILTER_FLAG = 0x20;
+	// 파일이 바뀔 때 이전 파일 마지막 태그와의 간격
+	private static final long FILE_GAP_MILLIS = 40;
+	// 밀린 태그를 한 번에 너무 많이 보내 event loop 를 오래 잡지 않도록 나눠 보낸다
+	private static final int MAX_TAGS_PER_RUN = 256;
+	private static final long UNMAP_RETRY_SECONDS = 1;
+
+	@Getter
+	private final Stream stream;
+	private final StreamContext context;
+	private final List<Path> playlist;
+	private final boolean loop;
+	private final boolean rebaseTimestamps;
+	private final EventLoop eventLoop;
+
+	// 아래 상태는 eventLoop 에서만 접근한다
+	// 반복 재생할 때마다 다시 mmap 하지 않도록 파일마다 한 번만 매핑해 두고 송출이 끝나면 놓는다
+	private final Map<Path, MappedFile> mappedFiles = new HashMap<>();
+	private int playlistIndex = -1;
+	private ByteBuf file;
+	private long fileFirstTimestamp;
+	private long timestampOffset;
+	private long lastTimestamp = -FILE_GAP_MILLIS;
+	private long anchorNanos;
+	private long anchorTimestamp;
+	private ScheduledFuture<?> scheduled;
+	@Getter
+	private volatile boolean stopped;
+
+	public FlvFileSource(Stream stream, StreamContext context, List<Path> playlist, boolean loop,
+		boolean rebaseTimestamps, EventLoop eventLoop) {
+		this.stream = stream;
+		this.context = context;
+		this.playlist = List.copyOf(playlist);
+		this.loop = loop;
+		this.rebaseTimestamps = rebaseTimestamps;
+		this.eventLoop = eventLoop;
+		stream.setEventLoop(eventLoop);
+	}
+
+	public void start() {
+		eventLoop.execute(() -> {
+			stream.getJournal().record(StreamEvent.Type.PUBLISH, playlist.size());
+			log.info("스트리머: {} 파일 송출 시작 {}", stream.getStreamerId(), playlist);
+			pump();
+		});
+	}
+
+	public void stop() {
+		eventLoop.execute(this::finish);
+	}
+
+	private void pump() {
+		scheduled = null;
+		if (stopped) {
+			return;
+		}
+		long now = System.nanoTime();
+		for (int sent = 0; sent < MAX_TAGS_PER_RUN; sent++) {
+			if (!hasNextTag() && !openNextFile()) {
+				finish();
+				return;
+			}
+			long timestamp = outputTimestamp(file.readerIndex());
+			long due = anchorNanos + TimeUnit.MILLISECONDS.toNanos(timestamp - anchorTimestamp);
+			if (due > now) {
+				scheduled = eventLoop.schedule(this::pump, due - now, TimeUnit.NANOSECONDS);
+				return;
+			}
+			emitTag(timestamp);
+		}
+		eventLoop.execute(this::pump);
+	}
+
+	private void emitTag(long timestamp) {
+		int index = file.readerIndex();
+		int flags = file.getUnsignedByte(index);
+		int type = flags & TAG_TYPE_MASK;
+		int size = file.getUnsignedMedium(index + 1);
+		file.readerIndex(index + TAG_HEADER_SIZE + size + PREVIOUS_TAG_SIZE);
+		lastTimestamp = timestamp;
+
+		if ((flags & TAG_FILTER_FLAG) != 0 || size == 0) {
+			return;
+		}
+		// mmap 영역을 그대로 slice 해서 넘기므로 태그마다 복사가 없다
+		ByteBuf data = file.retainedSlice(index + TAG_HEADER_SIZE, size);
+		switch (type) {
+			case RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO, RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO ->
+				stream.addMedia(new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(type, (int)timestamp, size),
+					data, MediaTagParser.parse((short)type, data)));
+			case TAG_TYPE_SCRIPT -> {
+				handleScript(data);
+				data.release();
+			}
+			default -> data.release();
+		}
+	}
+
+	private void handleScript(ByteBuf data) {
+		try {
+			List<Object> decoded = Amf0Rules.decodeAll(data);
+			// AMF0 object 와 ECMA array 는 모두 Amf0Object 로 읽힌다
+			if (decoded.size() > 1 && "onMetaData".equals(decoded.get(0))
+				&& decoded.get(1) instanceof Amf0Rules.Amf0Object metadata) {
+				metadata.remove("filesize");
+				stream.setMetadata(metadata);
+			}
+		} catch (RuntimeException e) {
+			log.warn("스트리머: {} 파일의 script 태그를 읽지 못했습니다", stream.getStreamerId(), e);
+		}
+	}
+
+	private boolean hasNextTag() {
+		if (file == null || file.readableBytes() < TAG_HEADER_SIZE) {
+			return false;
+		}
+		int size = file.getUnsignedMedium(file.readerIndex() + 1);
+		return file.readableBytes() >= TAG_HEADER_SIZE + size + PREVIOUS_TAG_SIZE;
+	}
+
+	private long outputTimestamp(int index) {
+		long timestamp = fileTimestamp(index);
+		if (!rebaseTimestamps) {
+			return timestamp;
+		}
+		return Math.max(timestampOffset + timestamp - fileFirstTimestamp, lastTimestamp);
+	}
+
+	private long fileTimestamp(int index) {
+		return file.getUnsignedMedium(index + 4) | (long)file.getUnsignedByte(index + 7) << 24;
+	}
+
+	// 다음 파일로 넘어가며 pacing 기준점과 timestamp offset 을 다시 잡는다
+	private boolean openNextFile() {
+		releaseFile();
+		for (int attempt = 0; attempt < playlist.size(); attempt++) {
+			playlistIndex++;
+			if (playlistIndex == playlist.size()) {
+				if (!loop) {
+					return false;
+				}
+				playlistIndex = 0;
+			}
+			Path path = playlist.get(playlistIndex);
+			try {
+				file = open(path);
+			} catch (IOException | IllegalArgumentException e) {
+				log.error("스트리머: {} FLV 파일을 열 수 없습니다 {}", stream.getStreamerId(), path, e);
+				continue;
+			}
+			if (!hasNextTag()) {
+				releaseFile();
+				continue;
+			}
+			fileFirstTimestamp = fileTimestamp(file.readerIndex());
+			timestampOffset = lastTimestamp + FILE_GAP_MILLIS;
+			// rebase 하면 timestamp 가 이어지므로 처음 기준점을 계속 쓴다. 아니면 파일마다 간격을 두고 다시 잡는다.
+			if (!rebaseTimestamps || anchorNanos == 0) {
+				long gap = anchorNanos == 0 ? 0 : TimeUnit.MILLISECONDS.toNanos(FILE_GAP_MILLIS);
+				anchorNanos = System.nanoTime() + gap;
+				anchorTimestamp = outputTimestamp(file.readerIndex());
+			}
+			return true;
+		}
+		return false;
+	}
+
+	// 매핑은 캐시가 참조 하나를 갖고, 재생할 때마다 읽기 위치만 따로 가진 duplicate 를 꺼낸다
+	private ByteBuf open(Path path) throws IOException {
+		MappedFile mapped = mappedFiles.get(path);
+		if (mapped == null) {
+			mapped = map(path);
+			mappedFiles.put(path, mapped);
+		}
+		ByteBuf duplicate = mapped.buf().retainedDuplicate();
+		duplicate.readerIndex((int)duplicate.getUnsignedInt(5) + PREVIOUS_TAG_SIZE);
+		return duplicate;
+	}
+
+	private static MappedFile map(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("FLV file larger than 2GB is not supported: " + path);
+			}
+			MappedFile file = new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+			ByteBuf buf = file.buf();
+			if (buf.readableBytes() < FLV_HEADER_MIN_SIZE + PREVIOUS_TAG_SIZE || buf.getMedium(0) != FLV_SIGNATURE) {
+				file.unmap();
+				throw new IllegalArgumentException("Not an FLV file: " + path);
+			}
+			long dataOffset = buf.getUnsignedInt(5);
+			if (dataOffset < FLV_HEADER_MIN_SIZE || dataOffset + PREVIOUS_TAG_SIZE > buf.writerIndex()) {
+				file.unmap();
+				throw new IllegalArgumentException("Invalid FLV header: " + path);
+			}
+			return file;
+		}
+	}
+
+	private void finish() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		if (scheduled != null) {
+			scheduled.cancel(false);
+			scheduled = null;
+		}
+		releaseFile();
+		mappedFiles.values().forEach(mapped -> {
+			mapped.buf().release();
+			unmapWhenReleased(mapped);
+		});
+		mappedFiles.clear();
+		log.info("스트리머: {} 파일 송출 종료", stream.getStreamerId());
+		stream.closeStream();
+		if (context.getStream(stream.getStreamerId()) == stream) {
+			context.deleteStream(stream.getStreamerId());
+		}
+	}
+
+	// GOP 캐시나 시청자 outbound buffer 에 slice 가 남아 있으면 모두 놓일 때까지 기다렸다가 푼다.
+	// slice 는 매핑과 참조 수를 같이 쓰므로 0 이 된 뒤에는 더 읽히지 않는다.
+	private void unmapWhenReleased(MappedFile mapped) {
+		if (mapped.buf().refCnt() == 0) {
+			mapped.unmap();
+		} else {
+			eventLoop.schedule(() -> unmapWhenReleased(mapped), UNMAP_RETRY_SECONDS, TimeUnit.SECONDS);
+		}
+	}
+
+	private void releaseFile() {
+		if (file != null) {
+			file.release();
+			file = null;
+		}
+	}
+
+	// Unpooled.wrappedBuffer 는 release 되어도 매핑을 풀지 않으므로 GC 를 기다리지 않도록 직접 푼다
+	private record MappedFile(ByteBuf buf, MappedByteBuffer mapped) {
+
+		private MappedFile(MappedByteBuffer mapped) {
+			this(Unpooled.wrappedBuffer(mapped), mapped);
+		}
+
+		private void unmap() {
+			if (buf.refCnt() > 0) {
+				buf.release(buf.refCnt());
+			}
+			PlatformDependent.freeDirectBuffer(mapped);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package com.hanghae.lemonairstreaming.rmtp.model.source;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+// 파일 송출 채널을 관리한다. 설정의 채널은 기동 시 바로 시작하고, 나머지는 admin API 로 시작/중지한다.
+// 서버 운영자가 띄우는 채널이라 스트림 키 검증을 거치지 않으므로 서비스 서버에 방송 시작/종료나 트랜스코딩을 요청하지 않는다.
+// 서비스 서버가 모르는 방송이므로 시청자는 RTMP 로 바로 본다.
+@Slf4j
+public class FlvFileSourceManager {
+
+	private final StreamContext context;
+	private final PlayerWaitingRoom waitingRoom;
+	private final Map<String, FlvFileSource> sources = new ConcurrentHashMap<>();
+	private EventLoopGroup eventLoopGroup;
+
+	// 파일 경로는 이 디렉터리 아래만 허용한다. 비어 있으면 파일 송출을 쓰지 않는다.
+	@Value("${internal.rtmp.file-source.root:}")
+	private String root = "";
+
+	@Value("${internal.rtmp.file-source.threads:2}")
+	private int threads = 2;
+
+	// streamerId=a.flv|b.flv 형식, 쉼표로 여러 채널
+	@Value("${internal.rtmp.file-source.channels:}")
+	private String[] channels = new String[0];
+
+	@Value("${internal.rtmp.file-source.loop:true}")
+	private boolean loopByDefault = true;
+
+	@Value("${internal.rtmp.file-source.rebase-timestamps:true}")
+	private boolean rebaseTimestampsByDefault = true;
+
+	public FlvFileSourceManager(StreamContext context, PlayerWaitingRoom waitingRoom) {
+		this.context = context;
+		this.waitingRoom = waitingRoom;
+	}
+
+	public void start() {
+		eventLoopGroup = new DefaultEventLoopGroup(threads, new DefaultThreadFactory("flv-source", true));
+		for (String channel : channels) {
+			int separator = channel.indexOf('=');
+			if (separator <= 0) {
+				log.error("잘못된 파일 송출 채널 설정: {}", channel);
+				continue;
+			}
+			List<String> files = List.of(channel.substring(separator + 1).split("\\|"));
+			try {
+				publish(channel.substring(0, separator).trim(), files, loopByDefault, rebaseTimestampsByDefault);
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				log.error("파일 송출 채널을 시작하지 못했습니다: {}", channel, e);
+			}
+		}
+	}
+
+	public void stop() throws InterruptedException {
+		sources.values().forEach(FlvFileSource::stop);
+		sources.clear();
+		eventLoopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).await(5, TimeUnit.SECONDS);
+	}
+
+	public boolean isEnabled() {
+		return !root.isBlank();
+	}
+
+	public FlvFileSource publish(String streamerId, List<String> files, boolean loop, boolean rebaseTimestamps) {
+		if (!isEnabled()) {
+			throw new IllegalStateException("File source root is not configured");
+		}
+		if (files.isEmpty()) {
+			throw new IllegalArgumentException("Playlist is empty");
+		}
+		List<Path> playlist = new ArrayList<>(files.size());
+		for (String file : files) {
+			playlist.add(resolve(file.trim()));
+		}
+
+		sources.values().removeIf(FlvFileSource::isStopped);
+		Stream stream = new Stream(streamerId);
+		FlvFileSource source = new FlvFileSource(stream, context, playlist, loop, rebaseTimestamps,
+			eventLoopGroup.next());
+		if (sources.putIfAbsent(streamerId, source) != null) {
+			throw new IllegalStateException("Stream " + streamerId + " is already live");
+		}
+		// RTMP publisher 가 그 사이에 같은 이름으로 방송을 시작했을 수 있으므로 확인과 등록을 한 번에 한다
+		if (!context.addStreamIfAbsent(stream)) {
+			sources.remove(streamerId, source);
+			throw new IllegalStateException("Stream " + streamerId + " is already live");
+		}
+		source.start();
+		// RTMP publisher 와 마찬가지로 방송 시작을 기다리던 시청자를 붙인다
+		waitingRoom.release(stream);
+		return source;
+	}
+
+	public boolean unpublish(String streamerId) {
+		FlvFileSource source = sources.remove(streamerId);
+		if (source == null || source.isStopped()) {
+			return false;
+		}
+		source.stop();
+		return true;
+	}
+
+	private Path resolve(String file) {
+		Path base = Path.of(root).toAbsolutePath().normalize();
+		Path path = base.resolve(file).normalize();
+		if (!path.startsWith(base)) {
+			throw new IllegalArgumentException("File is outside of the file source root: " + file);
+		}
+		return path;
+	}
+}
@@ -0,0 +1,83 @@
+package com.hanghae.lemonairstreaming.rmtp.model.util;
+
+import static com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants.*;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+
+import io.netty.buffer.ByteBuf;
+
+// 메시지를 청크 단위로 기록한다. payload 의 readerIndex 는 바꾸지 않으므로 여러 채널이 같은 payload 를 공유할 수 있다.
+public class ChunkWriter {
+
+	public static void writeFmt0(ByteBuf out, RtmpHeader header, int timestamp, ByteBuf payload, int chunkSize) {
+		boolean extended = isExtended(timestamp);
+		int cid = header.getCid();
+
+		writeBasicHeader(out, RTMP_CHUNK_TYPE_0, cid);
+		out.writeMedium(extended ? RTMP_MAX_TIMESTAMP : timestamp);
+		out.writeMedium(payload.readableBytes());
+		out.writeByte(header.getType());
+		out.writeIntLE(header.getStreamId());
+		if (extended) {
+			out.writeInt(timestamp);
+		}
+		writeChunks(out, cid, payload, chunkSize, extended, timestamp);
+	}
+
+	public static void writeFmt1(ByteBuf out, RtmpHeader header, int timestampDelta, ByteBuf payload, int chunkSize) {
+		boolean extended = isExtended(timestampDelta);
+		int cid = header.getCid();
+
+		writeBasicHeader(out, RTMP_CHUNK_TYPE_1, cid);
+		out.writeMedium(extended ? RTMP_MAX_TIMESTAMP : timestampDelta);
+		out.writeMedium(payload.readableBytes());
+		out.writeByte(header.getType());
+		if (extended) {
+			out.writeInt(timestampDelta);
+		}
+		writeChunks(out, cid, payload, chunkSize, extended, timestampDelta);
+	}
+
+	public static int encodedSize(int payloadLength, int chunkSize) {
+		int chunks = Math.max(1, (payloadLength + chunkSize - 1) / chunkSize);
+		return 3 + 11 + 4 + payloadLength + (chunks - 1) * (3 + 4);
+	}
+
+	private static void writeChunks(ByteBuf out, int cid, ByteBuf payload, int chunkSize, boolean extended,
+		int timestamp) {
+		int index = payload.readerIndex();
+		int end = payload.writerIndex();
+
+		int length = Math.min(chunkSize, end - index);
+		out.writeBytes(payload, index, length);
+		index += length;
+
+		while (index < end) {
+			writeBasicHeader(out, RTMP_CHUNK_TYPE_3, cid);
+			// extended timestamp 를 쓴 메시지는 type 3 청크에도 반복한다
+			if (extended) {
+				out.writeInt(timestamp);
+			}
+			length = Math.min(chunkSize, end - index);
+			out.writeBytes(payload, index, length);
+			index += length;
+		}
+	}
+
+	private static void writeBasicHeader(ByteBuf out, int fmt, int cid) {
+		if (cid >= 64 + 255) {
+			out.writeByte((fmt << 6) | 1);
+			out.writeByte((cid - 64) & 0xff);
+			out.writeByte(((cid - 64) >> 8) & 0xff);
+		} else if (cid >= 64) {
+			out.writeByte(fmt << 6);
+			out.writeByte((cid - 64) & 0xff);
+		} else {
+			out.writeByte((fmt << 6) | cid);
+		}
+	}
+
+	private static boolean isExtended(int timestamp) {
+		return Integer.compareUnsigned(timestamp, RTMP_MAX_TIMESTAMP) >= 0;
+	}
+}
@@ -0,0 +1,45 @@
+package com.hanghae.lemonairstreaming.rmtp.model.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * publisher/player 가 서버로 보내는 메시지를 만든다. 소켓 없이 파이프라인에 트래픽을 흘리는
+ * PipelineWarmUp 과 테스트가 함께 쓴다.
+ */
+public class ClientMessageProvider {
+
+	// publisher 는 createStream 응답과 상관없이 보통 1 번 message stream 으로 보낸다
+	private static final int CLIENT_STREAM_ID = 1;
+
+	public static RtmpMessage command(Object... arguments) {
+		return MessageProvider.commandMessage(new ArrayList<>(Arrays.asList(arguments)));
+	}
+
+	public static RtmpMessage media(int type, int timestamp, int... bytes) {
+		ByteBuf payload = Unpooled.buffer(bytes.length);
+		for (int b : bytes) {
+			payload.writeByte(b);
+		}
+		return media(type, timestamp, payload);
+	}
+
+	public static RtmpMessage media(int type, int timestamp, ByteBuf payload) {
+		RtmpHeader header = HeaderProvider.mediaMessageHeader(type, timestamp, payload.readableBytes());
+		header.setStreamId(CLIENT_STREAM_ID);
+		return new RtmpMessage(header, payload);
+	}
+
+	// chunk header 는 앞 메시지에 따라 줄여 쓰므로 연결마다 클라이언트 쪽 ChunkEncoder 채널을 하나씩 둔다
+	public static ByteBuf encode(EmbeddedChannel encoder, RtmpMessage message) {
+		encoder.writeOutbound(message);
+		return encoder.readOutbound();
+	}
+}
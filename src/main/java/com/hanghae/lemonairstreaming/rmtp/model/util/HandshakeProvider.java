@@ -0,0 +1,219 @@
+package com.hanghae.lemonairstreaming.rmtp.model.util;
+
+import static com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.util.concurrent.FastThreadLocal;
+
+public class HandshakeProvider {
+
+	private static final int DIGEST_LENGTH = 32;
+	private static final int DIGEST_OFFSET_RANGE = 728;
+	private static final int SERVER_VERSION = 0x0d0e0a0d;
+	private static final long REGENERATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private static final byte[] GENUINE_FP_KEY;
+	private static final byte[] GENUINE_FMS_KEY;
+
+	private static final FastThreadLocal<Mac> HMAC = new FastThreadLocal<>() {
+		@Override
+		protected Mac initialValue() {
+			return newMac();
+		}
+	};
+	// 연결마다 key 와 버퍼를 새로 만들지 않도록 event loop 스레드마다 하나씩 둔다
+	private static final FastThreadLocal<Digests> DIGESTS = new FastThreadLocal<>() {
+		@Override
+		protected Digests initialValue() {
+			return new Digests();
+		}
+	};
+
+	// S1/S2 랜덤 바디는 모든 연결이 공유하고 주기적으로 다시 만든다
+	private static volatile ServerBodies bodies;
+
+	static {
+		byte[] common = new byte[] {
+			(byte)0xF0, (byte)0xEE, (byte)0xC2, (byte)0x4A, (byte)0x80, (byte)0x68, (byte)0xBE, (byte)0xE8,
+			(byte)0x2E, (byte)0x00, (byte)0xD0, (byte)0xD1, (byte)0x02, (byte)0x9E, (byte)0x7E, (byte)0x57,
+			(byte)0x6E, (byte)0xEC, (byte)0x5D, (byte)0x2D, (byte)0x29, (byte)0x80, (byte)0x6F, (byte)0xAB,
+			(byte)0x93, (byte)0xB8, (byte)0xE6, (byte)0x36, (byte)0xCF, (byte)0xEB, (byte)0x31, (byte)0xAE};
+		GENUINE_FP_KEY = concat("Genuine Adobe Flash Player 001".getBytes(StandardCharsets.US_ASCII), common);
+		GENUINE_FMS_KEY = concat("Genuine Adobe Flash Media Server 001".getBytes(StandardCharsets.US_ASCII), common);
+		bodies = ServerBodies.generate();
+	}
+
+	public static ByteBuf s0s1s2(ByteBufAllocator alloc, ByteBuf c1, boolean complexEnabled) {
+		ServerBodies current = current();
+		ByteBuf resp = alloc.ioBuffer(RTMP_HANDSHAKE_VERSION_LENGTH + RTMP_HANDSHAKE_SIZE + RTMP_HANDSHAKE_SIZE);
+		resp.writeByte(RTMP_VERSION);
+
+		// C1 에서 클라이언트 digest 가 확인될 때만 complex 핸드셰이크로 응답한다
+		int schema = complexEnabled ? findClientDigestSchema(c1) : -1;
+		if (schema < 0) {
+			resp.writeBytes(current.simpleS1);
+			// S2 는 C1 의 echo
+			resp.writeBytes(c1, c1.readerIndex(), RTMP_HANDSHAKE_SIZE);
+			return resp;
+		}
+
+		resp.writeBytes(current.complexS1[schema]);
+
+		// S2 의 key 는 클라이언트 digest 로 정해지므로 이 Mac 만 연결마다 다시 init 한다
+		Digests digests = DIGESTS.get();
+		digests.fmsMac.update(digests.c1, digestOffset(digests.c1, schema), DIGEST_LENGTH);
+		finish(digests.fmsMac, digests.s2Key);
+		Mac mac = HMAC.get();
+		initMac(mac, digests.s2Key, DIGEST_LENGTH);
+		mac.update(current.s2Random, 0, RTMP_HANDSHAKE_SIZE - DIGEST_LENGTH);
+		resp.writeBytes(current.s2Random, 0, RTMP_HANDSHAKE_SIZE - DIGEST_LENGTH);
+		finish(mac, digests.digest);
+		resp.writeBytes(digests.digest);
+		return resp;
+	}
+
+	private static ServerBodies current() {
+		ServerBodies current = bodies;
+		if (System.nanoTime() - current.createdAt > REGENERATE_INTERVAL_NANOS) {
+			current = ServerBodies.generate();
+			bodies = current;
+		}
+		return current;
+	}
+
+	// 찾으면 C1 은 스레드의 digests.c1 에 복사되어 있다
+	private static int findClientDigestSchema(ByteBuf c1) {
+		int base = c1.readerIndex();
+		if (c1.getInt(base + 4) == 0) {
+			return -1;
+		}
+		Digests digests = DIGESTS.get();
+		byte[] copy = digests.c1;
+		c1.getBytes(base, copy);
+		for (int schema = 0; schema < 2; schema++) {
+			int offset = digestOffset(copy, schema);
+			digests.fpMac.update(copy, 0, offset);
+			digests.fpMac.update(copy, offset + DIGEST_LENGTH, RTMP_HANDSHAKE_SIZE - offset - DIGEST_LENGTH);
+			finish(digests.fpMac, digests.digest);
+			if (digestEquals(digests.digest, copy, offset)) {
+				return schema;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean digestEquals(byte[] expected, byte[] bytes, int offset) {
+		int diff = 0;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			diff |= expected[i] ^ bytes[offset + i];
+		}
+		return diff == 0;
+	}
+
+	private static int digestOffset(byte[] bytes, int schema) {
+		int pointer = schema == 0 ? 8 : 772;
+		int sum = (bytes[pointer] & 0xff) + (bytes[pointer + 1] & 0xff)
+			+ (bytes[pointer + 2] & 0xff) + (bytes[pointer + 3] & 0xff);
+		return sum % DIGEST_OFFSET_RANGE + pointer + 4;
+	}
+
+	private static Mac newMac() {
+		try {
+			return Mac.getInstance("HmacSHA256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static Mac newMac(byte[] key, int keyLength) {
+		Mac mac = newMac();
+		initMac(mac, key, keyLength);
+		return mac;
+	}
+
+	// doFinal 뒤에도 Mac 은 같은 key 로 초기화된 상태로 돌아간다
+	private static void finish(Mac mac, byte[] output) {
+		try {
+			mac.doFinal(output, 0);
+		} catch (ShortBufferException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void initMac(Mac mac, byte[] key, int keyLength) {
+		try {
+			mac.init(new SecretKeySpec(key, 0, keyLength, "HmacSHA256"));
+		} catch (InvalidKeyException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] concat(byte[] a, byte[] b) {
+		byte[] result = new byte[a.length + b.length];
+		System.arraycopy(a, 0, result, 0, a.length);
+		System.arraycopy(b, 0, result, a.length, b.length);
+		return result;
+	}
+
+	// 고정 key 로 미리 init 한 Mac 과 C1 복사본. 같은 스레드에서만 쓴다.
+	private static final class Digests {
+
+		private final Mac fpMac = newMac(GENUINE_FP_KEY, 30);
+		private final Mac fmsMac = newMac(GENUINE_FMS_KEY, GENUINE_FMS_KEY.length);
+		private final byte[] c1 = new byte[RTMP_HANDSHAKE_SIZE];
+		private final byte[] digest = new byte[DIGEST_LENGTH];
+		private final byte[] s2Key = new byte[DIGEST_LENGTH];
+	}
+
+	private record ServerBodies(long createdAt, byte[] simpleS1, byte[][] complexS1, byte[] s2Random) {
+
+		static ServerBodies generate() {
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+
+			byte[] simpleS1 = new byte[RTMP_HANDSHAKE_SIZE];
+			random.nextBytes(simpleS1);
+			writeInt(simpleS1, 0, 0);
+			writeInt(simpleS1, 4, 0);
+
+			byte[][] complexS1 = new byte[2][];
+			Mac mac = HMAC.get();
+			for (int schema = 0; schema < 2; schema++) {
+				byte[] s1 = new byte[RTMP_HANDSHAKE_SIZE];
+				random.nextBytes(s1);
+				writeInt(s1, 0, 0);
+				writeInt(s1, 4, SERVER_VERSION);
+				int offset = digestOffset(s1, schema);
+
+				byte[] part = new byte[RTMP_HANDSHAKE_SIZE - DIGEST_LENGTH];
+				System.arraycopy(s1, 0, part, 0, offset);
+				System.arraycopy(s1, offset + DIGEST_LENGTH, part, offset, RTMP_HANDSHAKE_SIZE - offset - DIGEST_LENGTH);
+				initMac(mac, GENUINE_FMS_KEY, 36);
+				System.arraycopy(mac.doFinal(part), 0, s1, offset, DIGEST_LENGTH);
+				complexS1[schema] = s1;
+			}
+
+			byte[] s2Random = new byte[RTMP_HANDSHAKE_SIZE];
+			random.nextBytes(s2Random);
+
+			return new ServerBodies(System.nanoTime(), simpleS1, complexS1, s2Random);
+		}
+
+		private static void writeInt(byte[] bytes, int index, int value) {
+			bytes[index] = (byte)(value >>> 24);
+			bytes[index + 1] = (byte)(value >>> 16);
+			bytes[index + 2] = (byte)(value >>> 8);
+			bytes[index + 3] = (byte)value;
+		}
+	}
+}
@@ -67,6 +67,29 @@ public class HeaderProvider {
 		return header;
 	}
 
+	public static RtmpHeader mediaMessageHeader(int type, int timestamp, int messageLength) {
+		RtmpHeader header = new RtmpHeader();
+		header.setType((short)type);
+		header.setCid(type == RTMP_MSG_USER_CONTROL_TYPE_VIDEO ? 6 : 4);
+		header.setStreamId(RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
+		header.setTimestamp(timestamp);
+		header.setMessageLength(messageLength);
+
+		return header;
+	}
+
+	// 오디오와 같은 chunk stream 으로 보내야 type 1 헤더의 timestamp delta 가 이어진다
+	public static RtmpHeader aggregateMessageHeader(int timestamp, int messageLength) {
+		RtmpHeader header = new RtmpHeader();
+		header.setType((short)RTMP_MSG_AGGREGATE);
+		header.setCid(4);
+		header.setStreamId(RTMP_DEFAULT_MESSAGE_STREAM_ID_VALUE);
+		header.setTimestamp(timestamp);
+		header.setMessageLength(messageLength);
+
+		return header;
+	}
+
 	public static RtmpHeader dataMessageHeader(int messageLength) {
 		RtmpHeader header = new RtmpHeader();
 		header.setType((short)RTMP_MSG_DATA_TYPE_AMF0);
@@ -0,0 +1,99 @@
+package com.hanghae.lemonairstreaming.rmtp.model.util;
+
+import static com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants.*;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor.Codec;
+
+import io.netty.buffer.ByteBuf;
+
+public class MediaTagParser {
+
+	private static final int VIDEO_CODEC_AVC = 7;
+	private static final int VIDEO_CODEC_HEVC = 12;
+	private static final int VIDEO_CODEC_AV1 = 13;
+
+	private static final int SOUND_FORMAT_MP3 = 2;
+	private static final int SOUND_FORMAT_EX_HEADER = 9;
+	private static final int SOUND_FORMAT_AAC = 10;
+	private static final int SOUND_FORMAT_MP3_8K = 14;
+
+	// enhanced RTMP packet type
+	private static final int PACKET_TYPE_SEQUENCE_START = 0;
+	private static final int PACKET_TYPE_CODED_FRAMES = 1;
+	private static final int PACKET_TYPE_MPEG2TS_SEQUENCE_START = 5;
+	private static final int PACKET_TYPE_MULTITRACK = 6;
+	private static final int PACKET_TYPE_MOD_EX = 7;
+
+	private static final int AUDIO_PACKET_TYPE_MULTITRACK = 5;
+
+	public static MediaDescriptor parse(short type, ByteBuf payload) {
+		if (!payload.isReadable()) {
+			return MediaDescriptor.UNKNOWN;
+		}
+		return switch (type) {
+			case RTMP_MSG_USER_CONTROL_TYPE_VIDEO -> parseVideo(payload, payload.readerIndex());
+			case RTMP_MSG_USER_CONTROL_TYPE_AUDIO -> parseAudio(payload, payload.readerIndex());
+			default -> MediaDescriptor.UNKNOWN;
+		};
+	}
+
+	private static MediaDescriptor parseVideo(ByteBuf payload, int base) {
+		int length = payload.readableBytes();
+		int first = payload.getUnsignedByte(base);
+
+		if ((first & 0x80) != 0) {
+			int frameType = (first >> 4) & 0x07;
+			int packetType = first & 0x0f;
+			if (packetType == PACKET_TYPE_MULTITRACK || packetType == PACKET_TYPE_MOD_EX || length < 5) {
+				return new MediaDescriptor(Codec.OTHER_VIDEO, frameType, packetType, 0, false, true);
+			}
+			Codec codec = Codec.fromFourCc(payload.getInt(base + 1), true);
+			int compositionTimeOffset = 0;
+			if (packetType == PACKET_TYPE_CODED_FRAMES && (codec == Codec.AVC || codec == Codec.HEVC) && length >= 8) {
+				compositionTimeOffset = payload.getMedium(base + 5);
+			}
+			boolean sequenceHeader = packetType == PACKET_TYPE_SEQUENCE_START
+				|| packetType == PACKET_TYPE_MPEG2TS_SEQUENCE_START;
+			return new MediaDescriptor(codec, frameType, packetType, compositionTimeOffset, sequenceHeader, true);
+		}
+
+		int frameType = first >> 4;
+		Codec codec = switch (first & 0x0f) {
+			case VIDEO_CODEC_AVC -> Codec.AVC;
+			case VIDEO_CODEC_HEVC -> Codec.HEVC;
+			case VIDEO_CODEC_AV1 -> Codec.AV1;
+			default -> Codec.OTHER_VIDEO;
+		};
+		if (codec == Codec.OTHER_VIDEO || length < 2) {
+			return new MediaDescriptor(codec, frameType, -1, 0, false, false);
+		}
+		int packetType = payload.getUnsignedByte(base + 1);
+		int compositionTimeOffset = length >= 5 ? payload.getMedium(base + 2) : 0;
+		return new MediaDescriptor(codec, frameType, packetType, compositionTimeOffset,
+			packetType == PACKET_TYPE_SEQUENCE_START, false);
+	}
+
+	private static MediaDescriptor parseAudio(ByteBuf payload, int base) {
+		int length = payload.readableBytes();
+		int first = payload.getUnsignedByte(base);
+		int soundFormat = first >> 4;
+
+		if (soundFormat == SOUND_FORMAT_EX_HEADER) {
+			int packetType = first & 0x0f;
+			if (packetType == AUDIO_PACKET_TYPE_MULTITRACK || packetType == PACKET_TYPE_MOD_EX || length < 5) {
+				return new MediaDescriptor(Codec.OTHER_AUDIO, 0, packetType, 0, false, true);
+			}
+			Codec codec = Codec.fromFourCc(payload.getInt(base + 1), false);
+			return new MediaDescriptor(codec, 0, packetType, 0, packetType == PACKET_TYPE_SEQUENCE_START, true);
+		}
+
+		if (soundFormat == SOUND_FORMAT_AAC) {
+			int packetType = length >= 2 ? payload.getUnsignedByte(base + 1) : -1;
+			return new MediaDescriptor(Codec.AAC, 0, packetType, 0, packetType == PACKET_TYPE_SEQUENCE_START, false);
+		}
+
+		Codec codec = soundFormat == SOUND_FORMAT_MP3 || soundFormat == SOUND_FORMAT_MP3_8K ? Codec.MP3 : Codec.OTHER_AUDIO;
+		return new MediaDescriptor(codec, 0, -1, 0, false, false);
+	}
+}
@@ -52,6 +52,41 @@ public class MessageProvider {
 		return new RtmpMessage(HeaderProvider.commandMessageHeader(size), commandBuf);
 	}
 
+	// connect 를 거절하면서 다른 노드로 보낸다. 클라이언트는 ex.redirect 주소로 다시 접속한다.
+	public static RtmpMessage connectRedirect(Object transactionId, String redirect) {
+		Amf0Rules.Amf0Object ex = new Amf0Rules.Amf0Object();
+		ex.put("code", 302);
+		ex.put("redirect", redirect);
+
+		Amf0Rules.Amf0Object info = new Amf0Rules.Amf0Object();
+		info.put("level", "error");
+		info.put("code", "NetConnection.Connect.Rejected");
+		info.put("description", "Connection failed: Application rejected connection.");
+		info.put("ex", ex);
+
+		List<Object> result = new ArrayList<>();
+		result.add("_error");
+		result.add(transactionId);
+		result.add(null);
+		result.add(info);
+		return commandMessage(result);
+	}
+
+	// Enhanced RTMP 의 reconnect request. 지원하는 송출 프로그램은 끊고 같은 주소로 다시 접속한다.
+	public static RtmpMessage reconnectRequest(String description) {
+		Amf0Rules.Amf0Object info = new Amf0Rules.Amf0Object();
+		info.put("level", "status");
+		info.put("code", "NetConnection.Connect.ReconnectRequest");
+		info.put("description", description);
+
+		List<Object> result = new ArrayList<>();
+		result.add("onStatus");
+		result.add(0);
+		result.add(null);
+		result.add(info);
+		return commandMessage(result);
+	}
+
 	public static RtmpMessage dataMessage(List<Object> objects) {
 		ByteBuf commandBuf = Unpooled.buffer();
 		Amf0Rules.encodeList(commandBuf, objects);
@@ -0,0 +1,168 @@
+package com.hanghae.lemonairstreaming.rmtp.tls;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslServerSessionContext;
+import io.netty.handler.ssl.OpenSslSessionTicketKey;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * RTMPS 리스너가 쓰는 SslContext 를 들고 있다. netty-tcnative 가 있으면 OpenSSL 엔진을, 없으면 JDK 엔진을 쓴다.
+ * 인증서/키 파일이 바뀌면 새 SslContext 로 바꿔 끼우고, 이미 맺은 연결은 이전 context 로 계속 간다.
+ */
+@Slf4j
+public class RtmpsContext {
+
+	private static final Counter RELOADS = reloadCounter("success");
+	private static final Counter RELOAD_FAILURES = reloadCounter("failure");
+
+	// 0 이면 RTMPS 리스너를 열지 않는다
+	@Value("${internal.rtmp.tls.port:0}")
+	private int port;
+
+	// PEM 인증서 체인과 PKCS#8 개인 키
+	@Value("${internal.rtmp.tls.cert-chain:}")
+	private String certChainPath = "";
+
+	@Value("${internal.rtmp.tls.private-key:}")
+	private String privateKeyPath = "";
+
+	// 파일 변경을 확인하는 주기. 0 이면 다시 읽지 않는다.
+	@Value("${internal.rtmp.tls.reload-seconds:60}")
+	private long reloadSeconds = 60;
+
+	@Value("${internal.rtmp.tls.session-cache-size:20000}")
+	private long sessionCacheSize = 20000;
+
+	@Value("${internal.rtmp.tls.session-timeout-seconds:3600}")
+	private long sessionTimeoutSeconds = 3600;
+
+	private volatile SslContext sslContext;
+	// 인증서를 바꿔도 이전에 발급한 세션 티켓으로 재개할 수 있게 티켓 키는 프로세스가 살아 있는 동안 유지한다.
+	// tcnative 클래스가 필요하므로 OpenSSL 엔진일 때만 만든다.
+	private OpenSslSessionTicketKey ticketKey;
+	private long certChainModified;
+	private long privateKeyModified;
+	// 파일을 읽고 SslContext 를 만드는 일이 공용 rtmpTimer 의 다른 타이머를 밀어내지 않도록 스레드를 따로 둔다
+	private ScheduledExecutorService reloader;
+
+	public RtmpsContext() {
+	}
+
+	public RtmpsContext(int port, String certChainPath, String privateKeyPath, long reloadSeconds) {
+		this.port = port;
+		this.certChainPath = certChainPath;
+		this.privateKeyPath = privateKeyPath;
+		this.reloadSeconds = reloadSeconds;
+	}
+
+	private static Counter reloadCounter(String result) {
+		return Counter.builder("rtmp.tls.reloads")
+			.description("Certificate reloads of the RTMPS listener")
+			.tag("result", result)
+			.register(Metrics.globalRegistry);
+	}
+
+	private static OpenSslSessionTicketKey newTicketKey() {
+		SecureRandom random = new SecureRandom();
+		byte[] name = new byte[OpenSslSessionTicketKey.NAME_SIZE];
+		byte[] hmacKey = new byte[OpenSslSessionTicketKey.HMAC_KEY_SIZE];
+		byte[] aesKey = new byte[OpenSslSessionTicketKey.AES_KEY_SIZE];
+		random.nextBytes(name);
+		random.nextBytes(hmacKey);
+		random.nextBytes(aesKey);
+		return new OpenSslSessionTicketKey(name, hmacKey, aesKey);
+	}
+
+	public void start() throws IOException {
+		if (!isEnabled()) {
+			return;
+		}
+		load();
+		log.info("RTMPS 리스너 {} 포트, TLS 엔진 {}", port, provider());
+		if (reloadSeconds > 0) {
+			reloader = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("rtmps-reload", true));
+			reloader.scheduleWithFixedDelay(this::reloadIfChanged, reloadSeconds, reloadSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	public void stop() {
+		if (reloader != null) {
+			reloader.shutdownNow();
+		}
+	}
+
+	public boolean isEnabled() {
+		return port > 0 && !certChainPath.isBlank() && !privateKeyPath.isBlank();
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public SslHandler newHandler(ByteBufAllocator alloc) {
+		return sslContext.newHandler(alloc);
+	}
+
+	SslContext current() {
+		return sslContext;
+	}
+
+	static SslProvider provider() {
+		return OpenSsl.isAvailable() ? SslProvider.OPENSSL : SslProvider.JDK;
+	}
+
+	// 인증서나 키 파일의 수정 시각이 바뀌었으면 새 context 를 만든다. 실패하면 이전 context 를 그대로 쓴다.
+	void reloadIfChanged() {
+		if (new File(certChainPath).lastModified() == certChainModified
+			&& new File(privateKeyPath).lastModified() == privateKeyModified) {
+			return;
+		}
+		try {
+			load();
+			RELOADS.increment();
+			log.info("RTMPS 인증서를 다시 읽었습니다: {}", certChainPath);
+		} catch (IOException | RuntimeException e) {
+			RELOAD_FAILURES.increment();
+			log.error("RTMPS 인증서를 다시 읽지 못해 이전 인증서를 계속 씁니다: {}", certChainPath, e);
+		}
+	}
+
+	private void load() throws IOException {
+		File certChain = new File(certChainPath);
+		File privateKey = new File(privateKeyPath);
+		// 읽는 도중 파일이 바뀌어도 다음 확인에서 다시 읽도록 수정 시각을 먼저 잡는다
+		long certChainModified = certChain.lastModified();
+		long privateKeyModified = privateKey.lastModified();
+		SslContext context = SslContextBuilder.forServer(certChain, privateKey)
+			.sslProvider(provider())
+			.sessionCacheSize(sessionCacheSize)
+			.sessionTimeout(sessionTimeoutSeconds)
+			.build();
+		if (context.sessionContext() instanceof OpenSslServerSessionContext sessionContext) {
+			if (ticketKey == null) {
+				ticketKey = newTicketKey();
+			}
+			sessionContext.setTicketKeys(ticketKey);
+		}
+		sslContext = context;
+		this.certChainModified = certChainModified;
+		this.privateKeyModified = privateKeyModified;
+	}
+}
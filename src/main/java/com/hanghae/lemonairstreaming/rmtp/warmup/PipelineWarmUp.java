@@ -0,0 +1,211 @@
+package com.hanghae.lemonairstreaming.rmtp.warmup;
+
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * RTMP 포트를 열기 전에 실제 파이프라인(ChunkDecoder → RtmpMessageHandler → Stream → ChunkEncoder)을
+ * EmbeddedChannel 로 만들어 가짜 publish/play 트래픽을 흘린다. 재시작 직후 첫 방송들이 인터프리터나
+ * C1 코드로 처리되며 CPU 가 튀는 것을 막으려는 것이다.
+ * 메서드별 컴파일 단계는 JDK 가 알려주지 않으므로, 최소 시간이 지난 뒤 JIT 컴파일 시간이
+ * 더 늘지 않으면(핫 메서드가 C2 까지 올라갔으면) 멈추고, 그렇지 않아도 최대 시간에 멈춘다.
+ * 트래픽은 별도 StreamContext 에 흘리므로 실제 방송 목록에는 남지 않고, 그동안 rtmp.* meter 도 세지 않는다.
+ */
+@Slf4j
+public class PipelineWarmUp {
+
+	private static final String STREAMER = "warm-up";
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	// 한 세션에 보내는 프레임 수. 세션을 여러 번 새로 열어 connect/publish/play 도 데워진다.
+	private static final int FRAMES_PER_SESSION = 600;
+	private static final int KEYFRAME_INTERVAL = 60;
+	private static final int VIDEO_FRAME_BYTES = 8 * 1024;
+	private static final int AUDIO_FRAME_BYTES = 250;
+	private static final int PUBLISHER_CHUNK_SIZE = 4096;
+	// 이 간격 동안 JIT 컴파일 시간이 이만큼도 늘지 않으면 다 데워진 것으로 본다
+	private static final long QUIET_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+	private static final long QUIET_COMPILE_MILLIS = 50;
+
+	private final Timer timer;
+
+	@Value("${internal.rtmp.warm-up.enabled:false}")
+	private boolean enabled;
+
+	@Value("${internal.rtmp.warm-up.min-ms:2000}")
+	private long minMillis = 2_000;
+
+	@Value("${internal.rtmp.warm-up.max-ms:10000}")
+	private long maxMillis = 10_000;
+
+	@Value("${internal.rtmp.warm-up.players:8}")
+	private int players = 8;
+
+	public PipelineWarmUp(Timer timer) {
+		this.timer = timer;
+	}
+
+	public PipelineWarmUp(Timer timer, long minMillis, long maxMillis, int players) {
+		this(timer);
+		this.enabled = true;
+		this.minMillis = minMillis;
+		this.maxMillis = maxMillis;
+		this.players = players;
+	}
+
+	// 흘린 프레임 수. 꺼져 있으면 0.
+	public long run() {
+		if (!enabled) {
+			return 0;
+		}
+		CompilationMXBean compilation = ManagementFactory.getCompilationMXBean();
+		boolean compilationTimeSupported = compilation != null && compilation.isCompilationTimeMonitoringSupported();
+
+		long start = System.nanoTime();
+		long minEnd = start + TimeUnit.MILLISECONDS.toNanos(minMillis);
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(maxMillis);
+		long compileStart = compilationTimeSupported ? compilation.getTotalCompilationTime() : 0;
+		long quietCheckAt = start + QUIET_INTERVAL_NANOS;
+		long quietCompileMillis = compileStart;
+		long frames = 0;
+		int sessions = 0;
+		Set<MeterRegistry> registries = detachRegistries();
+		try {
+			while (true) {
+				frames += runSession(sessions++);
+				long now = System.nanoTime();
+				if (now >= deadline) {
+					break;
+				}
+				if (now >= quietCheckAt) {
+					long compileMillis = compilationTimeSupported ? compilation.getTotalCompilationTime() : 0;
+					boolean quiet = compilationTimeSupported && compileMillis - quietCompileMillis < QUIET_COMPILE_MILLIS;
+					if (quiet && now >= minEnd) {
+						break;
+					}
+					quietCompileMillis = compileMillis;
+					quietCheckAt = now + QUIET_INTERVAL_NANOS;
+				}
+			}
+		} finally {
+			registries.forEach(Metrics.globalRegistry::add);
+		}
+
+		long elapsed = System.nanoTime() - start;
+		Metrics.timer("rtmp.warmup.duration").record(elapsed, TimeUnit.NANOSECONDS);
+		log.info("JIT warm-up 완료: {} ms, 세션 {} 개, 프레임 {} 개, JIT 컴파일 {} ms",
+			TimeUnit.NANOSECONDS.toMillis(elapsed), sessions, frames,
+			compilationTimeSupported ? compilation.getTotalCompilationTime() - compileStart : -1);
+		return frames;
+	}
+
+	// 핸들러와 Stream 의 meter 는 Metrics.globalRegistry 에 static 으로 붙어 있으므로 가짜 트래픽을 흘리는 동안
+	// 하위 registry 를 떼어 rtmp.* 값에 섞이지 않게 한다. 다시 붙이면 registry 에 남아 있던 값에 이어서 센다.
+	private static Set<MeterRegistry> detachRegistries() {
+		Set<MeterRegistry> registries = new HashSet<>(Metrics.globalRegistry.getRegistries());
+		registries.forEach(Metrics.globalRegistry::remove);
+		return registries;
+	}
+
+	private long runSession(int session) {
+		StreamContext context = new StreamContext();
+		EgressSchedulers egressSchedulers = new EgressSchedulers();
+		List<EmbeddedChannel> channels = new ArrayList<>();
+		EmbeddedChannel encoder = new EmbeddedChannel(new ChunkEncoder());
+		try {
+			EmbeddedChannel publisher = connect(context, egressSchedulers, encoder, channels);
+			publisher.writeInbound(encode(encoder, command("createStream", 2.0, null)));
+			publisher.writeInbound(encode(encoder, command("publish", 3.0, null, "key", "live")));
+			publisher.writeInbound(encode(encoder, metadata(session)));
+			publisher.writeInbound(encode(encoder, MessageProvider.setChunkSize(PUBLISHER_CHUNK_SIZE)));
+			publisher.writeInbound(encode(encoder, media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 0x64)));
+			publisher.writeInbound(encode(encoder, media(AUDIO, 0, 0xaf, 0, 0x12, 0x10)));
+
+			List<EmbeddedChannel> viewers = new ArrayList<>(players);
+			for (int i = 0; i < players; i++) {
+				EmbeddedChannel playerEncoder = new EmbeddedChannel(new ChunkEncoder());
+				EmbeddedChannel player = connect(context, egressSchedulers, playerEncoder, channels);
+				player.writeInbound(encode(playerEncoder, command("play", 4.0, null, STREAMER)));
+				viewers.add(player);
+			}
+
+			for (int i = 0; i < FRAMES_PER_SESSION; i++) {
+				publisher.writeInbound(encode(encoder, frame(i)));
+				publisher.releaseInbound();
+				publisher.releaseOutbound();
+				for (EmbeddedChannel viewer : viewers) {
+					viewer.releaseOutbound();
+				}
+			}
+			return FRAMES_PER_SESSION;
+		} finally {
+			channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+		}
+	}
+
+	private EmbeddedChannel connect(StreamContext context, EgressSchedulers egressSchedulers, EmbeddedChannel encoder,
+		List<EmbeddedChannel> channels) {
+		EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new ChunkDecoder(),
+			new ChunkEncoder(), new RtmpMessageHandler(context, timer, egressSchedulers));
+		channels.add(channel);
+		channels.add(encoder);
+		Amf0Rules.Amf0Object app = new Amf0Rules.Amf0Object();
+		app.put("app", STREAMER);
+		app.put("tcUrl", "rtmp://localhost/" + STREAMER);
+		channel.writeInbound(encode(encoder, command("connect", 1.0, app)));
+		channel.releaseOutbound();
+		return channel;
+	}
+
+	private static RtmpMessage metadata(int session) {
+		Amf0Rules.Amf0Object metadata = new Amf0Rules.Amf0Object();
+		metadata.put("width", 1280.0);
+		metadata.put("height", 720.0);
+		metadata.put("framerate", 30.0);
+		metadata.put("videocodecid", 7.0);
+		metadata.put("audiocodecid", 10.0);
+		metadata.put("encoder", "warm-up " + session);
+		return MessageProvider.dataMessage(new ArrayList<>(Arrays.asList("@setDataFrame", "onMetaData", metadata)));
+	}
+
+	// 30fps 비디오와 AAC 오디오를 번갈아 보내고 2 초마다 키프레임을 넣는다
+	private static RtmpMessage frame(int index) {
+		int timestamp = index / 2 * 33;
+		if (index % 2 == 1) {
+			ByteBuf audio = Unpooled.buffer(AUDIO_FRAME_BYTES).writeByte(0xaf).writeByte(1);
+			return media(AUDIO, timestamp, audio.writeZero(AUDIO_FRAME_BYTES - 2));
+		}
+		boolean keyframe = index / 2 % KEYFRAME_INTERVAL == 0;
+		ByteBuf video = Unpooled.buffer(VIDEO_FRAME_BYTES).writeByte(keyframe ? 0x17 : 0x27).writeByte(1);
+		return media(VIDEO, timestamp, video.writeZero(VIDEO_FRAME_BYTES - 2));
+	}
+}
@@ -0,0 +1,190 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+
+class AggregateMessageTest {
+
+	private static final Logger log = LoggerFactory.getLogger(AggregateMessageTest.class);
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	// 48kHz AAC 는 1024 샘플, 약 21ms 마다 한 프레임. 96kbps 면 프레임당 약 250 바이트다.
+	private static final double AAC_FRAME_MILLIS = 1024 * 1000.0 / 48_000;
+	private static final int AAC_FRAME_BYTES = 250;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final RtmpTestClient rtmp = new RtmpTestClient(
+		() -> new RtmpMessageHandler(streamContext, timer, new EgressSchedulers()));
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		timer.stop();
+	}
+
+	@Test
+	void aggregateIsUnpackedIntoSubMessagesWithShiftedTimestamps() {
+		EmbeddedChannel publisher = publisher();
+		EmbeddedChannel player = rtmp.play(STREAMER);
+		EmbeddedChannel client = new EmbeddedChannel(new ChunkDecoder());
+		forward(player, client);
+		releaseAll(client);
+
+		// 하위 메시지 timestamp 는 1000 부터지만 aggregate 헤더는 200 이므로 200, 223, 246 으로 옮겨야 한다
+		ByteBuf body = Unpooled.buffer();
+		writeTag(body, AUDIO, 1000, new byte[] {(byte)0xaf, 1, 1});
+		writeTag(body, VIDEO, 1023, new byte[] {0x27, 1, 0, 0, 0, 2});
+		writeTag(body, AUDIO, 1046, new byte[] {(byte)0xaf, 1, 3});
+		rtmp.send(publisher, media(RtmpConstants.RTMP_MSG_AGGREGATE, 200, body));
+
+		forward(player, client);
+		List<int[]> received = new ArrayList<>();
+		RtmpMessage message;
+		while ((message = client.readInbound()) != null) {
+			received.add(new int[] {message.header().getType(), message.header().getTimestamp(),
+				message.payload().readableBytes()});
+			message.release();
+		}
+		assertEquals(3, received.size());
+		assertArrayEquals(new int[] {AUDIO, 200, 3}, received.get(0));
+		assertArrayEquals(new int[] {VIDEO, 223, 6}, received.get(1));
+		assertArrayEquals(new int[] {AUDIO, 246, 3}, received.get(2));
+
+		publisher.finishAndReleaseAll();
+		player.finishAndReleaseAll();
+		client.finishAndReleaseAll();
+	}
+
+	@Test
+	void audioOnlyEgressAggregationReducesMessageRate() {
+		int frames = 470;
+		Egress single = audioOnlyEgress(0, frames);
+		Egress aggregated = audioOnlyEgress(100, frames);
+
+		double seconds = frames * AAC_FRAME_MILLIS / 1000;
+		log.info(String.format("audio only egress over %.1fs: %d writes (%.1f/s) -> %d writes (%.1f/s), %d -> %d bytes",
+			seconds, single.writes, single.writes / seconds, aggregated.writes, aggregated.writes / seconds,
+			single.bytes, aggregated.bytes));
+
+		assertEquals(frames, single.writes);
+		assertTrue(aggregated.writes * 4 <= single.writes,
+			() -> "expected at least 4x fewer writes but got " + aggregated.writes);
+		// 시청자는 같은 프레임을 같은 timestamp 로 받는다
+		assertEquals(single.timestamps, aggregated.timestamps);
+	}
+
+	private Egress audioOnlyEgress(long windowMillis, int frames) {
+		EmbeddedChannel publisher = publisher();
+		streamContext.getStream(STREAMER).setAudioAggregateWindowMillis(windowMillis);
+		EmbeddedChannel player = rtmp.play(STREAMER + "?audioOnly");
+		EmbeddedChannel client = new EmbeddedChannel(new ChunkDecoder());
+		forward(player, client);
+		releaseAll(client);
+
+		Egress egress = new Egress();
+		for (int i = 1; i <= frames; i++) {
+			int timestamp = 45 + (int)Math.round(i * AAC_FRAME_MILLIS);
+			byte[] frame = new byte[AAC_FRAME_BYTES];
+			frame[0] = (byte)0xaf;
+			frame[1] = 1;
+			rtmp.send(publisher, media(AUDIO, timestamp, Unpooled.wrappedBuffer(frame)));
+			publisher.runPendingTasks();
+			ByteBuf written;
+			while ((written = player.readOutbound()) != null) {
+				egress.writes++;
+				egress.bytes += written.readableBytes();
+				client.writeInbound(written);
+			}
+		}
+		// 마지막 구간은 방송 종료 시 내보내므로 write 수에는 넣지 않고 timestamp 만 확인한다
+		publisher.finishAndReleaseAll();
+		forward(player, client);
+
+		RtmpMessage message;
+		while ((message = client.readInbound()) != null) {
+			collectAudioTimestamps(message, egress.timestamps);
+			message.release();
+		}
+		player.finishAndReleaseAll();
+		client.finishAndReleaseAll();
+		return egress;
+	}
+
+	// 시청자 쪽에서 aggregate 를 풀 때처럼 첫 하위 메시지를 aggregate 의 timestamp 에 맞춘다
+	private static void collectAudioTimestamps(RtmpMessage message, List<Integer> timestamps) {
+		RtmpHeader header = message.header();
+		if (header.getType() == AUDIO) {
+			timestamps.add(header.getTimestamp());
+		} else if (header.getType() == RtmpConstants.RTMP_MSG_AGGREGATE) {
+			ByteBuf body = message.payload().duplicate();
+			int first = -1;
+			while (body.isReadable()) {
+				int type = body.readUnsignedByte();
+				int size = body.readUnsignedMedium();
+				int timestamp = body.readUnsignedMedium() | body.readUnsignedByte() << 24;
+				body.skipBytes(3 + size + 4);
+				first = first < 0 ? timestamp : first;
+				if (type == AUDIO) {
+					timestamps.add(header.getTimestamp() + timestamp - first);
+				}
+			}
+		}
+	}
+
+	private EmbeddedChannel publisher() {
+		EmbeddedChannel publisher = rtmp.publisher("key");
+		assertInstanceOf(Stream.class, publisher.readInbound());
+		rtmp.send(publisher, media(AUDIO, 0, 0xaf, 0, 0x12, 0x10));
+		rtmp.send(publisher, media(AUDIO, 45, 0xaf, 1, 5, 5));
+		publisher.releaseOutbound();
+		return publisher;
+	}
+
+	private static void forward(EmbeddedChannel from, EmbeddedChannel to) {
+		ByteBuf written;
+		while ((written = from.readOutbound()) != null) {
+			to.writeInbound(written);
+		}
+	}
+
+	private static void releaseAll(EmbeddedChannel channel) {
+		RtmpMessage message;
+		while ((message = channel.readInbound()) != null) {
+			message.release();
+		}
+	}
+
+	private static void writeTag(ByteBuf out, int type, int timestamp, byte[] data) {
+		out.writeByte(type).writeMedium(data.length).writeMedium(timestamp).writeByte(timestamp >>> 24).writeMedium(0);
+		out.writeBytes(data).writeInt(11 + data.length);
+	}
+
+	private static class Egress {
+		int writes;
+		long bytes;
+		List<Integer> timestamps = new ArrayList<>();
+	}
+}
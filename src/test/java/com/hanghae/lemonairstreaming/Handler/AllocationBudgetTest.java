@@ -0,0 +1,172 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+
+/**
+ * publisher 하나와 시청자 N 명을 EmbeddedChannel 로 실제 파이프라인
+ * (ChunkDecoder → RtmpMessageHandler → Stream → ChunkEncoder) 에 태우고, 프레임 하나를 전달하는 동안
+ * 테스트 스레드가 할당한 바이트를 잰다. EmbeddedChannel 은 모든 처리를 호출한 스레드에서 하므로
+ * ThreadMXBean 의 스레드 할당량에 전달 경로 전체가 잡힌다.
+ * 예산은 src/test/resources/allocation-budget.properties 에 있다. 할당을 줄였으면 예산도 낮춘다.
+ * 할당량은 JIT 상태에 따라 달라지므로 C2 컴파일과 escape analysis 가 자리잡을 만큼 충분히 돌린 뒤,
+ * 여러 구간을 재서 가장 적은 값을 예산과 비교한다.
+ */
+class AllocationBudgetTest {
+
+	private static final Logger log = LoggerFactory.getLogger(AllocationBudgetTest.class);
+
+	private static final String BUDGET_FILE = "/allocation-budget.properties";
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	private static final int SUBSCRIBERS = 8;
+	private static final int ROUND_FRAMES = 5_000;
+	private static final int WARM_UP_ROUNDS = 10;
+	private static final int MEASURED_ROUNDS = 3;
+	// 30fps 비디오와 48kHz AAC 를 번갈아 보내고 2 초마다 키프레임을 넣는다
+	private static final int KEYFRAME_INTERVAL = 60;
+	private static final int VIDEO_FRAME_BYTES = 4 * 1024;
+	private static final int AUDIO_FRAME_BYTES = 250;
+	// OBS 처럼 publisher 는 4096 바이트 청크로 보낸다
+	private static final int PUBLISHER_CHUNK_SIZE = 4096;
+
+	private static final com.sun.management.ThreadMXBean THREADS =
+		(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	private static Properties budget;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final RtmpTestClient rtmp = new RtmpTestClient(
+		() -> new RtmpMessageHandler(streamContext, timer, new EgressSchedulers()));
+
+	@BeforeAll
+	static void loadBudget() throws IOException {
+		budget = new Properties();
+		try (InputStream in = AllocationBudgetTest.class.getResourceAsStream(BUDGET_FILE)) {
+			assertNotNull(in, BUDGET_FILE + " is missing");
+			budget.load(in);
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		timer.stop();
+	}
+
+	@Test
+	void ingestWithoutSubscribersStaysWithinBudget() {
+		assertWithinBudget("ingest.bytes-per-frame", 0);
+	}
+
+	@Test
+	void fanOutStaysWithinBudget() {
+		assertWithinBudget("forward.bytes-per-frame", SUBSCRIBERS);
+	}
+
+	private void assertWithinBudget(String key, int subscribers) {
+		assertTrue(THREADS.isThreadAllocatedMemorySupported());
+		THREADS.setThreadAllocatedMemoryEnabled(true);
+
+		EmbeddedChannel publisher = publisher();
+		List<EmbeddedChannel> players = new ArrayList<>(subscribers);
+		for (int i = 0; i < subscribers; i++) {
+			players.add(player());
+		}
+
+		int round = 0;
+		for (; round < WARM_UP_ROUNDS; round++) {
+			forward(publisher, players, encodeFrames(publisher, round * ROUND_FRAMES, ROUND_FRAMES));
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long perFrame = Long.MAX_VALUE;
+		for (int end = round + MEASURED_ROUNDS; round < end; round++) {
+			// 인코딩은 재는 구간 밖에서 미리 해 둔다
+			List<ByteBuf> frames = encodeFrames(publisher, round * ROUND_FRAMES, ROUND_FRAMES);
+			long before = THREADS.getThreadAllocatedBytes(threadId);
+			forward(publisher, players, frames);
+			perFrame = Math.min(perFrame, (THREADS.getThreadAllocatedBytes(threadId) - before) / ROUND_FRAMES);
+		}
+
+		long limit = Long.parseLong(budget.getProperty(key));
+		log.info("{}: {} bytes with {} subscribers (budget {})", key, perFrame, subscribers, limit);
+		long measured = perFrame;
+		assertTrue(measured <= limit, () -> key + " is " + measured + " bytes with " + subscribers
+			+ " subscribers, over the budget of " + limit + " in " + BUDGET_FILE
+			+ ". Find the new per-frame garbage, or raise the budget if it is intended.");
+	}
+
+	private void forward(EmbeddedChannel publisher, List<EmbeddedChannel> players, List<ByteBuf> frames) {
+		for (ByteBuf frame : frames) {
+			publisher.writeInbound(frame);
+			for (EmbeddedChannel player : players) {
+				ByteBuf written;
+				while ((written = player.readOutbound()) != null) {
+					written.release();
+				}
+			}
+		}
+		publisher.releaseOutbound();
+	}
+
+	private List<ByteBuf> encodeFrames(EmbeddedChannel publisher, int from, int count) {
+		List<ByteBuf> frames = new ArrayList<>(count);
+		for (int i = from; i < from + count; i++) {
+			int timestamp = i / 2 * 33;
+			if (i % 2 == 1) {
+				byte[] audio = new byte[AUDIO_FRAME_BYTES];
+				audio[0] = (byte)0xaf;
+				audio[1] = 1;
+				frames.add(rtmp.encode(publisher, media(AUDIO, timestamp, Unpooled.wrappedBuffer(audio))));
+			} else {
+				byte[] video = new byte[VIDEO_FRAME_BYTES];
+				video[0] = (byte)(i / 2 % KEYFRAME_INTERVAL == 0 ? 0x17 : 0x27);
+				video[1] = 1;
+				frames.add(rtmp.encode(publisher, media(VIDEO, timestamp, Unpooled.wrappedBuffer(video))));
+			}
+		}
+		return frames;
+	}
+
+	private EmbeddedChannel publisher() {
+		EmbeddedChannel publisher = rtmp.publisher("key");
+		assertInstanceOf(Stream.class, publisher.readInbound());
+		rtmp.send(publisher, MessageProvider.setChunkSize(PUBLISHER_CHUNK_SIZE));
+		rtmp.send(publisher, media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 0x64));
+		rtmp.send(publisher, media(AUDIO, 0, 0xaf, 0, 0x12, 0x10));
+		publisher.releaseOutbound();
+		return publisher;
+	}
+
+	private EmbeddedChannel player() {
+		EmbeddedChannel player = rtmp.play(STREAMER);
+		player.releaseOutbound();
+		return player;
+	}
+}
@@ -0,0 +1,252 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ResourceLeakDetector;
+
+/**
+ * PARANOID 레벨의 leak detector 로 모든 버퍼를 추적하면서 RTMP 파이프라인을 EmbeddedChannel 로 돌린다.
+ * leak detector 는 ByteBuf 클래스 초기화 시점에 만들어지므로 factory 를 바꾸는 대신 leak 로그를 수집해서 검사한다.
+ */
+class ByteBufLeakTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+
+	private static ResourceLeakDetector.Level previousLevel;
+	private static HashedWheelTimer timer;
+	private static ListAppender<ILoggingEvent> leakLog;
+
+	private final StreamContext streamContext = new StreamContext();
+	private final RtmpTestClient rtmp = new RtmpTestClient(
+		() -> new RtmpMessageHandler(streamContext, timer, new EgressSchedulers()));
+
+	@BeforeAll
+	static void enableParanoidLeakDetection() {
+		previousLevel = ResourceLeakDetector.getLevel();
+		ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+		timer = new HashedWheelTimer();
+		leakLog = new ListAppender<>();
+		leakLog.start();
+		((Logger)LoggerFactory.getLogger(ResourceLeakDetector.class)).addAppender(leakLog);
+	}
+
+	@AfterAll
+	static void restoreLeakDetection() {
+		((Logger)LoggerFactory.getLogger(ResourceLeakDetector.class)).detachAppender(leakLog);
+		ResourceLeakDetector.setLevel(previousLevel);
+		timer.stop();
+	}
+
+	@AfterEach
+	void assertNoLeaks() throws InterruptedException {
+		rtmp.close();
+		List<String> leaks = collectLeaks(5);
+		assertTrue(leaks.isEmpty(), () -> String.join("\n", leaks));
+	}
+
+	@Test
+	void leakDetectorReportsUnreleasedBuffer() throws InterruptedException {
+		ByteBufAllocator.DEFAULT.buffer(64).writeLong(1L);
+
+		List<String> leaks = collectLeaks(20);
+
+		assertFalse(leaks.isEmpty());
+	}
+
+	@Test
+	void publishPlayAndUnpublishReleasesAllBuffers() {
+		EmbeddedChannel publisher = publisher();
+		EmbeddedChannel player = rtmp.play(STREAMER);
+
+		rtmp.send(publisher, media(VIDEO, 120, 0x27, 1, 0, 0, 0, 7));
+		rtmp.send(publisher, media(AUDIO, 125, 0xaf, 1, 5, 5));
+		// 시퀀스 헤더가 바뀌면 이전 캐시를 놓아야 한다
+		rtmp.send(publisher, media(VIDEO, 130, 0x17, 0, 0, 0, 0, 4, 5));
+		rtmp.send(publisher, largeKeyframe(160));
+
+		ByteBuf joined = player.readOutbound();
+		assertNotNull(joined);
+		joined.release();
+		player.releaseOutbound();
+		publisher.finishAndReleaseAll();
+
+		assertNull(streamContext.getStream(STREAMER));
+		assertFalse(player.isOpen());
+		player.finishAndReleaseAll();
+	}
+
+	@Test
+	void pacedViewerLeavingDuringCatchUpReleasesBacklog() {
+		EmbeddedChannel publisher = publisher();
+		streamContext.getStream(STREAMER).setJoinPacingMultiplier(1);
+		for (int i = 1; i <= 20; i++) {
+			rtmp.send(publisher, media(VIDEO, i * 40, deltaFrame(8000)));
+		}
+		EmbeddedChannel player = rtmp.play(STREAMER);
+		assertTrue(streamContext.getStream(STREAMER).getSubscribers().values().iterator().next().isCatchingUp());
+
+		player.finishAndReleaseAll();
+		rtmp.send(publisher, media(VIDEO, 1000, 0x27, 1, 0, 0, 0, 7));
+
+		assertTrue(streamContext.getStream(STREAMER).getSubscribers().isEmpty());
+		publisher.finishAndReleaseAll();
+	}
+
+	@Test
+	void aggregateIngestAndAudioOnlyAggregationReleaseAllBuffers() {
+		EmbeddedChannel publisher = publisher();
+		streamContext.getStream(STREAMER).setAudioAggregateWindowMillis(100);
+		EmbeddedChannel player = rtmp.play(STREAMER + "?audioOnly");
+
+		ByteBuf body = Unpooled.buffer();
+		for (int i = 0; i < 10; i++) {
+			int timestamp = 60 + i * 21;
+			body.writeByte(AUDIO).writeMedium(4).writeMedium(timestamp).writeByte(0).writeMedium(0);
+			body.writeByte(0xaf).writeByte(1).writeShort(i).writeInt(15);
+		}
+		rtmp.send(publisher, media(RtmpConstants.RTMP_MSG_AGGREGATE, 60, body));
+		// 구간이 남은 채로 끝나도 모아둔 프레임을 놓아야 한다
+		rtmp.send(publisher, media(AUDIO, 300, 0xaf, 1, 5, 5));
+
+		player.releaseOutbound();
+		publisher.finishAndReleaseAll();
+		player.finishAndReleaseAll();
+	}
+
+	@Test
+	void playerWithoutStreamIsClosed() {
+		EmbeddedChannel player = rtmp.play("missing");
+
+		assertFalse(player.isOpen());
+		player.finishAndReleaseAll();
+	}
+
+	@Test
+	void disconnectInsideMessageReleasesPartialPayload() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder());
+		ByteBuf frame = rtmp.encode(channel, largeKeyframe(0));
+
+		channel.writeInbound(frame.readRetainedSlice(frame.readableBytes() / 2));
+		frame.release();
+
+		assertFalse(channel.finishAndReleaseAll());
+	}
+
+	@Test
+	void abortReleasesPartialPayload() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder());
+		ByteBuf frame = rtmp.encode(channel, largeKeyframe(0));
+		int cid = frame.getByte(frame.readerIndex()) & 0x3f;
+
+		channel.writeInbound(frame.readRetainedSlice(RtmpConstants.RTMP_DEFAULT_CHUNK_SIZE + 12));
+		frame.release();
+		channel.writeInbound(rtmp.encode(channel, control(RtmpConstants.RTMP_MSG_CONTROL_TYPE_ABORT, cid)));
+
+		assertNull(channel.readInbound());
+		assertFalse(channel.finishAndReleaseAll());
+	}
+
+	@Test
+	void newMessageOverPartialMessageReleasesPartialPayload() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder());
+		ByteBuf first = rtmp.encode(channel, largeKeyframe(0));
+		ByteBuf second = rtmp.encode(channel, largeKeyframe(40));
+
+		channel.writeInbound(first.readRetainedSlice(RtmpConstants.RTMP_DEFAULT_CHUNK_SIZE + 12));
+		first.release();
+		channel.writeInbound(second);
+
+		RtmpMessage message = channel.readInbound();
+		assertEquals(40, message.header().getTimestamp());
+		message.release();
+		assertFalse(channel.finishAndReleaseAll());
+	}
+
+	@Test
+	void closedDuringHandshakeReleasesBuffers() {
+		EmbeddedChannel channel = new EmbeddedChannel(new HandshakeHandler(timer));
+		ByteBuf c0c1 = ByteBufAllocator.DEFAULT.buffer(1 + RtmpConstants.RTMP_HANDSHAKE_SIZE);
+		c0c1.writeByte(RtmpConstants.RTMP_VERSION).writeZero(RtmpConstants.RTMP_HANDSHAKE_SIZE);
+
+		channel.writeInbound(c0c1);
+		channel.writeInbound(ByteBufAllocator.DEFAULT.buffer(16).writeZero(16));
+
+		assertTrue(channel.finishAndReleaseAll());
+	}
+
+	private EmbeddedChannel publisher() {
+		EmbeddedChannel publisher = rtmp.publisher("key");
+		assertInstanceOf(Stream.class, publisher.readInbound());
+
+		rtmp.send(publisher, media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 2));
+		rtmp.send(publisher, media(AUDIO, 0, 0xaf, 0, 0x12, 0x10));
+		rtmp.send(publisher, largeKeyframe(40));
+		rtmp.send(publisher, media(AUDIO, 45, 0xaf, 1, 5, 5));
+		publisher.releaseOutbound();
+		return publisher;
+	}
+
+	private static RtmpMessage control(int type, int value) {
+		RtmpHeader header = new RtmpHeader();
+		header.setType((short)type);
+		header.setCid(2);
+		header.setMessageLength(4);
+		return new RtmpMessage(header, Unpooled.buffer(4).writeInt(value));
+	}
+
+	private static RtmpMessage largeKeyframe(int timestamp) {
+		byte[] payload = new byte[1000];
+		payload[0] = 0x17;
+		payload[1] = 1;
+		return media(VIDEO, timestamp, Unpooled.wrappedBuffer(payload));
+	}
+
+	private static ByteBuf deltaFrame(int size) {
+		byte[] payload = new byte[size];
+		payload[0] = 0x27;
+		payload[1] = 1;
+		return Unpooled.wrappedBuffer(payload);
+	}
+
+	// 수거된 버퍼는 다음 버퍼가 추적될 때 보고되므로 GC 와 할당을 몇 번 반복한다
+	private static List<String> collectLeaks(int rounds) throws InterruptedException {
+		List<String> leaks = new ArrayList<>();
+		for (int i = 0; i < rounds && leaks.isEmpty(); i++) {
+			System.gc();
+			Thread.sleep(20);
+			ByteBufAllocator.DEFAULT.buffer(1).release();
+			for (ILoggingEvent event : leakLog.list) {
+				leaks.add(event.getFormattedMessage());
+			}
+		}
+		leakLog.list.clear();
+		return leaks;
+	}
+}
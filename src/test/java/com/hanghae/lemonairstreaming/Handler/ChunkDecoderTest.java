@@ -0,0 +1,69 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class ChunkDecoderTest {
+
+	// 0xffffff 이상이면 3 바이트 필드 대신 4 바이트 extended timestamp 를 쓴다
+	private static final int EXTENDED = 0x01000010;
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+
+	private final EmbeddedChannel decoder = new EmbeddedChannel(new ChunkDecoder());
+	private final EmbeddedChannel encoder = new EmbeddedChannel(new ChunkEncoder());
+
+	@AfterEach
+	void tearDown() {
+		decoder.finishAndReleaseAll();
+		encoder.finishAndReleaseAll();
+	}
+
+	@Test
+	void extendedTimestampsAreDecodedAcrossChunksAndDeltas() {
+		// 기본 chunk size 128 보다 커서 type 3 청크에도 extended timestamp 가 반복된다
+		send(EXTENDED, 300);
+		send(EXTENDED + 33, 10);
+		send(EXTENDED + 66, 10);
+
+		assertEquals(EXTENDED, receive(300));
+		assertEquals(EXTENDED + 33, receive(10));
+		assertEquals(EXTENDED + 66, receive(10));
+		assertNull(decoder.readInbound());
+	}
+
+	@Test
+	void timestampsCrossingIntoTheExtendedRangeKeepCounting() {
+		send(0xfffff0, 10);
+		send(0xfffff0 + 33, 10);
+
+		assertEquals(0xfffff0, receive(10));
+		assertEquals(0xfffff0 + 33, receive(10));
+	}
+
+	private void send(int timestamp, int size) {
+		ByteBuf payload = Unpooled.buffer(size).writeZero(size);
+		encoder.writeOutbound(new RtmpMessage(HeaderProvider.mediaMessageHeader(VIDEO, timestamp, size), payload));
+		decoder.writeInbound((ByteBuf)encoder.readOutbound());
+	}
+
+	private int receive(int size) {
+		RtmpMessage message = decoder.readInbound();
+		try {
+			assertEquals(VIDEO, message.header().getType());
+			assertEquals(size, message.payload().readableBytes());
+			return message.header().getTimestamp();
+		} finally {
+			message.release();
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HandshakeProvider;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+
+/**
+ * Flash Player 와 같은 방식으로 digest 를 넣은 C1 을 보내고, 서버의 S1/S2 digest 를 클라이언트 쪽에서 검증한다.
+ */
+class HandshakeHandlerTest {
+
+	private static final Logger log = LoggerFactory.getLogger(HandshakeHandlerTest.class);
+	private static final int SIZE = RtmpConstants.RTMP_HANDSHAKE_SIZE;
+	private static final int DIGEST_LENGTH = 32;
+	private static final byte[] COMMON_KEY = {
+		(byte)0xF0, (byte)0xEE, (byte)0xC2, (byte)0x4A, (byte)0x80, (byte)0x68, (byte)0xBE, (byte)0xE8,
+		(byte)0x2E, (byte)0x00, (byte)0xD0, (byte)0xD1, (byte)0x02, (byte)0x9E, (byte)0x7E, (byte)0x57,
+		(byte)0x6E, (byte)0xEC, (byte)0x5D, (byte)0x2D, (byte)0x29, (byte)0x80, (byte)0x6F, (byte)0xAB,
+		(byte)0x93, (byte)0xB8, (byte)0xE6, (byte)0x36, (byte)0xCF, (byte)0xEB, (byte)0x31, (byte)0xAE};
+	private static final byte[] FP_KEY = key("Genuine Adobe Flash Player 001");
+	private static final byte[] FMS_KEY = key("Genuine Adobe Flash Media Server 001");
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+
+	@AfterEach
+	void tearDown() {
+		timer.stop();
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {0, 1})
+	void complexHandshakeRoundTrips(int schema) {
+		EmbeddedChannel channel = new EmbeddedChannel(new HandshakeHandler(timer));
+		byte[] c1 = complexC1(schema);
+		// 같은 스레드에서 여러 번 해도 이전 연결의 상태가 남지 않아야 한다
+		for (int i = 0; i < 3; i++) {
+			assertServerResponseIsValid(c1, schema, respond(c1, true));
+		}
+
+		channel.writeInbound(c0c1(c1));
+		ByteBuf response = channel.readOutbound();
+		byte[] s0s1s2 = new byte[response.readableBytes()];
+		response.readBytes(s0s1s2).release();
+		assertServerResponseIsValid(c1, schema, s0s1s2);
+
+		// C2 를 받으면 핸드셰이크 handler 가 빠진다
+		channel.writeInbound(Unpooled.wrappedBuffer(Arrays.copyOfRange(s0s1s2, 1, 1 + SIZE)));
+		assertNull(channel.pipeline().get(HandshakeHandler.class));
+		channel.finishAndReleaseAll();
+	}
+
+	@Test
+	void clientWithoutDigestGetsTheSimpleHandshake() {
+		byte[] c1 = new byte[SIZE];
+		ThreadLocalRandom.current().nextBytes(c1);
+		// version 자리가 0 이면 simple 핸드셰이크다
+		Arrays.fill(c1, 4, 8, (byte)0);
+		byte[] response = respond(c1, true);
+
+		assertEquals(RtmpConstants.RTMP_VERSION, response[0]);
+		assertArrayEquals(c1, Arrays.copyOfRange(response, 1 + SIZE, 1 + 2 * SIZE));
+	}
+
+	@Test
+	void complexHandshakeCanBeTurnedOff() {
+		EmbeddedChannel channel = new EmbeddedChannel();
+		HandshakeHandler handler = new HandshakeHandler(timer);
+		ReflectionTestUtils.setField(handler, "complexHandshakeEnabled", false);
+		channel.pipeline().addLast(handler);
+		byte[] c1 = complexC1(0);
+
+		channel.writeInbound(c0c1(c1));
+		ByteBuf response = channel.readOutbound();
+		// S2 는 C1 을 그대로 돌려준다
+		assertTrue(response.slice(1 + SIZE, SIZE).equals(Unpooled.wrappedBuffer(c1)));
+		response.release();
+		channel.finishAndReleaseAll();
+	}
+
+	@Test
+	@Tag("benchmark")
+	void complexHandshakesPerSecond() {
+		ByteBuf c1 = Unpooled.wrappedBuffer(complexC1(0));
+		// JIT 예열
+		for (int i = 0; i < 20_000; i++) {
+			HandshakeProvider.s0s1s2(ByteBufAllocator.DEFAULT, c1, true).release();
+		}
+		int handshakes = 100_000;
+		long started = System.nanoTime();
+		for (int i = 0; i < handshakes; i++) {
+			HandshakeProvider.s0s1s2(ByteBufAllocator.DEFAULT, c1, true).release();
+		}
+		double seconds = (System.nanoTime() - started) / (double)TimeUnit.SECONDS.toNanos(1);
+		log.info(String.format("complex handshakes: %.0f/s on one thread", handshakes / seconds));
+	}
+
+	private static byte[] respond(byte[] c1, boolean complexEnabled) {
+		ByteBuf response = HandshakeProvider.s0s1s2(ByteBufAllocator.DEFAULT, Unpooled.wrappedBuffer(c1),
+			complexEnabled);
+		byte[] bytes = new byte[response.readableBytes()];
+		response.readBytes(bytes).release();
+		return bytes;
+	}
+
+	private static void assertServerResponseIsValid(byte[] c1, int schema, byte[] s0s1s2) {
+		assertEquals(1 + 2 * SIZE, s0s1s2.length);
+		assertEquals(RtmpConstants.RTMP_VERSION, s0s1s2[0]);
+
+		// S1 의 digest 는 FMS key 앞 36 바이트로 만든다
+		byte[] s1 = Arrays.copyOfRange(s0s1s2, 1, 1 + SIZE);
+		int s1Offset = digestOffset(s1, schema);
+		assertArrayEquals(hmac(Arrays.copyOf(FMS_KEY, 36), withoutDigest(s1, s1Offset)),
+			Arrays.copyOfRange(s1, s1Offset, s1Offset + DIGEST_LENGTH));
+
+		// S2 의 digest key 는 FMS key 전체로 클라이언트 digest 를 HMAC 한 값이다
+		int c1Offset = digestOffset(c1, schema);
+		byte[] s2Key = hmac(FMS_KEY, Arrays.copyOfRange(c1, c1Offset, c1Offset + DIGEST_LENGTH));
+		byte[] s2 = Arrays.copyOfRange(s0s1s2, 1 + SIZE, 1 + 2 * SIZE);
+		assertArrayEquals(hmac(s2Key, Arrays.copyOf(s2, SIZE - DIGEST_LENGTH)),
+			Arrays.copyOfRange(s2, SIZE - DIGEST_LENGTH, SIZE));
+	}
+
+	private static byte[] complexC1(int schema) {
+		byte[] c1 = new byte[SIZE];
+		ThreadLocalRandom.current().nextBytes(c1);
+		// Flash Player 9.0.124.2
+		c1[4] = 9;
+		c1[5] = 0;
+		c1[6] = 124;
+		c1[7] = 2;
+		int offset = digestOffset(c1, schema);
+		System.arraycopy(hmac(Arrays.copyOf(FP_KEY, 30), withoutDigest(c1, offset)), 0, c1, offset, DIGEST_LENGTH);
+		return c1;
+	}
+
+	private static ByteBuf c0c1(byte[] c1) {
+		return Unpooled.buffer(1 + SIZE).writeByte(RtmpConstants.RTMP_VERSION).writeBytes(c1);
+	}
+
+	private static int digestOffset(byte[] bytes, int schema) {
+		int pointer = schema == 0 ? 8 : 772;
+		int sum = (bytes[pointer] & 0xff) + (bytes[pointer + 1] & 0xff) + (bytes[pointer + 2] & 0xff)
+			+ (bytes[pointer + 3] & 0xff);
+		return sum % 728 + pointer + 4;
+	}
+
+	private static byte[] withoutDigest(byte[] bytes, int offset) {
+		byte[] part = new byte[SIZE - DIGEST_LENGTH];
+		System.arraycopy(bytes, 0, part, 0, offset);
+		System.arraycopy(bytes, offset + DIGEST_LENGTH, part, offset, SIZE - offset - DIGEST_LENGTH);
+		return part;
+	}
+
+	private static byte[] hmac(byte[] key, byte[] message) {
+		try {
+			Mac mac = Mac.getInstance("HmacSHA256");
+			mac.init(new SecretKeySpec(key, "HmacSHA256"));
+			return mac.doFinal(message);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] key(String name) {
+		byte[] prefix = name.getBytes(StandardCharsets.US_ASCII);
+		byte[] key = Arrays.copyOf(prefix, prefix.length + COMMON_KEY.length);
+		System.arraycopy(COMMON_KEY, 0, key, prefix.length, COMMON_KEY.length);
+		return key;
+	}
+}
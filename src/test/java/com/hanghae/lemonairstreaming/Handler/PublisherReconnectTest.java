@@ -0,0 +1,243 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.HashedWheelTimer;
+
+class PublisherReconnectTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final RtmpTestClient rtmp = new RtmpTestClient(this::handler);
+	private final List<Viewer> viewers = new ArrayList<>();
+	private long graceMillis;
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		viewers.forEach(viewer -> viewer.decoder.finishAndReleaseAll());
+		timer.stop();
+	}
+
+	@Test
+	void republishWithinGraceKeepsViewersAndRebasesTimestamps() {
+		EmbeddedChannel first = publisher(60_000, "key");
+		Stream stream = streamContext.getStream(STREAMER);
+		rtmp.send(first, media(VIDEO, 1000, 0x27, 1));
+		Viewer viewer = viewer();
+
+		first.close();
+		assertSame(stream, streamContext.getStream(STREAMER));
+		assertTrue(stream.isAwaitingPublisher());
+		assertTrue(viewer.channel.isActive());
+		assertFalse(viewer.received().contains("EOF"));
+
+		EmbeddedChannel second = publisher(60_000, "key");
+		assertSame(stream, streamContext.getStream(STREAMER));
+		assertFalse(stream.isAwaitingPublisher());
+		assertTrue(stream.isPublishedBy(second));
+		// 키 확인과 트랜스코딩 요청을 다시 하지 않도록 Stream 을 RtmpServer 로 넘기지 않는다
+		assertNull(second.readInbound());
+		assertTrue(statusCodes(second).contains("NetStream.Publish.Start"));
+
+		// 새 인코더는 timestamp 를 0 부터 다시 세지만 시청자는 이어지는 timestamp 를 받는다
+		rtmp.send(second, media(VIDEO, 0, 0x17, 1));
+		rtmp.send(second, media(VIDEO, 33, 0x27, 1));
+		assertEquals(List.of("video 1040", "video 1073"), viewer.received());
+	}
+
+	@Test
+	void viewersGetEofOnlyWhenGraceExpires() throws InterruptedException {
+		EmbeddedChannel publisher = publisher(100, "key");
+		Stream stream = streamContext.getStream(STREAMER);
+		Viewer viewer = viewer();
+
+		publisher.close();
+		assertSame(stream, streamContext.getStream(STREAMER));
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (streamContext.getStream(STREAMER) != null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNull(streamContext.getStream(STREAMER));
+		assertTrue(stream.isClosed());
+		assertEquals(List.of("EOF"), viewer.received());
+	}
+
+	@Test
+	void republishWithAnotherKeyEndsTheWaitingStream() {
+		EmbeddedChannel first = publisher(60_000, "key");
+		Stream stream = streamContext.getStream(STREAMER);
+		Viewer viewer = viewer();
+		first.close();
+
+		EmbeddedChannel second = publisher(60_000, "other");
+		assertTrue(stream.isClosed());
+		assertEquals(List.of("EOF"), viewer.received());
+		Stream replacement = streamContext.getStream(STREAMER);
+		assertNotSame(stream, replacement);
+		assertTrue(replacement.isPublishedBy(second));
+	}
+
+	@Test
+	void republishOnAnotherEventLoopIsAttachedOnTheStreamLoop() throws Exception {
+		DefaultEventLoopGroup serverLoops = new DefaultEventLoopGroup(2);
+		DefaultEventLoopGroup clientLoops = new DefaultEventLoopGroup(1);
+		List<Channel> accepted = new CopyOnWriteArrayList<>();
+		graceMillis = 60_000;
+		try {
+			Channel server = new ServerBootstrap().group(serverLoops)
+				.channel(LocalServerChannel.class)
+				.childHandler(new ChannelInitializer<>() {
+					@Override
+					protected void initChannel(Channel channel) {
+						channel.pipeline().addLast(new ChunkDecoder(), new ChunkEncoder(), handler());
+						accepted.add(channel);
+					}
+				})
+				.bind(new LocalAddress("publisher-reconnect"))
+				.sync()
+				.channel();
+			Channel first = connectLocal(server, clientLoops);
+			first.writeAndFlush(rtmp.encode(first, command("publish", 3.0, null, "key", "live"))).sync();
+			Stream stream = await(() -> streamContext.getStream(STREAMER));
+			stream.sendPublishMessage();
+			first.writeAndFlush(rtmp.encode(first, media(VIDEO, 1000, 0x17, 1))).sync();
+			first.close().sync();
+			await(() -> stream.isAwaitingPublisher() ? stream : null);
+
+			// 두 번째 publisher 는 다른 loop 에 붙고, publish 바로 뒤의 프레임은 Stream 에 붙는 동안 도착한다
+			Channel second = connectLocal(server, clientLoops);
+			second.writeAndFlush(rtmp.encode(second, command("publish", 3.0, null, "key", "live"),
+				media(VIDEO, 0, 0x17, 1), media(VIDEO, 33, 0x27, 1))).sync();
+			assertNotSame(accepted.get(0).eventLoop(), accepted.get(1).eventLoop());
+			await(() -> stream.snapshot().get().gopFrames() == 2 ? stream : null);
+
+			assertTrue(stream.isPublishedBy(accepted.get(1)));
+			assertSame(stream, streamContext.getStream(STREAMER));
+			assertEquals(1073, stream.snapshot().get().lastTimestamp());
+			second.close().sync();
+			server.close().sync();
+		} finally {
+			serverLoops.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+			clientLoops.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		}
+	}
+
+	private EmbeddedChannel publisher(long graceMillis, String key) {
+		this.graceMillis = graceMillis;
+		EmbeddedChannel publisher = rtmp.publisher(key);
+		Object forwarded = publisher.readInbound();
+		if (forwarded instanceof Stream stream) {
+			// RtmpServer 가 키를 확인한 것처럼 한다
+			stream.sendPublishMessage();
+			rtmp.send(publisher, media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 0x64));
+			rtmp.send(publisher, media(VIDEO, 0, 0x17, 1));
+			publisher.releaseOutbound();
+		}
+		return publisher;
+	}
+
+	private Viewer viewer() {
+		EmbeddedChannel channel = rtmp.play(STREAMER);
+		channel.releaseOutbound();
+		Viewer viewer = new Viewer(channel);
+		viewers.add(viewer);
+		return viewer;
+	}
+
+	private RtmpMessageHandler handler() {
+		RtmpMessageHandler handler = new RtmpMessageHandler(streamContext, timer, new EgressSchedulers());
+		handler.webClient = WebClient.create();
+		ReflectionTestUtils.setField(handler, "reconnectGraceMillis", graceMillis);
+		return handler;
+	}
+
+	private Channel connectLocal(Channel server, DefaultEventLoopGroup loops) throws InterruptedException {
+		Channel channel = new Bootstrap().group(loops)
+			.channel(LocalChannel.class)
+			.handler(new ChannelInboundHandlerAdapter() {
+				@Override
+				public void channelRead(ChannelHandlerContext ctx, Object msg) {
+					((ByteBuf)msg).release();
+				}
+			})
+			.connect(server.localAddress())
+			.sync()
+			.channel();
+		channel.writeAndFlush(rtmp.encode(channel, connectCommand())).sync();
+		return channel;
+	}
+
+	private static <T> T await(Callable<T> condition) throws Exception {
+		long deadline = System.currentTimeMillis() + 5_000;
+		T value;
+		while ((value = condition.call()) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertNotNull(value);
+		return value;
+	}
+
+	// 시청자가 받은 미디어의 종류와 timestamp, 그리고 EOF 를 차례대로 모은다
+	private static class Viewer {
+
+		private final EmbeddedChannel channel;
+		private final EmbeddedChannel decoder = new EmbeddedChannel(new ChunkDecoder());
+
+		Viewer(EmbeddedChannel channel) {
+			this.channel = channel;
+		}
+
+		List<String> received() {
+			ByteBuf written;
+			while ((written = channel.readOutbound()) != null) {
+				decoder.writeInbound(written);
+			}
+			List<String> received = new ArrayList<>();
+			RtmpMessage message;
+			while ((message = decoder.readInbound()) != null) {
+				short type = message.header().getType();
+				if (type == VIDEO) {
+					received.add("video " + message.header().getTimestamp());
+				} else if (isEof(message)) {
+					received.add("EOF");
+				}
+				message.release();
+			}
+			return received;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package com.hanghae.lemonairstreaming.Handler;
+
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * 서버 파이프라인(ChunkDecoder → ChunkEncoder → RtmpMessageHandler)을 EmbeddedChannel 로 만들어
+ * publisher/player 처럼 접속하는 테스트용 클라이언트. 메시지는 ClientMessageProvider 로 만든다.
+ * 연결마다 클라이언트 쪽 ChunkEncoder 를 따로 두고, 만든 채널은 close 에서 모두 정리한다.
+ */
+public class RtmpTestClient implements AutoCloseable {
+
+	public static final String STREAMER = "streamer";
+
+	private final Supplier<RtmpMessageHandler> handlers;
+	private final List<EmbeddedChannel> channels = new ArrayList<>();
+	private final Map<Channel, EmbeddedChannel> encoders = new IdentityHashMap<>();
+
+	// 소켓으로 접속하는 테스트처럼 인코딩만 쓸 때
+	public RtmpTestClient() {
+		this(null);
+	}
+
+	// 테스트마다 설정이 다르므로 연결마다 handler 를 새로 받는다
+	public RtmpTestClient(Supplier<RtmpMessageHandler> handlers) {
+		this.handlers = handlers;
+	}
+
+	public EmbeddedChannel connect() {
+		// EmbeddedChannel 은 기본적으로 같은 id 를 공유하므로 publisher 와 player 를 구분하려면 따로 만든다
+		EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new ChunkDecoder(),
+			new ChunkEncoder(), handlers.get());
+		channels.add(channel);
+		send(channel, connectCommand());
+		channel.releaseOutbound();
+		return channel;
+	}
+
+	// publish 까지 보낸다. 새 방송이면 RtmpServer 로 넘길 Stream 이 inbound 에 남는다.
+	public EmbeddedChannel publisher(String key) {
+		EmbeddedChannel channel = connect();
+		send(channel, command("createStream", 2.0, null), command("publish", 3.0, null, key, "live"));
+		return channel;
+	}
+
+	// RtmpServer 가 키를 확인한 것처럼 방송을 시작한다
+	public EmbeddedChannel publish() {
+		EmbeddedChannel channel = publisher("key");
+		Stream stream = channel.readInbound();
+		stream.sendPublishMessage();
+		channel.releaseOutbound();
+		return channel;
+	}
+
+	// 받은 상태 메시지와 join bundle 은 outbound 에 남는다
+	public EmbeddedChannel play(String playName) {
+		EmbeddedChannel channel = connect();
+		send(channel, command("play", 4.0, null, playName));
+		return channel;
+	}
+
+	public void send(EmbeddedChannel channel, RtmpMessage... messages) {
+		channel.writeInbound(encode(channel, messages));
+	}
+
+	// chunk header 는 앞 메시지에 따라 줄여 쓰므로 연결마다 인코더를 하나씩 둔다
+	public ByteBuf encode(Channel channel, RtmpMessage... messages) {
+		EmbeddedChannel encoder = encoders.computeIfAbsent(channel, c -> {
+			EmbeddedChannel created = new EmbeddedChannel(new ChunkEncoder());
+			channels.add(created);
+			return created;
+		});
+		if (messages.length == 1) {
+			return ClientMessageProvider.encode(encoder, messages[0]);
+		}
+		ByteBuf out = Unpooled.buffer();
+		for (RtmpMessage message : messages) {
+			ByteBuf written = ClientMessageProvider.encode(encoder, message);
+			out.writeBytes(written);
+			written.release();
+		}
+		return out;
+	}
+
+	@Override
+	public void close() {
+		channels.forEach(EmbeddedChannel::finishAndReleaseAll);
+		channels.clear();
+		encoders.clear();
+	}
+
+	public static RtmpMessage connectCommand() {
+		Amf0Rules.Amf0Object app = new Amf0Rules.Amf0Object();
+		app.put("app", STREAMER);
+		return command("connect", 1.0, app);
+	}
+
+	// 채널이 보낸 것을 디코딩한다. 받은 메시지는 호출한 쪽이 release 한다.
+	public static List<RtmpMessage> received(EmbeddedChannel channel) {
+		EmbeddedChannel decoder = new EmbeddedChannel(new ChunkDecoder());
+		ByteBuf written;
+		while ((written = channel.readOutbound()) != null) {
+			decoder.writeInbound(written);
+		}
+		List<RtmpMessage> messages = new ArrayList<>();
+		RtmpMessage message;
+		while ((message = decoder.readInbound()) != null) {
+			messages.add(message);
+		}
+		decoder.finishAndReleaseAll();
+		return messages;
+	}
+
+	public static List<String> statusCodes(EmbeddedChannel channel) {
+		List<String> codes = new ArrayList<>();
+		for (RtmpMessage message : received(channel)) {
+			if (message.header().getType() == RtmpConstants.RTMP_MSG_COMMAND_TYPE_AMF0) {
+				List<Object> decoded = Amf0Rules.decodeAll(message.payload());
+				if ("onStatus".equals(decoded.get(0))) {
+					codes.add((String)((Map<?, ?>)decoded.get(3)).get("code"));
+				}
+			}
+			message.release();
+		}
+		return codes;
+	}
+
+	public static boolean receivedEof(EmbeddedChannel channel) {
+		boolean eof = false;
+		for (RtmpMessage message : received(channel)) {
+			eof |= isEof(message);
+			message.release();
+		}
+		return eof;
+	}
+
+	public static boolean isEof(RtmpMessage message) {
+		return message.header().getType() == RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_EVENT
+			&& message.payload().getShort(message.payload().readerIndex()) == RtmpConstants.STREAM_EOF;
+	}
+}
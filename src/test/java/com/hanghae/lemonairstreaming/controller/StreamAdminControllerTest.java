@@ -0,0 +1,219 @@
+package com.hanghae.lemonairstreaming.controller;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.Handler.RtmpTestClient;
+import com.hanghae.lemonairstreaming.config.AdminTokenFilter;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamCommand;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
+import com.hanghae.lemonairstreaming.rmtp.model.source.FlvFileSourceManager;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import reactor.core.publisher.Mono;
+
+class StreamAdminControllerTest {
+
+	private static final String TOKEN = "admin-token";
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final PlayerWaitingRoom waitingRoom = new PlayerWaitingRoom(timer, 0, 0);
+	private final WebTestClient client = WebTestClient.bindToController(
+			new StreamAdminController(streamContext, new FlvFileSourceManager(streamContext, waitingRoom)))
+		.webFilter(new AdminTokenFilter(TOKEN))
+		.configureClient()
+		.defaultHeader(AdminTokenFilter.TOKEN_HEADER, TOKEN)
+		.build();
+	private final RtmpTestClient rtmp = new RtmpTestClient(this::handler);
+	// 서비스 서버와 트랜스코딩 서버로 보낸 요청
+	private final List<String> outgoingRequests = new CopyOnWriteArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		timer.stop();
+	}
+
+	@Test
+	void requestsWithoutTheTokenAreRejected() {
+		rtmp.publish();
+
+		client.delete().uri("/admin/streams/{id}", STREAMER)
+			.header(AdminTokenFilter.TOKEN_HEADER, "wrong")
+			.exchange()
+			.expectStatus().isUnauthorized();
+		client.mutate().defaultHeaders(headers -> headers.remove(AdminTokenFilter.TOKEN_HEADER)).build()
+			.get().uri("/admin/streams").exchange()
+			.expectStatus().isUnauthorized();
+		assertNotNull(streamContext.getStream(STREAMER));
+	}
+
+	@Test
+	void emptyTokenRejectsEveryRequest() {
+		WebTestClient unconfigured = WebTestClient.bindToController(
+				new StreamAdminController(streamContext, new FlvFileSourceManager(streamContext, waitingRoom)))
+			.webFilter(new AdminTokenFilter(""))
+			.build();
+
+		unconfigured.get().uri("/admin/streams").header(AdminTokenFilter.TOKEN_HEADER, "").exchange()
+			.expectStatus().isUnauthorized();
+	}
+
+	@Test
+	void streamsAndSubscribersAreListed() {
+		rtmp.publish();
+		EmbeddedChannel viewer = play();
+
+		client.get().uri("/admin/streams").exchange()
+			.expectStatus().isOk()
+			.expectBody()
+			.jsonPath("$.length()").isEqualTo(1)
+			.jsonPath("$[0].streamerId").isEqualTo(STREAMER)
+			.jsonPath("$[0].subscriberCount").isEqualTo(1);
+		client.get().uri("/admin/streams/{id}/subscribers", STREAMER).exchange()
+			.expectStatus().isOk()
+			.expectBody()
+			.jsonPath("$.length()").isEqualTo(1)
+			.jsonPath("$[0].channelId").isEqualTo(viewer.id().asShortText())
+			.jsonPath("$[0].writable").isEqualTo(true);
+		client.get().uri("/admin/streams/{id}/subscribers", "nobody").exchange()
+			.expectStatus().isNotFound();
+	}
+
+	@Test
+	void kickedSubscriberGetsEofAndIsDisconnected() {
+		rtmp.publish();
+		EmbeddedChannel viewer = play();
+		String channelId = viewer.id().asShortText();
+
+		client.delete().uri("/admin/streams/{id}/subscribers/{channel}", STREAMER, channelId).exchange()
+			.expectStatus().isNoContent();
+
+		assertTrue(receivedEof(viewer));
+		assertFalse(viewer.isOpen());
+		assertTrue(streamContext.getStream(STREAMER).getSubscribers().isEmpty());
+		client.delete().uri("/admin/streams/{id}/subscribers/{channel}", STREAMER, channelId).exchange()
+			.expectStatus().isNotFound();
+		client.delete().uri("/admin/streams/{id}/subscribers/{channel}", "nobody", channelId).exchange()
+			.expectStatus().isNotFound();
+	}
+
+	@Test
+	void unpublishEndsTheBroadcastThroughThePublisherPipeline() throws InterruptedException {
+		EmbeddedChannel publisher = rtmp.publish();
+		Stream stream = streamContext.getStream(STREAMER);
+		EmbeddedChannel viewer = play();
+
+		client.delete().uri("/admin/streams/{id}", STREAMER).exchange()
+			.expectStatus().isAccepted();
+
+		// publisher 가 스스로 unpublish 한 것과 같이 끝나고 방송 종료도 알린다
+		assertTrue(statusCodes(publisher).contains("NetStream.Unpublish.Success"));
+		assertFalse(publisher.isOpen());
+		assertTrue(stream.isClosed());
+		assertNull(streamContext.getStream(STREAMER));
+		assertTrue(receivedEof(viewer));
+		awaitOutgoingRequests(2);
+		assertTrue(outgoingRequests.contains("POST http://service/api/streams/streamer/offair"));
+		assertTrue(outgoingRequests.contains("GET http://transcoding:8080/transcode/streamer/offair"));
+
+		client.delete().uri("/admin/streams/{id}", STREAMER).exchange()
+			.expectStatus().isNotFound();
+	}
+
+	@Test
+	void unpublishCommandOnAChannelThatIsNotThePublisherIsIgnored() {
+		rtmp.publish();
+		Stream stream = streamContext.getStream(STREAMER);
+		EmbeddedChannel viewer = play();
+
+		viewer.pipeline().fireUserEventTriggered(StreamCommand.UNPUBLISH);
+
+		assertFalse(stream.isClosed());
+		assertSame(stream, streamContext.getStream(STREAMER));
+		assertTrue(viewer.isOpen());
+	}
+
+	@Test
+	void fileSourceForAStreamerThatIsAlreadyLiveIsRejected(@TempDir Path root) throws InterruptedException {
+		FlvFileSourceManager fileSources = new FlvFileSourceManager(streamContext, waitingRoom);
+		ReflectionTestUtils.setField(fileSources, "root", root.toString());
+		fileSources.start();
+		WebTestClient fileClient = WebTestClient.bindToController(new StreamAdminController(streamContext, fileSources))
+			.build();
+		try {
+			rtmp.publish();
+			Stream stream = streamContext.getStream(STREAMER);
+
+			fileClient.post().uri("/admin/streams/{id}/file-source", STREAMER)
+				.contentType(MediaType.APPLICATION_JSON)
+				.bodyValue("{\"files\":[\"a.flv\"]}")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+			// RTMP 방송은 그대로 두고, 등록하려던 파일 송출도 남기지 않는다
+			assertSame(stream, streamContext.getStream(STREAMER));
+			assertFalse(fileSources.unpublish(STREAMER));
+		} finally {
+			fileSources.stop();
+		}
+	}
+
+	private RtmpMessageHandler handler() {
+		RtmpMessageHandler handler = new RtmpMessageHandler(streamContext, timer, new EgressSchedulers(),
+			StreamDirectory.LOCAL, new IngestPolicy(), waitingRoom);
+		ReflectionTestUtils.setField(handler, "webClient", recordingWebClient());
+		ReflectionTestUtils.setField(handler, "serviceServerHost", "http://service");
+		ReflectionTestUtils.setField(handler, "transcodingServerIp", "http://transcoding");
+		ReflectionTestUtils.setField(handler, "transcodingServerPort", 8080);
+		return handler;
+	}
+
+	private EmbeddedChannel play() {
+		EmbeddedChannel channel = rtmp.play(STREAMER);
+		channel.releaseOutbound();
+		return channel;
+	}
+
+	private WebClient recordingWebClient() {
+		return WebClient.builder().exchangeFunction(request -> {
+			outgoingRequests.add(request.method() + " " + request.url());
+			return Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.body("true")
+				.build());
+		}).build();
+	}
+
+	// 방송 종료 알림은 다른 스레드에서 나간다
+	private void awaitOutgoingRequests(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (outgoingRequests.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, outgoingRequests.size(), outgoingRequests::toString);
+	}
+}
@@ -0,0 +1,125 @@
+package com.hanghae.lemonairstreaming.rmtp.cluster;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.Handler.RtmpTestClient;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+
+class StaticStreamDirectoryTest {
+
+	private static final int STREAMERS = 40_000;
+	private static final StreamDirectory.Node A = new StreamDirectory.Node("a", "rtmp://10.0.0.1:1935", 1);
+	private static final StreamDirectory.Node B = new StreamDirectory.Node("b", "rtmp://10.0.0.2:1935", 1);
+	private static final StreamDirectory.Node C = new StreamDirectory.Node("c", "rtmp://10.0.0.3:1935", 2);
+	private static final StreamDirectory.Node D = new StreamDirectory.Node("d", "rtmp://10.0.0.4:1935", 1);
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+
+	@AfterEach
+	void tearDown() {
+		timer.stop();
+	}
+
+	@Test
+	void streamersAreSpreadByWeight() {
+		ConsistentHashRing ring = new ConsistentHashRing(List.of(A, B, C));
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < STREAMERS; i++) {
+			counts.merge(ring.nodeFor("streamer" + i).id(), 1, Integer::sum);
+		}
+		// weight 1:1:2 이므로 25%, 25%, 50% 근처여야 한다
+		assertShare(0.25, counts.get("a"));
+		assertShare(0.25, counts.get("b"));
+		assertShare(0.50, counts.get("c"));
+	}
+
+	@Test
+	void addingNodeOnlyMovesItsShare() {
+		ConsistentHashRing before = new ConsistentHashRing(List.of(A, B, C));
+		ConsistentHashRing after = new ConsistentHashRing(List.of(A, B, C, D));
+		int moved = 0;
+		for (int i = 0; i < STREAMERS; i++) {
+			String streamer = "streamer" + i;
+			StreamDirectory.Node owner = after.nodeFor(streamer);
+			if (!owner.equals(before.nodeFor(streamer))) {
+				assertEquals(D, owner, streamer + " moved between existing nodes");
+				moved++;
+			}
+		}
+		// 전체 weight 5 중 1 을 새 노드가 가져간다
+		assertShare(0.20, moved);
+	}
+
+	@Test
+	void selfOwnedStreamsAreNotRedirected() {
+		StaticStreamDirectory directory = new StaticStreamDirectory("a", List.of(A, B));
+		String owned = streamerOwnedBy(directory, null);
+		String remote = streamerOwnedBy(directory, B);
+		assertNull(directory.ownerOf(owned));
+		assertEquals(B, directory.ownerOf(remote));
+		assertNull(new StaticStreamDirectory("a", List.of()).ownerOf(remote));
+	}
+
+	@Test
+	void connectForStreamOnAnotherNodeIsRejectedWithRedirect() {
+		StaticStreamDirectory directory = new StaticStreamDirectory("a", List.of(A, B));
+		String remote = streamerOwnedBy(directory, B);
+		EmbeddedChannel channel = new EmbeddedChannel(DefaultChannelId.newInstance(), new ChunkDecoder(),
+			new ChunkEncoder(), new RtmpMessageHandler(new StreamContext(), timer, new EgressSchedulers(), directory));
+		RtmpTestClient rtmp = new RtmpTestClient();
+
+		Amf0Rules.Amf0Object app = new Amf0Rules.Amf0Object();
+		app.put("app", remote);
+		channel.writeInbound(rtmp.encode(channel, command("connect", 1.0, app)));
+
+		List<RtmpMessage> replies = received(channel);
+		assertEquals(1, replies.size());
+		RtmpMessage reply = replies.get(0);
+		assertEquals(RtmpConstants.RTMP_MSG_COMMAND_TYPE_AMF0, reply.header().getType());
+		List<Object> decoded = Amf0Rules.decodeAll(reply.payload());
+		reply.release();
+		assertEquals("_error", decoded.get(0));
+		Map<?, ?> info = (Map<?, ?>)decoded.get(3);
+		assertEquals("NetConnection.Connect.Rejected", info.get("code"));
+		assertEquals("rtmp://10.0.0.2:1935/" + remote, ((Map<?, ?>)info.get("ex")).get("redirect"));
+		assertFalse(channel.isOpen());
+
+		channel.finishAndReleaseAll();
+		rtmp.close();
+	}
+
+	// owner 가 null 이면 이 노드가 맡는 streamer 를 찾는다
+	private static String streamerOwnedBy(StreamDirectory directory, StreamDirectory.Node owner) {
+		for (int i = 0; ; i++) {
+			String streamer = "streamer" + i;
+			if (owner == null ? directory.ownerOf(streamer) == null : owner.equals(directory.ownerOf(streamer))) {
+				return streamer;
+			}
+		}
+	}
+
+	private static void assertShare(double expected, int count) {
+		double share = (double)count / STREAMERS;
+		assertEquals(expected, share, expected * 0.1, () -> "share " + share + " is not near " + expected);
+	}
+}
@@ -0,0 +1,165 @@
+package com.hanghae.lemonairstreaming.rmtp.handover;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.Handler.RtmpTestClient;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
+
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+import reactor.core.publisher.Mono;
+import reactor.netty.Connection;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.tcp.TcpClient;
+import reactor.netty.tcp.TcpServer;
+
+class RtmpHandoverTest {
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final PlayerWaitingRoom waitingRoom = new PlayerWaitingRoom(timer, 0, 0);
+	private final RtmpTestClient rtmp = new RtmpTestClient(this::handler);
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		timer.stop();
+	}
+
+	@Test
+	void nextProcessBindsTheSamePortAndTakesNewConnections() {
+		RtmpHandover old = new RtmpHandover(new StreamContext(), waitingRoom, 1_000);
+		RtmpHandover next = new RtmpHandover(new StreamContext(), waitingRoom, 1_000);
+		DisposableServer oldServer = bind(old, 0, "old");
+		int port = ((InetSocketAddress)oldServer.address()).getPort();
+		DisposableServer nextServer = bind(next, port, "next");
+		old.register(oldServer);
+		try {
+			old.stop();
+			assertFalse(oldServer.channel().isActive());
+			// listen 소켓을 닫은 뒤의 연결은 모두 새 프로세스가 받는다
+			for (int i = 0; i < 5; i++) {
+				assertEquals("next", greeting(port));
+			}
+		} finally {
+			oldServer.disposeNow();
+			nextServer.disposeNow();
+		}
+	}
+
+	@Test
+	void httpServerSharesItsPortWithTheNextProcess() {
+		RtmpHandover old = new RtmpHandover(new StreamContext(), waitingRoom, 1_000);
+		RtmpHandover next = new RtmpHandover(new StreamContext(), waitingRoom, 1_000);
+		DisposableServer oldServer = old.configure(HttpServer.create()).host("127.0.0.1").port(0).bindNow();
+		int port = ((InetSocketAddress)oldServer.address()).getPort();
+		try {
+			DisposableServer nextServer = next.configure(HttpServer.create()).host("127.0.0.1").port(port).bindNow();
+			nextServer.disposeNow();
+		} finally {
+			oldServer.disposeNow();
+		}
+	}
+
+	@Test
+	void viewersStayUntilThePublisherLeaves() {
+		RtmpHandover handover = new RtmpHandover(streamContext, waitingRoom, 10_000);
+		EmbeddedChannel publisher = rtmp.publish();
+		Stream stream = streamContext.getStream(STREAMER);
+		EmbeddedChannel viewer = play();
+
+		List<Stream> live = handover.beginDrain();
+		assertEquals(List.of(stream), live);
+		assertTrue(statusCodes(publisher).contains("NetConnection.Connect.ReconnectRequest"));
+		assertFalse(handover.awaitDrain(live, System.currentTimeMillis()));
+		assertTrue(viewer.isOpen());
+		assertFalse(receivedEof(viewer));
+
+		// publisher 가 새 프로세스로 옮겨 가면 reconnect grace 없이 시청자도 보낸다
+		publisher.close();
+		assertTrue(stream.isClosed());
+		assertFalse(stream.isAwaitingPublisher());
+		assertNull(streamContext.getStream(STREAMER));
+		assertTrue(receivedEof(viewer));
+		assertTrue(handover.awaitDrain(live, System.currentTimeMillis()));
+	}
+
+	@Test
+	void publisherThatUnpublishesAfterTheReconnectRequestIsNotReportedOffAir() {
+		RtmpHandover handover = new RtmpHandover(streamContext, waitingRoom, 10_000);
+		EmbeddedChannel publisher = rtmp.publish();
+		Stream stream = streamContext.getStream(STREAMER);
+		EmbeddedChannel viewer = play();
+
+		List<Stream> live = handover.beginDrain();
+		// webClient 가 없으므로 방송 종료를 알리려 하면 예외가 난다
+		rtmp.send(publisher, command("deleteStream", 5.0, null, 1.0));
+		publisher.checkException();
+
+		assertTrue(statusCodes(publisher).contains("NetStream.Unpublish.Success"));
+		assertFalse(publisher.isOpen());
+		assertTrue(stream.isClosed());
+		assertNull(streamContext.getStream(STREAMER));
+		assertTrue(receivedEof(viewer));
+		assertTrue(handover.awaitDrain(live, System.currentTimeMillis()));
+	}
+
+	@Test
+	void publisherThatStaysIsCutAfterTheDrainTimeout() {
+		RtmpHandover handover = new RtmpHandover(streamContext, waitingRoom, 200);
+		EmbeddedChannel publisher = rtmp.publish();
+		EmbeddedChannel viewer = play();
+
+		handover.stop();
+		assertFalse(publisher.isOpen());
+		assertTrue(receivedEof(viewer));
+		assertNull(streamContext.getStream(STREAMER));
+	}
+
+	private static DisposableServer bind(RtmpHandover handover, int port, String name) {
+		return handover.configure(TcpServer.create())
+			.host("127.0.0.1")
+			.port(port)
+			.handle((in, out) -> out.sendString(Mono.just(name)).neverComplete())
+			.bindNow();
+	}
+
+	private static String greeting(int port) {
+		Connection connection = TcpClient.create().host("127.0.0.1").port(port).connectNow();
+		try {
+			return connection.inbound().receive().asString().next().block();
+		} finally {
+			connection.disposeNow();
+		}
+	}
+
+	private EmbeddedChannel play() {
+		EmbeddedChannel channel = rtmp.play(STREAMER);
+		channel.releaseOutbound();
+		return channel;
+	}
+
+	private RtmpMessageHandler handler() {
+		RtmpMessageHandler handler = new RtmpMessageHandler(streamContext, timer, new EgressSchedulers(),
+			StreamDirectory.LOCAL, new IngestPolicy(), waitingRoom);
+		// handover 중에는 grace 를 쓰지 않아야 한다
+		ReflectionTestUtils.setField(handler, "reconnectGraceMillis", 60_000L);
+		return handler;
+	}
+}
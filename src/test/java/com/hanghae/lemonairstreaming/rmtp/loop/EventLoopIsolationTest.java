@@ -0,0 +1,282 @@
+package com.hanghae.lemonairstreaming.rmtp.loop;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.Handler.RtmpTestClient;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayerWaitingRoom;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.EventExecutor;
+import reactor.netty.DisposableServer;
+import reactor.netty.tcp.TcpServer;
+
+/**
+ * 실제 소켓으로 송출 포트에 publisher 하나, 시청 포트에 시청자 여럿을 붙이고 각 채널이 어느 loop 에서 처리되는지 본다.
+ * benchmark 는 publisher 가 보낸 비디오 프레임이 서버 파이프라인에 도착하기까지 걸린 시간을 잰다.
+ * 나누지 않으면 두 listener 가 스레드 하나짜리 loop 를 같이 써서 publisher 읽기와 시청자 쓰기가 한 loop 에 몰린다.
+ */
+class EventLoopIsolationTest {
+
+	private static final Logger log = LoggerFactory.getLogger(EventLoopIsolationTest.class);
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int PLAYERS = 100;
+	private static final int FRAME_BYTES = 16 * 1024;
+	private static final int FRAME_INTERVAL_MILLIS = 20;
+	private static final int WARM_UP_FRAMES = 50;
+	private static final int MEASURED_FRAMES = 150;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final EventLoopGroup sharedGroup = EventLoopIsolation.newGroup(1, "test-rtmp-shared", "");
+	private final EventLoopGroup clientGroup = EventLoopIsolation.newGroup(2, "test-rtmp-client", "");
+	private final StreamContext streamContext = new StreamContext();
+	// 운영과 같이 loop 마다 스케줄러 하나를 모든 연결이 함께 쓴다
+	private final EgressSchedulers egressSchedulers = new EgressSchedulers();
+	private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+	private final List<Channel> serverChannels = Collections.synchronizedList(new ArrayList<>());
+	private final List<Channel> clients = new ArrayList<>();
+	// 클라이언트마다 청크 크기가 달라지므로 연결마다 인코더를 따로 둔다
+	private final RtmpTestClient rtmp = new RtmpTestClient();
+	private final List<DisposableServer> servers = new ArrayList<>();
+	private volatile boolean recording;
+	private volatile Channel publisherChannel;
+	private EventLoopIsolation isolation;
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		clients.forEach(Channel::close);
+		rtmp.close();
+		servers.forEach(DisposableServer::disposeNow);
+		sharedGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		clientGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		if (isolation != null) {
+			isolation.stop();
+		}
+		timer.stop();
+	}
+
+	@Test
+	void ingestListenerRunsOnIngestLoopsAndTheRestOnEgressLoops() throws Exception {
+		isolation = new EventLoopIsolation(1, 1);
+		isolation.start();
+		DisposableServer ingest = startServer(isolation.configure(TcpServer.create(), EventLoopIsolation.Role.INGEST));
+		DisposableServer egress = startServer(isolation.configure(TcpServer.create(), EventLoopIsolation.Role.EGRESS));
+		publish(ingest);
+		play(egress, awaitStream(), 5);
+
+		// 채널은 accept 한 listener 의 loop 에서 끝까지 처리된다
+		assertTrue(contains(isolation, EventLoopIsolation.Role.INGEST, publisherChannel));
+		synchronized (serverChannels) {
+			assertEquals(6, serverChannels.size());
+			for (Channel channel : serverChannels) {
+				if (channel != publisherChannel) {
+					assertTrue(contains(isolation, EventLoopIsolation.Role.EGRESS, channel), channel::toString);
+				}
+			}
+		}
+	}
+
+	@Test
+	void disabledIsolationLeavesTheServerOnReactorLoops() {
+		EventLoopIsolation disabled = new EventLoopIsolation();
+		disabled.start();
+		TcpServer server = TcpServer.create();
+
+		assertSame(server, disabled.configure(server, EventLoopIsolation.Role.INGEST));
+		assertEquals(0, disabled.getIngestPort());
+	}
+
+	@Test
+	@Tag("benchmark")
+	void ingestLatencyUnderFanOut() throws Exception {
+		isolation = new EventLoopIsolation(1, 1);
+		isolation.start();
+		long[] isolated = measure(isolation.configure(TcpServer.create(), EventLoopIsolation.Role.INGEST),
+			isolation.configure(TcpServer.create(), EventLoopIsolation.Role.EGRESS));
+		assertEquals(MEASURED_FRAMES, isolated.length);
+		tearDownClients();
+
+		long[] shared = measure(TcpServer.create().runOn(sharedGroup), TcpServer.create().runOn(sharedGroup));
+		assertEquals(MEASURED_FRAMES, shared.length);
+		log.info("ingest latency with {} players: shared p50 {} us p99 {} us, isolated p50 {} us p99 {} us",
+			PLAYERS, percentile(shared, 50), percentile(shared, 99), percentile(isolated, 50),
+			percentile(isolated, 99));
+	}
+
+	private long[] measure(TcpServer ingestServer, TcpServer egressServer) throws Exception {
+		latencies.clear();
+		DisposableServer ingest = startServer(ingestServer);
+		DisposableServer egress = startServer(egressServer);
+		Channel publisher = publish(ingest);
+		play(egress, awaitStream(), PLAYERS);
+
+		for (int i = 0; i < WARM_UP_FRAMES + MEASURED_FRAMES; i++) {
+			recording = i >= WARM_UP_FRAMES;
+			int timestamp = i * FRAME_INTERVAL_MILLIS;
+			boolean keyframe = i % 50 == 0;
+			publisher.writeAndFlush(rtmp.encode(publisher, frame(timestamp, keyframe))).sync();
+			Thread.sleep(FRAME_INTERVAL_MILLIS);
+		}
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (latencies.size() < MEASURED_FRAMES && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		recording = false;
+		synchronized (latencies) {
+			return latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+		}
+	}
+
+	private Channel publish(DisposableServer server) throws InterruptedException {
+		Channel publisher = connect(server);
+		publisher.writeAndFlush(rtmp.encode(publisher, command("publish", 3.0, null, "key", "live"),
+			MessageProvider.setChunkSize(4096), media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 0x64),
+			media(VIDEO, 0, 0x17, 1, 0, 0, 0))).sync();
+		return publisher;
+	}
+
+	private void play(DisposableServer server, Stream stream, int players) throws Exception {
+		for (int i = 0; i < players; i++) {
+			Channel player = connect(server);
+			player.writeAndFlush(rtmp.encode(player, command("play", 4.0, null, STREAMER)));
+		}
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (stream.subscriberSnapshots().get().size() < players && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(players, stream.subscriberSnapshots().get().size());
+	}
+
+	private DisposableServer startServer(TcpServer server) {
+		DisposableServer bound = server.host("127.0.0.1")
+			.port(0)
+			.doOnConnection(connection -> {
+				serverChannels.add(connection.channel());
+				connection.addHandlerLast(new ChunkDecoder())
+					.addHandlerLast(new ChunkEncoder())
+					.addHandlerLast(new IngestProbe())
+					.addHandlerLast(new RtmpMessageHandler(streamContext, timer, egressSchedulers,
+						StreamDirectory.LOCAL, new IngestPolicy(), new PlayerWaitingRoom(timer)));
+			})
+			.handle((in, out) -> in.receiveObject().then())
+			.bindNow();
+		servers.add(bound);
+		return bound;
+	}
+
+	private Channel connect(DisposableServer server) throws InterruptedException {
+		Channel channel = new Bootstrap().group(clientGroup)
+			.channel(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class)
+			.handler(new ChannelInboundHandlerAdapter() {
+				@Override
+				public void channelRead(ChannelHandlerContext ctx, Object msg) {
+					ReferenceCountUtil.release(msg);
+				}
+			})
+			.connect(server.address())
+			.sync()
+			.channel();
+		clients.add(channel);
+		channel.writeAndFlush(rtmp.encode(channel, connectCommand())).sync();
+		return channel;
+	}
+
+	private void tearDownClients() throws InterruptedException {
+		for (Channel client : clients) {
+			client.close().sync();
+		}
+		clients.clear();
+		servers.forEach(DisposableServer::disposeNow);
+		servers.clear();
+		serverChannels.clear();
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (streamContext.getStream(STREAMER) != null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+	}
+
+	private Stream awaitStream() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (streamContext.getStream(STREAMER) == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		Stream stream = streamContext.getStream(STREAMER);
+		assertNotNull(stream);
+		return stream;
+	}
+
+	private static boolean contains(EventLoopIsolation isolation, EventLoopIsolation.Role role, Channel channel) {
+		for (EventExecutor executor : isolation.group(role)) {
+			if (executor == channel.eventLoop()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static long percentile(long[] sorted, int percent) {
+		return TimeUnit.NANOSECONDS.toMicros(sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)]);
+	}
+
+	// 보낸 시각을 payload 에 적어 서버에서 도착까지 걸린 시간을 잰다
+	private static RtmpMessage frame(int timestamp, boolean keyframe) {
+		ByteBuf payload = Unpooled.buffer(FRAME_BYTES)
+			.writeByte(keyframe ? 0x17 : 0x27)
+			.writeByte(1)
+			.writeLong(System.nanoTime());
+		payload.writeZero(FRAME_BYTES - payload.readableBytes());
+		return media(VIDEO, timestamp, payload);
+	}
+
+	private class IngestProbe extends ChannelInboundHandlerAdapter {
+
+		@Override
+		public void channelRead(ChannelHandlerContext ctx, Object msg) {
+			RtmpMessage message = (RtmpMessage)msg;
+			if (message.header().getType() == RtmpConstants.RTMP_MSG_COMMAND_TYPE_AMF0
+				&& "publish".equals(Amf0Rules.decodeAll(message.payload().duplicate()).get(0))) {
+				publisherChannel = ctx.channel();
+			}
+			if (recording && message.header().getType() == VIDEO && message.payload().readableBytes() == FRAME_BYTES) {
+				latencies.add(System.nanoTime() - message.payload().getLong(message.payload().readerIndex() + 2));
+			}
+			ctx.fireChannelRead(msg);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressScheduler;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultChannelId;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+
+class AudioAggregatorTest {
+
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	private static final PlayOptions AUDIO_ONLY = new PlayOptions(true, false);
+
+	@Test
+	void aggregateFollowsAudioStillQueuedForTheSubscriber() throws InterruptedException {
+		// DefaultEventLoop 에서는 큐를 비우는 일이 다음 task 로 넘어가므로 한 task 안에서 넣은 프레임은 그동안 큐에 남는다
+		DefaultEventLoop loop = new DefaultEventLoop();
+		EgressScheduler scheduler = new EgressSchedulers(1024 * 1024, TimeUnit.SECONDS.toMicros(10)).of(loop);
+		Stream stream = new Stream("streamer");
+		EmbeddedChannel early = new EmbeddedChannel(DefaultChannelId.newInstance());
+		EmbeddedChannel late = new EmbeddedChannel(DefaultChannelId.newInstance());
+		try {
+			loop.submit(() -> {
+				stream.setEventLoop(loop);
+				stream.setAudioAggregateWindowMillis(100);
+				stream.addSubscriber(early, AUDIO_ONLY, scheduler);
+				stream.addMedia(audio(0));
+				// 구간 중간에 들어온 시청자는 프레임을 하나씩 큐로 받다가 다음 구간의 수신자가 된다
+				stream.addSubscriber(late, AUDIO_ONLY, scheduler);
+				for (int timestamp = 20; timestamp <= 220; timestamp += 20) {
+					stream.addMedia(audio(timestamp));
+				}
+			}).sync();
+		} finally {
+			loop.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		}
+
+		List<Integer> timestamps = audioTimestamps(late);
+		assertEquals(11, timestamps.size(), timestamps::toString);
+		for (int i = 1; i < timestamps.size(); i++) {
+			assertTrue(timestamps.get(i - 1) < timestamps.get(i), timestamps::toString);
+		}
+		assertEquals(12, audioTimestamps(early).size());
+		early.finishAndReleaseAll();
+		late.finishAndReleaseAll();
+	}
+
+	// aggregate 는 시청자가 풀 때처럼 하위 메시지의 timestamp 로 편다
+	private static List<Integer> audioTimestamps(EmbeddedChannel channel) {
+		List<Integer> timestamps = new ArrayList<>();
+		Object written;
+		while ((written = channel.readOutbound()) != null) {
+			if (written instanceof RtmpMessage message) {
+				if (message.header().getType() == AUDIO) {
+					timestamps.add(message.header().getTimestamp());
+				} else if (message.header().getType() == RtmpConstants.RTMP_MSG_AGGREGATE) {
+					ByteBuf body = message.payload().duplicate();
+					while (body.isReadable()) {
+						body.skipBytes(1);
+						int size = body.readUnsignedMedium();
+						timestamps.add(body.readUnsignedMedium() | body.readUnsignedByte() << 24);
+						body.skipBytes(3 + size + 4);
+					}
+				}
+			}
+			ReferenceCountUtil.release(written);
+		}
+		return timestamps;
+	}
+
+	private static RtmpMediaMessage audio(int timestamp) {
+		ByteBuf payload = Unpooled.buffer(100).writeByte(0xaf).writeByte(1).writeZero(98);
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(AUDIO, timestamp, payload.readableBytes()),
+			payload, MediaTagParser.parse((short)AUDIO, payload));
+	}
+}
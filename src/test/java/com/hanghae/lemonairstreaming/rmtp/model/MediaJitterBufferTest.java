@@ -0,0 +1,108 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpHeader;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class MediaJitterBufferTest {
+
+	private final EmbeddedChannel channel = new EmbeddedChannel();
+	private final List<RtmpMediaMessage> released = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		released.forEach(RtmpMediaMessage::release);
+		channel.finishAndReleaseAll();
+	}
+
+	@Test
+	void framesAreReleasedInTimestampOrderAfterTheWindow() throws InterruptedException {
+		MediaJitterBuffer buffer = new MediaJitterBuffer(100, channel.eventLoop(), released::add);
+		for (int timestamp : new int[] {0, 66, 33, 100}) {
+			buffer.offer(frame(timestamp));
+		}
+		// 늦게 온 33 은 window 안에 들어왔으므로 66 보다 먼저 나가야 한다
+		assertFalse(timestamps().contains(66));
+
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (released.size() < 4 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+			channel.runScheduledPendingTasks();
+		}
+		assertEquals(List.of(0, 33, 66, 100), timestamps());
+		buffer.close();
+	}
+
+	@Test
+	void overflowReleasesTheOldestFrame() {
+		MediaJitterBuffer buffer = new MediaJitterBuffer(60_000, channel.eventLoop(), released::add);
+		for (int i = 0; i <= 2048; i++) {
+			buffer.offer(frame(i * 10));
+		}
+		assertEquals(List.of(0), timestamps());
+		buffer.close();
+	}
+
+	@Test
+	void jumpsAreRebasedWithoutTouchingTheDecoderHeader() {
+		MediaJitterBuffer buffer = new MediaJitterBuffer(0, channel.eventLoop(), released::add);
+		RtmpMediaMessage jumped = frame(100_000);
+		buffer.offer(frame(1_000));
+		buffer.offer(frame(1_033));
+		buffer.offer(jumped);
+		buffer.offer(frame(100_033));
+
+		assertEquals(List.of(1_000, 1_033, 1_053, 1_086), timestamps());
+		// ChunkDecoder 가 다음 청크의 기준으로 쓰는 헤더는 그대로여야 한다
+		assertEquals(100_000, jumped.header().getTimestamp());
+		assertNotSame(jumped.header(), released.get(2).header());
+		assertSame(jumped.payload(), released.get(2).payload());
+		buffer.close();
+	}
+
+	@Test
+	void lateFramesKeepTheOutputMonotonic() {
+		MediaJitterBuffer buffer = new MediaJitterBuffer(0, channel.eventLoop(), released::add);
+		RtmpMediaMessage late = frame(990);
+		buffer.offer(frame(1_000));
+		buffer.offer(late);
+
+		assertEquals(List.of(1_000, 1_000), timestamps());
+		assertEquals(990, late.header().getTimestamp());
+		buffer.close();
+	}
+
+	@Test
+	void thirtyTwoBitWrapContinuesForward() {
+		MediaJitterBuffer buffer = new MediaJitterBuffer(0, channel.eventLoop(), released::add);
+		buffer.offer(frame(-16));
+		buffer.offer(frame(16));
+
+		assertEquals(List.of(-16, 16), timestamps());
+		buffer.close();
+	}
+
+	private List<Integer> timestamps() {
+		return released.stream().map(message -> message.header().getTimestamp()).toList();
+	}
+
+	private static RtmpMediaMessage frame(int timestamp) {
+		RtmpHeader header = HeaderProvider.mediaMessageHeader(RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO,
+			timestamp, 2);
+		return new RtmpMediaMessage(header, Unpooled.wrappedBuffer(new byte[] {(byte)0xaf, 1}),
+			MediaDescriptor.UNKNOWN);
+	}
+}
@@ -0,0 +1,177 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import static com.hanghae.lemonairstreaming.Handler.RtmpTestClient.*;
+import static com.hanghae.lemonairstreaming.rmtp.model.util.ClientMessageProvider.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.hanghae.lemonairstreaming.Handler.RtmpMessageHandler;
+import com.hanghae.lemonairstreaming.Handler.RtmpTestClient;
+import com.hanghae.lemonairstreaming.rmtp.cluster.StreamDirectory;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.ingest.IngestPolicy;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.source.FlvFileSourceManager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.HashedWheelTimer;
+
+class PlayerWaitingRoomTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final StreamContext streamContext = new StreamContext();
+	private final RtmpTestClient rtmp = new RtmpTestClient(this::handler);
+	private PlayerWaitingRoom waitingRoom;
+
+	@AfterEach
+	void tearDown() {
+		rtmp.close();
+		timer.stop();
+	}
+
+	@Test
+	void playersParkedBeforePublishAreAttachedTogether() {
+		waitingRoom = new PlayerWaitingRoom(timer, 60_000, 2);
+		EmbeddedChannel first = play();
+		EmbeddedChannel second = play();
+		EmbeddedChannel overflow = play();
+
+		assertTrue(first.isOpen());
+		assertTrue(second.isOpen());
+		assertEquals(List.of(), statusCodes(first));
+		// 자리가 없으면 예전처럼 바로 돌려보낸다
+		assertEquals(List.of("NetStream.Play.StreamNotFound"), statusCodes(overflow));
+		assertFalse(overflow.isOpen());
+		assertEquals(2, waitingRoom.waitingCount(STREAMER));
+
+		EmbeddedChannel publisher = rtmp.publisher("key");
+		Stream stream = publisher.readInbound();
+		assertEquals(0, waitingRoom.waitingCount(STREAMER));
+		stream.sendPublishMessage();
+		rtmp.send(publisher, media(VIDEO, 0, 0x17, 0, 0, 0, 0, 1, 0x64));
+		rtmp.send(publisher, media(VIDEO, 0, 0x17, 1));
+		rtmp.send(publisher, media(VIDEO, 33, 0x27, 1));
+
+		// 시청자 채널의 event loop 에서 붙으므로 그 전에 보낸 프레임은 GOP 로 받는다
+		for (EmbeddedChannel player : List.of(first, second)) {
+			player.runPendingTasks();
+			assertTrue(player.isOpen());
+			assertEquals(List.of("NetStream.Play.Start"), statusCodes(player));
+		}
+	}
+
+	@Test
+	void playerParkedJustAfterPublishIsStillAttached() {
+		EmbeddedChannel[] publisher = new EmbeddedChannel[1];
+		// publisher 가 play 의 getStream 과 park 사이에 등록을 마치고 release 한 경우
+		waitingRoom = new PlayerWaitingRoom(timer, 60_000, 10) {
+			@Override
+			public boolean park(String streamerId, Channel channel, Consumer<Stream> attach, Runnable expire) {
+				rtmp.send(publisher[0], command("publish", 3.0, null, "key", "live"));
+				return super.park(streamerId, channel, attach, expire);
+			}
+		};
+		publisher[0] = rtmp.connect();
+		EmbeddedChannel player = play();
+		Stream stream = publisher[0].readInbound();
+		stream.sendPublishMessage();
+
+		player.runPendingTasks();
+		assertEquals(0, waitingRoom.waitingCount(STREAMER));
+		assertEquals(List.of("NetStream.Play.Start"), statusCodes(player));
+		assertTrue(player.isOpen());
+	}
+
+	@Test
+	void playersWaitingForAFileSourceAreAttached(@TempDir Path root) throws Exception {
+		waitingRoom = new PlayerWaitingRoom(timer, 60_000, 10);
+		Files.write(root.resolve("a.flv"), flv(0x17, 1, 0, 0, 0, 0, 0, 0, 1, 0x65));
+		FlvFileSourceManager manager = new FlvFileSourceManager(streamContext, waitingRoom);
+		ReflectionTestUtils.setField(manager, "root", root.toString());
+		manager.start();
+		try {
+			EmbeddedChannel player = play();
+			assertEquals(1, waitingRoom.waitingCount(STREAMER));
+
+			Stream stream = manager.publish(STREAMER, List.of("a.flv"), true, true).getStream();
+			assertEquals(0, waitingRoom.waitingCount(STREAMER));
+			player.runPendingTasks();
+			assertEquals(1, stream.subscriberSnapshots().get(5, TimeUnit.SECONDS).size());
+		} finally {
+			manager.stop();
+		}
+	}
+
+	@Test
+	void parkedPlayerIsRejectedWhenWaitExpires() throws InterruptedException {
+		waitingRoom = new PlayerWaitingRoom(timer, 100, 10);
+		EmbeddedChannel player = play();
+		assertTrue(player.isOpen());
+
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (player.isOpen() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+			player.runPendingTasks();
+		}
+		assertEquals(List.of("NetStream.Play.StreamNotFound"), statusCodes(player));
+		assertFalse(player.isOpen());
+		assertEquals(0, waitingRoom.waitingCount(STREAMER));
+	}
+
+	@Test
+	void playerLeavingFreesItsPlace() {
+		waitingRoom = new PlayerWaitingRoom(timer, 60_000, 1);
+		EmbeddedChannel player = play();
+		assertEquals(1, waitingRoom.waitingCount(STREAMER));
+
+		player.close();
+		assertEquals(0, waitingRoom.waitingCount(STREAMER));
+		assertTrue(play().isOpen());
+	}
+
+	@Test
+	void disabledRoomRejectsRightAway() {
+		waitingRoom = new PlayerWaitingRoom(timer, 0, 10);
+		EmbeddedChannel player = play();
+		assertEquals(List.of("NetStream.Play.StreamNotFound"), statusCodes(player));
+		assertFalse(player.isOpen());
+	}
+
+	private EmbeddedChannel play() {
+		return rtmp.play(STREAMER);
+	}
+
+	private RtmpMessageHandler handler() {
+		return new RtmpMessageHandler(streamContext, timer, new EgressSchedulers(), StreamDirectory.LOCAL,
+			new IngestPolicy(), waitingRoom);
+	}
+
+	// 비디오 태그 하나짜리 FLV 파일
+	private static byte[] flv(int... data) {
+		ByteBuf file = Unpooled.buffer();
+		file.writeMedium(0x464c56).writeByte(1).writeByte(1).writeInt(9).writeInt(0);
+		file.writeByte(VIDEO).writeMedium(data.length).writeMedium(0).writeByte(0).writeMedium(0);
+		for (int b : data) {
+			file.writeByte(b);
+		}
+		file.writeInt(11 + data.length);
+		byte[] bytes = new byte[file.readableBytes()];
+		file.readBytes(bytes).release();
+		return bytes;
+	}
+}
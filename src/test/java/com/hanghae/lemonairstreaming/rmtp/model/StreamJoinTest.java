@@ -0,0 +1,192 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpJoinBundle;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class StreamJoinTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+
+	private final EmbeddedChannel publisher = new EmbeddedChannel();
+	private final List<EmbeddedChannel> players = new ArrayList<>();
+	private final Stream stream = new Stream("streamer");
+
+	@AfterEach
+	void tearDown() {
+		stream.closeStream();
+		players.forEach(EmbeddedChannel::finishAndReleaseAll);
+		publisher.finishAndReleaseAll();
+	}
+
+	@Test
+	void lowLatencyJoinSkipsTheGopAndStartsAtTheNextKeyframe() {
+		stream.setPublisher(publisher);
+		publishGop();
+
+		EmbeddedChannel player = join(new PlayOptions(false, true));
+		// 시퀀스 헤더만 받고 GOP 는 받지 않는다
+		assertEquals(List.of("video 0", "audio 0"), media(readBundle(player)));
+
+		// 오디오는 라이브 시점부터, 비디오는 다음 키프레임부터 받는다
+		stream.addMedia(video(120, 0x27));
+		stream.addMedia(audio(130, 1));
+		stream.addMedia(video(160, 0x17));
+		stream.addMedia(audio(170, 1));
+		assertEquals(List.of("audio 130", "video 160", "audio 170"), live(player));
+	}
+
+	@Test
+	void lowLatencyJoinBeforeAnyKeyframeWaitsForOne() {
+		stream.setPublisher(publisher);
+		stream.addMedia(video(0, 0x27));
+
+		EmbeddedChannel player = join(new PlayOptions(false, true));
+		readBundle(player).release();
+		stream.addMedia(video(40, 0x27));
+		stream.addMedia(video(80, 0x17));
+
+		assertEquals(List.of("video 80"), live(player));
+	}
+
+	@Test
+	void joinBundleIsReusedUntilTheKeyframeChanges() {
+		stream.setPublisher(publisher);
+		publishGop();
+
+		// 새 프레임이 없으면 같은 bundle 을 그대로 보낸다
+		ByteBuf first = readBundle(join(PlayOptions.DEFAULT));
+		ByteBuf second = readBundle(join(PlayOptions.DEFAULT));
+		assertSame(first.unwrap(), second.unwrap());
+		ByteBuf base = cachedBundle();
+
+		// delta frame 은 bundle 을 버리지 않고 뒤에 붙인다
+		stream.addMedia(video(120, 0x27));
+		ByteBuf third = readBundle(join(PlayOptions.DEFAULT));
+		assertSame(base, cachedBundle());
+		assertEquals(List.of("video 0", "audio 0", "video 0", "audio 10", "video 40", "audio 50", "video 80",
+			"video 120"), media(third));
+
+		// 키프레임이 바뀌면 새로 만든다
+		stream.addMedia(video(160, 0x17));
+		assertNull(cachedBundle());
+		assertEquals(List.of("video 0", "audio 0", "video 160"), media(readBundle(join(PlayOptions.DEFAULT))));
+		assertNotSame(base, cachedBundle());
+		first.release();
+		second.release();
+	}
+
+	@Test
+	void bundleIsRebuiltOnceTheAppendedFramesOutgrowIt() {
+		stream.setPublisher(publisher);
+		stream.addMedia(video(0, 0x17));
+		stream.addMedia(video(40, 0x27));
+		readBundle(join(PlayOptions.DEFAULT)).release();
+		ByteBuf base = cachedBundle();
+
+		stream.addMedia(video(80, 0x27));
+		stream.addMedia(video(120, 0x27));
+		readBundle(join(PlayOptions.DEFAULT)).release();
+		assertSame(base, cachedBundle());
+
+		stream.addMedia(video(160, 0x27));
+		ByteBuf rebuilt = readBundle(join(PlayOptions.DEFAULT));
+		assertNotSame(base, cachedBundle());
+		assertEquals(List.of("video 0", "video 40", "video 80", "video 120", "video 160"), media(rebuilt));
+	}
+
+	private void publishGop() {
+		stream.addMedia(video(0, 0x17, 0));
+		stream.addMedia(audio(0, 0));
+		stream.addMedia(video(0, 0x17));
+		stream.addMedia(audio(10, 1));
+		stream.addMedia(video(40, 0x27));
+		stream.addMedia(audio(50, 1));
+		stream.addMedia(video(80, 0x27));
+	}
+
+	private EmbeddedChannel join(PlayOptions options) {
+		EmbeddedChannel player = new EmbeddedChannel();
+		players.add(player);
+		stream.addSubscriber(player, options, null);
+		return player;
+	}
+
+	private ByteBuf cachedBundle() {
+		return ((ByteBuf[])ReflectionTestUtils.getField(stream, "joinBundles"))[0];
+	}
+
+	private static ByteBuf readBundle(EmbeddedChannel player) {
+		Object message = player.readOutbound();
+		return assertInstanceOf(RtmpJoinBundle.class, message).content();
+	}
+
+	// bundle 을 청크 디코딩해서 미디어 메시지의 종류와 timestamp 만 남긴다
+	private static List<String> media(ByteBuf bundle) {
+		EmbeddedChannel decoder = new EmbeddedChannel(new ChunkDecoder());
+		decoder.writeInbound(bundle);
+		List<String> media = new ArrayList<>();
+		RtmpMessage message;
+		while ((message = decoder.readInbound()) != null) {
+			describe(message).ifPresent(media::add);
+			message.release();
+		}
+		decoder.finishAndReleaseAll();
+		return media;
+	}
+
+	private static List<String> live(EmbeddedChannel player) {
+		List<String> media = new ArrayList<>();
+		RtmpMessage message;
+		while ((message = player.readOutbound()) != null) {
+			describe(message).ifPresent(media::add);
+			message.release();
+		}
+		return media;
+	}
+
+	private static Optional<String> describe(RtmpMessage message) {
+		int type = message.header().getType();
+		if (type != VIDEO && type != AUDIO) {
+			return Optional.empty();
+		}
+		return Optional.of((type == VIDEO ? "video " : "audio ") + message.header().getTimestamp());
+	}
+
+	private static RtmpMediaMessage video(int timestamp, int frameType) {
+		return video(timestamp, frameType, 1);
+	}
+
+	// packetType 0 은 시퀀스 헤더, 1 은 NALU
+	private static RtmpMediaMessage video(int timestamp, int frameType, int packetType) {
+		return media(VIDEO, timestamp, Unpooled.buffer().writeByte(frameType).writeByte(packetType).writeZero(8));
+	}
+
+	private static RtmpMediaMessage audio(int timestamp, int packetType) {
+		return media(AUDIO, timestamp, Unpooled.buffer().writeByte(0xaf).writeByte(packetType).writeZero(4));
+	}
+
+	private static RtmpMediaMessage media(int type, int timestamp, ByteBuf payload) {
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(type, timestamp, payload.readableBytes()),
+			payload, MediaTagParser.parse((short)type, payload));
+	}
+}
@@ -0,0 +1,139 @@
+package com.hanghae.lemonairstreaming.rmtp.model;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class SubscriberTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+
+	private final EmbeddedChannel channel = new EmbeddedChannel();
+	private final List<RtmpMediaMessage> published = new ArrayList<>();
+
+	@AfterEach
+	void tearDown() {
+		channel.finishAndReleaseAll();
+		published.forEach(RtmpMediaMessage::release);
+	}
+
+	@Test
+	void backlogOverTheLimitRestartsFromTheLatestKeyframe() {
+		Subscriber subscriber = new Subscriber(channel, PlayOptions.DEFAULT, null);
+		setWritable(false);
+		subscriber.startCatchUp(List.of(video(0, 0x17), video(40, 0x27)), 1, 3000);
+		subscriber.enqueue(video(80, 0x27));
+		assertEquals(3, subscriber.getBacklog().size());
+
+		// 한도를 넘기면 새 키프레임 앞의 GOP 는 버린다
+		subscriber.enqueue(video(120, 0x17));
+		subscriber.enqueue(video(160, 0x27));
+		assertEquals(2, subscriber.getBacklog().size());
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, published.get(i).refCnt());
+		}
+
+		setWritable(true);
+		assertTrue(subscriber.drainBacklog(subscriber.getJoinedAt() + 60_000));
+		assertEquals(List.of(120, 160), sentTimestamps());
+	}
+
+	@Test
+	void backlogTooSmallForItsKeyframeWaitsForTheNextOne() {
+		Subscriber subscriber = new Subscriber(channel, PlayOptions.DEFAULT, null);
+		setWritable(false);
+		subscriber.startCatchUp(List.of(video(0, 0x17)), 1, 1500);
+
+		// 키프레임을 남겨도 한도를 넘으면 모두 버린다
+		subscriber.enqueue(video(40, 0x27));
+		assertTrue(subscriber.getBacklog().isEmpty());
+		published.forEach(message -> assertEquals(1, message.refCnt()));
+
+		assertTrue(subscriber.drainBacklog(subscriber.getJoinedAt()));
+		assertFalse(subscriber.isCatchingUp());
+		assertFalse(subscriber.accepts(video(80, 0x27)));
+		assertTrue(subscriber.accepts(audio(90)));
+		assertTrue(subscriber.accepts(video(120, 0x17)));
+		assertTrue(subscriber.accepts(video(160, 0x27)));
+	}
+
+	@Test
+	void audioOnlyBacklogIsDroppedWithoutWaitingForVideo() {
+		Subscriber subscriber = new Subscriber(channel, new PlayOptions(true, false), null);
+		setWritable(false);
+		subscriber.startCatchUp(List.of(audio(0), audio(20)), 1, 2500);
+
+		subscriber.enqueue(audio(40));
+		assertTrue(subscriber.getBacklog().isEmpty());
+		subscriber.drainBacklog(subscriber.getJoinedAt());
+		assertTrue(subscriber.accepts(audio(60)));
+	}
+
+	@Test
+	void snapshotEstimatesPendingBytesFromTheWaterMarks() {
+		Subscriber subscriber = new Subscriber(channel, PlayOptions.DEFAULT, null);
+		channel.write(Unpooled.buffer(1000).writeZero(1000));
+		long pending = channel.unsafe().outboundBuffer().totalPendingWriteBytes();
+
+		assertEquals(pending, subscriber.snapshot(0).outboundBufferBytes());
+
+		// 밀린 채널은 low water mark 위로 남은 양만큼으로 본다
+		channel.config().setWriteBufferLowWaterMark(100);
+		channel.config().setWriteBufferHighWaterMark(500);
+		channel.write(Unpooled.buffer(10).writeZero(10));
+		SubscriberSnapshot blocked = subscriber.snapshot(0);
+		assertFalse(blocked.writable());
+		assertEquals(channel.unsafe().outboundBuffer().totalPendingWriteBytes(), blocked.outboundBufferBytes());
+
+		channel.close();
+		assertEquals(0, subscriber.snapshot(0).outboundBufferBytes());
+	}
+
+	private void setWritable(boolean writable) {
+		channel.unsafe().outboundBuffer().setUserDefinedWritability(1, writable);
+	}
+
+	private List<Integer> sentTimestamps() {
+		List<Integer> timestamps = new ArrayList<>();
+		RtmpMessage message;
+		while ((message = channel.readOutbound()) != null) {
+			timestamps.add(message.header().getTimestamp());
+			message.release();
+		}
+		return timestamps;
+	}
+
+	// 1000 바이트짜리 AVC NALU
+	private RtmpMediaMessage video(int timestamp, int frameType) {
+		ByteBuf payload = Unpooled.buffer(1000).writeByte(frameType).writeByte(1).writeZero(998);
+		return publish(VIDEO, timestamp, payload);
+	}
+
+	private RtmpMediaMessage audio(int timestamp) {
+		ByteBuf payload = Unpooled.buffer(1000).writeByte(0xaf).writeByte(1).writeZero(998);
+		return publish(AUDIO, timestamp, payload);
+	}
+
+	private RtmpMediaMessage publish(int type, int timestamp, ByteBuf payload) {
+		RtmpMediaMessage message = new RtmpMediaMessage(
+			HeaderProvider.mediaMessageHeader(type, timestamp, payload.readableBytes()), payload,
+			MediaTagParser.parse((short)type, payload));
+		published.add(message);
+		return message;
+	}
+}
@@ -0,0 +1,96 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.Handler.ChunkDecoder;
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MessageProvider;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class DeliveryTrackerTest {
+
+	private static final int WRITE = 4096;
+
+	@Test
+	void rttIsMeasuredFromWhenTheAcknowledgedByteWasWritten() {
+		DeliveryTracker tracker = new DeliveryTracker();
+		tracker.setAckWindow(64 * WRITE);
+		// 10ms 마다 4096 바이트씩 20 번 쓴다
+		for (int i = 1; i <= 20; i++) {
+			tracker.onWrite(WRITE, millis(i * 10));
+		}
+
+		// 10 번째와 11 번째 write 사이의 바이트는 105ms 에 쓴 것으로 본다
+		tracker.onAcknowledgement(10 * WRITE + WRITE / 2, millis(135));
+		assertEquals(30, tracker.rttMillis());
+		assertEquals(10 * WRITE - WRITE / 2, tracker.unackedBytes());
+		assertEquals(0, tracker.goodputBytesPerSecond());
+
+		tracker.onAcknowledgement(20 * WRITE, millis(235));
+		// 100ms 동안 9.5 번의 write 만큼 받았다
+		assertEquals((10 * WRITE - WRITE / 2) * 10, tracker.goodputBytesPerSecond());
+		// 35ms 를 1/8 만큼만 반영한다
+		assertEquals(31, tracker.rttMillis());
+		assertEquals(0, tracker.unackedBytes());
+	}
+
+	@Test
+	void sequenceWrapAroundKeepsCounting() {
+		DeliveryTracker tracker = new DeliveryTracker();
+		tracker.onAcknowledgement(-WRITE, millis(0));
+		tracker.onAcknowledgement(WRITE, millis(10));
+		assertEquals((1L << 32) + WRITE, tracker.getAckedBytes());
+		assertEquals(2 * WRITE * 100, tracker.goodputBytesPerSecond());
+	}
+
+	@Test
+	void unknownUntilFirstAcknowledgement() {
+		DeliveryTracker tracker = new DeliveryTracker();
+		tracker.onWrite(WRITE, millis(0));
+		assertFalse(tracker.isAcknowledged());
+		assertEquals(-1, tracker.rttMillis());
+		assertEquals(WRITE, tracker.unackedBytes());
+	}
+
+	@Test
+	void acknowledgementsFromThePeerReachTheTracker() {
+		EmbeddedChannel channel = new EmbeddedChannel(new ChunkDecoder(), new ChunkEncoder());
+		channel.writeOutbound(MessageProvider.setWindowAcknowledgement(WRITE));
+		List<Object> args = new ArrayList<>(List.of("onStatus", 0.0));
+		args.add(null);
+		args.add("x".repeat(WRITE));
+		channel.writeOutbound(MessageProvider.commandMessage(args));
+		long written = 0;
+		ByteBuf out;
+		while ((out = channel.readOutbound()) != null) {
+			written += out.readableBytes();
+			out.release();
+		}
+		DeliveryTracker tracker = DeliveryTracker.of(channel);
+		assertEquals(written, tracker.getWrittenBytes());
+
+		EmbeddedChannel peer = new EmbeddedChannel(new ChunkEncoder());
+		peer.writeOutbound(MessageProvider.acknowledgement((int)written));
+		channel.writeInbound((ByteBuf)peer.readOutbound());
+
+		assertTrue(tracker.isAcknowledged());
+		assertEquals(written, tracker.getAckedBytes());
+		assertEquals(0, tracker.unackedBytes());
+		assertTrue(tracker.rttMillis() >= 0);
+		assertNull(channel.readInbound());
+		assertFalse(channel.finishAndReleaseAll());
+		peer.finishAndReleaseAll();
+	}
+
+	private static long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
@@ -0,0 +1,253 @@
+package com.hanghae.lemonairstreaming.rmtp.model.egress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayOptions;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.DefaultEventLoop;
+import io.netty.channel.EventLoop;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.ReferenceCountUtil;
+
+/**
+ * publisher 와 시청자 수백 명이 한 event loop 를 쓸 때 키프레임 fan-out 이 같은 loop 의 다른 작업
+ * (publisher 읽기)을 얼마나 밀어내는지 본다. 단위 테스트는 loop 한 바퀴에 쓰는 양을 세고,
+ * benchmark 는 1ms 마다 넣은 probe task 가 실행될 때까지의 지연을 잰다.
+ */
+class EgressSchedulerTest {
+
+	private static final Logger log = LoggerFactory.getLogger(EgressSchedulerTest.class);
+
+	private static final int VIEWERS = 400;
+	private static final int KEYFRAMES = 20;
+	private static final int KEYFRAME_BYTES = 32 * 1024;
+	private static final int FRAME_INTERVAL_MILLIS = 40;
+
+	private final AtomicLong received = new AtomicLong();
+	private NioEventLoopGroup loopGroup;
+	private NioEventLoopGroup peerGroup;
+	private Channel server;
+	private EventLoop loop;
+
+	@BeforeEach
+	void setUp() throws InterruptedException {
+		loopGroup = new NioEventLoopGroup(1);
+		peerGroup = new NioEventLoopGroup(1);
+		loop = loopGroup.next();
+		server = new ServerBootstrap().group(peerGroup)
+			.channel(NioServerSocketChannel.class)
+			.childHandler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel channel) {
+					channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+						@Override
+						public void channelRead(ChannelHandlerContext ctx, Object msg) {
+							received.addAndGet(((ByteBuf)msg).readableBytes());
+							ReferenceCountUtil.release(msg);
+						}
+					});
+				}
+			})
+			.bind(InetAddress.getLoopbackAddress(), 0)
+			.sync()
+			.channel();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		server.close().sync();
+		loopGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		peerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	@Test
+	void fanOutIsSlicedBetweenOtherLoopTasks() throws Exception {
+		// DefaultEventLoop 에서는 조각마다 일반 task 로 돌아가므로 그 사이에 끼어든 task 가 쓴 수를 셀 수 있다.
+		// 시간 제한은 넉넉히 두어 바이트 제한으로만 나뉘게 한다.
+		DefaultEventLoop taskLoop = new DefaultEventLoop();
+		EgressScheduler scheduler = new EgressScheduler(taskLoop, 8 * KEYFRAME_BYTES, TimeUnit.SECONDS.toNanos(10));
+		AtomicInteger writes = new AtomicInteger();
+		AtomicInteger flushes = new AtomicInteger();
+		List<EmbeddedChannel> viewers = new ArrayList<>();
+		List<EgressQueue> queues = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			EmbeddedChannel viewer = new EmbeddedChannel(new CountingHandler(writes, flushes));
+			viewers.add(viewer);
+			queues.add(scheduler.newQueue(viewer));
+		}
+
+		List<Integer> seen = new ArrayList<>();
+		CompletableFuture<Void> done = new CompletableFuture<>();
+		Runnable probe = new Runnable() {
+			@Override
+			public void run() {
+				seen.add(writes.get());
+				if (writes.get() < 100) {
+					taskLoop.execute(this);
+				} else {
+					done.complete(null);
+				}
+			}
+		};
+		RtmpMediaMessage keyframe = keyframe(0);
+		try {
+			taskLoop.submit(() -> {
+				scheduler.submit(queues, keyframe);
+				taskLoop.execute(probe);
+			}).sync();
+			done.get(5, TimeUnit.SECONDS);
+		} finally {
+			keyframe.release();
+			taskLoop.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		}
+
+		// 다른 task 는 조각 하나(8 명)보다 오래 기다리지 않는다
+		assertEquals(List.of(8, 16, 24, 32, 40, 48, 56, 64, 72, 80, 88, 96, 100), seen.stream().distinct().toList());
+		assertEquals(100, writes.get());
+		// 조각마다 그 조각에서 쓴 채널만 한 번씩 flush 한다
+		assertEquals(100, flushes.get());
+		viewers.forEach(EmbeddedChannel::finishAndReleaseAll);
+	}
+
+	@Test
+	@Tag("benchmark")
+	void slicedFanOutKeepsLoopResponsive() throws Exception {
+		// JIT 예열
+		run(new EgressSchedulers(256 * 1024, 500), 5);
+
+		Latency before = run(new EgressSchedulers(0, 0), KEYFRAMES);
+		Latency after = run(new EgressSchedulers(256 * 1024, 500), KEYFRAMES);
+
+		log.info(String.format("loop task latency with %d viewers x %dKB keyframes: p50 %.2f -> %.2f ms, "
+				+ "p99 %.2f -> %.2f ms, max %.2f -> %.2f ms", VIEWERS, KEYFRAME_BYTES / 1024, before.p50, after.p50,
+			before.p99, after.p99, before.max, after.max));
+		assertTrue(after.p99 < before.p99, () -> "p99 " + after.p99 + " ms is not below " + before.p99 + " ms");
+	}
+
+	private Latency run(EgressSchedulers schedulers, int keyframes) throws Exception {
+		Bootstrap bootstrap = new Bootstrap().group(loop).channel(NioSocketChannel.class)
+			.handler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel channel) {
+					channel.pipeline().addLast(new ChunkEncoder());
+				}
+			});
+		Stream stream = new Stream("bench");
+		stream.setEventLoop(loop);
+		List<Channel> viewers = new ArrayList<>(VIEWERS);
+		for (int i = 0; i < VIEWERS; i++) {
+			Channel viewer = bootstrap.connect(server.localAddress()).sync().channel();
+			viewers.add(viewer);
+			stream.addSubscriber(viewer, PlayOptions.DEFAULT, schedulers.of(viewer.eventLoop()));
+		}
+		loop.submit(() -> { }).sync();
+		long receivedBefore = received.get();
+
+		List<Future<Long>> probes = new ArrayList<>();
+		for (int frame = 0; frame < keyframes; frame++) {
+			int timestamp = frame * FRAME_INTERVAL_MILLIS;
+			loop.execute(() -> stream.addMedia(keyframe(timestamp)));
+			for (int i = 0; i < FRAME_INTERVAL_MILLIS; i++) {
+				long submitted = System.nanoTime();
+				probes.add(loop.submit(() -> System.nanoTime() - submitted));
+				Thread.sleep(1);
+			}
+		}
+
+		// 모든 시청자가 모든 키프레임을 받았는지 확인한다
+		long expected = (long)VIEWERS * keyframes * KEYFRAME_BYTES;
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (received.get() - receivedBefore < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(received.get() - receivedBefore >= expected);
+
+		loop.submit(stream::closeStream).sync();
+		for (Channel viewer : viewers) {
+			viewer.close().sync();
+		}
+
+		long[] delays = new long[probes.size()];
+		for (int i = 0; i < delays.length; i++) {
+			delays[i] = probes.get(i).get();
+		}
+		Arrays.sort(delays);
+		return new Latency(millis(delays[delays.length / 2]), millis(delays[delays.length * 99 / 100]),
+			millis(delays[delays.length - 1]));
+	}
+
+	private static RtmpMediaMessage keyframe(int timestamp) {
+		ByteBuf payload = Unpooled.buffer(KEYFRAME_BYTES).writeByte(0x17).writeByte(1).writeZero(KEYFRAME_BYTES - 2);
+		short type = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(type, timestamp, KEYFRAME_BYTES), payload,
+			MediaTagParser.parse(type, payload));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1_000_000.0;
+	}
+
+	// 받은 메시지는 버리고 write/flush 수만 센다
+	private static final class CountingHandler extends ChannelOutboundHandlerAdapter {
+
+		private final AtomicInteger writes;
+		private final AtomicInteger flushes;
+
+		private CountingHandler(AtomicInteger writes, AtomicInteger flushes) {
+			this.writes = writes;
+			this.flushes = flushes;
+		}
+
+		@Override
+		public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+			writes.incrementAndGet();
+			ReferenceCountUtil.release(msg);
+			promise.setSuccess();
+		}
+
+		@Override
+		public void flush(ChannelHandlerContext ctx) {
+			flushes.incrementAndGet();
+		}
+	}
+
+	private record Latency(double p50, double p99, double max) {
+	}
+}
@@ -0,0 +1,246 @@
+package com.hanghae.lemonairstreaming.rmtp.model.feed;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoop;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+
+class FlvFeedServerTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	private static final int FRAME_INTERVAL_MILLIS = 40;
+
+	private final StreamContext streamContext = new StreamContext();
+	private final ByteBuf received = Unpooled.buffer();
+	private NioEventLoopGroup publisherGroup;
+	private EpollEventLoopGroup readerGroup;
+	private EventLoop loop;
+	private FlvFeedServer feedServer;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Assumptions.assumeTrue(Epoll.isAvailable(), "epoll is not available");
+		publisherGroup = new NioEventLoopGroup(1);
+		readerGroup = new EpollEventLoopGroup(1);
+		loop = publisherGroup.next();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		if (feedServer != null) {
+			feedServer.stop();
+		}
+		if (publisherGroup != null) {
+			publisherGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+			readerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		}
+		received.release();
+	}
+
+	@Test
+	void feedStartsWithHeaderConfigAndGopThenFollowsLive() throws Exception {
+		feedServer = new FlvFeedServer(streamContext, new EgressSchedulers(), directory.toString(), 4 * 1024 * 1024);
+		feedServer.start();
+		Stream stream = publish();
+		loop.submit(() -> {
+			stream.setMetadata(Map.of("width", 1280.0));
+			stream.addMedia(media(VIDEO, 0, 0x17, 0, 1, 2));
+			stream.addMedia(media(AUDIO, 0, 0xaf, 0, 0x12, 0x10));
+			stream.addMedia(frame(40, true, 100));
+			stream.addMedia(frame(80, false, 100));
+		}).sync();
+
+		Path path = feedServer.open(stream);
+		assertEquals(directory.resolve("streamer.sock"), path);
+		Channel reader = connect(path, true);
+		loop.submit(() -> {
+			stream.addMedia(frame(120, false, 100));
+			stream.addMedia(media(AUDIO, 130, 0xaf, 1, 9));
+		}).sync();
+
+		List<int[]> tags = awaitTags(7);
+		// FLV 헤더 뒤에 메타데이터, 시퀀스 헤더, GOP, 라이브 순으로 온다
+		assertArrayEquals(new int[] {RtmpConstants.RTMP_MSG_DATA_TYPE_AMF0, 0}, tags.get(0));
+		assertArrayEquals(new int[] {VIDEO, 0}, tags.get(1));
+		assertArrayEquals(new int[] {AUDIO, 0}, tags.get(2));
+		assertArrayEquals(new int[] {VIDEO, 40}, tags.get(3));
+		assertArrayEquals(new int[] {VIDEO, 80}, tags.get(4));
+		// 라이브 구간은 egress 스케줄러가 오디오를 먼저 보낼 수 있으므로 순서는 보지 않는다
+		List<String> live = List.of(Arrays.toString(tags.get(5)), Arrays.toString(tags.get(6)));
+		assertTrue(live.containsAll(List.of(Arrays.toString(new int[] {VIDEO, 120}),
+			Arrays.toString(new int[] {AUDIO, 130}))), live::toString);
+
+		// 방송이 끝나면 연결을 닫고 소켓 파일을 지운다
+		loop.submit(stream::closeStream).sync();
+		streamContext.deleteStream(stream.getStreamerId());
+		assertTrue(reader.closeFuture().await(5, TimeUnit.SECONDS));
+		feedServer.sweep();
+		assertFalse(Files.exists(path));
+	}
+
+	@Test
+	void slowReaderDropsUntilTheNextKeyframe() throws Exception {
+		int frameBytes = 64 * 1024;
+		int frames = 300;
+		feedServer = new FlvFeedServer(streamContext, new EgressSchedulers(), directory.toString(), 256 * 1024);
+		feedServer.start();
+		Stream stream = publish();
+		Channel reader = connect(feedServer.open(stream), false);
+		Thread.sleep(100);
+
+		for (int i = 0; i < frames; i++) {
+			int timestamp = i * FRAME_INTERVAL_MILLIS;
+			boolean keyframe = i % 30 == 0;
+			loop.submit(() -> stream.addMedia(frame(timestamp, keyframe, frameBytes))).sync();
+		}
+		reader.config().setAutoRead(true);
+		reader.read();
+		loop.submit(stream::closeStream).sync();
+		assertTrue(reader.closeFuture().await(10, TimeUnit.SECONDS));
+
+		List<int[]> tags = parseTags();
+		assertTrue(tags.size() < frames, () -> tags.size() + " tags were delivered to a reader that did not read");
+		int previous = -FRAME_INTERVAL_MILLIS;
+		for (int[] tag : tags) {
+			// 건너뛴 구간 다음 첫 비디오는 키프레임이어야 디코딩이 이어진다
+			if (tag[1] - previous > FRAME_INTERVAL_MILLIS) {
+				assertEquals(0, tag[1] / FRAME_INTERVAL_MILLIS % 30, "resumed at " + tag[1] + " ms");
+			}
+			previous = tag[1];
+		}
+	}
+
+	@Test
+	void onlyStreamsWithAVerifiedKeyGetAFeed() throws Exception {
+		feedServer = new FlvFeedServer(streamContext, new EgressSchedulers(), directory.toString(), 4 * 1024 * 1024);
+		feedServer.start();
+		Stream stream = publish();
+		Path path = directory.resolve("streamer.sock");
+
+		feedServer.sweep();
+		assertFalse(Files.exists(path));
+
+		// publisher 가 없으면 상태 메시지 없이 키 확인만 표시된다
+		stream.sendPublishMessage();
+		feedServer.sweep();
+		assertTrue(Files.exists(path));
+		assertEquals(path, feedServer.openAsync(stream).get(5, TimeUnit.SECONDS));
+	}
+
+	private Stream publish() throws Exception {
+		Stream stream = new Stream("streamer");
+		stream.setEventLoop(loop);
+		streamContext.addStream(stream);
+		return stream;
+	}
+
+	private Channel connect(Path path, boolean autoRead) throws InterruptedException {
+		return new Bootstrap().group(readerGroup)
+			.channel(EpollDomainSocketChannel.class)
+			.option(ChannelOption.AUTO_READ, autoRead)
+			.handler(new ChannelInboundHandlerAdapter() {
+				@Override
+				public void channelRead(ChannelHandlerContext ctx, Object msg) {
+					ByteBuf buf = (ByteBuf)msg;
+					synchronized (received) {
+						received.writeBytes(buf);
+					}
+					buf.release();
+				}
+			})
+			.connect(new DomainSocketAddress(path.toFile()))
+			.sync()
+			.channel();
+	}
+
+	private List<int[]> awaitTags(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		List<int[]> tags = parseTags();
+		while (tags.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+			tags = parseTags();
+		}
+		assertEquals(count, tags.size());
+		return tags;
+	}
+
+	// 받은 바이트를 FLV 로 읽어 완성된 tag 의 type 과 timestamp 를 돌려준다
+	private List<int[]> parseTags() {
+		List<int[]> tags = new ArrayList<>();
+		synchronized (received) {
+			ByteBuf flv = received.duplicate();
+			if (flv.readableBytes() < 13) {
+				return tags;
+			}
+			assertEquals('F', flv.readByte());
+			assertEquals('L', flv.readByte());
+			assertEquals('V', flv.readByte());
+			flv.skipBytes(10);
+			while (flv.readableBytes() >= 11 && flv.readableBytes() >= 11 + flv.getUnsignedMedium(
+				flv.readerIndex() + 1) + 4) {
+				int type = flv.readUnsignedByte();
+				int size = flv.readUnsignedMedium();
+				int timestamp = flv.readUnsignedMedium() | flv.readUnsignedByte() << 24;
+				flv.skipBytes(3 + size);
+				assertEquals(11 + size, flv.readInt());
+				tags.add(new int[] {type, timestamp});
+			}
+		}
+		return tags;
+	}
+
+	private static RtmpMediaMessage frame(int timestamp, boolean keyframe, int size) {
+		ByteBuf payload = Unpooled.buffer(size).writeByte(keyframe ? 0x17 : 0x27).writeByte(1).writeZero(size - 2);
+		return message(VIDEO, timestamp, payload);
+	}
+
+	private static RtmpMediaMessage media(int type, int timestamp, int... bytes) {
+		ByteBuf payload = Unpooled.buffer(bytes.length);
+		for (int b : bytes) {
+			payload.writeByte(b);
+		}
+		return message(type, timestamp, payload);
+	}
+
+	private static RtmpMediaMessage message(int type, int timestamp, ByteBuf payload) {
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(type, timestamp, payload.readableBytes()),
+			payload, MediaTagParser.parse((short)type, payload));
+	}
+}
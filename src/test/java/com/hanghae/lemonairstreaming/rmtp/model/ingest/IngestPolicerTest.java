@@ -0,0 +1,105 @@
+package com.hanghae.lemonairstreaming.rmtp.model.ingest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamCommand;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMessage;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+class IngestPolicerTest {
+
+	// 10 KB/s, burst 는 0.1 초 분량인 1000 바이트
+	private static final long LIMIT_BPS = 80_000;
+	private static final double BURST_SECONDS = 0.1;
+
+	private final List<Object> events = new ArrayList<>();
+
+	@Test
+	void bucketChargesDebtAndRefillsOverTime() {
+		long second = TimeUnit.SECONDS.toNanos(1);
+		TokenBucket bucket = new TokenBucket(1000, 500, 0);
+		assertEquals(0, bucket.consume(500, 0));
+		// 읽은 바이트는 되돌릴 수 없으므로 빚으로 남고 250 바이트를 갚을 시간만큼 기다린다
+		assertEquals(second / 4, bucket.consume(250, 0));
+		assertEquals(second / 8, bucket.waitNanos(second / 8));
+		assertEquals(0, bucket.waitNanos(second / 4));
+		// 오래 쉬어도 burst 이상은 쌓이지 않는다
+		assertEquals(second / 2, bucket.consume(1000, 100 * second));
+	}
+
+	@Test
+	void noLimitMeansNoPolicer() {
+		IngestPolicy policy = new IngestPolicy(Map.of("pro", LIMIT_BPS), Map.of("pro-streamer", "pro"), 0,
+			BURST_SECONDS, 10, 30);
+		assertNull(policy.newPolicer("streamer"));
+		assertNotNull(policy.newPolicer("pro-streamer"));
+	}
+
+	@Test
+	void excessPausesReadsInsteadOfBuffering() throws InterruptedException {
+		EmbeddedChannel channel = channel(10, 30);
+		channel.writeInbound(Unpooled.wrappedBuffer(new byte[800]));
+		assertTrue(channel.config().isAutoRead());
+		channel.writeInbound(Unpooled.wrappedBuffer(new byte[1200]));
+		// 읽은 바이트는 그대로 넘기고 다음 읽기만 멈춘다
+		assertEquals(2, channel.inboundMessages().size());
+		assertFalse(channel.config().isAutoRead());
+
+		// 1000 바이트 빚을 10 KB/s 로 갚는 100ms 뒤에 다시 읽는다
+		Thread.sleep(50);
+		channel.runScheduledPendingTasks();
+		assertFalse(channel.config().isAutoRead());
+		Thread.sleep(80);
+		channel.runScheduledPendingTasks();
+		assertTrue(channel.config().isAutoRead());
+		channel.finishAndReleaseAll();
+	}
+
+	@Test
+	void sustainedOverrunWarnsThenUnpublishes() throws InterruptedException {
+		EmbeddedChannel channel = channel(1, 2);
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!events.contains(StreamCommand.UNPUBLISH) && System.nanoTime() < deadline) {
+			// 한도의 두 배로 보내려 하는 publisher
+			if (channel.config().isAutoRead()) {
+				channel.writeInbound(Unpooled.wrappedBuffer(new byte[400]));
+			}
+			Thread.sleep(20);
+			channel.runScheduledPendingTasks();
+		}
+		assertTrue(events.contains(StreamCommand.UNPUBLISH));
+
+		List<String> codes = new ArrayList<>();
+		RtmpMessage status;
+		while ((status = channel.readOutbound()) != null) {
+			List<Object> decoded = Amf0Rules.decodeAll(status.payload());
+			status.release();
+			codes.add((String)((Map<?, ?>)decoded.get(3)).get("code"));
+		}
+		assertEquals(List.of("NetStream.Publish.BitrateExceeded", "NetStream.Publish.Rejected"), codes);
+		channel.finishAndReleaseAll();
+	}
+
+	private EmbeddedChannel channel(int warnAfterSeconds, int disconnectAfterSeconds) {
+		IngestPolicy policy = new IngestPolicy(Map.of(IngestPolicy.DEFAULT_TIER, LIMIT_BPS), Map.of(), 0,
+			BURST_SECONDS, warnAfterSeconds, disconnectAfterSeconds);
+		return new EmbeddedChannel(policy.newPolicer("streamer"), new ChannelInboundHandlerAdapter() {
+			@Override
+			public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+				events.add(evt);
+			}
+		});
+	}
+}
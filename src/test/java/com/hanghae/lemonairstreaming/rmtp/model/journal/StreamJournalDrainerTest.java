@@ -0,0 +1,96 @@
+package com.hanghae.lemonairstreaming.rmtp.model.journal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+
+class StreamJournalDrainerTest {
+
+	// 한 시간 뒤에나 돌므로 stop 할 때의 마지막 drain 만 실행된다
+	private static final long NEVER = 3_600_000;
+
+	private final StreamContext context = new StreamContext();
+	private final Stream stream = new Stream("streamer");
+	private final ListAppender<ILoggingEvent> logs = new ListAppender<>();
+
+	@BeforeEach
+	void setUp() {
+		context.addStream(stream);
+		logs.start();
+		((Logger)LoggerFactory.getLogger(StreamJournalDrainer.class)).addAppender(logs);
+	}
+
+	@AfterEach
+	void tearDown() {
+		((Logger)LoggerFactory.getLogger(StreamJournalDrainer.class)).detachAppender(logs);
+	}
+
+	@Test
+	void onlyEveryNthKeyframeIsLogged() throws InterruptedException {
+		record(StreamEvent.Type.KEYFRAME, 7);
+		record(StreamEvent.Type.METADATA, 1);
+
+		drainOnce(3);
+
+		// 0, 3, 6 번째 키프레임만 남고 다른 이벤트는 모두 남는다
+		assertEquals(3, count("KEYFRAME"));
+		assertEquals(1, count("METADATA"));
+	}
+
+	@Test
+	void sampleRateBelowOneLogsEveryKeyframe() throws InterruptedException {
+		record(StreamEvent.Type.KEYFRAME, 5);
+
+		drainOnce(0);
+
+		assertEquals(5, count("KEYFRAME"));
+		assertTrue(logs.list.stream().anyMatch(event -> event.getFormattedMessage().contains("keyframe-sample-rate 0")));
+	}
+
+	@Test
+	void logsOverTheLimitAreCountedInsteadOfPrinted() throws InterruptedException {
+		record(StreamEvent.Type.SUBSCRIBER_JOIN, 5);
+
+		StreamJournalDrainer drainer = new StreamJournalDrainer(context, NEVER, 2, 1);
+		drainer.start();
+		drainer.stop();
+
+		assertEquals(2, count("SUBSCRIBER_JOIN"));
+		assertEquals(List.of("[streamer] 3 journal events suppressed"), messages("suppressed"));
+	}
+
+	private void record(StreamEvent.Type type, int times) {
+		for (int i = 0; i < times; i++) {
+			stream.getJournal().record(type, i);
+		}
+	}
+
+	private void drainOnce(int keyframeSampleRate) throws InterruptedException {
+		StreamJournalDrainer drainer = new StreamJournalDrainer(context, NEVER, 100, keyframeSampleRate);
+		drainer.start();
+		drainer.stop();
+	}
+
+	private long count(String type) {
+		return messages("] " + type + " ").size();
+	}
+
+	private List<String> messages(String fragment) {
+		return logs.list.stream()
+			.map(ILoggingEvent::getFormattedMessage)
+			.filter(message -> message.contains(fragment))
+			.toList();
+	}
+}
@@ -0,0 +1,220 @@
+package com.hanghae.lemonairstreaming.rmtp.model.source;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.hanghae.lemonairstreaming.Amf0Rules;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.StreamContext;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultEventLoop;
+
+class FlvFileSourceTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	private static final int SCRIPT = 18;
+	private static final String STREAMER = "file";
+
+	private final DefaultEventLoop eventLoop = new DefaultEventLoop();
+	private final StreamContext context = new StreamContext();
+	private final RecordingStream stream = new RecordingStream();
+
+	@TempDir
+	Path root;
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		eventLoop.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	@Test
+	void tagsAreReadWithTheirTypeTimestampAndPayload() throws Exception {
+		Amf0Rules.Amf0Object metadata = new Amf0Rules.Amf0Object();
+		metadata.put("width", 1280.0);
+		metadata.put("filesize", 1234.0);
+		ByteBuf script = Unpooled.buffer();
+		Amf0Rules.encodeList(script, List.of("onMetaData", metadata));
+		byte[] scriptData = new byte[script.readableBytes()];
+		script.readBytes(scriptData).release();
+
+		// timestamp 의 상위 8 비트는 extended 바이트에서 읽는다
+		int base = 0x01000000;
+		Flv flv = new Flv()
+			.tag(SCRIPT, base, scriptData)
+			.tag(VIDEO, base, 0x17, 0, 0, 0, 0, 1, 0x64)
+			.tag(AUDIO, base, 0xaf, 0, 0x12, 0x10)
+			// 암호화 표시가 있는 태그와 빈 태그는 건너뛴다
+			.tag(0x20 | VIDEO, base + 10, 0x27, 1)
+			.tag(VIDEO, base + 20)
+			.tag(VIDEO, base + 33, 0x27, 1, 0, 0, 0);
+		FlvFileSource source = start(false, false, flv.write("a.flv"));
+
+		assertArrayEquals(new int[] {VIDEO, base, 7}, stream.next());
+		assertArrayEquals(new int[] {AUDIO, base, 4}, stream.next());
+		assertArrayEquals(new int[] {VIDEO, base + 33, 5}, stream.next());
+		awaitStopped(source);
+		assertNull(stream.frames.poll());
+		assertEquals(Map.of("width", 1280.0), stream.getMetadata());
+		assertTrue(stream.isClosed());
+		assertNull(context.getStream(STREAMER));
+	}
+
+	@Test
+	void truncatedTagEndsTheFile() throws Exception {
+		Path path = new Flv().tag(VIDEO, 0, 0x17, 1).tag(VIDEO, 40, 0x27, 1, 2, 3).write("a.flv");
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 3));
+		FlvFileSource source = start(false, false, path);
+
+		assertArrayEquals(new int[] {VIDEO, 0, 2}, stream.next());
+		awaitStopped(source);
+		assertNull(stream.frames.poll());
+	}
+
+	@Test
+	void filesThatAreNotFlvAreSkipped() throws Exception {
+		Path broken = root.resolve("broken.flv");
+		Files.write(broken, new byte[] {'M', 'P', '4', 0, 0, 0, 0, 9, 0, 0, 0, 0, 0});
+		FlvFileSource source = start(false, false, broken, new Flv().tag(VIDEO, 0, 0x17, 1).write("a.flv"));
+
+		assertArrayEquals(new int[] {VIDEO, 0, 2}, stream.next());
+		awaitStopped(source);
+	}
+
+	@Test
+	void tagsAreNotSentBeforeTheirTimestamp() throws Exception {
+		Path path = new Flv().tag(VIDEO, 0, 0x17, 1).tag(VIDEO, 100, 0x27, 1).tag(VIDEO, 200, 0x27, 1)
+			.write("a.flv");
+		long started = System.nanoTime();
+		start(false, false, path);
+
+		stream.next();
+		stream.next();
+		stream.next();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(stream.lastArrivalNanos - started);
+		assertTrue(elapsedMillis >= 200, () -> "last tag was sent after " + elapsedMillis + " ms");
+	}
+
+	@Test
+	void playlistTimestampsContinueAcrossFilesWhenRebased() throws Exception {
+		Path first = new Flv().tag(VIDEO, 1000, 0x17, 1).tag(VIDEO, 1040, 0x27, 1).write("a.flv");
+		Path second = new Flv().tag(VIDEO, 0, 0x17, 1).write("b.flv");
+		FlvFileSource source = start(false, true, first, second);
+
+		assertEquals(0, stream.next()[1]);
+		assertEquals(40, stream.next()[1]);
+		// 파일이 바뀌면 이전 파일 마지막 태그에서 40ms 뒤로 이어 붙인다
+		assertEquals(80, stream.next()[1]);
+		awaitStopped(source);
+	}
+
+	@Test
+	void loopingReusesTheMappingOfEachFile() throws Exception {
+		Path path = new Flv().tag(VIDEO, 0, 0x17, 1).tag(VIDEO, 40, 0x27, 1).write("a.flv");
+		FlvFileSource source = start(true, true, path);
+
+		assertEquals(0, stream.next()[1]);
+		// 한 번 매핑한 파일은 다시 열지 않으므로 지워도 계속 반복된다
+		Files.delete(path);
+		for (int timestamp = 40; timestamp <= 200; timestamp += 40) {
+			assertEquals(timestamp, stream.next()[1]);
+		}
+		assertFalse(source.isStopped());
+		source.stop();
+		awaitStopped(source);
+	}
+
+	private FlvFileSource start(boolean loop, boolean rebase, Path... playlist) {
+		FlvFileSource source = new FlvFileSource(stream, context, List.of(playlist), loop, rebase, eventLoop);
+		context.addStream(stream);
+		source.start();
+		return source;
+	}
+
+	private static void awaitStopped(FlvFileSource source) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (!source.isStopped() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(source.isStopped());
+		// finish 는 stopped 를 먼저 표시하므로 나머지 정리가 끝날 때까지 기다린다
+		source.getStream().getEventLoop().submit(() -> { }).sync();
+	}
+
+	// Stream 에 들어온 미디어의 종류, timestamp, 크기와 도착 시각만 남긴다
+	private static final class RecordingStream extends Stream {
+
+		private final BlockingQueue<int[]> frames = new LinkedBlockingQueue<>();
+		private volatile long lastArrivalNanos;
+
+		private RecordingStream() {
+			super(STREAMER);
+		}
+
+		@Override
+		public void addMedia(RtmpMediaMessage message) {
+			lastArrivalNanos = System.nanoTime();
+			frames.add(new int[] {message.header().getType(), message.header().getTimestamp(),
+				message.payload().readableBytes()});
+			message.release();
+		}
+
+		private int[] next() throws InterruptedException {
+			int[] frame = frames.poll(5, TimeUnit.SECONDS);
+			assertNotNull(frame);
+			return frame;
+		}
+	}
+
+	private final class Flv {
+
+		private final List<byte[]> tags = new ArrayList<>();
+
+		private Flv tag(int type, int timestamp, int... data) {
+			byte[] bytes = new byte[data.length];
+			for (int i = 0; i < data.length; i++) {
+				bytes[i] = (byte)data[i];
+			}
+			return tag(type, timestamp, bytes);
+		}
+
+		private Flv tag(int type, int timestamp, byte[] data) {
+			ByteBuf tag = Unpooled.buffer();
+			tag.writeByte(type).writeMedium(data.length).writeMedium(timestamp).writeByte(timestamp >>> 24)
+				.writeMedium(0).writeBytes(data).writeInt(11 + data.length);
+			byte[] bytes = new byte[tag.readableBytes()];
+			tag.readBytes(bytes).release();
+			tags.add(bytes);
+			return this;
+		}
+
+		private Path write(String name) throws Exception {
+			ByteBuf file = Unpooled.buffer();
+			file.writeMedium(0x464c56).writeByte(1).writeByte(5).writeInt(9).writeInt(0);
+			tags.forEach(file::writeBytes);
+			byte[] bytes = new byte[file.readableBytes()];
+			file.readBytes(bytes).release();
+			Path path = root.resolve(name);
+			Files.write(path, bytes);
+			return path;
+		}
+	}
+}
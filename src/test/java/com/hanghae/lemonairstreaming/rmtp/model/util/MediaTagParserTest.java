@@ -0,0 +1,170 @@
+package com.hanghae.lemonairstreaming.rmtp.model.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.MediaDescriptor.Codec;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+class MediaTagParserTest {
+
+	private static final int VIDEO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+	private static final int AUDIO = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_AUDIO;
+	// enhanced RTMP: 상위 비트 1, frame type 3 비트, packet type 4 비트
+	private static final int ENHANCED_KEY = 0x80 | 0x10;
+	private static final int ENHANCED_INTER = 0x80 | 0x20;
+
+	@Test
+	void avcSequenceHeaderIsAVideoConfig() {
+		MediaDescriptor descriptor = parse(VIDEO, 0x17, 0, 0, 0, 0, 1, 0x64);
+
+		assertEquals(Codec.AVC, descriptor.codec());
+		assertTrue(descriptor.isVideoConfig());
+		assertFalse(descriptor.isKeyframe());
+		assertFalse(descriptor.isAudioConfig());
+	}
+
+	@Test
+	void avcKeyframeAndInterFrameCarryTheirCompositionTimeOffset() {
+		MediaDescriptor keyframe = parse(VIDEO, 0x17, 1, 0, 0, 0x21, 0, 0, 0, 5);
+		MediaDescriptor inter = parse(VIDEO, 0x27, 1, 0xff, 0xff, 0xf0, 0, 0, 0, 5);
+
+		assertTrue(keyframe.isKeyframe());
+		assertEquals(33, keyframe.compositionTimeOffset());
+		assertFalse(inter.isKeyframe());
+		assertFalse(inter.isVideoConfig());
+		assertEquals(2, inter.frameType());
+		// composition time offset 는 부호 있는 24 비트다
+		assertEquals(-16, inter.compositionTimeOffset());
+	}
+
+	@Test
+	void truncatedAvcTagsAreClassifiedFromWhatIsThere() {
+		MediaDescriptor onlyFlags = parse(VIDEO, 0x17);
+		MediaDescriptor noOffset = parse(VIDEO, 0x27, 1, 0);
+
+		assertEquals(Codec.AVC, onlyFlags.codec());
+		assertEquals(-1, onlyFlags.packetType());
+		assertFalse(onlyFlags.isVideoConfig());
+		assertEquals(1, noOffset.packetType());
+		assertEquals(0, noOffset.compositionTimeOffset());
+		assertFalse(noOffset.isKeyframe());
+	}
+
+	@Test
+	void legacyHevcUsesCodecIdTwelve() {
+		assertTrue(parse(VIDEO, 0x1c, 0, 0, 0, 0).isVideoConfig());
+		MediaDescriptor keyframe = parse(VIDEO, 0x1c, 1, 0, 0, 0, 9);
+		assertEquals(Codec.HEVC, keyframe.codec());
+		assertTrue(keyframe.isKeyframe());
+		assertFalse(keyframe.enhanced());
+	}
+
+	@Test
+	void enhancedHevcSequenceStartAndCodedFrames() {
+		MediaDescriptor sequenceStart = parse(VIDEO, fourCc(ENHANCED_KEY, "hvc1", 1, 2, 3));
+		MediaDescriptor keyframe = parse(VIDEO, fourCc(ENHANCED_KEY | 1, "hvc1", 0, 0, 0x28, 7));
+		MediaDescriptor keyframeWithoutOffset = parse(VIDEO, fourCc(ENHANCED_KEY | 3, "hvc1", 7));
+		MediaDescriptor inter = parse(VIDEO, fourCc(ENHANCED_INTER | 1, "hvc1", 0, 0, 0, 7));
+
+		assertEquals(Codec.HEVC, sequenceStart.codec());
+		assertTrue(sequenceStart.enhanced());
+		assertTrue(sequenceStart.isVideoConfig());
+		assertTrue(keyframe.isKeyframe());
+		assertEquals(40, keyframe.compositionTimeOffset());
+		assertTrue(keyframeWithoutOffset.isKeyframe());
+		assertEquals(0, keyframeWithoutOffset.compositionTimeOffset());
+		assertFalse(inter.isKeyframe());
+		assertFalse(inter.isVideoConfig());
+	}
+
+	@Test
+	void enhancedAv1KeyframeIsRecognized() {
+		assertTrue(parse(VIDEO, fourCc(ENHANCED_KEY, "av01", 0x81)).isVideoConfig());
+		MediaDescriptor keyframe = parse(VIDEO, fourCc(ENHANCED_KEY | 1, "av01", 0x12, 0));
+		assertEquals(Codec.AV1, keyframe.codec());
+		assertTrue(keyframe.isKeyframe());
+		assertEquals(0, keyframe.compositionTimeOffset());
+	}
+
+	@Test
+	void truncatedEnhancedTagsDoNotReadPastTheFourCc() {
+		MediaDescriptor noFourCc = parse(VIDEO, ENHANCED_KEY, 'h', 'v');
+		MediaDescriptor noOffset = parse(VIDEO, fourCc(ENHANCED_KEY | 1, "hvc1", 0));
+
+		assertEquals(Codec.OTHER_VIDEO, noFourCc.codec());
+		assertTrue(noFourCc.enhanced());
+		assertFalse(noFourCc.isVideoConfig());
+		assertEquals(Codec.HEVC, noOffset.codec());
+		assertEquals(0, noOffset.compositionTimeOffset());
+	}
+
+	@Test
+	void aacSequenceHeaderAndRawFrames() {
+		MediaDescriptor config = parse(AUDIO, 0xaf, 0, 0x12, 0x10);
+		MediaDescriptor raw = parse(AUDIO, 0xaf, 1, 0x21);
+
+		assertEquals(Codec.AAC, config.codec());
+		assertTrue(config.isAudioConfig());
+		assertFalse(config.isVideoConfig());
+		assertFalse(raw.isAudioConfig());
+		assertFalse(raw.isKeyframe());
+	}
+
+	@Test
+	void truncatedAacTagIsNotAConfig() {
+		MediaDescriptor descriptor = parse(AUDIO, 0xaf);
+
+		assertEquals(Codec.AAC, descriptor.codec());
+		assertEquals(-1, descriptor.packetType());
+		assertFalse(descriptor.isAudioConfig());
+	}
+
+	@Test
+	void enhancedAudioUsesItsFourCc() {
+		MediaDescriptor opus = parse(AUDIO, fourCc(0x90, "Opus", 1));
+		assertEquals(Codec.OPUS, opus.codec());
+		assertTrue(opus.isAudioConfig());
+		assertEquals(Codec.OTHER_AUDIO, parse(AUDIO, 0x90, 'O').codec());
+		assertEquals(Codec.MP3, parse(AUDIO, 0x2f, 0xff).codec());
+	}
+
+	@Test
+	void emptyPayloadsAndOtherMessagesAreUnknown() {
+		assertSame(MediaDescriptor.UNKNOWN, parse(VIDEO));
+		assertSame(MediaDescriptor.UNKNOWN, parse(AUDIO));
+		assertSame(MediaDescriptor.UNKNOWN, parse(RtmpConstants.RTMP_MSG_AGGREGATE, 0x17, 1));
+	}
+
+	@Test
+	void payloadIsReadFromItsReaderIndexWithoutConsumingIt() {
+		ByteBuf payload = Unpooled.buffer().writeByte(0xff).writeByte(0x17).writeByte(1);
+		payload.skipBytes(1);
+
+		assertTrue(MediaTagParser.parse((short)VIDEO, payload).isKeyframe());
+		assertEquals(1, payload.readerIndex());
+	}
+
+	private static MediaDescriptor parse(int type, int... bytes) {
+		ByteBuf payload = Unpooled.buffer(bytes.length);
+		for (int value : bytes) {
+			payload.writeByte(value);
+		}
+		return MediaTagParser.parse((short)type, payload);
+	}
+
+	private static int[] fourCc(int first, String fourCc, int... rest) {
+		int[] bytes = new int[5 + rest.length];
+		bytes[0] = first;
+		for (int i = 0; i < 4; i++) {
+			bytes[1 + i] = fourCc.charAt(i);
+		}
+		System.arraycopy(rest, 0, bytes, 5, rest.length);
+		return bytes;
+	}
+}
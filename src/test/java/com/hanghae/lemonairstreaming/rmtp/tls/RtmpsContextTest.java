@@ -0,0 +1,260 @@
+package com.hanghae.lemonairstreaming.rmtp.tls;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hanghae.lemonairstreaming.Handler.ChunkEncoder;
+import com.hanghae.lemonairstreaming.rmtp.model.PlayOptions;
+import com.hanghae.lemonairstreaming.rmtp.model.Stream;
+import com.hanghae.lemonairstreaming.rmtp.model.egress.EgressSchedulers;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpConstants;
+import com.hanghae.lemonairstreaming.rmtp.model.messages.RtmpMediaMessage;
+import com.hanghae.lemonairstreaming.rmtp.model.util.HeaderProvider;
+import com.hanghae.lemonairstreaming.rmtp.model.util.MediaTagParser;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.ReferenceCountUtil;
+
+class RtmpsContextTest {
+
+	private static final Logger log = LoggerFactory.getLogger(RtmpsContextTest.class);
+
+	private static final int VIEWERS = 20;
+	private static final int FRAMES = 400;
+	private static final int FRAME_BYTES = 16 * 1024;
+
+	private final AtomicLong received = new AtomicLong();
+	private NioEventLoopGroup egressGroup;
+	private NioEventLoopGroup peerGroup;
+	private EventLoop loop;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void setUp() {
+		egressGroup = new NioEventLoopGroup(1);
+		peerGroup = new NioEventLoopGroup(2);
+		loop = egressGroup.next();
+	}
+
+	@AfterEach
+	void tearDown() throws InterruptedException {
+		egressGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+		peerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).sync();
+	}
+
+	@Test
+	void certificateChangeSwapsContextAndBadFilesKeepThePreviousOne() throws Exception {
+		RtmpsContext context = start();
+		SslContext initial = context.current();
+
+		install("rotated", 2_000);
+		context.reloadIfChanged();
+		SslContext rotated = context.current();
+		assertNotSame(initial, rotated);
+
+		// 바뀌지 않았으면 다시 만들지 않는다
+		context.reloadIfChanged();
+		assertSame(rotated, context.current());
+
+		Files.writeString(directory.resolve("server.crt"), "broken");
+		directory.resolve("server.crt").toFile().setLastModified(System.currentTimeMillis() + 4_000);
+		context.reloadIfChanged();
+		assertSame(rotated, context.current());
+		context.stop();
+	}
+
+	@Test
+	void changedCertificateIsPickedUpPeriodically() throws Exception {
+		install("server", 0);
+		RtmpsContext context = new RtmpsContext(1, directory.resolve("server.crt").toString(),
+			directory.resolve("server.key").toString(), 1);
+		context.start();
+		SslContext initial = context.current();
+
+		install("rotated", 2_000);
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (context.current() == initial && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+		assertNotSame(initial, context.current());
+		context.stop();
+	}
+
+	@Test
+	void tlsViewersReceiveEveryFrame() throws Exception {
+		RtmpsContext context = start();
+		// run 은 모든 시청자가 모든 프레임 바이트를 받았는지 확인한다
+		Throughput tls = run(context, 20);
+		assertEquals((long)VIEWERS * 20 * FRAME_BYTES, tls.bytes());
+		context.stop();
+	}
+
+	@Test
+	@Tag("benchmark")
+	void tlsEgressThroughputPerCore() throws Exception {
+		RtmpsContext context = start();
+		// JIT 예열
+		run(null, 100);
+		run(context, 100);
+
+		Throughput plain = run(null, FRAMES);
+		Throughput tls = run(context, FRAMES);
+
+		log.info(String.format("egress per core with %d viewers x %dKB frames: plain %.0f MB/s, rtmps (%s) %.0f MB/s, "
+				+ "%.0f%% of plain", VIEWERS, FRAME_BYTES / 1024, plain.megabytesPerCpuSecond(), RtmpsContext.provider(),
+			tls.megabytesPerCpuSecond(), 100 * tls.megabytesPerCpuSecond() / plain.megabytesPerCpuSecond()));
+		assertTrue(tls.megabytesPerCpuSecond() > 0);
+		context.stop();
+	}
+
+	private RtmpsContext start() throws Exception {
+		install("server", 0);
+		RtmpsContext context = new RtmpsContext(1, directory.resolve("server.crt").toString(),
+			directory.resolve("server.key").toString(), 0);
+		context.start();
+		assertNotNull(context.current());
+		return context;
+	}
+
+	private void install(String name, long modifiedOffsetMillis) throws Exception {
+		for (String extension : new String[] {"crt", "key"}) {
+			Path target = directory.resolve("server." + extension);
+			try (var in = getClass().getResourceAsStream("/tls/" + name + "." + extension)) {
+				Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			// 파일 시스템의 수정 시각 단위가 거칠어도 바뀐 것으로 보이게 한다
+			target.toFile().setLastModified(System.currentTimeMillis() + modifiedOffsetMillis);
+		}
+	}
+
+	// context 가 null 이면 평문 RTMP
+	private Throughput run(RtmpsContext context, int frames) throws Exception {
+		BlockingQueue<Channel> accepted = new LinkedBlockingQueue<>();
+		Channel server = new ServerBootstrap().group(peerGroup, egressGroup)
+			.channel(NioServerSocketChannel.class)
+			.childHandler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel channel) {
+					if (context != null) {
+						channel.pipeline().addLast(context.newHandler(channel.alloc()));
+					}
+					channel.pipeline().addLast(new ChunkEncoder());
+					accepted.add(channel);
+				}
+			})
+			.bind(InetAddress.getLoopbackAddress(), 0)
+			.sync()
+			.channel();
+		SslContext clientContext = SslContextBuilder.forClient()
+			.trustManager(InsecureTrustManagerFactory.INSTANCE)
+			.build();
+		Bootstrap bootstrap = new Bootstrap().group(peerGroup).channel(NioSocketChannel.class)
+			.handler(new ChannelInitializer<SocketChannel>() {
+				@Override
+				protected void initChannel(SocketChannel channel) {
+					if (context != null) {
+						channel.pipeline().addLast(clientContext.newHandler(channel.alloc()));
+					}
+					channel.pipeline().addLast(new ChannelInboundHandlerAdapter() {
+						@Override
+						public void channelRead(ChannelHandlerContext ctx, Object msg) {
+							received.addAndGet(((ByteBuf)msg).readableBytes());
+							ReferenceCountUtil.release(msg);
+						}
+					});
+				}
+			});
+
+		EgressSchedulers schedulers = new EgressSchedulers();
+		Stream stream = new Stream("bench");
+		stream.setEventLoop(loop);
+		List<Channel> clients = new ArrayList<>(VIEWERS);
+		for (int i = 0; i < VIEWERS; i++) {
+			clients.add(bootstrap.connect(server.localAddress()).sync().channel());
+			Channel viewer = accepted.poll(5, TimeUnit.SECONDS);
+			assertNotNull(viewer);
+			SslHandler ssl = viewer.pipeline().get(SslHandler.class);
+			if (ssl != null) {
+				ssl.handshakeFuture().sync();
+			}
+			loop.submit(() -> stream.addSubscriber(viewer, PlayOptions.DEFAULT, schedulers.of(loop))).sync();
+		}
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long loopThread = loop.submit(() -> Thread.currentThread().getId()).get();
+		long receivedBefore = received.get();
+		long cpuBefore = threads.getThreadCpuTime(loopThread);
+		for (int frame = 0; frame < frames; frame++) {
+			int timestamp = frame * 40;
+			loop.execute(() -> stream.addMedia(frame(timestamp)));
+		}
+
+		// 모든 시청자가 모든 프레임을 받았는지 확인한다. 복호화 쪽 오버헤드는 빼려고 payload 바이트만 센다.
+		long expected = (long)VIEWERS * frames * FRAME_BYTES;
+		long deadline = System.currentTimeMillis() + 60_000;
+		while (received.get() - receivedBefore < expected && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		long cpuNanos = threads.getThreadCpuTime(loopThread) - cpuBefore;
+		assertTrue(received.get() - receivedBefore >= expected);
+
+		loop.submit(stream::closeStream).sync();
+		for (Channel client : clients) {
+			client.close().sync();
+		}
+		server.close().sync();
+		return new Throughput(expected, cpuNanos);
+	}
+
+	private static RtmpMediaMessage frame(int timestamp) {
+		ByteBuf payload = Unpooled.buffer(FRAME_BYTES).writeByte(0x17).writeByte(1).writeZero(FRAME_BYTES - 2);
+		short type = RtmpConstants.RTMP_MSG_USER_CONTROL_TYPE_VIDEO;
+		return new RtmpMediaMessage(HeaderProvider.mediaMessageHeader(type, timestamp, FRAME_BYTES), payload,
+			MediaTagParser.parse(type, payload));
+	}
+
+	private record Throughput(long bytes, long cpuNanos) {
+
+		double megabytesPerCpuSecond() {
+			return bytes / (1024.0 * 1024) / (cpuNanos / 1_000_000_000.0);
+		}
+	}
+}
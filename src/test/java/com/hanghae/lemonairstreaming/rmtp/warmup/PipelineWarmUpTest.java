@@ -0,0 +1,66 @@
+package com.hanghae.lemonairstreaming.rmtp.warmup;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.StreamSupport;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.util.HashedWheelTimer;
+
+class PipelineWarmUpTest {
+
+	private final HashedWheelTimer timer = new HashedWheelTimer();
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	@AfterEach
+	void tearDown() {
+		Metrics.removeRegistry(registry);
+		timer.stop();
+	}
+
+	@Test
+	void disabledByDefault() {
+		assertEquals(0, new PipelineWarmUp(timer).run());
+	}
+
+	@Test
+	void pushesTrafficWithinTheTimeLimitAndRecordsDuration() {
+		Metrics.addRegistry(registry);
+		long start = System.nanoTime();
+		long frames = new PipelineWarmUp(timer, 0, 300, 2).run();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertTrue(frames > 0);
+		// 최대 시간은 세션 사이에서 확인하므로 세션 하나만큼 넘을 수 있다
+		assertTrue(elapsedMillis < 5_000, elapsedMillis + " ms");
+		assertEquals(1, registry.get("rtmp.warmup.duration").timer().count());
+	}
+
+	@Test
+	void warmUpTrafficIsNotCountedInRtmpMeters() {
+		Metrics.addRegistry(registry);
+		Counter existing = Counter.builder("warmup.test.existing").register(Metrics.globalRegistry);
+		existing.increment();
+		new PipelineWarmUp(timer, 0, 300, 2).run();
+		existing.increment();
+
+		// warm-up 전에 센 값은 그대로 두고 이어서 센다
+		assertEquals(2, registry.get("warmup.test.existing").counter().count());
+
+		List<String> counted = registry.getMeters().stream()
+			.filter(meter -> meter.getId().getName().startsWith("rtmp."))
+			.filter(meter -> !meter.getId().getName().equals("rtmp.warmup.duration"))
+			.filter(meter -> StreamSupport.stream(meter.measure().spliterator(), false)
+				.anyMatch(measurement -> measurement.getValue() > 0))
+			.map(meter -> meter.getId().getName())
+			.toList();
+		assertEquals(List.of(), counted);
+	}
+}